@@ -121,4 +121,15 @@ public abstract class CommandGroupBase extends CommandBase /*implements Command*
   public static CommandGroupBase deadline(Command deadline, Command... commands) {
     return new ParallelDeadlineGroup(deadline, commands);
   }
+
+  /**
+   * Compiles a command group tree into a {@link CompiledCommandGroup}, which runs the same
+   * commands with a per-iteration cost proportional to the number of running leaf commands.
+   *
+   * @param root the root of the command tree
+   * @return the compiled command group
+   */
+  public static CompiledCommandGroup compile(Command root) {
+    return new CompiledCommandGroup(root);
+  }
 }
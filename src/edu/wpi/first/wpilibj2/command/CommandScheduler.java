@@ -17,7 +17,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
+import robotCore.Metrics;
 import robotCore.RobotState;
 
 //import edu.wpi.first.hal.FRCNetComm.tInstances;
@@ -71,9 +73,38 @@ public final class CommandScheduler implements AutoCloseable {
   //as a list of currently-registered subsystems.
   private final Map<Subsystem, Command> m_subsystems = new LinkedHashMap<>();
 
+  //The time taken by the periodic method of each registered subsystem, in microseconds.
+  private final Map<Subsystem, Metrics.Histogram> m_periodicTimes = new LinkedHashMap<>();
+
   //The set of currently-registered buttons that will be polled every iteration.
   private final Collection<Runnable> m_buttons = new LinkedHashSet<>();
 
+  //Sources of input change masks, queried once per iteration.
+  private final List<LongSupplier> m_inputSources = new ArrayList<>();
+
+  //For each input bit, the event-driven bindings that depend on that input.
+  private final List<List<ButtonBinding>> m_inputButtons =
+      new ArrayList<>(Collections.nCopies(Long.SIZE, null));
+
+  //Event-driven bindings that asked to be run again on the next iteration, and the set of
+  //bindings to dispatch on the current iteration.
+  private final Set<ButtonBinding> m_activeButtons = new LinkedHashSet<>();
+  private final Set<ButtonBinding> m_dispatchButtons = new LinkedHashSet<>();
+
+  /**
+   * A button binding that is only run when one of the inputs it depends on changes.
+   */
+  @FunctionalInterface
+  public interface ButtonBinding {
+    /**
+     * Runs the binding.
+     *
+     * @return true if the binding must be run again on the next iteration even if none of its
+     *     inputs change (e.g. a binding that schedules its command continuously while active)
+     */
+    boolean run();
+  }
+
   private boolean m_disabled;
 
   //Lists of user-supplied actions to be executed on scheduling events for every command.
@@ -128,11 +159,87 @@ public final class CommandScheduler implements AutoCloseable {
     m_buttons.add(button);
   }
 
+  /**
+   * Adds an event-driven button binding to the scheduler.  The binding is only run on iterations
+   * where at least one of the given inputs has been reported as changed by an input source, or
+   * where it asked to be run again on the previous iteration.
+   *
+   * @param button The binding to add
+   * @param inputs Bit mask of the inputs the binding depends on
+   */
+  public void addButton(ButtonBinding button, long inputs) {
+    while (inputs != 0) {
+      int input = Long.numberOfTrailingZeros(inputs);
+      inputs &= inputs - 1;
+
+      if (m_inputButtons.get(input) == null) {
+        m_inputButtons.set(input, new ArrayList<>());
+      }
+      m_inputButtons.get(input).add(button);
+    }
+  }
+
+  /**
+   * Adds a source of input changes.  Each iteration the scheduler calls the source once, before
+   * any button bindings are run, and the returned bit mask of the inputs that changed since the
+   * previous call determines which event-driven button bindings are run.  A source may latch its
+   * state in the call so that polled and event-driven bindings all see the same state.
+   *
+   * @param source Supplies and clears the mask of changed inputs
+   */
+  public void addInputSource(LongSupplier source) {
+    m_inputSources.add(source);
+  }
+
   /**
    * Removes all button bindings from the scheduler.
    */
   public void clearButtons() {
     m_buttons.clear();
+    Collections.fill(m_inputButtons, null);
+    m_activeButtons.clear();
+  }
+
+  /**
+   * Calls each input source and returns the combined mask of the inputs that changed.
+   */
+  private long takeInputChanges() {
+    long changed = 0;
+
+    for (LongSupplier source : m_inputSources) {
+      changed |= source.getAsLong();
+    }
+
+    return changed;
+  }
+
+  /**
+   * Runs the event-driven button bindings whose inputs changed since the last iteration, along
+   * with those that asked to be run again.
+   *
+   * @param changed Bit mask of the inputs that changed
+   */
+  private void dispatchButtons(long changed) {
+    m_dispatchButtons.addAll(m_activeButtons);
+    m_activeButtons.clear();
+
+    while (changed != 0) {
+      int input = Long.numberOfTrailingZeros(changed);
+      changed &= changed - 1;
+
+      List<ButtonBinding> buttons = m_inputButtons.get(input);
+
+      if (buttons != null) {
+        m_dispatchButtons.addAll(buttons);
+      }
+    }
+
+    for (ButtonBinding button : m_dispatchButtons) {
+      if (button.run()) {
+        m_activeButtons.add(button);
+      }
+    }
+    m_dispatchButtons.clear();
   }
 
   /**
@@ -237,7 +344,8 @@ public final class CommandScheduler implements AutoCloseable {
    *
    * <p>Subsystem periodic methods are called.
    *
-   * <p>Button bindings are polled, and new commands are scheduled from them.
+   * <p>Button bindings are polled, event-driven bindings whose inputs changed are run, and new
+   * commands are scheduled from them.
    *
    * <p>Currently-scheduled commands are executed.
    *
@@ -255,17 +363,24 @@ public final class CommandScheduler implements AutoCloseable {
 
     //Run the periodic method of all registered subsystems.
     for (Subsystem subsystem : m_subsystems.keySet()) {
+      long start = System.nanoTime();
       subsystem.periodic();
+      getPeriodicTime(subsystem).record((System.nanoTime() - start) / 1000);
 //      if (RobotBase.isSimulation()) {
 //        subsystem.simulationPeriodic();
 //      }
 //      m_watchdog.addEpoch(subsystem.getClass().getSimpleName() + ".periodic()");
     }
 
+    //Take the input changes first, so that the sources latch their state before any binding,
+    //polled or event-driven, reads it.
+    long changed = takeInputChanges();
+
     //Poll buttons for new commands to add.
     for (Runnable button : m_buttons) {
       button.run();
     }
+    dispatchButtons(changed);
 //    m_watchdog.addEpoch("buttons.run()");
 
     m_inRunLoop = true;
@@ -352,6 +467,27 @@ public final class CommandScheduler implements AutoCloseable {
    */
   public void unregisterSubsystem(Subsystem... subsystems) {
     m_subsystems.keySet().removeAll(Set.of(subsystems));
+    m_periodicTimes.keySet().removeAll(Set.of(subsystems));
+  }
+
+  /**
+   * Returns the histogram of the subsystem's periodic time, tagged with the subsystem's class.
+   */
+  private Metrics.Histogram getPeriodicTime(Subsystem subsystem) {
+    Metrics.Histogram time = m_periodicTimes.get(subsystem);
+
+    if (time == null) {
+      String name = subsystem.getClass().getSimpleName();
+
+      if (name.isEmpty()) {
+        name = subsystem.getClass().getName();
+      }
+
+      time = Metrics.histogram("scheduler.periodic.us", "subsystem=" + name);
+      m_periodicTimes.put(subsystem, time);
+    }
+
+    return time;
   }
 
   /**
@@ -0,0 +1,423 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018-2020 FIRST. All Rights Reserved.                        */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package edu.wpi.first.wpilibj2.command;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A command that runs a tree of nested command groups from a flat instruction table.
+ *
+ * <p>The group tree is compiled once, in pre-order, into parallel arrays: one entry per node giving
+ * its operation (leaf, sequence, wait-all, race or deadline), its parent, its children and the
+ * bit mask of the subsystems required anywhere beneath it.  Because of the pre-order layout the
+ * descendants of a node occupy a contiguous range of the table, so interrupting a branch is a
+ * range test.
+ *
+ * <p>Each iteration the interpreter only visits the leaf commands that are currently running, so a
+ * large autonomous routine costs O(active leaves) per scheduler pass instead of a walk of the whole
+ * tree.  Completion of a leaf is propagated upwards through the table to start the next step of a
+ * sequence, finish a wait-all, or end a race or deadline.
+ *
+ * <p>Only the standard {@link SequentialCommandGroup}, {@link ParallelCommandGroup}, {@link
+ * ParallelRaceGroup} and {@link ParallelDeadlineGroup} classes (or subclasses that do not override
+ * their lifecycle methods) are flattened; any other command is treated as a leaf.
+ */
+public class CompiledCommandGroup extends CommandBase {
+  private static final int kLeaf = 0;
+  private static final int kSequence = 1;
+  private static final int kWaitAll = 2;
+  private static final int kRace = 3;
+  private static final int kDeadline = 4;
+
+  // The instruction table, indexed by node number (pre-order).
+  private final int[] m_op;
+  private final int[] m_parent;
+  private final int[] m_firstChild; // index into m_children
+  private final int[] m_childCount;
+  private final int[] m_subtreeEnd; // one past the last descendant of the node
+  private final int[] m_deadline; // for deadline nodes, the node number of the deadline
+  private final long[] m_requirementMask;
+  private final Command[] m_leaves; // the command for leaf nodes, null otherwise
+  private final int[] m_children;
+
+  // The subsystems corresponding to each bit of the requirement masks.
+  private final Subsystem[] m_subsystems;
+
+  // Interpreter state
+  // Current step of sequence nodes, number of running children of parallel nodes
+  private final int[] m_cursor;
+  private final boolean[] m_running;
+  private final int[] m_active; // the leaf nodes that are currently running
+  private int m_activeCount;
+  private boolean m_finished = true;
+  private boolean m_runWhenDisabled = true;
+
+  /**
+   * Compiles a command group tree.  The root command becomes part of this compiled group and can
+   * no longer be scheduled independently.
+   *
+   * @param root the root of the command tree
+   */
+  public CompiledCommandGroup(Command root) {
+    CommandGroupBase.requireUngrouped(root);
+    CommandGroupBase.registerGroupedCommands(root);
+
+    Builder builder = new Builder();
+    builder.add(root, -1);
+
+    int count = builder.m_nodes.size();
+
+    m_op = new int[count];
+    m_parent = new int[count];
+    m_firstChild = new int[count];
+    m_childCount = new int[count];
+    m_subtreeEnd = new int[count];
+    m_deadline = new int[count];
+    m_requirementMask = new long[count];
+    m_leaves = new Command[count];
+    m_children = new int[count];
+    m_cursor = new int[count];
+    m_running = new boolean[count];
+    m_active = new int[count];
+
+    int childIdx = 0;
+
+    for (int i = 0; i < count; i++) {
+      Node node = builder.m_nodes.get(i);
+
+      m_op[i] = node.m_op;
+      m_parent[i] = node.m_parent;
+      m_subtreeEnd[i] = node.m_subtreeEnd;
+      m_deadline[i] = node.m_deadline;
+      m_requirementMask[i] = node.m_requirementMask;
+      m_firstChild[i] = childIdx;
+      m_childCount[i] = node.m_children.size();
+
+      for (int child : node.m_children) {
+        m_children[childIdx++] = child;
+      }
+
+      if (node.m_op == kLeaf) {
+        m_leaves[i] = node.m_command;
+        m_runWhenDisabled &= node.m_command.runsWhenDisabled();
+      }
+    }
+
+    m_subsystems = builder.m_subsystems.toArray(new Subsystem[0]);
+    m_requirements.addAll(builder.m_subsystems);
+  }
+
+  private static final class Node {
+    int m_op;
+    int m_parent;
+    int m_subtreeEnd;
+    int m_deadline = -1;
+    long m_requirementMask;
+    Command m_command;
+    final List<Integer> m_children = new ArrayList<>();
+  }
+
+  /**
+   * Flattens the group tree into a list of nodes in pre-order.
+   */
+  private static final class Builder {
+    final List<Node> m_nodes = new ArrayList<>();
+    final List<Subsystem> m_subsystems = new ArrayList<>();
+    final Map<Subsystem, Integer> m_subsystemBits = new IdentityHashMap<>();
+
+    int add(Command command, int parent) {
+      int idx = m_nodes.size();
+      Node node = new Node();
+
+      node.m_parent = parent;
+      m_nodes.add(node);
+
+      Collection<Command> children = null;
+
+      if (isFlattenable(command, SequentialCommandGroup.class)) {
+        node.m_op = kSequence;
+        children = ((SequentialCommandGroup) command).getCommands();
+      } else if (isFlattenable(command, ParallelCommandGroup.class)) {
+        node.m_op = kWaitAll;
+        children = ((ParallelCommandGroup) command).getCommands();
+      } else if (isFlattenable(command, ParallelRaceGroup.class)) {
+        node.m_op = kRace;
+        children = ((ParallelRaceGroup) command).getCommands();
+      } else if (isFlattenable(command, ParallelDeadlineGroup.class)) {
+        node.m_op = kDeadline;
+        children = ((ParallelDeadlineGroup) command).getCommands();
+      } else {
+        node.m_op = kLeaf;
+        node.m_command = command;
+        node.m_requirementMask = getMask(command);
+      }
+
+      if (children != null) {
+        for (Command child : children) {
+          int childIdx = add(child, idx);
+          long childMask = m_nodes.get(childIdx).m_requirementMask;
+
+          if (node.m_op != kSequence && (node.m_requirementMask & childMask) != 0) {
+            throw new IllegalArgumentException("Multiple commands in a parallel group cannot"
+                + " require the same subsystems");
+          }
+
+          node.m_requirementMask |= childMask;
+          node.m_children.add(childIdx);
+
+          if (node.m_op == kDeadline
+              && child == ((ParallelDeadlineGroup) command).getDeadline()) {
+            node.m_deadline = childIdx;
+          }
+        }
+      }
+
+      node.m_subtreeEnd = m_nodes.size();
+
+      return idx;
+    }
+
+    long getMask(Command command) {
+      long mask = 0;
+
+      for (Subsystem subsystem : command.getRequirements()) {
+        Integer bit = m_subsystemBits.get(subsystem);
+
+        if (bit == null) {
+          if (m_subsystems.size() >= Long.SIZE) {
+            throw new IllegalArgumentException("A compiled command group cannot require more than "
+                + Long.SIZE + " subsystems");
+          }
+          bit = m_subsystems.size();
+          m_subsystemBits.put(subsystem, bit);
+          m_subsystems.add(subsystem);
+        }
+
+        mask |= 1L << bit;
+      }
+
+      return mask;
+    }
+
+    /**
+     * Returns true if the command is one of the standard group types and does not override any of
+     * its lifecycle methods, so that its behavior can be reproduced by the interpreter.
+     */
+    static boolean isFlattenable(Command command, Class<?> groupClass) {
+      if (!groupClass.isInstance(command)) {
+        return false;
+      }
+
+      try {
+        Class<?> cls = command.getClass();
+
+        return cls.getMethod("initialize").getDeclaringClass() == groupClass
+            && cls.getMethod("execute").getDeclaringClass() == groupClass
+            && cls.getMethod("end", boolean.class).getDeclaringClass() == groupClass
+            && cls.getMethod("isFinished").getDeclaringClass() == groupClass;
+      } catch (NoSuchMethodException e) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Returns the subsystems required by the leaves that are currently running.
+   *
+   * @return the subsystems in use
+   */
+  public List<Subsystem> getActiveRequirements() {
+    long mask = 0;
+    List<Subsystem> subsystems = new ArrayList<>();
+
+    for (int i = 0; i < m_activeCount; i++) {
+      mask |= m_requirementMask[m_active[i]];
+    }
+
+    while (mask != 0) {
+      subsystems.add(m_subsystems[Long.numberOfTrailingZeros(mask)]);
+      mask &= mask - 1;
+    }
+
+    return subsystems;
+  }
+
+  /**
+   * Starts a node.
+   *
+   * @return true if the node finished immediately (i.e. an empty group)
+   */
+  private boolean start(int node) {
+    switch (m_op[node]) {
+      case kLeaf:
+        m_running[node] = true;
+        m_active[m_activeCount++] = node;
+        m_leaves[node].initialize();
+        return false;
+
+      case kSequence:
+        m_running[node] = true;
+        for (m_cursor[node] = 0; m_cursor[node] < m_childCount[node]; m_cursor[node]++) {
+          if (!start(m_children[m_firstChild[node] + m_cursor[node]])) {
+            return false;
+          }
+        }
+        m_running[node] = false;
+        return true;
+
+      default:
+        m_running[node] = true;
+        m_cursor[node] = 0;
+        for (int i = 0; i < m_childCount[node]; i++) {
+          int child = m_children[m_firstChild[node] + i];
+
+          if (!start(child)) {
+            m_cursor[node]++;
+          } else if (m_op[node] == kRace
+              || (m_op[node] == kDeadline && child == m_deadline[node])) {
+            interrupt(node);
+            return true;
+          }
+        }
+        if (m_cursor[node] == 0) {
+          m_running[node] = false;
+          return true;
+        }
+        return false;
+    }
+  }
+
+  /**
+   * Interrupts every running descendant of a node.
+   */
+  private void interrupt(int node) {
+    for (int i = node; i < m_subtreeEnd[node]; i++) {
+      if (m_running[i]) {
+        m_running[i] = false;
+
+        if (m_op[i] == kLeaf) {
+          m_leaves[i].end(true);
+        }
+      }
+    }
+  }
+
+  /**
+   * Propagates the completion of a node to its parent.
+   */
+  private void finished(int node) {
+    m_running[node] = false;
+
+    int parent = m_parent[node];
+
+    if (parent < 0) {
+      m_finished = true;
+      return;
+    }
+
+    if (!m_running[parent]) {
+      return;
+    }
+
+    switch (m_op[parent]) {
+      case kSequence:
+        while (++m_cursor[parent] < m_childCount[parent]) {
+          if (!start(m_children[m_firstChild[parent] + m_cursor[parent]])) {
+            return;
+          }
+        }
+        finished(parent);
+        break;
+
+      case kWaitAll:
+        if (--m_cursor[parent] == 0) {
+          finished(parent);
+        }
+        break;
+
+      case kRace:
+        interrupt(parent);
+        finished(parent);
+        break;
+
+      case kDeadline:
+        if (node == m_deadline[parent]) {
+          interrupt(parent);
+          finished(parent);
+        } else {
+          m_cursor[parent]--;
+        }
+        break;
+
+      default:
+        break;
+    }
+  }
+
+  @Override
+  public void initialize() {
+    Arrays.fill(m_running, false);
+    m_activeCount = 0;
+    m_finished = start(0);
+  }
+
+  @Override
+  public void execute() {
+    // Leaves started during this pass are appended after count and first run on the next pass
+    int count = m_activeCount;
+
+    for (int i = 0; i < count && !m_finished; i++) {
+      int node = m_active[i];
+
+      if (!m_running[node]) {
+        continue;
+      }
+
+      Command command = m_leaves[node];
+
+      command.execute();
+      if (command.isFinished()) {
+        command.end(false);
+        finished(node);
+      }
+    }
+
+    // Remove leaves that finished or were interrupted
+    int j = 0;
+
+    for (int i = 0; i < m_activeCount; i++) {
+      if (m_running[m_active[i]]) {
+        m_active[j++] = m_active[i];
+      }
+    }
+    m_activeCount = j;
+  }
+
+  @Override
+  public void end(boolean interrupted) {
+    if (interrupted) {
+      interrupt(0);
+    }
+    m_activeCount = 0;
+  }
+
+  @Override
+  public boolean isFinished() {
+    return m_finished;
+  }
+
+  @Override
+  public boolean runsWhenDisabled() {
+    return m_runWhenDisabled;
+  }
+}
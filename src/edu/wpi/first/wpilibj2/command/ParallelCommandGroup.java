@@ -7,6 +7,7 @@
 
 package edu.wpi.first.wpilibj2.command;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -92,6 +93,14 @@ public class ParallelCommandGroup extends CommandGroupBase {
     return !m_commands.values().contains(true);
   }
 
+  /**
+   * Returns the commands in this group.  Used by {@link CompiledCommandGroup} to flatten nested
+   * groups.
+   */
+  Collection<Command> getCommands() {
+    return m_commands.keySet();
+  }
+
   @Override
   public boolean runsWhenDisabled() {
     return m_runWhenDisabled;
@@ -7,6 +7,7 @@
 
 package edu.wpi.first.wpilibj2.command;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -116,6 +117,21 @@ public class ParallelDeadlineGroup extends CommandGroupBase {
     return m_finished;
   }
 
+  /**
+   * Returns the commands in this group, including the deadline.  Used by {@link
+   * CompiledCommandGroup} to flatten nested groups.
+   */
+  Collection<Command> getCommands() {
+    return m_commands.keySet();
+  }
+
+  /**
+   * Returns the deadline command of this group.
+   */
+  Command getDeadline() {
+    return m_deadline;
+  }
+
   @Override
   public boolean runsWhenDisabled() {
     return m_runWhenDisabled;
@@ -7,6 +7,7 @@
 
 package edu.wpi.first.wpilibj2.command;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -85,6 +86,14 @@ public class ParallelRaceGroup extends CommandGroupBase {
     return m_finished;
   }
 
+  /**
+   * Returns the commands in this group.  Used by {@link CompiledCommandGroup} to flatten nested
+   * groups.
+   */
+  Collection<Command> getCommands() {
+    return m_commands;
+  }
+
   @Override
   public boolean runsWhenDisabled() {
     return m_runWhenDisabled;
@@ -90,6 +90,14 @@ public class SequentialCommandGroup extends CommandGroupBase {
     return m_currentCommandIndex == m_commands.size();
   }
 
+  /**
+   * Returns the commands in this group, in the order they are run.  Used by {@link
+   * CompiledCommandGroup} to flatten nested groups.
+   */
+  List<Command> getCommands() {
+    return m_commands;
+  }
+
   @Override
   public boolean runsWhenDisabled() {
     return m_runWhenDisabled;
@@ -26,17 +26,40 @@ import edu.wpi.first.wpilibj2.command.Subsystem;
  * unusual (for instance, if they want to react to the user holding a button while the robot is
  * reading a certain sensor input). For this, they only have to write the {@link Trigger#get()}
  * method to get the full functionality of the Trigger class.
+ *
+ * <p>A trigger created with an input mask is event-driven: its bindings are only run when the
+ * scheduler reports that one of those inputs has changed.  Triggers composed with {@link
+ * #and(Trigger)}, {@link #or(Trigger)} and {@link #negate()} depend on the union of their operands'
+ * inputs, so a whole tree of composed triggers costs nothing while its inputs are unchanged.
  */
 public class Trigger {
   private final BooleanSupplier m_isActive;
 
+  //The scheduler inputs (see CommandScheduler#addInputSource) this trigger depends on.  Zero means
+  //the inputs are unknown and the trigger's bindings must be polled every iteration.
+  private final long m_inputs;
+
   /**
-   * Creates a new trigger with the given condition determining whether it is active.
+   * Creates a new trigger with the given condition determining whether it is active.  Bindings on
+   * this trigger are polled every iteration of the scheduler.
    *
    * @param isActive returns whether or not the trigger should be active
    */
   public Trigger(BooleanSupplier isActive) {
+    this(isActive, 0);
+  }
+
+  /**
+   * Creates a new trigger with the given condition determining whether it is active, whose value
+   * only changes when one of the specified scheduler inputs changes.  Bindings on this trigger are
+   * only run by the scheduler on the iterations where one of those inputs has changed.
+   *
+   * @param isActive returns whether or not the trigger should be active
+   * @param inputs   bit mask of the scheduler inputs the condition depends on, or zero to poll
+   */
+  public Trigger(BooleanSupplier isActive, long inputs) {
     m_isActive = isActive;
+    m_inputs = inputs;
   }
 
   /**
@@ -45,6 +68,38 @@ public class Trigger {
    */
   public Trigger() {
     m_isActive = () -> false;
+    m_inputs = 0;
+  }
+
+  /**
+   * Returns the bit mask of scheduler inputs this trigger depends on.
+   *
+   * @return the input mask, or zero if the trigger must be polled
+   */
+  public long getInputs() {
+    return m_inputs;
+  }
+
+  /**
+   * Registers a binding with the scheduler, either as an event-driven binding keyed on this
+   * trigger's inputs or, if the inputs are unknown, as a button that is polled every iteration.
+   *
+   * @param binding the binding to register
+   */
+  private void addBinding(CommandScheduler.ButtonBinding binding) {
+    if (m_inputs != 0) {
+      CommandScheduler.getInstance().addButton(binding, m_inputs);
+    } else {
+      CommandScheduler.getInstance().addButton(binding::run);
+    }
+  }
+
+  /**
+   * Combines the inputs of two triggers for a composed trigger.  The composed trigger can only be
+   * event-driven if both of its operands are.
+   */
+  private static long composeInputs(Trigger a, Trigger b) {
+    return (a.m_inputs != 0 && b.m_inputs != 0) ? (a.m_inputs | b.m_inputs) : 0;
   }
 
   /**
@@ -68,11 +123,11 @@ public class Trigger {
   public Trigger onTrue(final Command command, boolean interruptible) {
 //    requireNonNullParam(command, "command", "whenActive");
 
-    CommandScheduler.getInstance().addButton(new Runnable() {
+    addBinding(new CommandScheduler.ButtonBinding() {
       private boolean m_pressedLast = get();
 
       @Override
-      public void run() {
+      public boolean run() {
         boolean pressed = get();
 
         if (!m_pressedLast && pressed) {
@@ -80,6 +135,7 @@ public class Trigger {
         }
 
         m_pressedLast = pressed;
+        return false;
       }
     });
 
@@ -121,11 +177,11 @@ public class Trigger {
   public Trigger whileTrue(final Command command, boolean interruptible) {
 //    requireNonNullParam(command, "command", "whileActiveContinuous");
 
-    CommandScheduler.getInstance().addButton(new Runnable() {
+    addBinding(new CommandScheduler.ButtonBinding() {
       private boolean m_pressedLast = get();
 
       @Override
-      public void run() {
+      public boolean run() {
         boolean pressed = get();
 
         if (pressed) {
@@ -135,6 +191,7 @@ public class Trigger {
         }
 
         m_pressedLast = pressed;
+        return pressed;
       }
     });
     return this;
@@ -175,11 +232,11 @@ public class Trigger {
   public Trigger whileActiveOnce(final Command command, boolean interruptible) {
 //    requireNonNullParam(command, "command", "whileActiveOnce");
 
-    CommandScheduler.getInstance().addButton(new Runnable() {
+    addBinding(new CommandScheduler.ButtonBinding() {
       private boolean m_pressedLast = get();
 
       @Override
-      public void run() {
+      public boolean run() {
         boolean pressed = get();
 
         if (!m_pressedLast && pressed) {
@@ -189,6 +246,7 @@ public class Trigger {
         }
 
         m_pressedLast = pressed;
+        return false;
       }
     });
     return this;
@@ -215,11 +273,11 @@ public class Trigger {
   public Trigger whenInactive(final Command command, boolean interruptible) {
 //    requireNonNullParam(command, "command", "whenInactive");
 
-    CommandScheduler.getInstance().addButton(new Runnable() {
+    addBinding(new CommandScheduler.ButtonBinding() {
       private boolean m_pressedLast = get();
 
       @Override
-      public void run() {
+      public boolean run() {
         boolean pressed = get();
 
         if (m_pressedLast && !pressed) {
@@ -227,6 +285,7 @@ public class Trigger {
         }
 
         m_pressedLast = pressed;
+        return false;
       }
     });
     return this;
@@ -263,11 +322,11 @@ public class Trigger {
   public Trigger toggleWhenActive(final Command command, boolean interruptible) {
 //    requireNonNullParam(command, "command", "toggleWhenActive");
 
-    CommandScheduler.getInstance().addButton(new Runnable() {
+    addBinding(new CommandScheduler.ButtonBinding() {
       private boolean m_pressedLast = get();
 
       @Override
-      public void run() {
+      public boolean run() {
         boolean pressed = get();
 
         if (!m_pressedLast && pressed) {
@@ -279,6 +338,7 @@ public class Trigger {
         }
 
         m_pressedLast = pressed;
+        return false;
       }
     });
     return this;
@@ -303,11 +363,11 @@ public class Trigger {
   public Trigger cancelWhenActive(final Command command) {
 //    requireNonNullParam(command, "command", "cancelWhenActive");
 
-    CommandScheduler.getInstance().addButton(new Runnable() {
+    addBinding(new CommandScheduler.ButtonBinding() {
       private boolean m_pressedLast = get();
 
       @Override
-      public void run() {
+      public boolean run() {
         boolean pressed = get();
 
         if (!m_pressedLast && pressed) {
@@ -315,6 +375,7 @@ public class Trigger {
         }
 
         m_pressedLast = pressed;
+        return false;
       }
     });
     return this;
@@ -328,7 +389,7 @@ public class Trigger {
    * @return the trigger that is active when both triggers are active
    */
   public Trigger and(Trigger trigger) {
-    return new Trigger(() -> get() && trigger.get());
+    return new Trigger(() -> get() && trigger.get(), composeInputs(this, trigger));
   }
 
   /**
@@ -339,7 +400,7 @@ public class Trigger {
    * @return the trigger that is active when either trigger is active
    */
   public Trigger or(Trigger trigger) {
-    return new Trigger(() -> get() || trigger.get());
+    return new Trigger(() -> get() || trigger.get(), composeInputs(this, trigger));
   }
 
   /**
@@ -349,6 +410,6 @@ public class Trigger {
    * @return the negated trigger
    */
   public Trigger negate() {
-    return new Trigger(() -> !get());
+    return new Trigger(() -> !get(), m_inputs);
   }
 }
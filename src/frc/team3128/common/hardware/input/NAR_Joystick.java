@@ -1,6 +1,7 @@
 package frc.team3128.common.hardware.input;
 
 import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import edu.wpi.first.wpilibj2.command.button.Trigger;
 import robotCore.Joystick;
 
@@ -12,6 +13,9 @@ public class NAR_Joystick {
 
     private final Joystick stick;
 
+    // The joystick state seen by the button triggers during the current scheduler loop
+    private Joystick.JoystickData frame;
+
     private final Trigger[] buttons;
 
     /**
@@ -34,27 +38,60 @@ public class NAR_Joystick {
         buttons = new Trigger[16];
         povButtons = new Trigger[8];
         stick = new Joystick(deviceNumber);
+        frame = stick.getData();
 
         // Thrustmaster joystick has 16 buttons
 
+        // Triggers are keyed on the joystick inputs they read, so the scheduler only runs their
+        // bindings when the driver station reports that one of those inputs changed
+
         for (int i = 0; i < 16; i++) {
             final int buttonId = i;
-            buttons[buttonId] = new Trigger(() -> stick.getRawButton(buttonId + 1)); 
+            buttons[buttonId] = new Trigger(() -> frame.getRawButton(buttonId + 1), Joystick.getButtonInput(buttonId + 1)); 
         }
             
         for (int i = 0; i < 8; i++) {
             final int povButtonId = i;
-            povButtons[povButtonId] = new Trigger(() -> stick.getPOV() == povButtonId * 45);
+            povButtons[povButtonId] = new Trigger(() -> frame.m_pov == povButtonId * 45, Joystick.k_povInput);
         }
+
+        CommandScheduler.getInstance().addInputSource(this::latchInputs);
             
     }
 
+    /**
+     * Called by the scheduler once per loop, before the button bindings run. Takes the inputs that
+     * have changed and latches the joystick state so every trigger sees the same frame.
+     */
+    private long latchInputs() {
+        long changed = stick.takeChangedInputs();
+        frame = stick.getData();
+        return changed;
+    }
+
+    /**
+     * Returns the latest joystick state. Values read from the returned object all come from the same
+     * driver station packet, and its sequence number only changes when a new packet arrives.
+     * @return The latest joystick state
+     */
+    public Joystick.JoystickData getData() {
+        return stick.getData();
+    }
+
     /** 
      * Returns the Joystick's x axis value
      * @return Joystick X on [-1, 1], -1 is left, 1 is right - default deadband is 0.05 
     */
     public double getX() {
-        return Math.abs(stick.getX()) > xDeadband ? stick.getX() : 0;
+        return getX(stick.getData());
+    }
+
+    /** 
+     * Returns the x axis value from a joystick state returned by {@link #getData()}
+     * @return Joystick X on [-1, 1], -1 is left, 1 is right - default deadband is 0.05 
+    */
+    public double getX(Joystick.JoystickData data) {
+        return Math.abs(data.m_x) > xDeadband ? data.m_x : 0;
     }
 
     /** 
@@ -62,7 +99,15 @@ public class NAR_Joystick {
      * @return Joystick Y on [-1, 1], -1 is backward, 1 is forward - default deadband is 0.05 
     */
     public double getY() {
-        return Math.abs(stick.getY()) > yDeadband ? -stick.getY() : 0;
+        return getY(stick.getData());
+    }
+
+    /** 
+     * Returns the y axis value from a joystick state returned by {@link #getData()}
+     * @return Joystick Y on [-1, 1], -1 is backward, 1 is forward - default deadband is 0.05 
+    */
+    public double getY(Joystick.JoystickData data) {
+        return Math.abs(data.m_y) > yDeadband ? -data.m_y : 0;
     }
 
     /** 
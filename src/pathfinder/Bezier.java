@@ -1,5 +1,7 @@
 package pathfinder;
 
+import java.util.ArrayList;
+
 public class Bezier 
 {
 	public static class BezierPoint
@@ -46,40 +48,35 @@ public class Bezier
 		
 	}
 	
+    /*
+     * Returns the sampler for the power basis form of the curve
+     */
+    private SplineSampler getSampler()
+    {
+    	double[] x = {	m_p0.m_x,
+    					3 * (m_p1.m_x - m_p0.m_x),
+    					3 * (m_p2.m_x - 2*m_p1.m_x + m_p0.m_x),
+    					m_p3.m_x - 3*m_p2.m_x + 3*m_p1.m_x - m_p0.m_x };
+    	double[] y = {	m_p0.m_y,
+    					3 * (m_p1.m_y - m_p0.m_y),
+    					3 * (m_p2.m_y - 2*m_p1.m_y + m_p0.m_y),
+    					m_p3.m_y - 3*m_p2.m_y + 3*m_p1.m_y - m_p0.m_y };
+
+    	return(new SplineSampler(x, y));
+    }
+
     public void ComputeSplinePoints(SplinePoint[] points, int first, int sample_count, double maxVelocity) 
     {
-        double distance = 0;
-        
-    	for (int i = 0 ; i < sample_count ; i++)
-    	{
-    		double t = (double) i / sample_count;
-    		double t2 = t * t;
-    		double t3 = t * t * t;
-    		double omt = (1 - t);
-    		double omt2 = omt * omt;
-    		double omt3 = omt2 * omt;
-    		
-    		double dx = 3*omt2*(m_p1.m_x - m_p0.m_x) + 6*omt*t*(m_p2.m_x - m_p1.m_x) + 3*t2*(m_p3.m_x - m_p2.m_x);
-    		double dy = 3*omt2*(m_p1.m_y - m_p0.m_y) + 6*omt*t*(m_p2.m_y - m_p1.m_y) + 3*t2*(m_p3.m_y - m_p2.m_y);
-    		
-    		points[first + i] = new SplinePoint();
-    		points[first + i].m_heading = Math.atan2(dy, dx);
-    		points[first + i].m_x = omt3 * m_p0.m_x + 3*omt2*t * m_p1.m_x + 3*omt*t2 * m_p2.m_x + t3 * m_p3.m_x;
-    		points[first + i].m_y = omt3 * m_p0.m_y + 3*omt2*t * m_p1.m_y + 3*omt*t2 * m_p2.m_y + t3 * m_p3.m_y;
-    		points[first + i].m_maxVelocity = maxVelocity;
-    		
-            if ((i+first) > 0)
-            {
-	            dx = points[i+first].m_x - points[i+first-1].m_x;
-	            dy = points[i+first].m_y - points[i+first-1].m_y;
-	            double delta = Math.sqrt(dx*dx + dy*dy);
-	            
-	            points[i+first].m_delta = delta;
-            
-	            distance = points[i+first-1].m_distance + delta;
-            }
-            
-            points[i+first].m_distance = distance;
-    	}
+    	getSampler().sampleUniform(points, first, sample_count, maxVelocity);
+    }
+
+    /*
+     * Appends points to the list with a density which follows the curvature (see SplineSampler).
+     *  At most sample_count points are generated, unless sample_count is smaller than the
+     *  number of intervals that the curve is always split into.
+     */
+    public void ComputeSplinePoints(ArrayList<SplinePoint> points, int sample_count, double maxVelocity, boolean includeEnd) 
+    {
+    	getSampler().sampleAdaptive(points, sample_count, maxVelocity, includeEnd);
     }
 }
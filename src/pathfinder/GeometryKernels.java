@@ -0,0 +1,179 @@
+package pathfinder;
+
+/*
+ * Bulk geometry operations over primitive arrays.
+ *
+ * Each operation is a simple counted loop over double arrays with no calls, branches or
+ * dependencies between iterations, so that HotSpot's superword optimization can compile it to
+ * SIMD instructions on both x86 and ARM. The trigonometric functions and the prefix sum cannot be
+ * vectorized, so they are kept in loops of their own and the rest of the work is done in the
+ * loops that can.
+ */
+public final class GeometryKernels
+{
+	private GeometryKernels()
+	{
+	}
+
+	/*
+	 * Evaluates the polynomial c[0] + c[1]*t + c[2]*t^2 ... at each t using Horner's rule
+	 */
+	static void polynomial(double[] c, double[] t, double[] out, int n)
+	{
+		double last = c[c.length - 1];
+
+		for (int i = 0 ; i < n ; i++)
+		{
+			out[i] = last;
+		}
+
+		for (int k = c.length - 2 ; k >= 0 ; k--)
+		{
+			double ck = c[k];
+
+			for (int i = 0 ; i < n ; i++)
+			{
+				out[i] = out[i] * t[i] + ck;
+			}
+		}
+	}
+
+	/*
+	 * Computes the sine and cosine of each angle
+	 */
+	static void sinCos(double[] angle, double[] sin, double[] cos, int n)
+	{
+		for (int i = 0 ; i < n ; i++)
+		{
+			sin[i] = Math.sin(angle[i]);
+			cos[i] = Math.cos(angle[i]);
+		}
+	}
+
+	/*
+	 * Offsets each point by the distance w to the left of its heading. A negative w offsets to the right.
+	 */
+	static void offset(double[] x, double[] y, double[] sin, double[] cos, double w, double[] outX, double[] outY, int n)
+	{
+		for (int i = 0 ; i < n ; i++)
+		{
+			outX[i] = x[i] - w * sin[i];
+			outY[i] = y[i] + w * cos[i];
+		}
+	}
+
+	/*
+	 * Computes the distance from each point to the previous one (zero for the first) and the
+	 * cumulative distance along the points
+	 */
+	static void cumulativeDistance(double[] x, double[] y, double[] delta, double[] distance, int n)
+	{
+		if (n == 0)
+		{
+			return;
+		}
+
+		delta[0] = 0;
+
+		for (int i = 1 ; i < n ; i++)
+		{
+			double dx = x[i] - x[i-1];
+			double dy = y[i] - y[i-1];
+
+			delta[i] = Math.sqrt(dx*dx + dy*dy);
+		}
+
+		double sum = 0;
+
+		for (int i = 0 ; i < n ; i++)
+		{
+			sum += delta[i];
+			distance[i] = sum;
+		}
+	}
+
+	/**
+	 * Computes the squared distance from the point (px, py) to each point in the range [from, to).
+	 *
+	 * @param x - Specifies the x coordinates.
+	 * @param y - Specifies the y coordinates.
+	 * @param from - Specifies the first index.
+	 * @param to - Specifies the end of the range (exclusive).
+	 * @param px - Specifies the x coordinate of the point.
+	 * @param py - Specifies the y coordinate of the point.
+	 * @param out - Receives the squared distances, starting at out[0].
+	 */
+	public static void squaredDistances(double[] x, double[] y, int from, int to, double px, double py, double[] out)
+	{
+		for (int i = from ; i < to ; i++)
+		{
+			double dx = x[i] - px;
+			double dy = y[i] - py;
+
+			out[i - from] = dx*dx + dy*dy;
+		}
+	}
+
+	/**
+	 * Finds the point in the range [from, to) which is closest to (px, py). If several are equally
+	 * close, the first one is returned unless the last point of the range is one of them.
+	 *
+	 * @param x - Specifies the x coordinates.
+	 * @param y - Specifies the y coordinates.
+	 * @param from - Specifies the first index.
+	 * @param to - Specifies the end of the range (exclusive). Must be greater than from.
+	 * @param px - Specifies the x coordinate of the point.
+	 * @param py - Specifies the y coordinate of the point.
+	 * @param scratch - Specifies a work array of at least to - from elements.
+	 * @return Returns the index of the closest point.
+	 */
+	public static int closest(double[] x, double[] y, int from, int to, double px, double py, double[] scratch)
+	{
+		squaredDistances(x, y, from, to, px, py, scratch);
+
+		int n = to - from;
+		int best = n - 1;
+		double min = scratch[best];
+
+		for (int i = 0 ; i < n ; i++)
+		{
+			if (scratch[i] < min)
+			{
+				min = scratch[i];
+				best = i;
+			}
+		}
+
+		return(from + best);
+	}
+
+	/**
+	 * Finds the first point in the range [from, to) which is at least the specified distance from (px, py).
+	 *
+	 * @param x - Specifies the x coordinates.
+	 * @param y - Specifies the y coordinates.
+	 * @param from - Specifies the first index.
+	 * @param to - Specifies the end of the range (exclusive).
+	 * @param px - Specifies the x coordinate of the point.
+	 * @param py - Specifies the y coordinate of the point.
+	 * @param distance - Specifies the distance.
+	 * @param scratch - Specifies a work array of at least to - from elements.
+	 * @return Returns the index of the point, or -1 if there is none.
+	 */
+	public static int firstBeyond(double[] x, double[] y, int from, int to, double px, double py, double distance, double[] scratch)
+	{
+		squaredDistances(x, y, from, to, px, py, scratch);
+
+		double d2 = distance * distance;
+
+		for (int i = 0 ; i < to - from ; i++)
+		{
+			if (scratch[i] >= d2)
+			{
+				return(from + i);
+			}
+		}
+
+		return(-1);
+	}
+}
@@ -0,0 +1,474 @@
+/*
+ *	  Copyright (C) 2021  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+package pathfinder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import pathfinder.Pathfinder.Path;
+import pathfinder.Pathfinder.Segment;
+import pathfinder.Pathfinder.Waypoint;
+
+/**
+ *
+ * @brief The PathOptimizer class searches for the control point distances which give the fastest path.
+ *
+ * 			The positions and angles of the waypoints are fixed. For each Bezier curve the optimizer
+ * 			varies the distances l1 to l4 (as a fraction of the distance between the waypoints) and,
+ * 			optionally, the <b>maxVelocity</b> of each waypoint. Each candidate is generated by
+ * 			<b>Pathfinder.computePath</b> and then checked for:
+ *
+ * 			- The maximum curvature (if set)
+ * 			- The wheel velocities and accelerations, which must be within the limits plus a tolerance
+ *
+ * 			The search is a random sample of the whole space followed by rounds of smaller random changes
+ * 			to the best candidates found so far. The candidates are evaluated in parallel on all cores.
+ * 			It is intended to be run on a development computer, not on the robot.
+ *
+ * 			The result is the fastest feasible candidate plus the Pareto front of time against
+ * 			maximum curvature, since a path with tighter turns is usually harder to follow.
+ *
+ */
+public class PathOptimizer
+{
+	private static final double k_tolerance = 0.1;		// Allowed fraction over the wheel limits
+	private static final double k_curvatureSpan = 0.05;	// Distance over which the curvature is measured in feet
+	private static final double k_accelSpan = 0.1;		// Time over which the wheel acceleration is measured in seconds
+	private static final int k_rounds = 4;				// Number of refinement rounds
+	private static final int k_elite = 8;				// Number of candidates refined in each round
+	private static final int k_parameters = 5;			// Number of parameters for each curve
+
+	/**
+	 * The Result class receives one evaluated candidate
+	 */
+	public static class Result
+	{
+		public Waypoint[] m_waypoints;		//!<Specifies the waypoints including the control point distances
+		public double m_time;				//!<Specifies the time to run the path in seconds
+		public double m_length;				//!<Specifies the length of the path in feet
+		public double m_maxCurvature;		//!<Specifies the maximum curvature in 1/feet
+		public double m_maxVelocity;		//!<Specifies the maximum wheel velocity in feet/second
+		public double m_maxAcceleration;	//!<Specifies the maximum wheel acceleration in feet/second*second
+		public boolean m_feasible;			//!<Specifies true if the path meets all of the constraints
+
+		@Override
+		public String toString()
+		{
+			return(String.format("time=%.3f length=%.3f curvature=%.3f velocity=%.3f acceleration=%.3f%s", m_time, m_length,
+					m_maxCurvature, m_maxVelocity, m_maxAcceleration, m_feasible ? "" : " INFEASIBLE"));
+		}
+	}
+
+	private final Waypoint[] m_waypoints;
+	private final int m_sampleCount;
+	private final double m_dt;
+	private final double m_maxVelocity;
+	private final double m_maxAcceleration;
+	private final double m_maxDecl;
+	private final double m_maxJerk;
+	private final double m_wheelBase;
+
+	private double m_maxCurvature = 0;
+	private double m_minLength = 0.1;
+	private double m_maxLength = 0.9;
+	private double m_minCap = 1;
+	private double m_maxCap = 1;
+	private int m_candidates = 4000;
+	private long m_seed = 1;
+
+	private ArrayList<Result> m_results = new ArrayList<Result>();
+
+	/**
+	 * The parameters are the same as for <b>Pathfinder.computePath</b>.
+	 *
+	 * @param waypoints - Specifies the waypoints. The positions and angles are kept, the control point distances are replaced.
+	 * @param sample_count - Specifies the maximum number of points/bezier curve to generate.
+	 * @param dt - Specifies the time between points on the output path.
+	 * @param max_velocity - Specifies the maximum allowable velocity for either of the wheels.
+	 * @param max_acceleration - Specifies the maximum allowable acceleration for either of the wheels.
+	 * @param max_decl - Specifies the maximum allowable deceleration for either of the wheels.
+	 * @param max_jerk - Specifies the maximum rate of change of the acceleration, or zero for no limit.
+	 * @param wheelBase - Specifies the width of the wheelbase in feet.
+	 */
+	public PathOptimizer(Waypoint[] waypoints, int sample_count, double dt, double max_velocity, double max_acceleration,
+						 double max_decl, double max_jerk, double wheelBase)
+	{
+		m_waypoints = waypoints;
+		m_sampleCount = sample_count;
+		m_dt = dt;
+		m_maxVelocity = max_velocity;
+		m_maxAcceleration = max_acceleration;
+		m_maxDecl = max_decl;
+		m_maxJerk = max_jerk;
+		m_wheelBase = wheelBase;
+	}
+
+	/**
+	 * @param curvature - Specifies the maximum allowed curvature in 1/feet. Zero (the default) allows any curvature.
+	 */
+	public void setMaxCurvature(double curvature)
+	{
+		m_maxCurvature = curvature;
+	}
+
+	/**
+	 * Sets the range of the control point distances as a fraction of the distance between the waypoints.
+	 * The default is 0.1 to 0.9.
+	 *
+	 * @param min - Specifies the minimum fraction.
+	 * @param max - Specifies the maximum fraction.
+	 */
+	public void setLengthRange(double min, double max)
+	{
+		m_minLength = min;
+		m_maxLength = max;
+	}
+
+	/**
+	 * Sets the range of the velocity caps to try for each waypoint as a fraction of its <b>maxVelocity</b> (or of
+	 * max_velocity if it is zero). The default is 1 to 1, which does not vary the caps. Since the path is already
+	 * limited by the wheel velocity and acceleration, a lower cap only helps when the curvature limit or the path
+	 * following needs it.
+	 *
+	 * @param min - Specifies the minimum fraction.
+	 * @param max - Specifies the maximum fraction.
+	 */
+	public void setVelocityCapRange(double min, double max)
+	{
+		m_minCap = min;
+		m_maxCap = max;
+	}
+
+	/**
+	 * @param count - Specifies the total number of candidates to generate. The default is 4000.
+	 */
+	public void setCandidateCount(int count)
+	{
+		m_candidates = count;
+	}
+
+	/**
+	 * @param seed - Specifies the random seed, so that runs can be repeated.
+	 */
+	public void setSeed(long seed)
+	{
+		m_seed = seed;
+	}
+
+	/*
+	 * A candidate has k_parameters for each curve: l1 and l2 as a fraction of the distance between
+	 * the waypoints, l3 and l4 as a fraction of l1 and l2, and the velocity cap as a fraction of the
+	 * waypoint's maxVelocity.
+	 */
+	private double getMin(int i)
+	{
+		switch (i % k_parameters)
+		{
+		case 0:
+		case 1:
+			return(m_minLength);
+
+		case 4:
+			return(m_minCap);
+
+		default:
+			return(0);
+		}
+	}
+
+	private double getMax(int i)
+	{
+		switch (i % k_parameters)
+		{
+		case 0:
+		case 1:
+			return(m_maxLength);
+
+		case 4:
+			return(m_maxCap);
+
+		default:
+			return(1);
+		}
+	}
+
+	private double[] randomCandidate(Random random)
+	{
+		double[] p = new double[k_parameters * (m_waypoints.length - 1)];
+
+		for (int i = 0 ; i < p.length ; i++)
+		{
+			p[i] = getMin(i) + random.nextDouble() * (getMax(i) - getMin(i));
+		}
+
+		return(p);
+	}
+
+	private double[] perturb(double[] base, double scale, Random random)
+	{
+		double[] p = base.clone();
+
+		for (int i = 0 ; i < p.length ; i++)
+		{
+			double min = getMin(i);
+			double max = getMax(i);
+
+			p[i] = Math.max(min, Math.min(max, p[i] + random.nextGaussian() * scale * (max - min)));
+		}
+
+		return(p);
+	}
+
+	private Waypoint[] decode(double[] p)
+	{
+		int curves = m_waypoints.length - 1;
+		Waypoint[] waypoints = new Waypoint[m_waypoints.length];
+
+		for (int i = 0 ; i < curves ; i++)
+		{
+			Waypoint w = m_waypoints[i];
+			int k = k_parameters * i;
+			double d = Math.hypot(m_waypoints[i + 1].x - w.x, m_waypoints[i + 1].y - w.y);
+			double l1 = p[k] * d;
+			double l2 = p[k + 1] * d;
+			double cap = ((w.maxVelocity > 0) ? w.maxVelocity : m_maxVelocity) * p[k + 4];
+
+			waypoints[i] = new Waypoint(w.x, w.y, w.angle, l1, l2, l1 * p[k + 2], l2 * p[k + 3], cap);
+		}
+
+		/*
+		 * The maxVelocity of the last waypoint is the final velocity of the path
+		 */
+		Waypoint last = m_waypoints[curves];
+
+		waypoints[curves] = new Waypoint(last.x, last.y, last.angle, last.maxVelocity);
+
+		return(waypoints);
+	}
+
+	private Result evaluate(double[] p)
+	{
+		Result result = new Result();
+
+		result.m_waypoints = decode(p);
+
+		Path path = Pathfinder.computePath(result.m_waypoints, m_sampleCount, m_dt, m_maxVelocity, m_maxAcceleration, m_maxDecl,
+											m_maxJerk, m_wheelBase);
+
+		if ((path == null) || (path.m_centerPath.length == 0))
+		{
+			result.m_time = Double.MAX_VALUE;
+			return(result);
+		}
+
+		Segment[] center = path.m_centerPath;
+
+		result.m_time = path.getDuration();
+		result.m_length = path.getLength();
+
+		/*
+		 * The curvature is measured over a short distance since the segments can be very close together
+		 */
+		for (int i = 1, j = 0 ; i < center.length ; i++)
+		{
+			double ds = center[i].position - center[j].position;
+
+			if (ds >= k_curvatureSpan)
+			{
+				result.m_maxCurvature = Math.max(result.m_maxCurvature,
+												 Math.abs(MathUtil.normalizeRadians(center[i].heading - center[j].heading)) / ds);
+				j = i;
+			}
+		}
+
+		/*
+		 * The acceleration is measured over a short time since the segment velocities are averages over one step
+		 */
+		int span = Math.max(1, (int) Math.round(k_accelSpan / m_dt));
+
+		for (Segment[] wheel : new Segment[][] { path.m_leftPath, path.m_rightPath })
+		{
+			for (int i = 0 ; i < wheel.length ; i++)
+			{
+				result.m_maxVelocity = Math.max(result.m_maxVelocity, Math.abs(wheel[i].velocity));
+
+				if (i >= span)
+				{
+					result.m_maxAcceleration = Math.max(result.m_maxAcceleration,
+														Math.abs(wheel[i].velocity - wheel[i - span].velocity) / (span * m_dt));
+				}
+			}
+		}
+
+		result.m_feasible = ((m_maxCurvature <= 0) || (result.m_maxCurvature <= m_maxCurvature)) &&
+							(result.m_maxVelocity <= m_maxVelocity * (1 + k_tolerance)) &&
+							(result.m_maxAcceleration <= Math.max(m_maxAcceleration, m_maxDecl) * (1 + k_tolerance));
+
+		return(result);
+	}
+
+	private List<Result> evaluateAll(List<double[]> candidates)
+	{
+		return(candidates.parallelStream().map(this::evaluate).collect(Collectors.toList()));
+	}
+
+	private static int compare(Result a, Result b)
+	{
+		if (a.m_feasible != b.m_feasible)
+		{
+			return(a.m_feasible ? -1 : 1);
+		}
+
+		if (a.m_time != b.m_time)
+		{
+			return(Double.compare(a.m_time, b.m_time));
+		}
+
+		return(Double.compare(a.m_maxCurvature, b.m_maxCurvature));		// The time is a whole number of steps so ties are common
+	}
+
+	/**
+	 * Runs the search. This can take some time.
+	 *
+	 * @return Returns the fastest feasible result, or the fastest result if none are feasible.
+	 */
+	public Result optimize()
+	{
+		int global = m_candidates / 2;
+		int perRound = (m_candidates - global) / k_rounds;
+
+		m_results = new ArrayList<Result>(m_candidates);
+
+		ArrayList<double[]> params = new ArrayList<double[]>(m_candidates);
+
+		params.addAll(IntStream.range(0, global).mapToObj(i -> randomCandidate(new Random(m_seed * 1000003 + i)))
+																.collect(Collectors.toList()));
+
+		m_results.addAll(evaluateAll(params));
+
+		for (int round = 0 ; round < k_rounds ; round++)
+		{
+			/*
+			 * Refine the best candidates so far, with smaller changes each round
+			 */
+			Integer[] order = IntStream.range(0, m_results.size()).boxed().toArray(Integer[]::new);
+
+			java.util.Arrays.sort(order, (a, b) -> compare(m_results.get(a), m_results.get(b)));
+
+			double scale = 0.2 / (1 << round);
+			int elite = Math.min(k_elite, order.length);
+			int first = params.size();
+			ArrayList<double[]> next = new ArrayList<double[]>(perRound);
+
+			for (int i = 0 ; i < perRound ; i++)
+			{
+				Random random = new Random(m_seed * 1000003 + first + i);
+
+				next.add(perturb(params.get(order[i % elite]), scale, random));
+			}
+
+			params.addAll(next);
+			m_results.addAll(evaluateAll(next));
+		}
+
+		return(Collections.min(m_results, PathOptimizer::compare));
+	}
+
+	/**
+	 * @return Returns all of the results from the last call to <b>optimize</b>.
+	 */
+	public List<Result> getResults()
+	{
+		return(m_results);
+	}
+
+	/**
+	 * Returns the feasible results for which no other result is both faster and has a lower maximum curvature.
+	 *
+	 * @return Returns the results ordered by time.
+	 */
+	public List<Result> getParetoFront()
+	{
+		ArrayList<Result> sorted = new ArrayList<Result>();
+		ArrayList<Result> front = new ArrayList<Result>();
+
+		for (Result result : m_results)
+		{
+			if (result.m_feasible)
+			{
+				sorted.add(result);
+			}
+		}
+
+		Collections.sort(sorted, PathOptimizer::compare);
+
+		double curvature = Double.MAX_VALUE;
+
+		for (Result result : sorted)
+		{
+			if (result.m_maxCurvature < curvature)
+			{
+				front.add(result);
+				curvature = result.m_maxCurvature;
+			}
+		}
+
+		return(front);
+	}
+
+	/**
+	 * Prints the best result, its waypoints and the Pareto front to the console.
+	 */
+	public void printSummary()
+	{
+		if (m_results.isEmpty())
+		{
+			System.out.println("No results");
+			return;
+		}
+
+		int feasible = 0;
+
+		for (Result result : m_results)
+		{
+			feasible += result.m_feasible ? 1 : 0;
+		}
+
+		Result best = Collections.min(m_results, PathOptimizer::compare);
+
+		System.out.println(String.format("%d candidates, %d feasible", m_results.size(), feasible));
+		System.out.println("Best: " + best);
+		System.out.println("x,y,angle,l1,l2,l3,l4,maxVelocity");
+
+		for (Waypoint w : best.m_waypoints)
+		{
+			System.out.println(String.format("%f,%f,%f,%f,%f,%f,%f,%f", w.x, w.y, w.angle, w.l1, w.l2, w.l3, w.l4, w.maxVelocity));
+		}
+
+		System.out.println("Pareto front (time vs curvature):");
+
+		for (Result result : getParetoFront())
+		{
+			System.out.println("  " + result);
+		}
+	}
+}
@@ -17,6 +17,8 @@
  */
 package pathfinder;
 
+import java.util.ArrayList;
+
 /**
  * 
  * @author John Gaby
@@ -265,35 +267,53 @@ public class Pathfinder
 		Segment[] m_rightSegments;
 	}
 	
-	private static void computeDistance(SplinePoint[] trajectory, int idx)
-	{
-		if (idx > 0)
-		{
-			double dx	= trajectory[idx].m_x - trajectory[idx-1].m_x;
-			double dy	= trajectory[idx].m_y - trajectory[idx-1].m_y;
-			double d	= Math.sqrt(dx*dx + dy*dy);
-			
-			trajectory[idx].m_delta = d;
-			trajectory[idx].m_distance = trajectory[idx-1].m_distance + d;
-		}
-	}
-	
+	/*
+	 * Computes the left and right wheel paths. The points are copied into columns so that the
+	 *  offsets and distances can be computed by the loops in GeometryKernels.
+	 */
 	private static void tankModify(SplinePoint[] original, SplinePoint[] left_trajectory, SplinePoint[] right_trajectory, int first, int count, double wheelbase_width) 
 	{
 	    double w = wheelbase_width / 2;
+	    double[] x = new double[count];
+	    double[] y = new double[count];
+	    double[] heading = new double[count];
+	    double[] sin = new double[count];
+	    double[] cos = new double[count];
+	    double[] sideX = new double[count];
+	    double[] sideY = new double[count];
+	    double[] delta = new double[count];
+	    double[] distance = new double[count];
+	    
+	    for (int i = 0; i < count; i++) 
+	    {
+	    	SplinePoint seg = original[i+first];
+	    	
+	    	x[i] = seg.m_x;
+	    	y[i] = seg.m_y;
+	    	heading[i] = seg.m_heading;
+	    }
+	    
+	    GeometryKernels.sinCos(heading, sin, cos, count);
 	    
+	    GeometryKernels.offset(x, y, sin, cos, w, sideX, sideY, count);
+	    GeometryKernels.cumulativeDistance(sideX, sideY, delta, distance, count);
+	    copySide(original, left_trajectory, first, count, sideX, sideY, delta, distance);
+	    
+	    GeometryKernels.offset(x, y, sin, cos, -w, sideX, sideY, count);
+	    GeometryKernels.cumulativeDistance(sideX, sideY, delta, distance, count);
+	    copySide(original, right_trajectory, first, count, sideX, sideY, delta, distance);
+	}
+	
+	private static void copySide(SplinePoint[] original, SplinePoint[] trajectory, int first, int count, double[] x, double[] y, double[] delta, double[] distance)
+	{
 	    for (int i = 0; i < count; i++) 
 	    {
-	        SplinePoint seg = original[i+first];
-	        
-	        double cos_angle = Math.cos(seg.m_heading);
-	        double sin_angle = Math.sin(seg.m_heading);
-	        	        
-	        left_trajectory[i+first] = new SplinePoint(seg.m_x - (w * sin_angle), seg.m_y + (w * cos_angle), seg.m_heading, seg.m_maxVelocity);
-	        right_trajectory[i+first] = new SplinePoint(seg.m_x + (w * sin_angle), seg.m_y - (w * cos_angle), seg.m_heading, seg.m_maxVelocity);
-	        
-	        computeDistance(left_trajectory, i+first);
-	        computeDistance(right_trajectory, i+first);
+	    	SplinePoint seg = original[i+first];
+	    	SplinePoint point = new SplinePoint(x[i], y[i], seg.m_heading, seg.m_maxVelocity);
+	    	
+	    	point.m_delta = delta[i];
+	    	point.m_distance = distance[i];
+	    	trajectory[i+first] = point;
 	    }
 	}
 	
@@ -310,393 +330,81 @@ public class Pathfinder
 		
 	}
 	
-	private static int findPathPosition(SplinePoint[] points, double position, int idx)
+	private static Segment addSegment(SplinePoint[] points, int idx, double fraction, Segment[] segments, int segIdx, double dt)
 	{
-		while ((idx < points.length-1) && (position > points[idx].m_distance))
-		{
-			idx++;
-		}
-		
-		return(idx);
-	}
-	
-	private static int findPathPositionRev(SplinePoint[] points, double position, int idx)
-	{
-		while ((idx > 0) && (position < points[idx].m_distance))
-		{
-			idx--;
-		}
-		
-		return(idx);
-	}
-	
-	private static void addSegment(SplinePoint[] points, int idx, int lastIdx, double deltaPos, Segment[] segments, int segIdx, double dt, double d, boolean reverse, double startVelocity)
-	{
-		double x = points[lastIdx].m_x + (points[idx].m_x - points[lastIdx].m_x) * deltaPos;
-		double y = points[lastIdx].m_y + (points[idx].m_y - points[lastIdx].m_y) * deltaPos;
+		SplinePoint last = points[idx - 1];
+		SplinePoint point = points[idx];
+		Segment prev = (segIdx > 0) ? segments[segIdx - 1] : null;
 		
 		Segment segment = new Segment();
 		
 		segment.dt = dt;
-		segment.x = x;
-		segment.y = y;
-		segment.heading = points[idx].m_heading;
-		segment.velocity = d / dt;
+		segment.x = last.m_x + (point.m_x - last.m_x) * fraction;
+		segment.y = last.m_y + (point.m_y - last.m_y) * fraction;
+		segment.heading = last.m_heading + MathUtil.normalizeRadians(point.m_heading - last.m_heading) * fraction;
+		segment.position = last.m_distance + point.m_delta * fraction;
 		
-		double dx;
-		double dy;
+		double d = segment.position - ((prev != null) ? prev.position : 0);
+		double dx = segment.x - ((prev != null) ? prev.x : points[0].m_x);
+		double dy = segment.y - ((prev != null) ? prev.y : points[0].m_y);
 		
-		if (reverse)
-		{
-			dx = (segIdx < segments.length-1) ? segments[segIdx + 1].x - x : points[points.length-1].m_x - x;
-			dy = (segIdx < segments.length-1) ? segments[segIdx + 1].y - y : points[points.length-1].m_y - y;
-		}
-		else
-		{
-			dx = (segIdx > 0) ? x - segments[segIdx - 1].x : x - points[0].m_x;
-			dy = (segIdx > 0) ? y - segments[segIdx - 1].y : y - points[0].m_y;
-		}
-		double angle = Math.atan2(dy, dx);
-		double da = MathUtil.normalizeRadians(angle - segment.heading);
+		segment.velocity = d / dt;
 		
-		if (Math.abs(da) > Math.PI/2)
+		/*
+		 * The inside wheel of a tight turn moves backwards
+		 */
+		if ((dx * Math.cos(segment.heading) + dy * Math.sin(segment.heading)) < 0)
 		{
 			segment.velocity = -segment.velocity;
 		}
 		
-		double dv;
+		segment.acceleration = (segment.velocity - ((prev != null) ? prev.velocity : 0)) / dt;
 		
-		if (reverse)
-		{
-			if (segIdx < segments.length-1)
-			{
-				segment.position = segments[segIdx + 1].position - d;
-				dv = segment.velocity - segments[segIdx + 1].velocity;
-			}
-			else
-			{
-				segment.position = points[points.length-1].m_distance - d;
-				dv = segment.velocity - startVelocity;
-			}
-		}
-		else
-		{
-			segment.position = (segIdx > 0) ? segments[segIdx - 1].position + d : d;
-			dv = (segIdx > 0) ? segment.velocity - segments[segIdx - 1].velocity : segment.velocity;
-		}
-		
-		segment.acceleration = dv / dt;
-		
-		if (reverse)
-		{
-			segment.acceleration = -segment.acceleration;
-		}
+		segments[segIdx] = segment;
 		
-		segments[segIdx]	= segment;
+		return(segment);
 	}
 	
-	
-	private static int computePath( SplinePoint[] left,
-									SplinePoint[] center,
-									SplinePoint[] right,
-									Segment[] leftSeg,
-									Segment[] centerSeg,
-									Segment[] rightSeg,
-									double dt,
-									double max_velocity,
-									double max_acceleration,
-									double max_jerk,
-									boolean reverse,
-									double endPosition,
-									double startVelocity)
+	/*
+	 * Computes the velocity at each point so that neither wheel exceeds the limits and then
+	 * steps along the path in time to create the segments. Between two points the acceleration
+	 * is constant.
+	 */
+	private static void followPath(PathBezier path, double dt, double max_acceleration, double max_decl, double max_jerk, double startVelocity, double finalVelocity, double wheelBase)
 	{
-		int segIdx = reverse ? centerSeg.length - 1 : 0;
-		double position = reverse ? center[center.length-1].m_distance : 0;
-		double acceleration = 0;
-		double velocity = startVelocity;
-		int lastIdx = reverse ? center.length - 1 : 0;
+		SplinePoint[] center = path.m_center;
+		VelocityProfile profile = new VelocityProfile(center, wheelBase, max_acceleration, max_decl, max_jerk, startVelocity, finalVelocity);
+		int n = center.length;
+		double totalTime = profile.m_time[n - 1];
+		int count = Math.max(1, (int) Math.ceil(totalTime / dt - 1e-9));
 		
-		max_velocity = center[lastIdx].m_maxVelocity;
-
-		double jerkSpeed = max_jerk != 0 ? max_velocity - 0.5*(max_acceleration * max_acceleration / max_jerk) : 0;
+		path.m_centerSegments = new Segment[count];
+		path.m_leftSegments = new Segment[count];
+		path.m_rightSegments = new Segment[count];
+		
+		int idx = 1;
 		
-		while (reverse ? (lastIdx > 0) && (velocity < max_velocity) : (lastIdx < center.length-1) && (position < endPosition))
+		for (int segIdx = 0 ; segIdx < count ; segIdx++)
 		{
-			double nextVelocity = velocity;
-			
-			if (max_jerk > 0)
-			{
-				if (center[lastIdx].m_maxVelocity > max_velocity)
-				{
-					max_velocity = center[lastIdx].m_maxVelocity;
-					jerkSpeed = max_velocity - 0.5*(max_acceleration * max_acceleration / max_jerk);
-				}
-				else if (center[lastIdx].m_maxVelocity < max_velocity)
-				{
-					max_velocity = center[lastIdx].m_maxVelocity;
-					jerkSpeed = max_velocity + 0.5*(max_acceleration * max_acceleration / max_jerk);
-				}
-			}
-			
-			if (jerkSpeed != 0)
-			{
-				if (nextVelocity < max_velocity)
-				{
-					if (velocity >= jerkSpeed)
-					{
-						acceleration -= dt * max_jerk;
-						
-						if (acceleration < 0)
-						{
-							acceleration = 0;
-							nextVelocity = max_velocity;
-						}
-						else
-						{
-							nextVelocity += dt * acceleration;
-						}
-					}
-					else 
-					{
-						acceleration += dt * max_jerk;
-						
-						if (acceleration > max_acceleration)
-						{
-							acceleration = max_acceleration;
-						}
-						
-						nextVelocity += dt * acceleration;
-					}
-					
-					if (nextVelocity > max_velocity)
-					{
-						nextVelocity = max_velocity;
-					}
-				}
-				else if (nextVelocity > max_velocity)
-				{
-//					if (nextVelocity < max_velocity)
-					{
-						if (velocity <= jerkSpeed)
-						{
-							acceleration += dt * max_jerk;
-							
-							if (acceleration > 0)
-							{
-								acceleration = 0;
-								nextVelocity = max_velocity;
-							}
-							else
-							{
-								nextVelocity += dt * acceleration;
-							}
-						}
-						else 
-						{
-							acceleration -= dt * max_jerk;
-							
-							if (acceleration < -max_acceleration)
-							{
-								acceleration = -max_acceleration;
-							}
-							
-							nextVelocity += dt * acceleration;
-						}
-						
-						if (nextVelocity < max_velocity)
-						{
-							nextVelocity = max_velocity;
-						}
-					}
-				}
-			}
-			else
-			{
-				if (nextVelocity < max_velocity)
-				{
-					nextVelocity += dt * max_acceleration;
-					
-					if (nextVelocity > max_velocity)
-					{
-						nextVelocity = max_velocity;
-					}
-
-				}
-				else if (nextVelocity > max_velocity)
-				{
-					nextVelocity -= dt * max_acceleration;
-					
-					if (nextVelocity < max_velocity)
-					{
-						nextVelocity = max_velocity;
-					}
-				}
-			}
-			
-			
-			double d = (dt * (velocity + nextVelocity) / 2);
-			
-			int idx;
-			
-			if (reverse)
-			{
-				idx = findPathPositionRev(center, position - d, lastIdx);
-			}
-			else
-			{
-				idx = findPathPosition(center, position + d, lastIdx);
-			}
-				
-			if (idx == lastIdx)
-			{
-				if (reverse)
-				{
-					lastIdx++;
-				}
-				else
-				{
-					lastIdx--;
-				}
-			}
+			double t = Math.min((segIdx + 1) * dt, totalTime);
 			
-			double D = center[idx].m_distance - center[lastIdx].m_distance;
-			double DL = left[idx].m_distance - left[lastIdx].m_distance;
-			double DR = right[idx].m_distance - right[lastIdx].m_distance;
-			double dl = d * DL / D;		// Distance left wheel moved
-			double dr = d * DR / D;		// Distance right wheel moved
-						
-			/*
-			 * If the left or right has moved too far, shorten the center to keep it inline
-			 */
-			if (dl > d)
+			while ((idx < n - 1) && (profile.m_time[idx] < t))
 			{
-				dl = d;
-				d  = dl * D / DL;
-				dr = dl * DR / DL;
-			}
-			else if (dr > d)
-			{
-				dr = d;
-				d  = dr * D / DR;
-				dl = dr * DL / DR;
+				idx++;
 			}
 			
-			if (reverse)
-			{
-				position -= d;
-			}
-			else
-			{
-				position += d;
-			}
-			
-			/*
-			 * Compute percentage
-			 */
-			double deltaPos = (position - center[lastIdx].m_distance) / D;
-
-			
-			if ((segIdx < 0) || (segIdx > centerSeg.length))
-			{
-				throw new java.lang.ArrayIndexOutOfBoundsException("Insufficient segment space");
-			}
-			
-			/*
-			 * Create segments
-			 */
-			addSegment(center, idx, lastIdx, deltaPos, centerSeg, segIdx, dt, d, reverse, startVelocity);
-			addSegment(left, idx, lastIdx, deltaPos, leftSeg, segIdx, dt, dl, reverse, startVelocity);
-			addSegment(right, idx, lastIdx, deltaPos, rightSeg, segIdx, dt, dr, reverse, startVelocity);
+			double t0 = profile.m_time[idx - 1];
+			double T = profile.m_time[idx] - t0;
+			double v0 = profile.m_velocity[idx - 1];
+			double a = (T > 0) ? (profile.m_velocity[idx] - v0) / T : 0;
+			double tau = Math.max(0, Math.min(t - t0, T));
+			double D = center[idx].m_delta;
+			double fraction = (D > 0) ? Math.min(1, (v0 * tau + a * tau * tau / 2) / D) : 1;
 			
-			if (reverse)
-			{
-				segIdx--;
-			}
-			else
-			{
-				segIdx++;
-			}
-			velocity = nextVelocity;
-			lastIdx = idx;
-
-			if (reverse)
-			{
-				if (velocity == max_velocity)
-				{
-					break;
-				}
-			}
+			addSegment(center, idx, fraction, path.m_centerSegments, segIdx, dt);
+			addSegment(path.m_left, idx, fraction, path.m_leftSegments, segIdx, dt);
+			addSegment(path.m_right, idx, fraction, path.m_rightSegments, segIdx, dt);
 		}
-		
-//		printSegments(centerSeg, leftSeg, rightSeg, segIdx + 1);
-		
-		return(segIdx);
-	}	
-	
-	private static void followPath(PathBezier path, double velocity, double dt, double max_velocity, 
-																	double max_acceleration, double max_decl, double max_jerk, double finalVelocity)
-	{
-		/*
-		 * Make a rough guess of how many segments we will need
-		 */
-		double length = path.m_center[path.m_center.length-1].m_distance;
-		int count = (int) (5 * length / (max_velocity * dt)) + 1000;
-		
-		path.m_centerSegments = new Segment[count];
-		path.m_leftSegments = new Segment[count];
-		path.m_rightSegments = new Segment[count];
-		
-		/*
-		 * First compute the ending deceleration segments
-		 */
-		Segment[] endCenter = new Segment[count];
-		Segment[] endLeft = new Segment[count];
-		Segment[] endRight = new Segment[count];
-		
-		int endSegIdx = computePath( 	path.m_left,
-										path.m_center,
-										path.m_right,
-										endLeft,
-										endCenter,
-										endRight,
-										dt,
-										max_velocity,
-										max_decl,
-										max_jerk,
-										true,
-										0,
-										finalVelocity) + 1;
-		
-		/*
-		 * Now compute the starting segments up to the start of the deceleration period
-		 */
-		int segIdx = computePath( 	path.m_left,
-									path.m_center,
-									path.m_right,
-									path.m_leftSegments,
-									path.m_centerSegments,
-									path.m_rightSegments,
-									dt,
-									max_velocity,
-									max_acceleration,
-									max_jerk,
-									false,
-									endCenter[endSegIdx].position,
-									0);
-		
-		/*
-		 * Now paste together the two sequences
-		 */
-		for (int s = endSegIdx ; s < endCenter.length ; s++, segIdx++)
-		{
-			path.m_centerSegments[segIdx] = endCenter[s];
-			path.m_leftSegments[segIdx] = endLeft[s];
-			path.m_rightSegments[segIdx] = endRight[s];
-		}
-		
-		path.m_centerSegments = java.util.Arrays.copyOf(path.m_centerSegments, segIdx);
-		path.m_leftSegments = java.util.Arrays.copyOf(path.m_leftSegments, segIdx);
-		path.m_rightSegments = java.util.Arrays.copyOf(path.m_rightSegments, segIdx);
 	}
 	
 	private static void printSegments(Segment[] center, Segment[] left, Segment[] right, int start)
@@ -841,8 +549,13 @@ public class Pathfinder
 		public Segment[] m_centerPath;
 		public Segment[] m_leftPath;
 		public Segment[] m_rightPath;
+		public final double[] m_centerX;	// Center x and y positions as columns for GeometryKernels
+		public final double[] m_centerY;
 		//! @endcond
 		
+		private final double[] m_times;		// Time at the end of each segment
+		private final double[] m_distances;	// Center position at the end of each segment
+		
 		private Path(BezierQuintic[] bezierPoints, Segment[] center, Segment[] left, Segment[] right, double dt, double wheelBase)
 		{
 			m_bezierPoints = bezierPoints;
@@ -851,7 +564,139 @@ public class Pathfinder
 			m_rightPath = right;
 			m_dt = dt;
 			m_wheelBase = wheelBase;
+			
+			m_times = new double[center.length];
+			m_distances = new double[center.length];
+			m_centerX = new double[center.length];
+			m_centerY = new double[center.length];
+			
+			double time = 0;
+			
+			for (int i = 0 ; i < center.length ; i++)
+			{
+				time += center[i].dt;
+				m_times[i] = time;
+				m_distances[i] = center[i].position;
+				m_centerX[i] = center[i].x;
+				m_centerY[i] = center[i].y;
+			}
+		}
+		
+		/**
+		 * @return Returns the time to run the path in seconds.
+		 */
+		public double getDuration()
+		{
+			return((m_times.length > 0) ? m_times[m_times.length - 1] : 0);
+		}
+		
+		/**
+		 * @return Returns the length of the path, measured along the center, in feet.
+		 */
+		public double getLength()
+		{
+			return((m_distances.length > 0) ? m_distances[m_distances.length - 1] : 0);
+		}
+		
+		/**
+		 * Computes the state of the robot at the specified time by interpolating between the
+		 * two nearest segments. The segments are found by a binary search and nothing is allocated.
+		 * Times before the first segment or after the end of the path return the first or last segment.
+		 * 
+		 * @param time - Specifies the time from the start of the path in seconds.
+		 * @param state - Receives the state.
+		 * @return Returns state.
+		 */
+		public PathState sampleAtTime(double time, PathState state)
+		{
+			return(sample(m_times, time, state));
+		}
+		
+		/**
+		 * Computes the state of the robot when the center has traveled the specified distance
+		 * along the path. The segments are found by a binary search and nothing is allocated.
+		 * 
+		 * @param distance - Specifies the distance from the start of the path in feet.
+		 * @param state - Receives the state.
+		 * @return Returns state.
+		 */
+		public PathState sampleAtDistance(double distance, PathState state)
+		{
+			return(sample(m_distances, distance, state));
+		}
+		
+		/*
+		 * Finds the last index whose key is <= value
+		 */
+		private static int search(double[] keys, double value)
+		{
+			int low = 0;
+			int high = keys.length - 1;
+			
+			while (low < high)
+			{
+				int mid = (low + high + 1) >>> 1;
+				
+				if (keys[mid] <= value)
+				{
+					low = mid;
+				}
+				else
+				{
+					high = mid - 1;
+				}
+			}
+			
+			return(low);
 		}
+		
+		private PathState sample(double[] keys, double value, PathState state)
+		{
+			if (keys.length == 0)
+			{
+				throw new IllegalStateException("Path is empty");
+			}
+			
+			int idx = search(keys, value);
+			int next = Math.min(idx + 1, keys.length - 1);
+			double span = keys[next] - keys[idx];
+			double fraction = (span > 0) ? Math.max(0, Math.min(1, (value - keys[idx]) / span)) : 0;
+			
+			state.m_index = idx;
+			state.m_time = m_times[idx] + (m_times[next] - m_times[idx]) * fraction;
+			
+			interpolate(m_centerPath[idx], m_centerPath[next], fraction, state.m_center);
+			interpolate(m_leftPath[idx], m_leftPath[next], fraction, state.m_left);
+			interpolate(m_rightPath[idx], m_rightPath[next], fraction, state.m_right);
+			
+			return(state);
+		}
+		
+		private static void interpolate(Segment a, Segment b, double fraction, Segment out)
+		{
+			out.dt = a.dt;
+			out.x = a.x + (b.x - a.x) * fraction;
+			out.y = a.y + (b.y - a.y) * fraction;
+			out.position = a.position + (b.position - a.position) * fraction;
+			out.velocity = a.velocity + (b.velocity - a.velocity) * fraction;
+			out.acceleration = a.acceleration + (b.acceleration - a.acceleration) * fraction;
+			out.jerk = a.jerk + (b.jerk - a.jerk) * fraction;
+			out.heading = a.heading + MathUtil.normalizeRadians(b.heading - a.heading) * fraction;
+		}
+	}
+	
+	/**
+	 * The PathState class receives the state of a path at a given time or distance. It
+	 *  can be reused for each call to <b>sampleAtTime</b> or <b>sampleAtDistance</b> so that
+	 *  following a path does not create garbage.
+	 */
+	public static class PathState
+	{
+		public double m_time;							//!<Specifies the time from the start of the path in seconds.
+		public int m_index;								//!<Specifies the index of the segment at or before this state.
+		public final Segment m_center = new Segment();	//!<Specifies the state of the center of the robot.
+		public final Segment m_left = new Segment();	//!<Specifies the state of the left wheel.
+		public final Segment m_right = new Segment();	//!<Specifies the state of the right wheel.
 	}
 	
 	@SuppressWarnings("unused")
@@ -884,11 +729,13 @@ public class Pathfinder
 	 * Computes a path from the specified waypoints.
 	 * 
 	 * @param waypoints_in - Specifies the waypoints which define the path.
-	 * @param sample_count - Specifies the number of points/bezier curve to generate.
+	 * @param sample_count - Specifies the maximum number of points/bezier curve to generate. The points are
+	 * 						 spaced according to the curvature, so straight sections use fewer.
 	 * @param dt - Specifies the time between points on the output path.
 	 * @param max_velocity - Specifies the maximum allowable velocity for either of the wheels.
-	 * @param max_acceleration - Specifies the maximum allowable acceleration.
-	 * @param max_decl - Specifies the maximum allowable deceleration.
+	 * @param max_acceleration - Specifies the maximum allowable acceleration for either of the wheels.
+	 * @param max_decl - Specifies the maximum allowable deceleration for either of the wheels.
+	 * @param max_jerk - Specifies the maximum rate of change of the acceleration, or zero for no limit.
 	 * @param wheelbase - Specifies the width of the wheelbase in feet.
 	 */
 	public static Path computePath(	final Waypoint[] waypoints_in, 
@@ -899,6 +746,33 @@ public class Pathfinder
 									double max_decl,
 									double max_jerk,
 									double wheelBase)
+	{
+		return(computePath(waypoints_in, sample_count, dt, max_velocity, max_acceleration, max_decl, max_jerk, wheelBase, 0));
+	}
+	
+	/**
+	 * Computes a path from the specified waypoints which starts at a given velocity. This is used
+	 * to replace a path while the robot is moving.
+	 * 
+	 * @param waypoints_in - Specifies the waypoints which define the path.
+	 * @param sample_count - Specifies the maximum number of points/bezier curve to generate.
+	 * @param dt - Specifies the time between points on the output path.
+	 * @param max_velocity - Specifies the maximum allowable velocity for either of the wheels.
+	 * @param max_acceleration - Specifies the maximum allowable acceleration for either of the wheels.
+	 * @param max_decl - Specifies the maximum allowable deceleration for either of the wheels.
+	 * @param max_jerk - Specifies the maximum rate of change of the acceleration, or zero for no limit.
+	 * @param wheelbase - Specifies the width of the wheelbase in feet.
+	 * @param startVelocity - Specifies the velocity of the robot at the first waypoint in feet/second.
+	 */
+	public static Path computePath(	final Waypoint[] waypoints_in, 
+									int sample_count, 
+									double dt,
+									double max_velocity, 
+									double max_acceleration, 
+									double max_decl,
+									double max_jerk,
+									double wheelBase,
+									double startVelocity)
 	{
 	    if (waypoints_in.length < 2) return(null);
 	    
@@ -911,13 +785,8 @@ public class Pathfinder
 	    
 	    PathBezier pathSpline = new PathBezier();
 	    
-	    SplinePoint[] centerSpline = new SplinePoint[(waypoints.length-1) * (sample_count)];
-	    SplinePoint[] leftSpline = new SplinePoint[centerSpline.length];
-	    SplinePoint[] rightSpline = new SplinePoint[centerSpline.length];
+	    ArrayList<SplinePoint> points = new ArrayList<SplinePoint>();
 	    
-	    pathSpline.m_center = centerSpline;
-	    pathSpline.m_left = leftSpline;
-	    pathSpline.m_right = rightSpline;
 	    pathSpline.m_bezierPoints = new BezierQuintic[waypoints.length - 1];
 	    
 	    for (int i = 0 ; i < waypoints.length - 1 ; i++) 
@@ -925,21 +794,31 @@ public class Pathfinder
         	BezierQuintic bezier = new BezierQuintic(waypoints[i].x, waypoints[i].y, waypoints[i].angle, waypoints[i].l1, waypoints[i].l3,
         								waypoints[i+1].x, waypoints[i+1].y, waypoints[i+1].angle + Math.PI, waypoints[i].l2, waypoints[i].l4);
         	
-        	bezier.ComputeSplinePoints(centerSpline,  i * (sample_count), sample_count, waypoints[i].maxVelocity);
+        	/*
+        	 * The sample count is the maximum number of points per curve. The end point of
+        	 *  each curve is the start of the next, so it is only added for the last curve.
+        	 */
+        	bezier.ComputeSplinePoints(points, sample_count, waypoints[i].maxVelocity, i == waypoints.length - 2);
         	
         	pathSpline.m_bezierPoints[i] = bezier;
-	        
-	    	tankModify(centerSpline, leftSpline, rightSpline, i * (sample_count), sample_count, wheelBase); 
-	    	
-
 	    }
 	    
+	    SplinePoint[] centerSpline = points.toArray(new SplinePoint[points.size()]);
+	    SplinePoint[] leftSpline = new SplinePoint[centerSpline.length];
+	    SplinePoint[] rightSpline = new SplinePoint[centerSpline.length];
+	    
+	    pathSpline.m_center = centerSpline;
+	    pathSpline.m_left = leftSpline;
+	    pathSpline.m_right = rightSpline;
+	    
+    	tankModify(centerSpline, leftSpline, rightSpline, 0, centerSpline.length, wheelBase); 
+	    
 //	      printSplinePoints(leftSpline, centerSpline, rightSpline);
 //        printSplinePoints(centerSpline);
 //        printSplinePoints(leftSpline);
 //        printSplinePoints(rightSpline);
         
-    	followPath(pathSpline, 0, dt, max_velocity, max_acceleration, max_decl, max_jerk, waypoints_in[waypoints_in.length-1].maxVelocity);
+    	followPath(pathSpline, dt, max_acceleration, max_decl, max_jerk, startVelocity, waypoints_in[waypoints_in.length-1].maxVelocity, wheelBase);
 //    	fixupPath(pathSpline, dt, max_acceleration, wheelBase);
     	
 //    	printSegments(pathSpline.m_centerSegments, pathSpline.m_leftSegments, pathSpline.m_rightSegments, 0);
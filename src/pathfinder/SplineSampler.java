@@ -0,0 +1,213 @@
+package pathfinder;
+
+import java.util.ArrayList;
+
+/*
+ * Samples a polynomial curve with a point density which follows the geometry.
+ *
+ * The curve is given by its power basis coefficients, x(t) = c[0] + c[1]*t + c[2]*t^2 ...,
+ * which are evaluated using Horner's rule. The parameter range is first split into
+ * k_minIntervals equal intervals and each interval is then split in half until:
+ *
+ *   - The point at the middle of the interval is within k_tolerance of the chord
+ *   - The heading changes by less than k_maxAngle across the interval
+ *   - The chord is shorter than k_maxSpacing
+ *
+ * or the curve has been split into as many intervals as the sample count allows. Straight
+ * sections therefore get few points and tight curves get many.
+ */
+class SplineSampler
+{
+	static final double k_tolerance = 0.0005;						// Max chord error in feet
+	static final double k_maxAngle = Math.toRadians(1.0);			// Max heading change between samples
+	static final double k_maxSpacing = 0.5;							// Max distance between samples in feet
+	static final int k_minIntervals = 8;
+
+	private static final double k_sinMaxAngle = Math.sin(k_maxAngle);
+
+	private final double[] m_x;
+	private final double[] m_y;
+	private final double[] m_dx;
+	private final double[] m_dy;
+
+	SplineSampler(double[] x, double[] y)
+	{
+		m_x = x;
+		m_y = y;
+		m_dx = derivative(x);
+		m_dy = derivative(y);
+	}
+
+	private static double[] derivative(double[] c)
+	{
+		double[] d = new double[c.length - 1];
+
+		for (int i = 1 ; i < c.length ; i++)
+		{
+			d[i-1] = i * c[i];
+		}
+
+		return(d);
+	}
+
+	static double evaluate(double[] c, double t)
+	{
+		double value = c[c.length - 1];
+
+		for (int i = c.length - 2 ; i >= 0 ; i--)
+		{
+			value = value * t + c[i];
+		}
+
+		return(value);
+	}
+
+	double getX(double t)
+	{
+		return(evaluate(m_x, t));
+	}
+
+	double getY(double t)
+	{
+		return(evaluate(m_y, t));
+	}
+
+	double getHeading(double t)
+	{
+		return(Math.atan2(evaluate(m_dy, t), evaluate(m_dx, t)));
+	}
+
+	/*
+	 * Fills the points using sample_count uniform samples for t in [0, 1). The coordinates and
+	 * derivatives are evaluated for all of the samples at once (see GeometryKernels).
+	 */
+	void sampleUniform(SplinePoint[] points, int first, int sample_count, double maxVelocity)
+	{
+		double[] t = new double[sample_count];
+		double[] x = new double[sample_count];
+		double[] y = new double[sample_count];
+		double[] dx = new double[sample_count];
+		double[] dy = new double[sample_count];
+
+		for (int i = 0 ; i < sample_count ; i++)
+		{
+			t[i] = (double) i / sample_count;
+		}
+
+		GeometryKernels.polynomial(m_x, t, x, sample_count);
+		GeometryKernels.polynomial(m_y, t, y, sample_count);
+		GeometryKernels.polynomial(m_dx, t, dx, sample_count);
+		GeometryKernels.polynomial(m_dy, t, dy, sample_count);
+
+		for (int i = 0 ; i < sample_count ; i++)
+		{
+			SplinePoint point = new SplinePoint(x[i], y[i], Math.atan2(dy[i], dx[i]), maxVelocity);
+
+			points[first + i] = point;
+
+			if ((i + first) > 0)
+			{
+				addDistance(points[i + first - 1], point);
+			}
+		}
+	}
+
+	/*
+	 * Appends the samples to the list. The point at t = 1 is only added if includeEnd is true,
+	 * since it is normally the first point of the next curve. At most sample_count points are
+	 * added, so the intervals are split no further than the largest power of two which fits,
+	 * except that the k_minIntervals intervals are always used.
+	 */
+	void sampleAdaptive(ArrayList<SplinePoint> points, int sample_count, double maxVelocity, boolean includeEnd)
+	{
+		int maxPoints = includeEnd ? sample_count - 1 : sample_count;
+		int maxDepth = 0;
+
+		while ((k_minIntervals << (maxDepth + 1)) <= maxPoints)
+		{
+			maxDepth++;
+		}
+
+		add(points, 0, maxVelocity);
+
+		for (int i = 0 ; i < k_minIntervals ; i++)
+		{
+			double t0 = (double) i / k_minIntervals;
+			double t1 = (double) (i + 1) / k_minIntervals;
+
+			refine(points, t0, getX(t0), getY(t0), t1, getX(t1), getY(t1), maxDepth, maxVelocity, includeEnd);
+		}
+	}
+
+	private void refine(ArrayList<SplinePoint> points, double t0, double x0, double y0, double t1, double x1, double y1, int depth, double maxVelocity, boolean includeEnd)
+	{
+		double tm = (t0 + t1) / 2;
+		double xm = getX(tm);
+		double ym = getY(tm);
+
+		if ((depth > 0) && !isFlat(t0, x0, y0, t1, x1, y1, xm, ym))
+		{
+			refine(points, t0, x0, y0, tm, xm, ym, depth - 1, maxVelocity, includeEnd);
+			refine(points, tm, xm, ym, t1, x1, y1, depth - 1, maxVelocity, includeEnd);
+		}
+		else if ((t1 < 1) || includeEnd)
+		{
+			add(points, t1, maxVelocity);
+		}
+	}
+
+	private boolean isFlat(double t0, double x0, double y0, double t1, double x1, double y1, double xm, double ym)
+	{
+		double cx = x1 - x0;
+		double cy = y1 - y0;
+
+		if (cx*cx + cy*cy > k_maxSpacing * k_maxSpacing)
+		{
+			return(false);
+		}
+
+		/*
+		 * Distance of the middle point from the chord
+		 */
+		double e = (xm - x0) * cy - (ym - y0) * cx;
+
+		if (e * e > k_tolerance * k_tolerance * (cx*cx + cy*cy))
+		{
+			return(false);
+		}
+
+		/*
+		 * Compare the heading at the ends without computing the angles
+		 */
+		double dx0 = evaluate(m_dx, t0);
+		double dy0 = evaluate(m_dy, t0);
+		double dx1 = evaluate(m_dx, t1);
+		double dy1 = evaluate(m_dy, t1);
+		double cross = dx0 * dy1 - dy0 * dx1;
+		double dot = dx0 * dx1 + dy0 * dy1;
+		double mag2 = (dx0*dx0 + dy0*dy0) * (dx1*dx1 + dy1*dy1);
+
+		return((dot >= 0) && (cross * cross <= k_sinMaxAngle * k_sinMaxAngle * mag2));
+	}
+
+	private void add(ArrayList<SplinePoint> points, double t, double maxVelocity)
+	{
+		SplinePoint point = new SplinePoint(getX(t), getY(t), getHeading(t), maxVelocity);
+
+		if (!points.isEmpty())
+		{
+			addDistance(points.get(points.size() - 1), point);
+		}
+
+		points.add(point);
+	}
+
+	private static void addDistance(SplinePoint last, SplinePoint point)
+	{
+		double dx = point.m_x - last.m_x;
+		double dy = point.m_y - last.m_y;
+
+		point.m_delta = Math.sqrt(dx*dx + dy*dy);
+		point.m_distance = last.m_distance + point.m_delta;
+	}
+}
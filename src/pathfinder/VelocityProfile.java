@@ -0,0 +1,209 @@
+package pathfinder;
+
+/*
+ * Computes the velocity of the center of the robot at each point of a path so that neither
+ * wheel exceeds its velocity or acceleration limit.
+ *
+ * With a curvature k and half the wheelbase w, the wheel velocities are:
+ *
+ *   left = v * (1 - k*w)
+ *   right = v * (1 + k*w)
+ *
+ * so the center velocity at each point has a ceiling of max_velocity / (1 + |k|*w). The velocity
+ * at each point starts at its ceiling and is then lowered by a forward pass, which limits how
+ * quickly the wheels can speed up, and a backward pass, which limits how quickly they can slow
+ * down. Between two points the change in the velocity of each wheel must be no more than the
+ * acceleration times the time taken, 2*ds / (u + v). Since the ratio changes along a curve, this
+ * is what keeps the outside wheel within its limit when the robot enters or leaves a turn at a
+ * constant center velocity.
+ *
+ * If max_jerk is not zero, the acceleration of the center in each pass starts at the acceleration
+ * actually used for the previous interval and can only grow by max_jerk per second.
+ */
+class VelocityProfile
+{
+	final double[] m_velocity;	// Center velocity at each point
+	final double[] m_time;		// Time at which each point is reached
+
+	private final double[] m_delta;		// Center distance of the interval ending at each point
+	private final double[] m_left;		// Left wheel to center velocity ratio at each point
+	private final double[] m_right;		// Right wheel to center velocity ratio at each point
+
+	VelocityProfile(SplinePoint[] center, double wheelBase, double max_acceleration, double max_decl, double max_jerk,
+					double startVelocity, double finalVelocity)
+	{
+		int n = center.length;
+		double w = wheelBase / 2;
+
+		m_velocity = new double[n];
+		m_time = new double[n];
+		m_delta = new double[n];
+		m_left = new double[n];
+		m_right = new double[n];
+
+		for (int i = 0 ; i < n ; i++)
+		{
+			SplinePoint prev = center[Math.max(0, i - 1)];
+			SplinePoint next = center[Math.min(n - 1, i + 1)];
+			double ds = next.m_distance - prev.m_distance;
+			double k = (ds > 0) ? MathUtil.normalizeRadians(next.m_heading - prev.m_heading) / ds : 0;
+
+			m_delta[i] = center[i].m_delta;
+			m_left[i] = 1 - k * w;
+			m_right[i] = 1 + k * w;
+			m_velocity[i] = center[i].m_maxVelocity / (1 + Math.abs(k) * w);
+		}
+
+		m_delta[0] = 0;
+
+		/*
+		 * Where the curvature changes, the wheel velocities change even if the center velocity
+		 * does not. Holding the center velocity v across an interval changes a wheel velocity
+		 * by v*dr in the time ds/v, which limits v^2 to a*ds/dr.
+		 */
+		double a = Math.min(max_acceleration, max_decl);
+
+		for (int i = 1 ; i < n ; i++)
+		{
+			double dr = Math.abs(m_right[i] - m_right[i - 1]);		// The same as the change for the left
+
+			if (dr > 0)
+			{
+				double v = Math.sqrt(a * m_delta[i] / dr);
+
+				m_velocity[i] = Math.min(m_velocity[i], v);
+				m_velocity[i - 1] = Math.min(m_velocity[i - 1], v);
+			}
+		}
+
+		m_velocity[0] = Math.min(m_velocity[0], startVelocity);
+		m_velocity[n - 1] = Math.min(m_velocity[n - 1], Math.max(0, finalVelocity));
+
+		limit(true, max_acceleration, max_jerk);
+		limit(false, max_decl, max_jerk);
+
+		for (int i = 1 ; i < n ; i++)
+		{
+			double v = m_velocity[i - 1] + m_velocity[i];
+
+			m_time[i] = m_time[i - 1] + ((v > 0) ? 2 * m_delta[i] / v : 0);
+		}
+	}
+
+	/*
+	 * Lowers the velocities so that they can be reached from the start (forward) or can reach
+	 * the end (backward) within the acceleration limit
+	 */
+	private void limit(boolean forward, double max_accel, double max_jerk)
+	{
+		int n = m_velocity.length;
+		double accel = 0;
+
+		for (int k = 1 ; k < n ; k++)
+		{
+			int i = forward ? k : n - 1 - k;		// Point being limited
+			int j = forward ? i - 1 : i + 1;		// Previous point in this pass
+			double ds = m_delta[forward ? i : j];
+			double u = m_velocity[j];
+			double v = m_velocity[i];
+
+			if (ds <= 0)
+			{
+				m_velocity[i] = Math.min(v, u);
+				continue;
+			}
+
+			if (max_jerk > 0)
+			{
+				double a = Math.min(max_accel, accel + max_jerk * stepTime(u, accel, max_jerk, ds));
+
+				v = Math.min(v, Math.sqrt(u * u + 2 * a * ds));
+			}
+
+			v = wheelLimit(v, u, m_left[i], m_left[j], 2 * max_accel * ds);
+			v = wheelLimit(v, u, m_right[i], m_right[j], 2 * max_accel * ds);
+
+			m_velocity[i] = v;
+
+			accel = Math.max(0, (v * v - u * u) / (2 * ds));
+		}
+	}
+
+	/*
+	 * Returns the largest velocity v, no more than max, for which the wheel velocity change from
+	 * u * ru to v * r takes no more than the acceleration limit:
+	 *
+	 *   |v*r - u*ru| * (v + u) <= limit			(limit = 2 * acceleration * ds)
+	 *
+	 * The left side only increases above v = u*ru/r, so if max does not meet the limit the answer
+	 * is the root of the quadratic in that range. Below it, lowering the velocity cannot help, so
+	 * max is returned unchanged and the other pass has to deal with it.
+	 */
+	private static double wheelLimit(double max, double u, double r, double ru, double limit)
+	{
+		double c = u * ru;
+
+		if (Math.abs(max * r - c) * (max + u) <= limit)
+		{
+			return(max);
+		}
+
+		if (r == 0)
+		{
+			return(Math.max(0, limit / Math.abs(c) - u));
+		}
+
+		double low = Math.max(0, c / r);
+
+		if (max <= low)
+		{
+			return(max);
+		}
+
+		/*
+		 * Above low, |v*r - c| = s * (v*r - c)
+		 */
+		double s = Math.signum(r);
+		double a = s * r;
+		double b = s * (r * u - c);
+		double d = -s * c * u - limit;
+		double v = (-b + Math.sqrt(Math.max(0, b * b - 4 * a * d))) / (2 * a);
+
+		return(Math.max(low, Math.min(max, v)));
+	}
+
+	/*
+	 * Returns the time to move ds starting at velocity v and acceleration a, with the acceleration
+	 * growing at the jerk j. This solves v*t + a*t^2/2 + j*t^3/6 = ds using Newton's method,
+	 * starting from an upper bound so that it converges from above.
+	 */
+	private static double stepTime(double v, double a, double j, double ds)
+	{
+		double t = Math.cbrt(6 * ds / j);
+
+		if (v > 0)
+		{
+			t = Math.min(t, ds / v);
+		}
+
+		if (a > 0)
+		{
+			t = Math.min(t, Math.sqrt(2 * ds / a));
+		}
+
+		for (int i = 0 ; i < 3 ; i++)
+		{
+			double f = t * (v + t * (a / 2 + t * j / 6)) - ds;
+			double df = v + t * (a + t * j / 2);
+
+			if (df <= 0)
+			{
+				break;
+			}
+
+			t -= f / df;
+		}
+
+		return(t);
+	}
+}
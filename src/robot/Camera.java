@@ -20,16 +20,20 @@
 
 import robotCore.Device;
 import robotCore.DigitalOutput;
+import robotCore.CameraProfileController;
 import robotCore.Logger;
 import robotCore.PiCamera;
-import robotCore.PiCamera.PiCameraRegion;
 import robotCore.PiCamera.PiCameraRegions;
+import robotCore.VisionClient;
+import robotCore.RobotBase.RobotMode;
+import static robot.Constants.CameraConstants.*;
 
 public class Camera {
-    private final static String m_ip = "172.24.1.1";
     private static final int k_pin = Device.M3_2_PWM;
+    private static final double k_horzFieldOfView = 62.2; // Pi camera v2, degrees
 
-    private final PiCamera m_camera = new PiCamera();
+    private final PiCamera m_camera;
+    private CameraProfileController m_profileController;
     private final DigitalOutput m_light = new DigitalOutput(k_pin);
 
     public class CameraFrame {
@@ -50,17 +54,60 @@ public class Camera {
          * NOTE: This function should ONLY be called if isVisible returns true
          */
         public int getTargetCenter() {
-            PiCameraRegion region = m_regions.getRegion(0);
-
             // Logger.Log("Camera", 1, String.format("left=%d, right=%d", region.m_topLeft,
             // region.m_topRight));
 
-            return ((region.m_bounds.m_left + region.m_bounds.m_right) / 2) - m_regions.m_targetHorzPos;
+            return ((m_regions.getLeft(0) + m_regions.getRight(0)) / 2) - m_regions.m_targetHorzPos;
+        }
+
+        /*
+         * Returns the horizontal angle in degrees from the camera axis to the target
+         * center, positive to the right
+         * 
+         * NOTE: This function should ONLY be called if isVisible returns true
+         */
+        public double getTargetAngle() {
+            double focalLength = (m_regions.m_width / 2.0) / Math.tan(Math.toRadians(k_horzFieldOfView / 2));
+
+            return Math.toDegrees(Math.atan(getTargetCenter() / focalLength));
+        }
+
+        /*
+         * Returns the time at which the image was captured in ms on the robot clock
+         */
+        public long getCaptureTime() {
+            return (m_regions.m_captureTime);
+        }
+
+        /*
+         * Returns the camera frame number
+         */
+        public int getFrameNo() {
+            return (m_regions.m_frameNo);
         }
     }
 
     public Camera() {
-        m_camera.connect(m_ip, 5800);
+        m_camera = new PiCamera();
+        m_camera.connect(k_host, k_port);
+        initProfileController();
+    }
+
+    /*
+     * Creates a camera whose connection is handled by the specified vision client
+     */
+    public Camera(VisionClient client, String host, int port) {
+        m_camera = client.addCamera(host, port);
+        initProfileController();
+    }
+
+    /*
+     * Selects the capture profile automatically to keep within the latency budget
+     */
+    private void initProfileController() {
+        m_profileController = new CameraProfileController(m_camera, k_maxDelay, k_profiles);
+        m_profileController.setBudget(RobotMode.Autonomous, k_autonomousMaxDelay);
+        m_profileController.setFixedProfile(RobotMode.Disabled, k_disabledProfile);
     }
 
     public void setLight(boolean on) {
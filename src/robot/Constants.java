@@ -22,6 +22,10 @@ import robotCore.Device;
 public final class Constants {
     public static class DrivetrainConstants {
         public final static double  k_ticksPerFoot = 7059.2 / 5.85;
+        public final static double  k_trackWidth = 0.5;     // Distance between the wheels in feet
+        public final static double  k_maxSpeed = 3.0;       // Simulated speed at full power in feet per second, not measured
+        public final static int     k_odometryPeriod = 20;  // ms between navigator samples streamed by the bus thread
+        public final static int     k_followerPeriod = 20;  // ms between path follower updates
 
         public static final int k_leftMotorPWMPin = Device.M1_1_PWM;
         public static final int k_leftMotorDirPin = Device.M1_1_DIR;
@@ -48,10 +52,26 @@ public final class Constants {
         public static final int k_encoderPin2 = -1;
     }
 
+    public static class CameraConstants {
+        public static final String k_host = "172.24.1.1";
+        public static final int k_port = 5800;
+        public static final int k_maxFrameSkew = 20;    // ms between frames from different cameras which are fused
+        public static final int[] k_profiles = { 0, 1, 2 };    // Capture profiles from lowest latency to highest quality
+        public static final int k_maxDelay = 100;               // Latency budget in ms
+        public static final int k_autonomousMaxDelay = 60;
+        public static final int k_disabledProfile = 3;          // Low frame rate profile to keep the Pi cool
+    }
+
     public static class TurnTableConstants {
         public static final int k_PWMPin = Device.M3_1_PWM;
         public static final int k_DirPin = Device.M3_1_DIR;
         public static final int k_encoderIntPin = Device.Q3_INT;
         public static final int k_encoderDirPin = Device.Q3_DIR;
+        public static final double k_ticksPerDegree = 10.0;     // Placeholder, not calibrated
+        public static final int k_angleHistorySize = 64;
+        public static final int k_anglePeriod = 20;             // ms between angle reads by the bus thread
+        public static final double k_aimGain = 0.02;            // Power per degree of target error. Placeholder, not tuned
+        public static final double k_aimMaxPower = 0.6;
+        public static final double k_aimTolerance = 1.0;        // Degrees
     }
 }
@@ -19,10 +19,14 @@
 
 package robot;
 
+import robotCore.InputRecorder;
 import robotCore.RobotBase;
+import robotCore.Simulation;
 
 public class Main {
 	public static void main(String[] args) {
+		InputRecorder.configure(args);
+		Simulation.configure(args);
 		RobotBase.startRobot(Robot::new, true);
 	}
 
@@ -21,7 +21,13 @@ package robot;
 
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import robotCore.Logger;
+import robotCore.Simulation;
 import robotCore.TimedRobot;
+import robotCore.Warmup;
+import robot.Constants.DrivetrainConstants;
+import robot.Constants.FeederConstants;
+import robot.Constants.ShooterConstants;
+import robot.Constants.TurnTableConstants;
 
 public class Robot extends TimedRobot {
 	@SuppressWarnings("unused")
@@ -35,6 +41,8 @@ public class Robot extends TimedRobot {
 	public void robotInit() {
 		Logger.log("Robot", 3, "robotInit()");
 		m_robotContainer = new RobotContainer();
+
+		Warmup.start();		// Compile the path following code while the robot is disabled
 	}
 
 	/**
@@ -59,6 +67,30 @@ public class Robot extends TimedRobot {
 		CommandScheduler.getInstance().run();
 	}
 
+	/**
+	 * This function is called after robotInit() when running in simulation. It describes
+	 * how the simulated motors and encoders are connected.
+	 */
+	@Override
+	public void simulationInit() {
+		Logger.log("Robot", 2, "simulationInit()");
+
+		Simulation.connectEncoder(DrivetrainConstants.k_leftMotorPWMPin, DrivetrainConstants.k_leftEncoderIntPin, true);
+		Simulation.connectEncoder(DrivetrainConstants.k_rightMotorPWMPin, DrivetrainConstants.k_rightEncoderIntPin, false);
+		Simulation.setMaxSpeed(DrivetrainConstants.k_leftMotorPWMPin, DrivetrainConstants.k_maxSpeed * DrivetrainConstants.k_ticksPerFoot);
+		Simulation.setMaxSpeed(DrivetrainConstants.k_rightMotorPWMPin, DrivetrainConstants.k_maxSpeed * DrivetrainConstants.k_ticksPerFoot);
+		Simulation.setTrackWidth(DrivetrainConstants.k_trackWidth * DrivetrainConstants.k_ticksPerFoot);
+
+		Simulation.connectEncoder(FeederConstants.k_PWMPin, FeederConstants.k_encPin1, false);
+		Simulation.connectEncoder(ShooterConstants.k_PWMPin, ShooterConstants.k_encoderPin1, false);
+		Simulation.connectEncoder(TurnTableConstants.k_PWMPin, TurnTableConstants.k_encoderIntPin, false);
+	}
+
+	@Override
+	public void simulationPeriodic() {
+		Logger.log("Robot", -1, "simulationPeriodic()");
+	}
+
 	/**
 	 * This function is called once each time the robot enters Disabled mode.
 	 */
@@ -21,6 +21,7 @@ package robot;
 
 import edu.wpi.first.wpilibj2.command.Command;
 import frc.team3128.common.hardware.input.NAR_Joystick;
+import robot.commands.CmdAimTurntable;
 import robot.commands.CmdArcadeDrive;
 import robot.commands.TestBallCounterCommand;
 import robot.commands.CmdDrive;
@@ -35,6 +36,8 @@ import robot.subsystems.DriveSubsystem;
 import robot.subsystems.FeederSubsystem;
 import robot.subsystems.ShooterSubsystem;
 import robot.subsystems.TurntableSubsystem;
+import robotCore.VisionClient;
+import static robot.Constants.CameraConstants.*;
 
 /**
  * This class is where the bulk of the robot should be declared. Since
@@ -55,11 +58,15 @@ public class RobotContainer {
   // private final JoystickButton m_button7 = new JoystickButton(m_joystick, 7);
   // private final JoystickButton m_button8 = new JoystickButton(m_joystick, 8);
 
+  // The vision client does not use the processor, so it is started while the processor is still resetting
+  private final VisionClient m_visionClient = new VisionClient();
+  // Additional cameras are added to the same vision client
+  private final Camera m_camera = new Camera(m_visionClient, k_host, k_port);
   private final DriveSubsystem m_driveSubsystem = new DriveSubsystem();
   private final ShooterSubsystem m_shooterSubsystem = new ShooterSubsystem();
   private final FeederSubsystem m_feederSubsystem = new FeederSubsystem();
   private final TurntableSubsystem m_turntableSubsystem = new TurntableSubsystem();
-  private final Camera m_camera = new Camera();
+  private final TargetTracker m_targetTracker = new TargetTracker(m_camera, m_driveSubsystem, m_turntableSubsystem);
 
   /**
    * The container for the robot. Contains subsystems, OI devices, and commands.
@@ -86,6 +93,7 @@ public class RobotContainer {
     m_joystick.getButton(7).toggleWhenActive(new TestLightCommand(m_camera));
     m_joystick.getButton(8).toggleWhenActive(new TestBallCounterCommand());
     m_joystick.getButton(9).toggleWhenActive(new TestNavigatorCommand(m_driveSubsystem));
+    m_joystick.getButton(10).whileTrue(new CmdAimTurntable(m_turntableSubsystem, m_driveSubsystem, m_targetTracker));
   }
 
   /**
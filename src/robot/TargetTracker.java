@@ -0,0 +1,115 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *    
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robot;
+
+import robot.Camera.CameraFrame;
+import robot.subsystems.DriveSubsystem;
+import robot.subsystems.TurntableSubsystem;
+import robotCore.Logger;
+import robotCore.Timer;
+
+/*
+ * Tracks the vision target bearing with compensation for the camera latency.
+ *
+ * The camera is mounted on the turntable, so the direction it points is the
+ * robot yaw plus the turntable angle. When a new frame arrives, that heading is
+ * looked up at the frame's capture time from the pose histories of the drive and
+ * turntable subsystems, and the target angle in the image is added to give the
+ * target bearing in field coordinates. The error returned to the caller is that
+ * bearing minus the current heading, so turning during the tens of ms between
+ * capture and processing does not cause overshoot.
+ *
+ * Angles are in degrees, counter-clockwise positive. This assumes the Navigator
+ * is not inverted.
+ */
+public class TargetTracker {
+    private static final int k_targetTimeout = 500; // ms without seeing the target before it is lost
+
+    private final Camera m_camera;
+    private final DriveSubsystem m_driveSubsystem;
+    private final TurntableSubsystem m_turntableSubsystem;
+    private int m_lastFrameNo = -1;
+    private double m_targetBearing = Double.NaN;
+    private long m_targetTime = 0;
+
+    public TargetTracker(Camera camera, DriveSubsystem driveSubsystem, TurntableSubsystem turntableSubsystem) {
+        m_camera = camera;
+        m_driveSubsystem = driveSubsystem;
+        m_turntableSubsystem = turntableSubsystem;
+    }
+
+    /*
+     * Forgets the current target
+     */
+    public void reset() {
+        m_lastFrameNo = -1;
+        m_targetBearing = Double.NaN;
+    }
+
+    /*
+     * Processes the latest camera frame. This should be called once per loop.
+     *
+     * Returns true if the target bearing is known
+     */
+    public boolean update() {
+        CameraFrame frame = m_camera.getCurrentFrame();
+
+        if (frame.isVisible()) {
+            if (frame.getFrameNo() != m_lastFrameNo) {
+                long time = frame.getCaptureTime();
+
+                m_lastFrameNo = frame.getFrameNo();
+                m_targetBearing = getHeading(time) - frame.getTargetAngle();
+                m_targetTime = time;
+
+                if (Logger.isLogged("TargetTracker", -1)) {
+                    Logger.log("TargetTracker", -1, String.format("frame=%d, delay=%d, bearing=%f", m_lastFrameNo,
+                            Timer.getTimeMs() - time, m_targetBearing));
+                }
+            }
+        } else if (Timer.getTimeMs() - m_targetTime > k_targetTimeout) {
+            m_targetBearing = Double.NaN;
+        }
+
+        return !Double.isNaN(m_targetBearing);
+    }
+
+    /*
+     * Returns the angle that the turntable must turn to point at the target,
+     * counter-clockwise positive, or NaN if the target is not known
+     */
+    public double getTargetError() {
+        return m_targetBearing - getHeading(Timer.getTimeMs());
+    }
+
+    /*
+     * Returns the heading of the camera at the specified time. If the navigator
+     * has not been started, only the turntable angle is used.
+     */
+    private double getHeading(long time) {
+        double heading = m_turntableSubsystem.getAngleHistory().getYaw(time);
+        double yaw = m_driveSubsystem.getYaw(time);
+
+        if (!Double.isNaN(yaw)) {
+            heading += yaw;
+        }
+
+        return heading;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *    
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robot.commands;
+
+import edu.wpi.first.wpilibj2.command.CommandBase;
+import robot.TargetTracker;
+import robot.subsystems.DriveSubsystem;
+import robot.subsystems.TurntableSubsystem;
+import robotCore.Logger;
+import static robot.Constants.TurnTableConstants.*;
+
+/**
+ * Turns the turntable to point the camera at the vision target, using the
+ * latency compensated bearing from the TargetTracker
+ */
+public class CmdAimTurntable extends CommandBase {
+    private final TurntableSubsystem m_subsystem;
+    private final DriveSubsystem m_driveSubsystem;
+    private final TargetTracker m_tracker;
+
+    public CmdAimTurntable(TurntableSubsystem subsystem, DriveSubsystem driveSubsystem, TargetTracker tracker) {
+        Logger.log("CmdAimTurntable", 3, "CmdAimTurntable()");
+
+        m_subsystem = subsystem;
+        m_driveSubsystem = driveSubsystem;
+        m_tracker = tracker;
+
+        addRequirements(m_subsystem);
+    }
+
+    // Called just before this Command runs the first time
+    @Override
+    public void initialize() {
+        Logger.log("CmdAimTurntable", 2, "initialize()");
+
+        // Start sampling the robot yaw so that turns of the robot are compensated
+        m_driveSubsystem.getNavigator();
+        m_tracker.reset();
+    }
+
+    // Called repeatedly when this Command is scheduled to run
+    @Override
+    public void execute() {
+        Logger.log("CmdAimTurntable", -1, "execute()");
+
+        double power = 0;
+
+        if (m_tracker.update()) {
+            double error = m_tracker.getTargetError();
+
+            if (Math.abs(error) > k_aimTolerance) {
+                power = Math.max(-k_aimMaxPower, Math.min(k_aimMaxPower, error * k_aimGain));
+            }
+        }
+
+        m_subsystem.setPower(power);
+    }
+
+    // Make this return true when this Command no longer needs to run execute()
+    @Override
+    public boolean isFinished() {
+        return (false);
+    }
+
+    // Called once after isFinished returns true
+    @Override
+    public void end(boolean interrupted) {
+        Logger.log("CmdAimTurntable", 2, "end()");
+
+        m_subsystem.setPower(0);
+    }
+}
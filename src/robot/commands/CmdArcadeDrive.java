@@ -21,6 +21,7 @@ package robot.commands;
 import edu.wpi.first.wpilibj2.command.CommandBase;
 import frc.team3128.common.hardware.input.NAR_Joystick;
 import robot.subsystems.DriveSubsystem;
+import robotCore.Joystick;
 import robotCore.Logger;
 
 /**
@@ -29,6 +30,7 @@ import robotCore.Logger;
 public class CmdArcadeDrive extends CommandBase {
   private final DriveSubsystem m_subsystem;
   private final NAR_Joystick m_joystick;
+  private long m_lastSequence = -1;
 
   /**
    * Creates a new ArcadeDriveCommand.
@@ -48,6 +50,7 @@ public class CmdArcadeDrive extends CommandBase {
   @Override
   public void initialize() {
     Logger.log("ArcadeDriveCommand", 2, "initialize()");
+    m_lastSequence = -1;
   }
 
   // Called every time the scheduler runs while the command is scheduled.
@@ -55,8 +58,16 @@ public class CmdArcadeDrive extends CommandBase {
   public void execute() {
     Logger.log("ArcadeDriveCommand", -1, "execute()");
 
-    double y = m_joystick.getY();
-    double x = m_joystick.getX();
+    Joystick.JoystickData data = m_joystick.getData();
+
+    // The motor power only depends on the joystick, so there is nothing to do until a new packet arrives
+    if (data.m_sequence == m_lastSequence) {
+      return;
+    }
+    m_lastSequence = data.m_sequence;
+
+    double y = m_joystick.getY(data);
+    double x = m_joystick.getX(data);
 
     x = x * Math.abs(x) * 0.5;
     y = y * Math.abs(y);
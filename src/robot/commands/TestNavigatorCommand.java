@@ -44,7 +44,7 @@ public class TestNavigatorCommand extends CommandBase {
 
         if (m_navigator == null)
         {
-            m_navigator = new Navigator(m_subsystem.GetLeftEncoder(), m_subsystem.GetRightEncoder());
+            m_navigator = m_subsystem.getNavigator();
         }
     }
 
@@ -23,8 +23,12 @@ import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import robotCore.Device;
 import robotCore.Encoder;
 import robotCore.Logger;
+import robotCore.Navigator;
+import robotCore.Odometry;
 import robotCore.PWMMotor;
+import robotCore.PurePursuit;
 import robotCore.Encoder.EncoderType;
+import robotCore.SmartMotor.SmartMotorMode;
 import static robot.Constants.DrivetrainConstants.*;
 
 public class DriveSubsystem extends SubsystemBase {
@@ -33,6 +37,10 @@ public class DriveSubsystem extends SubsystemBase {
   private final PWMMotor m_rightMotor = new PWMMotor(k_rightMotorPWMPin, k_rightMotorDirPin);
   private final Encoder m_rightEncoder = new Encoder(EncoderType.Quadrature, k_rightEncoderIntPin, k_rightEncoderDirPin);
   private final Encoder m_leftEncoder = new Encoder(EncoderType.Quadrature, k_leftEncoderIntPin, k_leftEncoderDirPin);
+  private Navigator m_navigator = null;
+  private Odometry m_odometry = null;
+  private PurePursuit m_follower = null;
+  private final Odometry.Pose m_pose = new Odometry.Pose();
 
   /**
    * Creates a new DriveSubsystem.
@@ -40,6 +48,10 @@ public class DriveSubsystem extends SubsystemBase {
   public DriveSubsystem() {
     Logger.log("DriveSubsystem", 3, "DriveSubsystem()");
     m_leftEncoder.setInverted(true);
+
+    // The encoders close the speed loop on the processor (see setSpeed)
+    m_leftMotor.setFeedbackDevice(m_leftEncoder);
+    m_rightMotor.setFeedbackDevice(m_rightEncoder);
   }
 
   @Override
@@ -48,12 +60,75 @@ public class DriveSubsystem extends SubsystemBase {
     Logger.log("DriveSubsystem", -1, "periodic()");
   }
 
+  /**
+   * Returns the navigator, initializing it on first use. Once the navigator
+   * exists, the bus thread streams its position (see getOdometry).
+   */
+  public Navigator getNavigator() {
+    if (m_navigator == null) {
+      m_navigator = new Navigator(m_leftEncoder, m_rightEncoder);
+      m_navigator.setTicksPerFoot(k_ticksPerFoot);
+      m_odometry = new Odometry(m_navigator, k_odometryPeriod);
+    }
+
+    return (m_navigator);
+  }
+
+  /**
+   * Returns the navigator position streamed by the bus thread, or null if the
+   * navigator has not been started
+   */
+  public Odometry getOdometry() {
+    return (m_odometry);
+  }
+
+  /**
+   * Returns the path follower for the drive, starting the navigator if needed.
+   * The follower reads the position from the odometry.
+   */
+  public PurePursuit getFollower() {
+    if (m_follower == null) {
+      m_follower = new PurePursuit(getNavigator(), this::setSpeed, k_followerPeriod);
+      m_follower.setOdometry(m_odometry);
+    }
+
+    return (m_follower);
+  }
+
+  /**
+   * Returns the robot yaw in degrees at the specified time, or NaN if the
+   * navigator has not been started or has not sent a position yet
+   */
+  public double getYaw(long time) {
+    if ((m_odometry != null) && m_odometry.getPose(time, m_pose)) {
+      return (m_pose.m_yaw);
+    }
+
+    return (Double.NaN);
+  }
+
   public void setPower(double leftPower, double rightPower)
   {
+      m_leftMotor.setControlMode(SmartMotorMode.Power);
+      m_rightMotor.setControlMode(SmartMotorMode.Power);
+
       m_leftMotor.set(leftPower);
       m_rightMotor.set(rightPower);
   }
 
+  /**
+   * Sets the speed of each side in feet per second. The processor holds the speed
+   * using the encoders, so it does not depend on the battery or the load.
+   */
+  public void setSpeed(double leftSpeed, double rightSpeed)
+  {
+      m_leftMotor.setControlMode(SmartMotorMode.Speed);
+      m_rightMotor.setControlMode(SmartMotorMode.Speed);
+
+      m_leftMotor.set(leftSpeed * k_ticksPerFoot);
+      m_rightMotor.set(rightSpeed * k_ticksPerFoot);
+  }
+
   public Encoder GetLeftEncoder() {
     return (m_leftEncoder);
   }
@@ -23,6 +23,7 @@ import robotCore.Device;
 import robotCore.Encoder;
 import robotCore.Logger;
 import robotCore.PWMMotor;
+import robotCore.PoseHistory;
 import robotCore.Encoder.EncoderType;
 import static robot.Constants.TurnTableConstants.*;
 
@@ -33,9 +34,14 @@ public class TurntableSubsystem extends SubsystemBase {
 
 	private PWMMotor m_motor = new PWMMotor(k_PWMPin, k_DirPin);
 	private Encoder m_encoder = new Encoder(EncoderType.Quadrature, k_encoderIntPin, k_encoderDirPin);
+	private final PoseHistory m_angleHistory = new PoseHistory(k_angleHistorySize);
 
 	public TurntableSubsystem() {
 		Logger.log("TurntableSubsystem", 2, "TurntableSubsystem()");
+
+		// The bus thread reads the angle, so the robot loop does not wait for the bus
+		m_encoder.addPositionPoll(k_anglePeriod,
+				(time, position) -> m_angleHistory.add(time, 0, 0, position / k_ticksPerDegree));
 	}
 
 	public void initDefaultCommand() {
@@ -51,6 +57,21 @@ public class TurntableSubsystem extends SubsystemBase {
 		return m_encoder;
 	}
 
+	/*
+	 * Returns the latest turntable angle read by the bus thread in degrees,
+	 * counter-clockwise positive, or NaN if it has not been read yet
+	 */
+	public double getAngle() {
+		return m_angleHistory.getYaw(Long.MAX_VALUE);
+	}
+
+	/*
+	 * Returns the history of the turntable angle, which is stored as the yaw
+	 */
+	public PoseHistory getAngleHistory() {
+		return m_angleHistory;
+	}
+
 	@Override
 	public void periodic() {
 		Logger.log("TurntableSubsystem", -1, "periodic()");
@@ -67,6 +67,11 @@ public class ArduinoConnection
 	@SuppressWarnings("unused")
 	private int m_pins = 0;
 	private Timer m_pingTimer = new Timer();
+	private volatile boolean m_pingReceived = false;
+	
+	private static final int k_pollMin = 10;			// First delay between readiness checks in ms
+	private static final int k_pollMax = 100;			// Longest delay between readiness checks in ms
+	private static final int k_settleTime = 1000;		// Longest wait for the processor to send its limits in ms
 	private int[] m_analog = new int[8];
 
 	private final GpioController m_gpio;
@@ -153,15 +158,23 @@ public class ArduinoConnection
 	private void waitForReset()
 	{
     	Logger.log("RobotBase", 0, "Waiting for response");
+    	
+    	Backoff backoff = new Backoff(k_pollMin, k_pollMax, 0);
+        
+        while ((m_type == ProcessorType.Unknown) && backoff.sleep());
+        
+        Logger.log("RobotBase", 0, String.format("Processor type = %s after %d ms", m_type, backoff.getElapsed()));
         
-        while (m_type == ProcessorType.Unknown)
-        {
-        	RobotBase.sleep(100);
-        }
+        /*
+         * The processor sends its limits after its type. The reply to a ping follows them, so once
+         *  it arrives the processor is ready.
+         */
+        m_pingReceived = false;
+        ping();
         
-        Logger.log("RobotBase", 0, "Processor type = " + m_type);
+        backoff = new Backoff(k_pollMin, k_pollMax, k_settleTime);
         
-        RobotBase.sleep(1000);
+        while (!m_pingReceived && backoff.sleep());
 	}
 
 	private void resetArduino()
@@ -505,6 +518,7 @@ public class ArduinoConnection
 			// 	break;
 				
 			case 'z':
+				m_pingReceived = true;
 				System.out.println("Ping time: " + m_pingTimer.get());
 				Logger.log("ArduinoConnection", 0, String.format("Ping time: %.4f", m_pingTimer.get()));
 				break;
@@ -0,0 +1,76 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+/*
+ * Paces a polling loop which waits for the hardware to become ready. The delay between polls
+ * starts short, so that a device which is ready quickly is found quickly, and doubles up to a
+ * maximum so that a slow device is not flooded with requests.
+ *
+ *	Backoff	backoff	= new Backoff(10, 200, 5000);
+ *
+ *	while (!isReady() && backoff.sleep());
+ */
+class Backoff
+{
+	private final int	m_maxDelay;
+	private final long	m_startTime;
+	private final long	m_deadline;
+	private int			m_delay;
+
+	/*
+	 * initialDelay - Specifies the first delay in ms
+	 * maxDelay - Specifies the longest delay in ms
+	 * timeout - Specifies the total time allowed in ms, or zero for no limit
+	 */
+	Backoff(int initialDelay, int maxDelay, int timeout)
+	{
+		m_delay		= initialDelay;
+		m_maxDelay	= maxDelay;
+		m_startTime	= Timer.getTimeMs();
+		m_deadline	= (timeout > 0) ? m_startTime + timeout : Long.MAX_VALUE;
+	}
+
+	/*
+	 * Sleeps until the next poll. Returns false, without sleeping, if the timeout has passed.
+	 */
+	boolean sleep()
+	{
+		long	remaining	= m_deadline - Timer.getTimeMs();
+
+		if (remaining <= 0)
+		{
+			return(false);
+		}
+
+		RobotBase.sleep((int) Math.min(m_delay, remaining));
+
+		m_delay	= Math.min(m_delay * 2, m_maxDelay);
+
+		return(true);
+	}
+
+	/*
+	 * Returns the time since the backoff was created in ms
+	 */
+	long getElapsed()
+	{
+		return(Timer.getTimeMs() - m_startTime);
+	}
+}
@@ -0,0 +1,340 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @brief The BusTrace class records the timing of each I2C transaction.
+ *
+ * For every packet sent by the <strong>TwoWire</strong> bus thread, the trace records:
+ *
+ * - The time the command waited in the queue (or, for a poll, how late it was sent)
+ * - The time spent writing the packet
+ * - The number of times the processor answered 'busy' (ack2) and the time spent waiting for it
+ * - The total time from the start of the first write to the response
+ * - The number of write retries and the reason for the last one
+ *
+ * The records are kept in a ring of the most recent transactions which is written by the bus
+ * thread and read without locking. Each transaction is also added to per address and command
+ * histograms in <strong>Metrics</strong> so that <strong>getSummary</strong> can report which
+ * commands use the most bus time, with percentiles of their round trip time.
+ *
+ * All times are in microseconds.
+ *
+ */
+public class BusTrace
+{
+	private static final int	k_size	= 1024;		// Must be a power of 2
+
+	/**
+	 *
+	 * @brief Specifies the reason for a retry
+	 *
+	 */
+	public enum RetryReason
+	{
+		/**
+		 * There was no retry
+		 */
+		None,
+		/**
+		 * The write failed
+		 */
+		WriteFailed,
+		/**
+		 * The read of the response failed
+		 */
+		ReadFailed,
+		/**
+		 * The response had a bad checksum
+		 */
+		BadChecksum,
+		/**
+		 * The response was for a different packet
+		 */
+		BadPacketNo,
+		/**
+		 * The processor's command queue was full (nak2)
+		 */
+		QueueOverflow,
+		/**
+		 * The response had an unknown ack
+		 */
+		BadAck,
+		/**
+		 * The processor did not respond within the maximum number of reads
+		 */
+		ReadTimeout,
+	}
+
+	/**
+	 *
+	 * @brief The Record class receives a single transaction
+	 *
+	 */
+	public static class Record
+	{
+		public long			m_time;			//!<Specifies the time the transaction completed in ms
+		public int			m_addr;			//!<Specifies the I2C address
+		public int			m_command;		//!<Specifies the command
+		public int			m_queueTime;	//!<Specifies the time waiting to be sent
+		public int			m_writeTime;	//!<Specifies the time spent writing
+		public int			m_ackPolls;		//!<Specifies the number of busy (ack2) responses
+		public int			m_ackTime;		//!<Specifies the time spent waiting while busy
+		public int			m_totalTime;	//!<Specifies the time from the first write to the response
+		public int			m_retries;		//!<Specifies the number of write retries
+		public RetryReason	m_reason;		//!<Specifies the reason for the last retry
+		public boolean		m_failed;		//!<Specifies true if the transaction failed
+
+		@Override
+		public String toString()
+		{
+			return(String.format("addr=%d cmd=%d queue=%d write=%d ack2=%d/%d total=%d retries=%d reason=%s%s", m_addr, m_command,
+					m_queueTime, m_writeTime, m_ackPolls, m_ackTime, m_totalTime, m_retries, m_reason, m_failed ? " FAILED" : ""));
+		}
+	}
+
+	/**
+	 *
+	 * @brief The Summary class receives the statistics for one address and command
+	 *
+	 */
+	public static class Summary
+	{
+		public int		m_addr;			//!<Specifies the I2C address
+		public int		m_command;		//!<Specifies the command
+		public long		m_count;		//!<Specifies the number of transactions
+		public long		m_busTime;		//!<Specifies the total round trip time of all of the transactions
+		public long		m_p50;			//!<Specifies the median round trip time
+		public long		m_p99;			//!<Specifies the 99th percentile round trip time
+		public long		m_max;			//!<Specifies the maximum round trip time
+		public long		m_queueP99;		//!<Specifies the 99th percentile queue time
+		public long		m_retries;		//!<Specifies the number of retries
+
+		@Override
+		public String toString()
+		{
+			return(String.format("addr=%d cmd=%d n=%d busTime=%dms p50=%d p99=%d max=%d queueP99=%d retries=%d", m_addr, m_command,
+					m_count, m_busTime / 1000, m_p50, m_p99, m_max, m_queueP99, m_retries));
+		}
+	}
+
+	/*
+	 * The metrics for one address and command
+	 */
+	private static class Entry
+	{
+		final int					m_addr;
+		final int					m_command;
+		final Metrics.Histogram		m_total;
+		final Metrics.Histogram		m_queue;
+		final Metrics.Histogram		m_write;
+		final Metrics.Histogram		m_ack;
+		final Metrics.Counter		m_busTime;
+		final Metrics.Counter[]		m_retries	= new Metrics.Counter[RetryReason.values().length];
+
+		Entry(int addr, int command)
+		{
+			String	a	= "addr=" + addr;
+			String	c	= "cmd=" + command;
+
+			m_addr		= addr;
+			m_command	= command;
+			m_total		= Metrics.histogram("twowire.total.us", a, c);
+			m_queue		= Metrics.histogram("twowire.queue.us", a, c);
+			m_write		= Metrics.histogram("twowire.write.us", a, c);
+			m_ack		= Metrics.histogram("twowire.ack2.us", a, c);
+			m_busTime	= Metrics.counter("twowire.busTime.us", a, c);
+
+			for (RetryReason reason : RetryReason.values())
+			{
+				m_retries[reason.ordinal()]	= Metrics.counter("twowire.retries", a, c, "reason=" + reason);
+			}
+		}
+
+		long getRetries()
+		{
+			long	count	= 0;
+
+			for (Metrics.Counter counter : m_retries)
+			{
+				count	+= counter.get();
+			}
+
+			return(count);
+		}
+	}
+
+	private static final long[]		m_time		= new long[k_size];
+	private static final int[]		m_addr		= new int[k_size];
+	private static final int[]		m_command	= new int[k_size];
+	private static final int[]		m_queueTime	= new int[k_size];
+	private static final int[]		m_writeTime	= new int[k_size];
+	private static final int[]		m_ackPolls	= new int[k_size];
+	private static final int[]		m_ackTime	= new int[k_size];
+	private static final int[]		m_totalTime	= new int[k_size];
+	private static final int[]		m_retries	= new int[k_size];
+	private static final byte[]		m_reason	= new byte[k_size];
+	private static final boolean[]	m_failed	= new boolean[k_size];
+	private static final AtomicLong	m_count		= new AtomicLong(0);	// Number of records written
+	private static final ConcurrentHashMap<Integer, Entry>	m_entries	= new ConcurrentHashMap<Integer, Entry>();
+
+	private static final RetryReason[]	k_reasons	= RetryReason.values();
+
+	//! @cond PRIVATE
+	/*
+	 * Records a transaction. This must only be called from the bus thread.
+	 */
+	static void record(int addr, int command, long queueTime, long writeTime, int ackPolls, long ackTime, long totalTime,
+			int retries, RetryReason reason, boolean failed)
+	{
+		long	count	= m_count.get();
+		int		i		= (int) (count & (k_size - 1));
+		Entry	entry	= m_entries.computeIfAbsent((addr << 8) | command, k -> new Entry(addr, command));
+
+		m_time[i]		= Timer.getTimeMs();
+		m_addr[i]		= addr;
+		m_command[i]	= command;
+		m_queueTime[i]	= (int) Math.min(queueTime, Integer.MAX_VALUE);
+		m_writeTime[i]	= (int) Math.min(writeTime, Integer.MAX_VALUE);
+		m_ackPolls[i]	= ackPolls;
+		m_ackTime[i]	= (int) Math.min(ackTime, Integer.MAX_VALUE);
+		m_totalTime[i]	= (int) Math.min(totalTime, Integer.MAX_VALUE);
+		m_retries[i]	= retries;
+		m_reason[i]		= (byte) reason.ordinal();
+		m_failed[i]		= failed;
+
+		m_count.set(count + 1);		// Publishes the record
+
+		entry.m_total.record(totalTime);
+		entry.m_queue.record(queueTime);
+		entry.m_write.record(writeTime);
+		if (ackPolls > 0)
+		{
+			entry.m_ack.record(ackTime);
+		}
+		entry.m_busTime.add(totalTime);
+	}
+
+	/*
+	 * Counts a retry. This must only be called from the bus thread.
+	 */
+	static void retry(int addr, int command, RetryReason reason)
+	{
+		m_entries.computeIfAbsent((addr << 8) | command, k -> new Entry(addr, command)).m_retries[reason.ordinal()].increment();
+	}
+	//! @endcond
+
+	/**
+	 * Returns the most recent transactions
+	 *
+	 * @param max - Specifies the maximum number of records to return
+	 * @return Returns the records, oldest first
+	 */
+	public static ArrayList<Record> getRecent(int max)
+	{
+		while (true)
+		{
+			long				count	= m_count.get();
+			long				first	= Math.max(Math.max(0, count - k_size + 1), count - max);
+			ArrayList<Record>	list	= new ArrayList<Record>();
+
+			for (long seq = first ; seq < count ; seq++)
+			{
+				int		i		= (int) (seq & (k_size - 1));
+				Record	record	= new Record();
+
+				record.m_time		= m_time[i];
+				record.m_addr		= m_addr[i];
+				record.m_command	= m_command[i];
+				record.m_queueTime	= m_queueTime[i];
+				record.m_writeTime	= m_writeTime[i];
+				record.m_ackPolls	= m_ackPolls[i];
+				record.m_ackTime	= m_ackTime[i];
+				record.m_totalTime	= m_totalTime[i];
+				record.m_retries	= m_retries[i];
+				record.m_reason		= k_reasons[m_reason[i]];
+				record.m_failed		= m_failed[i];
+
+				list.add(record);
+			}
+
+			// Keeps the plain reads of the records from being moved after the read of the count
+			VarHandle.acquireFence();
+
+			if (m_count.get() - first < k_size)
+			{
+				return(list);		// None of the records were overwritten while being copied
+			}
+		}
+	}
+
+	/**
+	 * Returns the statistics for each address and command, ordered by the total bus time
+	 *
+	 * @return Returns the list of summaries
+	 */
+	public static ArrayList<Summary> getSummary()
+	{
+		ArrayList<Summary>	list	= new ArrayList<Summary>();
+
+		for (Entry entry : m_entries.values())
+		{
+			Summary	summary	= new Summary();
+
+			summary.m_addr		= entry.m_addr;
+			summary.m_command	= entry.m_command;
+			summary.m_count		= entry.m_total.getCount();
+			summary.m_busTime	= entry.m_busTime.get();
+			summary.m_p50		= entry.m_total.getPercentile(50);
+			summary.m_p99		= entry.m_total.getPercentile(99);
+			summary.m_max		= entry.m_total.getMax();
+			summary.m_queueP99	= entry.m_queue.getPercentile(99);
+			summary.m_retries	= entry.getRetries();
+
+			list.add(summary);
+		}
+
+		Collections.sort(list, (a, b) -> Long.compare(b.m_busTime, a.m_busTime));
+
+		return(list);
+	}
+
+	/**
+	 * Writes the summary to the log, one line per address and command
+	 *
+	 * @param level - Specifies the log level
+	 */
+	public static void log(int level)
+	{
+		if (Logger.isLogged("BusTrace", level))
+		{
+			for (Summary summary : getSummary())
+			{
+				Logger.log("BusTrace", level, summary.toString());
+			}
+		}
+	}
+}
@@ -2,6 +2,7 @@ package robotCore;
 
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.Date;
 import java.util.StringJoiner;
 
@@ -54,6 +55,16 @@ public class CSVWriter {
 		}
 	}
 
+	/*
+	 * Formats the rows as usual but discards them. Used by Warmup.
+	 */
+	void startDiscard() {
+		m_timer.reset();
+
+		m_writer = new PrintWriter(Writer.nullWriter());
+		m_writer.println(m_header);
+	}
+
 	public void finish() {
 		if (m_writer != null) {
 			m_writer.close();
@@ -0,0 +1,260 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import java.util.EnumMap;
+
+import robotCore.PiCamera.PiCameraRegions;
+import robotCore.PiCamera.PiCameraStats;
+import robotCore.RobotBase.RobotMode;
+
+/**
+ *
+ * @brief The CameraProfileController class selects the camera capture profile from the camera performance.
+ *
+ * The capture profiles are set up using the ImageViewer. The controller is given the profiles it may use
+ * ordered from the lowest latency to the highest quality. Once a second, it compares the average frame
+ * delay and the number of lost frames from <strong>PiCamera.getStats</strong> with the latency budget
+ * for the current robot mode:
+ *
+ * - If the average delay is over budget, or frames were lost, it moves to the next lower latency profile.
+ * - If the average delay has been below a fraction of the budget for several checks in a row, it moves
+ *   to the next higher quality profile.
+ *
+ * After a switch, no further switch is made until the camera has settled. Each switch is logged along
+ * with the stats that triggered it.
+ *
+ * A mode may instead be given a fixed profile. This is normally used for the Disabled mode so that the
+ * Pi can run a low frame rate profile and stay cool.
+ *
+ */
+public class CameraProfileController implements RobotBase.UpdateModule
+{
+	private static final int	k_period		= 1000;	// Time between checks in ms
+	private static final int	k_settleTime	= 3000;	// Time after a switch before the next check in ms
+	private static final double	k_upFraction	= 0.7;	// Fraction of the budget below which the quality may be increased
+	private static final int	k_upCount		= 3;	// Number of checks below the fraction required to increase the quality
+
+	private final PiCamera		m_camera;
+	private final int[]			m_profiles;
+	private final EnumMap<RobotMode, Integer>	m_budget	= new EnumMap<RobotMode, Integer>(RobotMode.class);
+	private final EnumMap<RobotMode, Integer>	m_fixed		= new EnumMap<RobotMode, Integer>(RobotMode.class);
+	private int					m_level			= 0;	// Index into m_profiles
+	private int					m_maxLostFrames	= 0;
+	private long				m_nextCheck		= 0;
+	private int					m_lastLostFrames	= 0;
+	private int					m_underCount	= 0;
+	private RobotMode			m_lastMode		= null;
+	private boolean				m_enabled		= true;
+
+	/**
+	 * @param camera - Specifies the camera to control
+	 * @param maxDelay - Specifies the default latency budget in ms
+	 * @param profiles - Specifies the profiles which may be used, ordered from the lowest latency
+	 * 					 to the highest quality
+	 */
+	public CameraProfileController(PiCamera camera, int maxDelay, int... profiles)
+	{
+		if (profiles.length == 0)
+		{
+			throw new IllegalArgumentException("CameraProfileController: no profiles");
+		}
+
+		m_camera	= camera;
+		m_profiles	= profiles.clone();
+
+		for (RobotMode mode : RobotMode.values())
+		{
+			m_budget.put(mode, maxDelay);
+		}
+
+		RobotBase.getInstance().addUpdate(this);
+	}
+
+	/**
+	 * Sets the latency budget for a robot mode
+	 *
+	 * @param mode - Specifies the mode
+	 * @param maxDelay - Specifies the maximum average frame delay in ms
+	 */
+	public void setBudget(RobotMode mode, int maxDelay)
+	{
+		synchronized(this)
+		{
+			m_budget.put(mode, maxDelay);
+			m_fixed.remove(mode);
+		}
+	}
+
+	/**
+	 * Uses a fixed profile for a robot mode
+	 *
+	 * @param mode - Specifies the mode
+	 * @param profile - Specifies the profile (0-3)
+	 */
+	public void setFixedProfile(RobotMode mode, int profile)
+	{
+		synchronized(this)
+		{
+			m_fixed.put(mode, profile);
+		}
+	}
+
+	/**
+	 * Sets the number of frames which may be lost between checks before the latency is reduced
+	 *
+	 * @param count - Specifies the number of frames (default 0)
+	 */
+	public void setMaxLostFrames(int count)
+	{
+		m_maxLostFrames	= count;
+	}
+
+	/**
+	 * Enables or disables automatic profile selection
+	 *
+	 * @param enable - If true, enables the controller
+	 */
+	public void enable(boolean enable)
+	{
+		m_enabled	= enable;
+	}
+
+	/**
+	 * @return Returns the profile currently selected by the controller
+	 */
+	public int getProfile()
+	{
+		return(m_profiles[m_level]);
+	}
+
+	private static RobotMode getMode()
+	{
+		RobotBase robot = RobotBase.getInstance();
+
+		if (robot.isDisabled())
+		{
+			return(RobotMode.Disabled);
+		}
+		if (robot.isAutonomous())
+		{
+			return(RobotMode.Autonomous);
+		}
+		if (robot.isTest())
+		{
+			return(RobotMode.Test);
+		}
+		return(RobotMode.OperatorControl);
+	}
+
+	private void select(int level, String reason, PiCameraStats stats)
+	{
+		m_level			= level;
+		m_underCount	= 0;
+		m_nextCheck		= Timer.getTimeMs() + k_settleTime;
+
+		Logger.log("CameraProfileController", 2, String.format("Profile %d: %s, avg=%d, min=%d, max=%d, lost=%d", m_profiles[level],
+				reason, stats.m_averageDelay, stats.m_minDelay, stats.m_maxDelay, stats.m_lostFrames));
+
+		m_camera.setProfile(m_profiles[level]);
+	}
+
+	//! @cond PRIVATE
+	@Override
+	public void update()
+	{
+		long time = Timer.getTimeMs();
+
+		if (!m_enabled || !m_camera.isConnected() || (m_camera.getRegions() == null))
+		{
+			return;
+		}
+
+		RobotMode	mode	= getMode();
+		Integer		fixed;
+		int			budget;
+
+		synchronized(this)
+		{
+			fixed	= m_fixed.get(mode);
+			budget	= m_budget.get(mode);
+		}
+
+		PiCameraStats	stats	= m_camera.getStats();
+
+		if (fixed != null)
+		{
+			PiCameraRegions regions = m_camera.getRegions();
+
+			if ((mode != m_lastMode) || ((time >= m_nextCheck) && (regions != null) && (regions.m_profile != fixed)))
+			{
+				Logger.log("CameraProfileController", 2, String.format("Profile %d: fixed for %s", fixed, mode));
+
+				m_camera.setProfile(fixed);
+				m_nextCheck	= time + k_settleTime;
+			}
+
+			m_lastMode	= mode;
+			return;
+		}
+
+		if (mode != m_lastMode)
+		{
+			/*
+			 * Start each mode from the lowest latency profile
+			 */
+			m_lastMode			= mode;
+			m_lastLostFrames	= stats.m_lostFrames;
+			select(0, "mode " + mode, stats);
+			return;
+		}
+
+		if (time < m_nextCheck)
+		{
+			return;
+		}
+
+		m_nextCheck	= time + k_period;
+
+		int lost = Math.max(0, stats.m_lostFrames - m_lastLostFrames);
+
+		m_lastLostFrames	= stats.m_lostFrames;
+
+		if ((stats.m_averageDelay > budget) || (lost > m_maxLostFrames))
+		{
+			if (m_level > 0)
+			{
+				select(m_level - 1, String.format("over budget %d ms, %d lost", budget, lost), stats);
+			}
+			m_underCount	= 0;
+		}
+		else if (stats.m_averageDelay < budget * k_upFraction)
+		{
+			if ((++m_underCount >= k_upCount) && (m_level < m_profiles.length - 1))
+			{
+				select(m_level + 1, String.format("under budget %d ms", budget), stats);
+			}
+		}
+		else
+		{
+			m_underCount	= 0;
+		}
+	}
+	//! @endcond
+}
@@ -20,6 +20,7 @@ package robotCore;
 
 // import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
 
 import com.pi4j.io.gpio.GpioController;
 import com.pi4j.io.gpio.GpioFactory;
@@ -36,8 +37,6 @@ import com.pi4j.io.gpio.RaspiPin;
  *        This class controls the microcontroller device.
  */
 public class Device {
-	final static boolean PCTest = false;
-
 	public final static int PA0 = 0;
 	public final static int PA1 = 1;
 	public final static int PA2 = 2;
@@ -255,6 +254,14 @@ public class Device {
 	private final TwoWire m_twoWire = new TwoWire();
 	// private int m_validPins = 0;
 
+	/*
+	 * Reset
+	 */
+	private static final int k_resetPollMin = 20; // First delay between processor type requests in ms
+	private static final int k_resetPollMax = 200; // Longest delay between processor type requests in ms
+	private static final int k_resetTimeout = 5000; // Time to wait for the processor in ms
+	private final CountDownLatch m_ready = new CountDownLatch(1); // Released when the reset is complete
+
 	/*
 	 * Requests
 	 */
@@ -266,7 +273,7 @@ public class Device {
 	};
 
 	private Device() {
-		if (!PCTest) {
+		if (!RobotBase.isVirtual()) {
 			m_gpio = GpioFactory.getInstance();
 			m_resetPin = m_gpio.provisionDigitalOutputPin(RaspiPin.GPIO_01, "Reset", PinState.HIGH);
 			m_resetPin.setMode(com.pi4j.io.gpio.PinMode.DIGITAL_OUTPUT);
@@ -286,7 +293,10 @@ public class Device {
 	 *         supported.
 	 */
 	public ProcessorType getProcessorType(int addr) {
-		int type = m_twoWire.sendRequestByte(addr, k_requestProcessorType);
+		return (toProcessorType(bus().sendRequestByte(addr, k_requestProcessorType)));
+	}
+
+	private static ProcessorType toProcessorType(int type) {
 
 		if (type == k_processorArduino) {
 			return (ProcessorType.Arduino);
@@ -303,6 +313,16 @@ public class Device {
 		return (getProcessorType(k_mainTwoWireId));
 	}
 
+	/*
+	 * Returns the type of the main processor found by the reset, or Unknown if it did not answer.
+	 * Waits for the reset to complete.
+	 */
+	ProcessorType getResetProcessorType() {
+		bus();
+
+		return (m_type);
+	}
+
 	// public int getValidPins(int addr)
 	// {
 	// return(m_twoWire.sendRequestInt(addr, TwoWire.k_getValidPins));
@@ -314,32 +334,65 @@ public class Device {
 	// }
 
 	public long getLong(int addr, int command) {
-		return (m_twoWire.sendRequestLong(addr, command));
+		return (bus().sendRequestLong(addr, command));
 	}
 
 	public int getInt(int addr, int command) {
-		return (m_twoWire.sendRequestInt(addr, command));
+		return (bus().sendRequestInt(addr, command));
 	}
 
 	public int getInt(int addr, int command, byte byte1) {
-		return (m_twoWire.sendRequestInt(addr, command, byte1));
+		return (bus().sendRequestInt(addr, command, byte1));
 	}
 
 	public int getShort(int addr, int command, byte byte1) {
-		return (m_twoWire.sendRequestShort(addr, command, byte1));
+		return (bus().sendRequestShort(addr, command, byte1));
 	}
 
 	public int getByte(int addr, int command) {
-		return (m_twoWire.sendRequestByte(addr, command));
+		return (bus().sendRequestByte(addr, command));
 	}
 
 	public int getByte(int addr, int command, byte byte1) {
-		return (m_twoWire.sendRequestByte(addr, command, byte1));
+		return (bus().sendRequestByte(addr, command, byte1));
 	}
 
 	public ByteBuffer getData(int addr, int command, int size) {
-		return (m_twoWire.sendRequest(addr, command, size));
+		return (bus().sendRequest(addr, command, size));
+	}
+
+	public ByteBuffer getData(int addr, int command, int size, byte byte1) {
+		return (bus().sendRequest(addr, command, size, byte1));
+	}
+
+	/**
+	 * Sends a request periodically from the bus thread (see TwoWire.addPoll)
+	 */
+	public void addPoll(int addr, int command, int size, int period, TwoWire.PollReceiver receiver) {
+		bus().addPoll(addr, command, size, period, receiver);
+	}
+
+	public void addPoll(int addr, int command, int size, int period, TwoWire.PollReceiver receiver, byte byte1) {
+		bus().addPoll(addr, command, size, period, receiver, byte1);
+	}
+
+	// ! @cond PRIVATE
+	/*
+	 * Runs the periodic requests from the robot loop when the robot is virtual
+	 */
+	static void runVirtualPolls() {
+		if (m_device != null) {
+			m_device.m_twoWire.runPolls();
+		}
+	}
+
+	/*
+	 * Returns the bus once the reset is complete. Used by Warmup.
+	 */
+	TwoWire getTwoWire() {
+		return (bus());
 	}
+	// ! @endcond
 
 	public boolean checkUsedPin(int addr, int pin) {
 		return (m_twoWire.checkUsedPin(addr, pin));
@@ -349,19 +402,48 @@ public class Device {
 		m_twoWire.setUsedPin(addr, pin);
 	}
 
+	/*
+	 * Waits for the bus, which is released when the reset is complete
+	 */
+	private TwoWire bus() {
+		if (m_ready.getCount() > 0) {
+			try {
+				m_ready.await();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+
+		return (m_twoWire);
+	}
+
+	/*
+	 * Returns the type of the main processor, or Unknown if it does not answer
+	 */
+	private ProcessorType probeProcessorType() {
+		try {
+			return (toProcessorType(m_twoWire.sendRequestByte(k_mainTwoWireId, k_requestProcessorType)));
+		} catch (TwoWire.HardwareException e) {
+			return (ProcessorType.Unknown);
+		}
+	}
+
 	private void waitForReset() {
 		Logger.log("RobotBase", 0, "Waiting for response");
 
-		RobotBase.sleep(3000);
+		Backoff backoff = new Backoff(k_resetPollMin, k_resetPollMax, k_resetTimeout);
+
+		do {
+			m_type = probeProcessorType();
+		} while ((m_type == ProcessorType.Unknown) && backoff.sleep());
 
-		m_type = getProcessorType();
-		Logger.log("RobotBase", 0, "Processor type = " + m_type);
+		Logger.log("RobotBase", 0, String.format("Processor type = %s after %d ms", m_type, backoff.getElapsed()));
 	}
 
 	private void resetDevice() {
 		Logger.log("RobotBase", 2, "ResetArduino");
 
-		if (!PCTest) {
+		if (!RobotBase.isVirtual()) {
 			m_resetPin.low();
 			RobotBase.sleep(10);
 			m_resetPin.high();
@@ -371,6 +453,10 @@ public class Device {
 	}
 
 	public void trigger() {
+		if (m_trigPin == null) {
+			return;
+		}
+
 		m_trigPin.low();
 		RobotBase.sleep(1);
 		m_trigPin.high();
@@ -414,7 +500,7 @@ public class Device {
 		Logger.log("Device", 1, "Start receiver");
 
 		try {
-			if (!PCTest) {
+			if (!RobotBase.isVirtual()) {
 				if (m_serialConnection != null) {
 					m_serialConnection.open((d) -> {
 						dataReceived(d);
@@ -426,14 +512,29 @@ public class Device {
 			return;
 		}
 
-		resetDevice();
+		if (RobotBase.isVirtual()) {
+			m_ready.countDown();
+			return;
+		}
 
 		/*
-		 * Start keep-alive thread
+		 * Reset the processor on its own thread so that the robot can be constructed at the same time.
+		 *  Requests wait until the reset is complete. The thread then sends the keep-alive.
 		 */
 		new Thread(new Runnable() {
 			@Override
 			public void run() {
+				/*
+				 * Requests wait on m_ready, so it is released even if the reset fails
+				 */
+				try {
+					resetDevice();
+				} catch (RuntimeException e) {
+					Logger.log("Device", 3, "Reset failed: " + e);
+				} finally {
+					m_ready.countDown();
+				}
+
 				while (true) {
 					// System.out.println("Sending keep alive");
 					sendCommandToAll(TwoWire.k_cmdKeepAlive);
@@ -451,31 +552,35 @@ public class Device {
 	// ! @endcond
 
 	public void sendCommandToAll(int command) {
-		m_twoWire.sendCommandToAll(command);
+		bus().sendCommandToAll(command);
 	}
 
 	public void sendCommand(int addr, int command, byte byte1, byte byte2, byte byte3, byte byte4) {
-		m_twoWire.sendCommand(addr, command, byte1, byte2, byte3, byte4);
+		bus().sendCommand(addr, command, byte1, byte2, byte3, byte4);
 	}
 
 	public void sendCommand(int addr, int command, byte byte1, short value) {
-		m_twoWire.sendCommand(addr, command, byte1, value);
+		bus().sendCommand(addr, command, byte1, value);
 	}
 
 	public void sendCommand(int addr, int command, byte byte1, float value) {
-		m_twoWire.sendCommand(addr, command, byte1, value);
+		bus().sendCommand(addr, command, byte1, value);
 	}
 
 	public void sendCommand(int addr, int command, byte byte1, byte byte2) {
-		m_twoWire.sendCommand(addr, command, byte1, byte2);
+		bus().sendCommand(addr, command, byte1, byte2);
 	}
 
 	public void sendCommand(int addr, int command, int yaw, int x, int y) {
-		m_twoWire.sendCommand(addr, command, yaw, x, y);
+		bus().sendCommand(addr, command, yaw, x, y);
 	}
 
 	public void sendCommand(int addr, int command, byte byte1) {
-		m_twoWire.sendCommand(addr, command, byte1);
+		bus().sendCommand(addr, command, byte1);
+	}
+
+	public void sendMotionPoints(int addr, byte motorNo, int[] positions, short[] velocities, int offset, int length, boolean last) {
+		bus().sendMotionPoints(addr, motorNo, positions, velocities, offset, length, last);
 	}
 	// ! @endcond
 
@@ -53,10 +53,18 @@ public class DigitalInput
 	{
 		m_device = Device.getInstance();
 
-		long validPins = m_device.getLong(addr, TwoWire.k_getValidPins);
+		long validPins = ProcessorDescriptor.get(addr).getValidPins();
 
 		// System.out.println(String.format("DigitalInput: pin=%d, valid = 0x%x", pin, validPins));
 
+		/*
+		 * A pin rejected by cached capabilities is checked again against the processor
+		 */
+		if ((pin >= 0) && (pin < 64) && (validPins & (1 << pin)) == 0)
+		{
+			validPins = ProcessorDescriptor.confirm(addr).getValidPins();
+		}
+
 		if ((pin < 0) || (pin >= 64) || (validPins & (1 << pin)) == 0)
 		{
 			throw new HardwareException("Bad pin number");
@@ -58,40 +58,24 @@ public class Encoder {
 	private class Processor {
 		private int m_addr;
 		private int m_nextEncoder = 0;
-		private long m_validPins = 0;
-		private int m_validAnalogPins = 0;
 
 		Processor(int addr) {
 			m_addr = addr;
 		}
 
-		private long getValidPins() {
-			if (m_validPins == 0) {
-				m_validPins = m_device.getLong(m_addr, TwoWire.k_getValidPins);
-			}
-
-			// System.out.println(String.format("validPins = %x", m_validPins));
-
-			return (m_validPins);
-		}
-
-		private int getValidAnalogPins() {
-			if (m_validAnalogPins == 0) {
-				m_validAnalogPins = m_device.getInt(m_addr, TwoWire.k_getValidAnalogPins);
-			}
-
-			System.out.println(String.format("validAnalogPins = %x", m_validAnalogPins));
+		private boolean isValidPin(ProcessorDescriptor descriptor, int pin, boolean analog) {
+			long validPins = analog ? descriptor.getValidAnalogPins() : descriptor.getValidPins();
 
-			return (m_validAnalogPins);
+			return ((pin >= 0) && (pin < 64) && (((1 << pin) & validPins) != 0));
 		}
 
 		private void verifyPin(int pin, boolean analog) {
-			long validPins = analog ? getValidAnalogPins() : getValidPins();
-
 			/*
-			 * Check if pin is valid for this processor
+			 * Check if pin is valid for this processor. A pin rejected by cached capabilities
+			 * is checked again against the processor.
 			 */
-			if ((pin < 0) || (pin >= 64) || (((1 << pin) & validPins) == 0)) {
+			if (!isValidPin(ProcessorDescriptor.get(m_addr), pin, analog)
+					&& !isValidPin(ProcessorDescriptor.confirm(m_addr), pin, analog)) {
 				throw new TwoWire.HardwareException(
 						String.format("Encoder: Invalid%s pin: %d", analog ? " Analog" : "", pin));
 			}
@@ -131,7 +115,7 @@ public class Encoder {
 	private static ArrayList<Encoder> m_encoders = new ArrayList<Encoder>();
 	private Device m_device = null;
 	private int m_encoderNo = -1;
-	private int m_zeroPosition = 0;
+	private volatile int m_zeroPosition = 0; // Read by the bus thread for position polls
 	private int m_i2cAddr = 0;
 	// private boolean m_reset = true;
 
@@ -266,6 +250,44 @@ public class Encoder {
 		return (m_device.getShort(m_i2cAddr, TwoWire.k_getEncoderSpeed, (byte) m_encoderNo));
 	}
 
+	// ! @cond PRIVATE
+	/*
+	 * Has the bus thread read the speed periodically (see TwoWire.addPoll)
+	 */
+	void addSpeedPoll(int period, TwoWire.PollReceiver receiver) {
+		Encoder encoder = (m_encoder != null) ? m_encoder : this;
+
+		Device.getInstance().addPoll(encoder.m_i2cAddr, TwoWire.k_getEncoderSpeed, 2, period, receiver,
+				(byte) encoder.m_encoderNo);
+	}
+	// ! @endcond
+
+	/**
+	 * Receives the position of an encoder from the bus thread (see addPositionPoll)
+	 */
+	public interface PositionReceiver {
+		/**
+		 * @param time     - Specifies the time that the position was read in ms
+		 * @param position - Specifies the position, as returned by getPosition()
+		 */
+		public void received(long time, int position);
+	}
+
+	/**
+	 * Has the bus thread read the position periodically, so that the position
+	 * can be used without waiting for the bus. The receiver is called from the
+	 * bus thread.
+	 * 
+	 * @param period   - Specifies the time between reads in ms
+	 * @param receiver - Specifies the receiver
+	 */
+	public void addPositionPoll(int period, PositionReceiver receiver) {
+		Encoder encoder = (m_encoder != null) ? m_encoder : this;
+
+		Device.getInstance().addPoll(encoder.m_i2cAddr, TwoWire.k_getEncoderPos, 4, period,
+				(time, data) -> receiver.received(time, data.getInt() - m_zeroPosition), (byte) encoder.m_encoderNo);
+	}
+
 	/**
 	 * Creates a copy of the encoder. The copy accesses the same physical
 	 * device but can be reset independently.
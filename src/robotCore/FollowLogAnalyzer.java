@@ -0,0 +1,543 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ *
+ * @brief The FollowLogAnalyzer class summarizes the Follow Profile logs written by PurePursuit.
+ *
+ * Each log is read one line at a time, so the size of the file does not matter, and the logs are
+ * analyzed in parallel. For each run it computes:
+ *
+ * - The cross track error, the distance from the robot to the closest point on the path
+ * - The heading error, the difference between the yaw and the direction of the path at the closest point
+ * - The velocity error of each wheel (<i>Ideal Vel L</i> - <i>Vel L</i>)
+ * - The jitter of the interval between the rows, which are written once per PurePursuit update
+ * - Stalls, where the closest index on the path does not advance for k_stallRows rows while the robot should be moving
+ *
+ * When the navigator has not updated between two updates, PurePursuit writes a row which is identical to the
+ * previous one except for the time. This happens mostly at startup. These rows are counted as stale and are
+ * left out of everything except the jitter.
+ *
+ * The runs are ordered by the date in the file name and each run is compared with the one before it. A metric
+ * which is more than the threshold worse than in the previous run is reported as a regression.
+ *
+ * The analyzer can be run from the command line:
+ *
+ *     java robotCore.FollowLogAnalyzer [directory or files...]
+ *
+ */
+public class FollowLogAnalyzer
+{
+	private static final String		k_prefix		= "Follow Profile - ";
+	private static final int		k_stallRows		= 5;		// Rows without progress to count as a stall
+	private static final double		k_minMove		= 0.001;	// Minimum move of the closest point to compute the path heading
+	private static final double		k_threshold		= 0.2;		// Default fraction by which a metric must get worse to be a regression
+	private static final int		k_maxInterval	= 1000;		// Largest interval in the jitter histogram in ms
+
+	/*
+	 * Running mean, RMS and maximum of the absolute value
+	 */
+	private static class Stat
+	{
+		long	m_count	= 0;
+		double	m_sum	= 0;
+		double	m_sumSq	= 0;
+		double	m_max	= 0;
+
+		void add(double value)
+		{
+			m_count++;
+			m_sum	+= value;
+			m_sumSq	+= value * value;
+			m_max	= Math.max(m_max, Math.abs(value));
+		}
+
+		double mean()
+		{
+			return((m_count > 0) ? m_sum / m_count : 0);
+		}
+
+		double rms()
+		{
+			return((m_count > 0) ? Math.sqrt(m_sumSq / m_count) : 0);
+		}
+
+		double std()
+		{
+			double	mean	= mean();
+
+			return((m_count > 0) ? Math.sqrt(Math.max(0, m_sumSq / m_count - mean * mean)) : 0);
+		}
+	}
+
+	/**
+	 *
+	 * @brief The RunSummary class receives the statistics for one log
+	 *
+	 */
+	public static class RunSummary
+	{
+		public String	m_name;					//!<Specifies the file name
+		public Date		m_date;					//!<Specifies the date of the run from the file name, or null
+		public int		m_rows;					//!<Specifies the number of data rows
+		public int		m_staleRows;			//!<Specifies the number of rows identical to the previous row
+		public double	m_duration;				//!<Specifies the time from the first to the last row in seconds
+		public double	m_crossTrackRms;		//!<Specifies the RMS cross track error in feet
+		public double	m_crossTrackMax;		//!<Specifies the maximum cross track error in feet
+		public double	m_headingRms;			//!<Specifies the RMS heading error in degrees
+		public double	m_headingMax;			//!<Specifies the maximum heading error in degrees
+		public double	m_leftVelBias;			//!<Specifies the mean left velocity error in feet/second
+		public double	m_leftVelRms;			//!<Specifies the RMS left velocity error in feet/second
+		public double	m_rightVelBias;			//!<Specifies the mean right velocity error in feet/second
+		public double	m_rightVelRms;			//!<Specifies the RMS right velocity error in feet/second
+		public double	m_intervalMean;			//!<Specifies the mean row interval in ms
+		public double	m_intervalStd;			//!<Specifies the standard deviation of the row interval in ms
+		public double	m_intervalP99;			//!<Specifies the 99th percentile row interval in ms
+		public double	m_intervalMax;			//!<Specifies the maximum row interval in ms
+		public int		m_stalls;				//!<Specifies the number of stalls
+		public double	m_stallTime;			//!<Specifies the total time stalled in seconds
+		public double	m_longestStall;			//!<Specifies the longest stall in seconds
+		public int		m_finalIndex;			//!<Specifies the closest index in the last row
+		public String	m_error;				//!<Specifies the reason the log could not be read, or null
+
+		@Override
+		public String toString()
+		{
+			if (m_error != null)
+			{
+				return(String.format("%s: %s", m_name, m_error));
+			}
+
+			return(String.format("%s: rows=%d stale=%d duration=%.2fs xte(rms/max)=%.3f/%.3fft heading(rms/max)=%.1f/%.1fdeg " +
+					"velL(bias/rms)=%.3f/%.3f velR(bias/rms)=%.3f/%.3f interval(mean/std/p99/max)=%.0f/%.1f/%.0f/%.0fms " +
+					"stalls=%d (%.2fs, longest %.2fs) finalIdx=%d",
+					m_name, m_rows, m_staleRows, m_duration, m_crossTrackRms, m_crossTrackMax, m_headingRms, m_headingMax,
+					m_leftVelBias, m_leftVelRms, m_rightVelBias, m_rightVelRms, m_intervalMean, m_intervalStd, m_intervalP99,
+					m_intervalMax, m_stalls, m_stallTime, m_longestStall, m_finalIndex));
+		}
+	}
+
+	/*
+	 * The column numbers of the fields that are used
+	 */
+	private static class Columns
+	{
+		final int	m_time;
+		final int	m_yaw;
+		final int	m_vel;
+		final int	m_idealVelL;
+		final int	m_idealVelR;
+		final int	m_velL;
+		final int	m_velR;
+		final int	m_curX;
+		final int	m_curY;
+		final int	m_idealX;
+		final int	m_idealY;
+		final int	m_closest;
+
+		Columns(String header) throws IOException
+		{
+			List<String>	names	= Arrays.asList(header.split(","));
+
+			m_time		= find(names, "time");
+			m_yaw		= find(names, "Yaw");
+			m_vel		= find(names, "Vel");
+			m_idealVelL	= find(names, "Ideal Vel L");
+			m_idealVelR	= find(names, "Ideal Vel R");
+			m_velL		= find(names, "Vel L");
+			m_velR		= find(names, "Vel R");
+			m_curX		= find(names, "Cur X");
+			m_curY		= find(names, "Cur Y");
+			m_idealX	= find(names, "Ideal x");
+			m_idealY	= find(names, "Ideal y");
+			m_closest	= find(names, "Closest idx");
+		}
+
+		private static int find(List<String> names, String name) throws IOException
+		{
+			int	idx	= names.indexOf(name);
+
+			if (idx < 0)
+			{
+				throw new IOException("Missing column: " + name);
+			}
+
+			return(idx);
+		}
+	}
+
+	/**
+	 * Analyzes one log
+	 *
+	 * @param file - Specifies the log
+	 * @return Returns the summary. If the file cannot be read, m_error is set.
+	 */
+	public static RunSummary analyze(File file)
+	{
+		RunSummary	summary	= new RunSummary();
+
+		summary.m_name	= file.getName();
+		summary.m_date	= parseDate(file.getName());
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(file)))
+		{
+			String	header	= reader.readLine();
+
+			if (header == null)
+			{
+				throw new IOException("Empty file");
+			}
+
+			analyze(reader, new Columns(header), summary);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			summary.m_error	= e.toString();
+		}
+
+		return(summary);
+	}
+
+	private static void analyze(BufferedReader reader, Columns col, RunSummary summary) throws IOException
+	{
+		Stat	crossTrack	= new Stat();
+		Stat	heading		= new Stat();
+		Stat	leftVel		= new Stat();
+		Stat	rightVel	= new Stat();
+		Stat	interval	= new Stat();
+		int[]	intervals	= new int[k_maxInterval + 2];
+		String	line;
+		String	lastData	= null;
+		double	firstTime	= Double.NaN;
+		double	lastTime	= Double.NaN;
+		double	lastIdealX	= Double.NaN;
+		double	lastIdealY	= Double.NaN;
+		double	pathHeading	= Double.NaN;
+		int		lastIndex	= -1;
+		double	stallStart	= Double.NaN;
+		int		stallRows	= 0;
+
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.isEmpty())
+			{
+				continue;
+			}
+
+			String[]	f		= line.split(",");
+			double		time	= Double.parseDouble(f[col.m_time]);
+
+			summary.m_rows++;
+
+			/*
+			 * The interval between rows includes the stale rows, since they were written on time
+			 */
+			if (!Double.isNaN(lastTime))
+			{
+				double	ms	= (time - lastTime) * 1000;
+
+				interval.add(ms);
+				intervals[(int) Math.max(0, Math.min(k_maxInterval + 1, Math.round(ms)))]++;
+			}
+			else
+			{
+				firstTime	= time;
+			}
+
+			lastTime	= time;
+
+			String	data	= line.substring(line.indexOf(',') + 1);
+
+			if (data.equals(lastData))
+			{
+				summary.m_staleRows++;
+				continue;
+			}
+
+			lastData	= data;
+
+			double	x		= Double.parseDouble(f[col.m_curX]);
+			double	y		= Double.parseDouble(f[col.m_curY]);
+			double	idealX	= Double.parseDouble(f[col.m_idealX]);
+			double	idealY	= Double.parseDouble(f[col.m_idealY]);
+			int		index	= Integer.parseInt(f[col.m_closest].trim());
+
+			crossTrack.add(Math.hypot(x - idealX, y - idealY));
+
+			leftVel.add(Double.parseDouble(f[col.m_idealVelL]) - Double.parseDouble(f[col.m_velL]));
+			rightVel.add(Double.parseDouble(f[col.m_idealVelR]) - Double.parseDouble(f[col.m_velR]));
+
+			/*
+			 * The direction of the path is taken from the motion of the closest point. If the robot is backing
+			 * along the path, the yaw is 180 degrees from this.
+			 */
+			if (!Double.isNaN(lastIdealX) && (Math.hypot(idealX - lastIdealX, idealY - lastIdealY) >= k_minMove))
+			{
+				pathHeading	= Math.toDegrees(Math.atan2(idealY - lastIdealY, idealX - lastIdealX));
+				lastIdealX	= idealX;
+				lastIdealY	= idealY;
+			}
+			else if (Double.isNaN(lastIdealX))
+			{
+				lastIdealX	= idealX;
+				lastIdealY	= idealY;
+			}
+
+			if (!Double.isNaN(pathHeading))
+			{
+				double	error	= normalizeDegrees(Double.parseDouble(f[col.m_yaw]) - pathHeading);
+
+				if (Math.abs(error) > 90)
+				{
+					error	= normalizeDegrees(error - 180);
+				}
+
+				heading.add(error);
+			}
+
+			/*
+			 * A stall is when the closest point does not advance while the robot should be moving
+			 */
+			if ((index == lastIndex) && (Double.parseDouble(f[col.m_vel]) != 0))
+			{
+				if (stallRows++ == 0)
+				{
+					stallStart	= time;
+				}
+			}
+			else
+			{
+				endStall(summary, stallRows, time - stallStart);
+				stallRows	= 0;
+			}
+
+			lastIndex	= index;
+		}
+
+		endStall(summary, stallRows, lastTime - stallStart);
+
+		summary.m_duration		= Double.isNaN(firstTime) ? 0 : lastTime - firstTime;
+		summary.m_finalIndex	= lastIndex;
+		summary.m_crossTrackRms	= crossTrack.rms();
+		summary.m_crossTrackMax	= crossTrack.m_max;
+		summary.m_headingRms	= heading.rms();
+		summary.m_headingMax	= heading.m_max;
+		summary.m_leftVelBias	= leftVel.mean();
+		summary.m_leftVelRms	= leftVel.rms();
+		summary.m_rightVelBias	= rightVel.mean();
+		summary.m_rightVelRms	= rightVel.rms();
+		summary.m_intervalMean	= interval.mean();
+		summary.m_intervalStd	= interval.std();
+		summary.m_intervalMax	= interval.m_max;
+		summary.m_intervalP99	= percentile(intervals, interval.m_count, 99);
+	}
+
+	private static void endStall(RunSummary summary, int rows, double time)
+	{
+		if (rows >= k_stallRows)
+		{
+			summary.m_stalls++;
+			summary.m_stallTime		+= time;
+			summary.m_longestStall	= Math.max(summary.m_longestStall, time);
+		}
+	}
+
+	private static double percentile(int[] buckets, long count, double percent)
+	{
+		long	target	= (long) Math.ceil(count * percent / 100);
+		long	total	= 0;
+
+		for (int i = 0 ; i < buckets.length ; i++)
+		{
+			total	+= buckets[i];
+
+			if ((total >= target) && (total > 0))
+			{
+				return(i);
+			}
+		}
+
+		return(0);
+	}
+
+	private static double normalizeDegrees(double angle)
+	{
+		angle	%= 360;
+
+		if (angle > 180)
+		{
+			angle	-= 360;
+		}
+		else if (angle < -180)
+		{
+			angle	+= 360;
+		}
+
+		return(angle);
+	}
+
+	/*
+	 * The file name is "Follow Profile - <Date.toString()>.csv" with the colons replaced by underscores
+	 */
+	private static Date parseDate(String name)
+	{
+		if (!name.startsWith(k_prefix) || !name.endsWith(".csv"))
+		{
+			return(null);
+		}
+
+		String	date	= name.substring(k_prefix.length(), name.length() - 4).replace('_', ':');
+
+		try
+		{
+			return(new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US).parse(date));
+		}
+		catch (ParseException e)
+		{
+			return(null);
+		}
+	}
+
+	/**
+	 * Analyzes the logs in parallel
+	 *
+	 * @param files - Specifies the logs
+	 * @return Returns the summaries ordered by the date of the run
+	 */
+	public static List<RunSummary> analyzeAll(List<File> files)
+	{
+		List<RunSummary>	summaries	= files.parallelStream().map(FollowLogAnalyzer::analyze).collect(Collectors.toList());
+
+		summaries.sort(Comparator.comparing((RunSummary s) -> (s.m_date != null) ? s.m_date : new Date(0)).thenComparing(s -> s.m_name));
+
+		return(summaries);
+	}
+
+	private static void check(List<String> list, String name, double previous, double current, double threshold, double minChange)
+	{
+		if ((current > previous * (1 + threshold)) && (current - previous >= minChange))
+		{
+			list.add(String.format("%s %.3f -> %.3f (+%.0f%%)", name, previous, current,
+					(previous > 0) ? 100 * (current - previous) / previous : 100));
+		}
+	}
+
+	/**
+	 * Compares two runs
+	 *
+	 * @param previous - Specifies the earlier run
+	 * @param current - Specifies the later run
+	 * @param threshold - Specifies the fraction by which a metric must get worse to be reported
+	 * @return Returns a description of each metric which got worse
+	 */
+	public static List<String> findRegressions(RunSummary previous, RunSummary current, double threshold)
+	{
+		ArrayList<String>	list	= new ArrayList<String>();
+
+		if ((previous.m_error != null) || (current.m_error != null))
+		{
+			return(list);
+		}
+
+		check(list, "crossTrackRms", previous.m_crossTrackRms, current.m_crossTrackRms, threshold, 0.01);
+		check(list, "crossTrackMax", previous.m_crossTrackMax, current.m_crossTrackMax, threshold, 0.02);
+		check(list, "headingRms", previous.m_headingRms, current.m_headingRms, threshold, 0.5);
+		check(list, "leftVelRms", previous.m_leftVelRms, current.m_leftVelRms, threshold, 0.02);
+		check(list, "rightVelRms", previous.m_rightVelRms, current.m_rightVelRms, threshold, 0.02);
+		check(list, "intervalP99", previous.m_intervalP99, current.m_intervalP99, threshold, 2);
+		check(list, "stallTime", previous.m_stallTime, current.m_stallTime, threshold, 0.1);
+
+		return(list);
+	}
+
+	/**
+	 * Prints the summary of each run and the regressions from the previous run
+	 *
+	 * @param summaries - Specifies the runs in order
+	 * @param threshold - Specifies the fraction by which a metric must get worse to be reported
+	 */
+	public static void print(List<RunSummary> summaries, double threshold)
+	{
+		RunSummary	previous	= null;
+
+		for (RunSummary summary : summaries)
+		{
+			System.out.println(summary);
+
+			if (previous != null)
+			{
+				for (String regression : findRegressions(previous, summary, threshold))
+				{
+					System.out.println("    regression: " + regression);
+				}
+			}
+
+			if (summary.m_error == null)
+			{
+				previous	= summary;
+			}
+		}
+	}
+
+	/**
+	 * Analyzes the Follow Profile logs in the specified directories and files. The default is the logs directory.
+	 *
+	 * @param args - Specifies the directories and files
+	 */
+	public static void main(String[] args)
+	{
+		ArrayList<File>	files	= new ArrayList<File>();
+
+		for (String arg : (args.length > 0) ? args : new String[] { "logs" })
+		{
+			File	file	= new File(arg);
+
+			if (file.isDirectory())
+			{
+				File[]	list	= file.listFiles((dir, name) -> name.startsWith(k_prefix) && name.endsWith(".csv"));
+
+				if (list != null)
+				{
+					files.addAll(Arrays.asList(list));
+				}
+			}
+			else
+			{
+				files.add(file);
+			}
+		}
+
+		print(analyzeAll(files), k_threshold);
+	}
+}
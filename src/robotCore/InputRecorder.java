@@ -0,0 +1,488 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ *
+ * @brief The InputRecorder class records and replays the inputs to the robot.
+ *
+ * When recording, every input that reaches the robot is written to a file along with the time
+ * it was received:
+ *
+ * - Commands received from the driver station
+ * - Joystick data
+ * - Responses to <strong>TwoWire</strong> requests
+ * - Data received from the <strong>PiCamera</strong>
+ *
+ * When replaying, the robot runs without the driver station, I2C bus or camera network connection.
+ * The recorded inputs are fed back through the same entry points under a virtual clock (see
+ * <strong>Timer.setVirtualTime</strong>), and the robot loop is run as fast as possible, or at
+ * a multiple of real time.
+ *
+ * Recording and replay are normally selected from the command line (see <strong>configure</strong>).
+ *
+ * The file has one event per line in the format:
+ *
+ *     time,type,data
+ *
+ * Where type is D (driver station command), J (joystick), W (TwoWire response) or C (camera).
+ *
+ * The data of a TwoWire response is:
+ *
+ *     addr,command,args,response
+ *
+ * Where args are the argument bytes of the request and response is the response packet, both in hex.
+ * The arguments are part of the key used to find the response on replay, so that requests which
+ * only differ by their arguments (e.g. the position of two encoders on the same processor) are
+ * replayed separately.
+ */
+public class InputRecorder
+{
+	private static final char k_driverStation = 'D';
+	private static final char k_joystick = 'J';
+	private static final char k_twoWire = 'W';
+	private static final char k_camera = 'C';
+
+	private static class Event
+	{
+		long m_time;
+		char m_type;
+		String m_data;
+
+		Event(long time, char type, String data)
+		{
+			m_time = time;
+			m_type = type;
+			m_data = data;
+		}
+	}
+
+	/*
+	 * The recorded responses for a single TwoWire address, command and arguments
+	 */
+	private static class Responses
+	{
+		ArrayList<Long> m_times = new ArrayList<Long>();
+		ArrayList<byte[]> m_data = new ArrayList<byte[]>();
+		int m_next = 0;
+	}
+
+	private static volatile PrintWriter m_writer = null;
+	private static boolean m_replaying = false;
+	private static double m_speed = 0;
+	private static ArrayList<Event> m_events = null;
+	private static int m_nextEvent = 0;
+	private static HashMap<String, Responses> m_responses = new HashMap<String, Responses>();
+	private static HashMap<String, PiCamera> m_cameras = new HashMap<String, PiCamera>();
+
+	/**
+	 * Configures recording or replay from the command line arguments.
+	 *
+	 *     record path - records the inputs to the specified file
+	 *     replay path [speed] - replays the inputs from the specified file. The speed is a multiple of
+	 *                           real time. If it is omitted or zero, the replay runs as fast as possible.
+	 *
+	 * @param args - Specifies the command line arguments
+	 */
+	public static void configure(String[] args)
+	{
+		if (args.length >= 2)
+		{
+			if (args[0].equals("record"))
+			{
+				startRecording(args[1]);
+			}
+			else if (args[0].equals("replay"))
+			{
+				startReplay(args[1], (args.length >= 3) ? Double.parseDouble(args[2]) : 0);
+			}
+		}
+	}
+
+	/**
+	 * Starts recording the robot inputs
+	 *
+	 * @param path - Specifies the path of the recording file
+	 */
+	public static void startRecording(String path)
+	{
+		Logger.log("InputRecorder", 2, "Recording to " + path);
+
+		try
+		{
+			m_writer = new PrintWriter(new BufferedWriter(new FileWriter(path)));
+
+			Runtime.getRuntime().addShutdownHook(new Thread(InputRecorder::stopRecording));
+		}
+		catch (IOException e)
+		{
+			Logger.log("InputRecorder", 3, "Cannot open " + path + ": " + e);
+		}
+	}
+
+	/**
+	 * Stops recording the robot inputs and closes the file
+	 */
+	public static void stopRecording()
+	{
+		PrintWriter writer = m_writer;
+
+		m_writer = null;
+
+		if (writer != null)
+		{
+			synchronized (writer)
+			{
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Starts replaying recorded inputs. This must be called before the robot is started.
+	 *
+	 * @param path - Specifies the path of the recording file
+	 * @param speed - Specifies the replay speed as a multiple of real time. If zero, the replay runs
+	 * 				  as fast as possible.
+	 */
+	public static void startReplay(String path, double speed)
+	{
+		Logger.log("InputRecorder", 2, "Replaying " + path);
+
+		ArrayList<Event> events = new ArrayList<Event>();
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(path)))
+		{
+			String line;
+
+			while ((line = reader.readLine()) != null)
+			{
+				String[] fields = line.split(",", 3);
+
+				if ((fields.length == 3) && (fields[1].length() == 1))
+				{
+					long time = Long.parseLong(fields[0]);
+					char type = fields[1].charAt(0);
+
+					if (type == k_twoWire)
+					{
+						addResponse(time, fields[2]);
+					}
+					else
+					{
+						events.add(new Event(time, type, fields[2]));
+					}
+				}
+			}
+		}
+		catch (IOException | NumberFormatException e)
+		{
+			Logger.log("InputRecorder", 3, "Cannot read " + path + ": " + e);
+			return;
+		}
+
+		/*
+		 * Events are written from several threads so they may be slightly out of order
+		 */
+		events.sort((a, b) -> Long.compare(a.m_time, b.m_time));
+
+		m_events = events;
+		m_nextEvent = 0;
+		m_speed = speed;
+		m_replaying = true;
+
+		Timer.setVirtualTime(getStartTime());
+	}
+
+	/**
+	 * @return - Returns true if the robot inputs are being replayed
+	 */
+	public static boolean isReplaying()
+	{
+		return(m_replaying);
+	}
+
+	/**
+	 * @return - Returns true if the robot inputs are being recorded
+	 */
+	public static boolean isRecording()
+	{
+		return(m_writer != null);
+	}
+
+	//! @cond PRIVATE
+	static double getSpeed()
+	{
+		return(m_speed);
+	}
+
+	/*
+	 * Returns the time of the first replayed event
+	 */
+	static long getStartTime()
+	{
+		return(m_events.isEmpty() ? 0 : m_events.get(0).m_time);
+	}
+
+	private static void record(char type, String data)
+	{
+		PrintWriter writer = m_writer;
+
+		if (writer != null)
+		{
+			long time = System.currentTimeMillis();
+
+			synchronized (writer)
+			{
+				writer.print(time);
+				writer.print(',');
+				writer.print(type);
+				writer.print(',');
+				writer.println(data);
+			}
+		}
+	}
+
+	static void recordDriverStation(String command)
+	{
+		if (m_writer != null)
+		{
+			record(k_driverStation, command);
+		}
+	}
+
+	static void recordJoystick(boolean gamepad, double x, double y, double rx, double ry, double throttle, double pov, int buttons)
+	{
+		if (m_writer != null)
+		{
+			record(k_joystick, String.format("%b,%s,%s,%s,%s,%s,%s,%d", gamepad, x, y, rx, ry, throttle, pov, buttons));
+		}
+	}
+
+	/*
+	 * Records the response to a TwoWire request. The request packet is in the format:
+	 *  [size] [packetNo] [command] [args...] [cksum]
+	 */
+	static void recordTwoWire(int addr, byte[] request, byte[] response)
+	{
+		if (m_writer != null)
+		{
+			StringBuilder data = new StringBuilder(getResponseKey(addr, request));
+
+			data.append(',');
+			appendHex(data, response, 0, response.length);
+
+			record(k_twoWire, data.toString());
+		}
+	}
+
+	static void recordCamera(String camera, String data)
+	{
+		if (m_writer != null)
+		{
+			record(k_camera, camera + "," + data);
+		}
+	}
+
+	private static void appendHex(StringBuilder data, byte[] bytes, int start, int end)
+	{
+		for (int i = start ; i < end ; i++)
+		{
+			data.append(String.format("%02x", bytes[i] & 0xff));
+		}
+	}
+
+	/*
+	 * Returns the key of a request: addr,command,args
+	 */
+	private static String getResponseKey(int addr, byte[] request)
+	{
+		StringBuilder key = new StringBuilder();
+
+		key.append(addr);
+		key.append(',');
+		key.append(request[2] & 0xff);
+		key.append(',');
+		appendHex(key, request, 3, request.length - 1);
+
+		return(key.toString());
+	}
+
+	private static void addResponse(long time, String data)
+	{
+		String[] fields = data.split(",", 4);
+
+		/*
+		 * Recordings made before the arguments were recorded have no args field
+		 */
+		if (fields.length == 3)
+		{
+			fields = new String[] { fields[0], fields[1], "", fields[2] };
+		}
+
+		if (fields.length == 4)
+		{
+			String key = fields[0] + "," + fields[1] + "," + fields[2];
+			byte[] response = new byte[fields[3].length() / 2];
+
+			for (int i = 0 ; i < response.length ; i++)
+			{
+				response[i] = (byte) Integer.parseInt(fields[3].substring(i * 2, i * 2 + 2), 16);
+			}
+
+			Responses responses = m_responses.get(key);
+
+			if (responses == null)
+			{
+				responses = new Responses();
+				m_responses.put(key, responses);
+			}
+
+			responses.m_times.add(time);
+			responses.m_data.add(response);
+		}
+	}
+
+	/*
+	 * Returns the recorded response to a TwoWire request which was current at the virtual time.
+	 * If there is no recorded response, a response containing all zeros is returned.
+	 */
+	static byte[] replayTwoWire(int addr, byte[] request, int size)
+	{
+		String key = getResponseKey(addr, request);
+
+		synchronized (m_responses)
+		{
+			Responses responses = m_responses.get(key);
+
+			if (responses == null)
+			{
+				Logger.log("InputRecorder", 3, "No recorded response: " + key);
+
+				responses = new Responses();
+				responses.m_times.add(0L);
+				responses.m_data.add(new byte[size]);
+				m_responses.put(key, responses);
+			}
+
+			long time = Timer.getTimeMs();
+
+			while ((responses.m_next + 1 < responses.m_times.size()) && (responses.m_times.get(responses.m_next + 1) <= time))
+			{
+				responses.m_next++;
+			}
+
+			return(responses.m_data.get(responses.m_next));
+		}
+	}
+
+	static void registerCamera(String camera, PiCamera piCamera)
+	{
+		m_cameras.put(camera, piCamera);
+	}
+
+	private static void replayJoystick(String data)
+	{
+		String[] fields = data.split(",");
+
+		if (fields.length == 8)
+		{
+			Joystick.getInstance().setData(	Boolean.parseBoolean(fields[0]),
+											Double.parseDouble(fields[1]),
+											Double.parseDouble(fields[2]),
+											Double.parseDouble(fields[3]),
+											Double.parseDouble(fields[4]),
+											Double.parseDouble(fields[5]),
+											Double.parseDouble(fields[6]),
+											Integer.parseInt(fields[7]));
+		}
+	}
+
+	private static void replayCamera(String data)
+	{
+		String[] fields = data.split(",", 2);
+
+		if (fields.length == 2)
+		{
+			PiCamera camera = m_cameras.get(fields[0]);
+
+			if (camera != null)
+			{
+				camera.processData(fields[1]);
+			}
+		}
+	}
+
+	/*
+	 * Feeds all of the recorded events up to the specified time back to the robot
+	 *
+	 * Returns false when there are no more events
+	 */
+	static boolean dispatchEvents(long time)
+	{
+		while (m_nextEvent < m_events.size())
+		{
+			Event event = m_events.get(m_nextEvent);
+
+			if (event.m_time > time)
+			{
+				return(true);
+			}
+
+			m_nextEvent++;
+
+			switch (event.m_type)
+			{
+			case k_driverStation:
+				/*
+				 * Joystick packets are replayed by the joystick events, which record the
+				 * data that they produced
+				 */
+				if (!event.m_data.startsWith("j"))
+				{
+					RobotBase.getInstance().processDriverStationCommand(event.m_data);
+				}
+				break;
+
+			case k_joystick:
+				replayJoystick(event.m_data);
+				break;
+
+			case k_camera:
+				replayCamera(event.m_data);
+				break;
+
+			default:
+				break;
+			}
+		}
+
+		return(false);
+	}
+	//! @endcond
+}
@@ -277,5 +277,15 @@ public abstract class IterativeRobotBase extends RobotBase {
 	    }
 
 	    robotPeriodic();
+	    
+	    if (Simulation.isEnabled())
+	    {
+	      simulationPeriodic();
+	    }
+
+	    if (TW)
+	    {
+	      SmartMotor.flushOutputs();
+	    }
 	  }
 }
@@ -18,6 +18,7 @@
 
 package robotCore;
 
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 
@@ -32,16 +33,79 @@ package robotCore;
 
 public class Joystick extends GenericHID
 {
+	/**
+	 * @brief The JoystickData class holds the joystick state received in a single driver station packet
+	 * 
+	 * Instances are never modified, so all of the values read from one instance are consistent 
+	 * with each other.
+	 */
+	public static final class JoystickData
+	{
+		public final long m_sequence;	//!<Specifies the packet sequence number. This increases by one for each packet received.
+		public final boolean m_gamepad;	//!<Specifies whether the attached joystick is a gamepad
+		public final double m_x;		//!<Specifies the horizontal position (-1.0 to 1.0)
+		public final double m_y;		//!<Specifies the vertical position (-1.0 to 1.0)
+		public final double m_rx;		//!<Specifies the horizontal position of the right gamepad joystick (-1.0 to 1.0)
+		public final double m_ry;		//!<Specifies the vertical position of the right gamepad joystick (-1.0 to 1.0)
+		public final double m_throttle;	//!<Specifies the throttle position (-1.0 to 1.0)
+		public final double m_pov;		//!<Specifies the 8 position switch value
+		public final int m_buttons;		//!<Specifies the button state, bit 0 is button 1
+		
+		//! @cond PRIVATE 
+		JoystickData(long sequence, boolean gamepad, double x, double y, double rx, double ry, double throttle, double pov, int buttons)
+		{
+			m_sequence = sequence;
+			m_gamepad = gamepad;
+			m_x = x;
+			m_y = y;
+			m_rx = rx;
+			m_ry = ry;
+			m_throttle = throttle;
+			m_pov = pov;
+			m_buttons = buttons;
+		}
+		//! @endcond
+		
+		/**
+		 * @param button - Specifies the button (1-32)
+		 * 
+		 * @return Returns <strong>true</strong> if the specified button was pressed
+		 */
+		public boolean getRawButton(int button)
+		{
+			if (button > 0)
+			{
+				return((m_buttons & (1 << (button - 1))) != 0);
+			}
+			
+			return(false);
+		}
+	}
+	
 	static Joystick m_rootJoystick = null;
 	Joystick m_joystick;
-	boolean m_gamepad = false;
-	double m_x = 0;
-	double m_y = 0;
-	double m_rx = 0;
-	double m_ry = 0;
-	double m_throttle = 0;
-	double m_pov = 0;
-	int m_buttons = 0;
+	volatile JoystickData m_data = new JoystickData(0, false, 0, 0, 0, 0, 0, 0, 0);
+	final AtomicLong m_changedInputs = new AtomicLong();	// Inputs that have changed since the last call to takeChangedInputs()
+	
+	/**
+	 * Input bit which is set in the changed input mask when the POV switch changes
+	 */
+	public static final long k_povInput = 1L << 32;
+	
+	/**
+	 * @param button - Specifies the button (1-32)
+	 * 
+	 * @return Returns the input bit which is set in the changed input mask when the specified button changes
+	 */
+	public static long getButtonInput(int button)
+	{
+		if ((button > 0) && (button <= 32))
+		{
+			return(1L << (button - 1));
+		}
+		
+		return(0);
+	}
 	
 	//! @cond PRIVATE 
 	public static Joystick getInstance()
@@ -80,7 +144,7 @@ public class Joystick extends GenericHID
 	public boolean isGamepad()
 	{
 		// System.out.println(String.format("m_gamepad = %b", m_joystick.m_gamepad));
-		return(m_joystick.m_gamepad);
+		return(m_joystick.m_data.m_gamepad);
 	}
 
 	/**
@@ -89,7 +153,7 @@ public class Joystick extends GenericHID
 	@Override
 	public double getX()
 	{
-		return(m_joystick.m_x);
+		return(m_joystick.m_data.m_x);
 	}
 	
 	/**
@@ -98,7 +162,7 @@ public class Joystick extends GenericHID
 	@Override
 	public double getY()
 	{
-		return(m_joystick.m_y);
+		return(m_joystick.m_data.m_y);
 	}
 
 	public double getZ()
@@ -112,7 +176,7 @@ public class Joystick extends GenericHID
 	 */
 	public double getRX()
 	{
-		return(m_joystick.m_rx);
+		return(m_joystick.m_data.m_rx);
 	}
 	
 	/**
@@ -121,7 +185,7 @@ public class Joystick extends GenericHID
 	 */
 	public double getRY()
 	{
-		return(m_joystick.m_ry);
+		return(m_joystick.m_data.m_ry);
 	}
 	
 	/**
@@ -133,7 +197,7 @@ public class Joystick extends GenericHID
 	 */
 	public double getThrottle()
 	{
-		return(m_joystick.m_throttle);
+		return(m_joystick.m_data.m_throttle);
 	}
 	
 	/**
@@ -142,7 +206,7 @@ public class Joystick extends GenericHID
 	 */
 	public double getPOV()
 	{
-		return(m_joystick.m_pov);
+		return(m_joystick.m_data.m_pov);
 	}
 	
 	/**
@@ -151,12 +215,30 @@ public class Joystick extends GenericHID
 	@Override
 	public boolean getRawButton(final int button)
 	{
-		if (button > 0)
-		{
-			return((m_joystick.m_buttons & (1 << (button - 1))) != 0);
-		}
-		
-		return(false);
+		return(m_joystick.m_data.getRawButton(button));
+	}
+	
+	/**
+	 * Returns the joystick state received in the latest driver station packet. Use this when several
+	 * values are needed, so that they all come from the same packet. The <strong>m_sequence</strong>
+	 * field can be used to skip work when no new packet has been received.
+	 * 
+	 * @return Returns the latest joystick state.
+	 */
+	public JoystickData getData()
+	{
+		return(m_joystick.m_data);
+	}
+	
+	/**
+	 * Returns the inputs which have changed since the last call, and clears them. Bits 0-31 correspond
+	 * to buttons 1-32 and bit 32 (<strong>k_povInput</strong>) to the POV switch.
+	 * 
+	 * @return Returns the mask of changed inputs.
+	 */
+	public long takeChangedInputs()
+	{
+		return(m_joystick.m_changedInputs.getAndSet(0));
 	}
 	
 	//! @cond PRIVATE 
@@ -164,14 +246,26 @@ public class Joystick extends GenericHID
 	{
 		// System.out.println(String.format("gamepad=%b", gamepad));
 
-		m_gamepad = gamepad;
-		m_x	= x;
-		m_y	= y;
-		m_rx = rx;
-		m_ry = ry;
-		m_throttle = throttle;
-		m_pov = pov;
-		m_buttons = buttons;
+		InputRecorder.recordJoystick(gamepad, x, y, rx, ry, throttle, pov, buttons);
+
+		/*
+		 * Only the driver station thread writes the data, so the new state is built and
+		 * then published with a single volatile write
+		 */
+		JoystickData last = m_data;
+		long changed = (last.m_buttons ^ buttons) & 0xffffffffL;
+		
+		if (pov != last.m_pov)
+		{
+			changed |= k_povInput;
+		}
+		
+		m_data = new JoystickData(last.m_sequence + 1, gamepad, x, y, rx, ry, throttle, pov, buttons);
+		
+		if (changed != 0)
+		{
+			m_changedInputs.getAndAccumulate(changed, (a, b) -> a | b);
+		}
 	}
 	//! @endcond
 }
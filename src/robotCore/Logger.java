@@ -222,6 +222,23 @@ public class Logger
 	{
 		log(tag, level, message, false);
 	}
+	
+	/**
+	 * Use this to avoid building a message which would not be logged.
+	 * 
+	 * @param tag - Specifies the tag for the message.
+	 * @param level - Specifies the logging level of the message.
+	 * 
+	 * @return Returns <strong>true</strong> if a message with this tag and level would be logged.
+	 */
+	static public boolean isLogged(String tag, int level)
+	{
+		synchronized(m_lock)
+		{
+			return((level >= m_level) && (level >= findType(tag).m_level));
+		}
+	}
+	
 	/**
 	 * 
 	 * @param level - Specifies the global logging level.  No messages less than this level will be logged, regardless of the logging level for the log type.
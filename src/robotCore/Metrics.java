@@ -0,0 +1,457 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ *
+ * @brief The Metrics class is a registry of counters, gauges and histograms.
+ *
+ * Each metric is identified by a name and an optional list of tags, such as the I2C address,
+ * the command, the subsystem or the camera, which are written as <strong>"key=value"</strong> strings:
+ *
+ *     Metrics.Counter errors = Metrics.counter("twowire.responseErrors", "addr=" + addr);
+ *
+ * The same name and tags always return the same metric, so the metric should be looked up once
+ * and kept rather than looked up on each use. Updating a metric does not lock or allocate, so they
+ * can be used from the bus, camera and robot loop threads.
+ *
+ * Histograms record values such as latencies in log-linear buckets, which keep the relative error
+ * below about 3% from 1 to 2^40 with a fixed amount of memory. The unit is up to the caller and
+ * should be part of the name (e.g. ".us" or ".ms").
+ *
+ * The <strong>snapshot</strong> function returns the current value of every metric, and
+ * <strong>startLogging</strong> writes the snapshot to the log periodically.
+ *
+ */
+public class Metrics
+{
+	/**
+	 *
+	 * @brief The Counter class counts events
+	 *
+	 */
+	public static class Counter
+	{
+		private final LongAdder	m_count	= new LongAdder();
+
+		public void increment()
+		{
+			m_count.increment();
+		}
+
+		public void add(long value)
+		{
+			m_count.add(value);
+		}
+
+		public long get()
+		{
+			return(m_count.sum());
+		}
+	}
+
+	/**
+	 *
+	 * @brief The Gauge class holds the latest value of a quantity
+	 *
+	 * A gauge is either set by its owner, or reads its value from a supplier when the snapshot is taken.
+	 *
+	 */
+	public static class Gauge
+	{
+		private final AtomicLong		m_value		= new AtomicLong(Double.doubleToLongBits(0));
+		private volatile DoubleSupplier	m_supplier	= null;
+
+		public void set(double value)
+		{
+			m_value.set(Double.doubleToLongBits(value));
+		}
+
+		public double get()
+		{
+			DoubleSupplier	supplier	= m_supplier;
+
+			return((supplier != null) ? supplier.getAsDouble() : Double.longBitsToDouble(m_value.get()));
+		}
+	}
+
+	/**
+	 *
+	 * @brief The Histogram class records the distribution of a value
+	 *
+	 * Values below 32 are recorded exactly. Larger values are recorded in 16 buckets per power of two.
+	 * Negative values are recorded as zero and values above 2^40 as 2^40.
+	 *
+	 */
+	public static class Histogram
+	{
+		private static final int	k_exactBits		= 5;
+		private static final int	k_exact			= 1 << k_exactBits;		// Values recorded exactly
+		private static final int	k_subBuckets	= k_exact / 2;			// Buckets per power of two
+		private static final int	k_maxBits		= 40;
+		private static final long	k_maxValue		= 1L << k_maxBits;
+		private static final int	k_buckets		= k_exact + ((k_maxBits - k_exactBits + 1) * k_subBuckets);
+
+		private final AtomicLongArray	m_counts	= new AtomicLongArray(k_buckets);
+		private final LongAdder			m_total		= new LongAdder();
+		private final LongAdder			m_sum		= new LongAdder();
+		private final AtomicLong		m_max		= new AtomicLong(0);
+
+		private static int bucket(long value)
+		{
+			if (value < k_exact)
+			{
+				return((int) Math.max(value, 0));
+			}
+
+			int	shift	= (63 - Long.numberOfLeadingZeros(value)) - (k_exactBits - 1);
+
+			return(k_exact + ((shift - 1) * k_subBuckets) + (int) ((value >> shift) - k_subBuckets));
+		}
+
+		/*
+		 * Returns the middle of the range of values recorded in the bucket
+		 */
+		private static long bucketValue(int bucket)
+		{
+			if (bucket < k_exact)
+			{
+				return(bucket);
+			}
+
+			int		shift	= ((bucket - k_exact) / k_subBuckets) + 1;
+			long	base	= ((bucket - k_exact) % k_subBuckets) + k_subBuckets;
+
+			return((base << shift) + ((1L << shift) / 2));
+		}
+
+		/**
+		 * Records a value
+		 *
+		 * @param value - Specifies the value
+		 */
+		public void record(long value)
+		{
+			value	= Math.min(value, k_maxValue);
+
+			m_counts.incrementAndGet(bucket(value));
+			m_total.increment();
+			m_sum.add(Math.max(value, 0));
+			m_max.accumulateAndGet(value, Math::max);
+		}
+
+		/**
+		 * @return Returns the number of values recorded
+		 */
+		public long getCount()
+		{
+			return(m_total.sum());
+		}
+
+		/**
+		 * @return Returns the largest value recorded
+		 */
+		public long getMax()
+		{
+			return(m_max.get());
+		}
+
+		/**
+		 * @return Returns the mean of the values recorded, or zero if there are none
+		 */
+		public double getMean()
+		{
+			long	count	= m_total.sum();
+
+			return((count > 0) ? (double) m_sum.sum() / count : 0);
+		}
+
+		/**
+		 * Returns the value below which the specified percentage of the values fall
+		 *
+		 * @param percentile - Specifies the percentage (0 - 100)
+		 * @return Returns the value, or zero if there are none
+		 */
+		public long getPercentile(double percentile)
+		{
+			long	count	= 0;
+
+			for (int i = 0 ; i < k_buckets ; i++)
+			{
+				count	+= m_counts.get(i);
+			}
+
+			long	rank	= Math.max(1, (long) Math.ceil(count * percentile / 100));
+			long	seen	= 0;
+
+			for (int i = 0 ; i < k_buckets ; i++)
+			{
+				seen	+= m_counts.get(i);
+
+				if (seen >= rank)
+				{
+					return(Math.min(bucketValue(i), m_max.get()));
+				}
+			}
+
+			return(0);
+		}
+
+		/**
+		 * Clears the recorded values
+		 */
+		public void reset()
+		{
+			for (int i = 0 ; i < k_buckets ; i++)
+			{
+				m_counts.set(i, 0);
+			}
+			m_total.reset();
+			m_sum.reset();
+			m_max.set(0);
+		}
+	}
+
+	/**
+	 *
+	 * @brief The Snapshot class holds the value of a metric when the snapshot was taken
+	 *
+	 */
+	public static class Snapshot
+	{
+		public String	m_name;			//!<Specifies the name and tags of the metric
+		public char		m_type;			//!<Specifies the type, 'c' = counter, 'g' = gauge, 'h' = histogram
+		public double	m_value;		//!<Specifies the count, the gauge value, or the histogram mean
+		public long		m_count;		//!<Specifies the number of values recorded by a histogram
+		public long		m_p50;			//!<Specifies the median of a histogram
+		public long		m_p90;			//!<Specifies the 90th percentile of a histogram
+		public long		m_p99;			//!<Specifies the 99th percentile of a histogram
+		public long		m_max;			//!<Specifies the maximum of a histogram
+
+		@Override
+		public String toString()
+		{
+			switch (m_type)
+			{
+			case 'c':
+				return(String.format("%s %d", m_name, (long) m_value));
+
+			case 'h':
+				return(String.format("%s n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", m_name, m_count, m_value, m_p50, m_p90,
+						m_p99, m_max));
+
+			default:
+				return(String.format("%s %.3f", m_name, m_value));
+			}
+		}
+	}
+
+	private static final ConcurrentHashMap<String, Object>	m_metrics	= new ConcurrentHashMap<String, Object>();
+	private static RobotBase.UpdateModule	m_logger	= null;
+
+	private static String key(String name, String[] tags)
+	{
+		if (tags.length == 0)
+		{
+			return(name);
+		}
+
+		return(name + "{" + String.join(",", tags) + "}");
+	}
+
+	private static <T> T get(String name, String[] tags, Class<T> type)
+	{
+		Object	metric	= m_metrics.computeIfAbsent(key(name, tags), k ->
+		{
+			try
+			{
+				return(type.getDeclaredConstructor().newInstance());
+			}
+			catch (ReflectiveOperationException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		});
+
+		if (!type.isInstance(metric))
+		{
+			throw new IllegalArgumentException("Metrics: " + key(name, tags) + " is not a " + type.getSimpleName());
+		}
+
+		return(type.cast(metric));
+	}
+
+	/**
+	 * Returns the counter with the specified name and tags, creating it if necessary
+	 *
+	 * @param name - Specifies the name
+	 * @param tags - Specifies the tags, each as "key=value"
+	 * @return Returns the counter
+	 */
+	public static Counter counter(String name, String... tags)
+	{
+		return(get(name, tags, Counter.class));
+	}
+
+	/**
+	 * Returns the gauge with the specified name and tags, creating it if necessary
+	 *
+	 * @param name - Specifies the name
+	 * @param tags - Specifies the tags, each as "key=value"
+	 * @return Returns the gauge
+	 */
+	public static Gauge gauge(String name, String... tags)
+	{
+		return(get(name, tags, Gauge.class));
+	}
+
+	/**
+	 * Creates a gauge which reads its value from a supplier when the snapshot is taken
+	 *
+	 * @param name - Specifies the name
+	 * @param supplier - Specifies the supplier of the value
+	 * @param tags - Specifies the tags, each as "key=value"
+	 * @return Returns the gauge
+	 */
+	public static Gauge gauge(String name, DoubleSupplier supplier, String... tags)
+	{
+		Gauge	gauge	= gauge(name, tags);
+
+		gauge.m_supplier	= supplier;
+
+		return(gauge);
+	}
+
+	/**
+	 * Returns the histogram with the specified name and tags, creating it if necessary
+	 *
+	 * @param name - Specifies the name, which should include the unit
+	 * @param tags - Specifies the tags, each as "key=value"
+	 * @return Returns the histogram
+	 */
+	public static Histogram histogram(String name, String... tags)
+	{
+		return(get(name, tags, Histogram.class));
+	}
+
+	/**
+	 * Returns the current value of every metric, sorted by name
+	 *
+	 * @return Returns the list of values
+	 */
+	public static ArrayList<Snapshot> snapshot()
+	{
+		ArrayList<Snapshot>	list	= new ArrayList<Snapshot>();
+		ArrayList<String>	names	= new ArrayList<String>(m_metrics.keySet());
+
+		Collections.sort(names);
+
+		for (String name : names)
+		{
+			Object		metric		= m_metrics.get(name);
+			Snapshot	snapshot	= new Snapshot();
+
+			snapshot.m_name	= name;
+
+			if (metric instanceof Counter)
+			{
+				snapshot.m_type		= 'c';
+				snapshot.m_value	= ((Counter) metric).get();
+			}
+			else if (metric instanceof Gauge)
+			{
+				snapshot.m_type		= 'g';
+				snapshot.m_value	= ((Gauge) metric).get();
+			}
+			else
+			{
+				Histogram	histogram	= (Histogram) metric;
+
+				snapshot.m_type		= 'h';
+				snapshot.m_count	= histogram.getCount();
+				snapshot.m_value	= histogram.getMean();
+				snapshot.m_p50		= histogram.getPercentile(50);
+				snapshot.m_p90		= histogram.getPercentile(90);
+				snapshot.m_p99		= histogram.getPercentile(99);
+				snapshot.m_max		= histogram.getMax();
+			}
+
+			list.add(snapshot);
+		}
+
+		return(list);
+	}
+
+	/**
+	 * Writes the snapshot to the log, one line per metric
+	 *
+	 * @param level - Specifies the log level
+	 */
+	public static void log(int level)
+	{
+		if (Logger.isLogged("Metrics", level))
+		{
+			for (Snapshot snapshot : snapshot())
+			{
+				Logger.log("Metrics", level, snapshot.toString());
+			}
+		}
+	}
+
+	/**
+	 * Writes the snapshot to the log periodically from the robot update thread
+	 *
+	 * @param period - Specifies the time between snapshots in ms
+	 * @param level - Specifies the log level
+	 */
+	public static synchronized void startLogging(int period, int level)
+	{
+		if (m_logger != null)
+		{
+			return;
+		}
+
+		m_logger	= new RobotBase.UpdateModule()
+		{
+			private long	m_nextTime	= Timer.getTimeMs() + period;
+
+			@Override
+			public void update()
+			{
+				long	time	= Timer.getTimeMs();
+
+				if (time >= m_nextTime)
+				{
+					m_nextTime	= time + period;
+					log(level);
+				}
+			}
+		};
+
+		RobotBase.getInstance().addUpdate(m_logger);
+	}
+}
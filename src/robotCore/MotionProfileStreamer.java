@@ -0,0 +1,259 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import pathfinder.Pathfinder.Path;
+import pathfinder.Pathfinder.Segment;
+import robotCore.SmartMotor.MotionProfileState;
+import robotCore.SmartMotor.SmartMotorMode;
+
+/**
+ *
+ * @brief The MotionProfileStreamer class runs a path on the motor processor.
+ *
+ * When a path is followed by <strong>PurePursuit</strong>, the motor speeds are computed on
+ * the host, so they are only as regular as the host's thread. The MotionProfileStreamer instead
+ * sends the left and right wheel positions and velocities of a <strong>Path</strong> to the
+ * processor, which executes one point per path time step from its own buffer.
+ *
+ * The points are sent ahead of time in small chunks. The buffer is filled before the profile is
+ * started and is then topped up from the robot update thread. The processor reports how many
+ * points it has executed, so the host always knows how much free space there is without
+ * overrunning the buffer. If the buffer runs dry before the last point has been sent, the
+ * processor stops the motors and reports an underrun. It resumes when more points arrive.
+ * Each underrun is logged and counted.
+ *
+ * The positions are in encoder ticks relative to the position when the profile is started.
+ * Both motors must have a feedback device.
+ *
+ */
+public class MotionProfileStreamer implements RobotBase.UpdateModule
+{
+	private static final int	k_maxVelocity	= Short.MAX_VALUE;
+
+	/*
+	 * The points of a single motor
+	 */
+	private static class Channel
+	{
+		final SmartMotor	m_motor;
+		final MotionProfileState	m_state	= new MotionProfileState();
+		int[]	m_positions	= new int[0];
+		short[]	m_velocities	= new short[0];
+		int		m_sent		= 0;
+		boolean	m_underrun	= false;
+
+		Channel(SmartMotor motor)
+		{
+			m_motor	= motor;
+		}
+
+		/*
+		 * Converts the segments to ticks. The position is integrated from the signed velocity so
+		 * that it moves in the same direction as the wheel.
+		 */
+		void load(Segment[] segments, double ticksPerFoot)
+		{
+			double	position	= 0;
+
+			m_positions		= new int[segments.length];
+			m_velocities	= new short[segments.length];
+			m_sent			= 0;
+			m_underrun		= false;
+
+			for (int i = 0 ; i < segments.length ; i++)
+			{
+				double	velocity	= segments[i].velocity * ticksPerFoot;
+
+				position		+= velocity * segments[i].dt;
+				m_positions[i]	= (int) Math.round(position);
+				m_velocities[i]	= (short) Math.max(-k_maxVelocity, Math.min(k_maxVelocity, Math.round(velocity)));
+			}
+		}
+
+		/*
+		 * Sends as many chunks as will fit in the free space
+		 */
+		void fill(int free)
+		{
+			int	length	= m_positions.length;
+
+			while ((m_sent < length) && (free > 0))
+			{
+				int	count	= Math.min(Math.min(TwoWire.k_maxMotionPoints, length - m_sent), free);
+
+				m_motor.addMotionPoints(m_positions, m_velocities, m_sent, count, m_sent + count == length);
+				m_sent	+= count;
+				free	-= count;
+			}
+		}
+
+		/*
+		 * Returns the number of points in the processor's buffer
+		 */
+		int buffered()
+		{
+			return((m_sent - m_state.m_executed) & 0xffff);
+		}
+	}
+
+	private final Channel	m_left;
+	private final Channel	m_right;
+	private final double	m_ticksPerFoot;
+	private boolean			m_running		= false;
+	private boolean			m_finished		= false;
+	private int				m_underrunCount	= 0;
+	private boolean			m_registered	= false;
+
+	/**
+	 * @param left - Specifies the left motor
+	 * @param right - Specifies the right motor
+	 * @param ticksPerFoot - Specifies the number of encoder ticks per foot
+	 */
+	public MotionProfileStreamer(SmartMotor left, SmartMotor right, double ticksPerFoot)
+	{
+		m_left			= new Channel(left);
+		m_right			= new Channel(right);
+		m_ticksPerFoot	= ticksPerFoot;
+	}
+
+	/**
+	 * Puts the motors into MotionProfile mode, fills the processor's buffers with the start of the
+	 * path and starts the profile. The remainder of the path is sent as the profile runs.
+	 *
+	 * @param path - Specifies the path
+	 */
+	public synchronized void start(Path path)
+	{
+		int	period	= (int) Math.round(path.m_dt * 1000);
+
+		if ((path.m_leftPath.length == 0) || (path.m_leftPath.length != path.m_rightPath.length) || (period <= 0))
+		{
+			throw new IllegalArgumentException("MotionProfileStreamer: invalid path");
+		}
+
+		m_left.load(path.m_leftPath, m_ticksPerFoot);
+		m_right.load(path.m_rightPath, m_ticksPerFoot);
+
+		for (Channel channel : new Channel[] { m_left, m_right })
+		{
+			channel.m_motor.setControlMode(SmartMotorMode.MotionProfile);
+			channel.m_motor.clearMotionProfile();
+			channel.m_motor.getMotionProfileState(channel.m_state);
+			channel.fill(channel.m_state.m_capacity);
+		}
+
+		m_left.m_motor.startMotionProfile(period);
+		m_right.m_motor.startMotionProfile(period);
+
+		m_running		= true;
+		m_finished		= false;
+		m_underrunCount	= 0;
+
+		Logger.log("MotionProfileStreamer", 2, String.format("Start: %d points, period=%d ms, buffered=%d", path.m_leftPath.length,
+				period, m_left.m_sent));
+
+		if (!m_registered)
+		{
+			m_registered	= true;
+			RobotBase.getInstance().addUpdate(this);
+		}
+	}
+
+	/**
+	 * Stops the profile. The motors remain in MotionProfile mode.
+	 */
+	public synchronized void stop()
+	{
+		if (m_running)
+		{
+			m_left.m_motor.clearMotionProfile();
+			m_right.m_motor.clearMotionProfile();
+			m_running	= false;
+		}
+	}
+
+	/**
+	 * @return Returns true when the processor has executed all of the points of both wheels
+	 */
+	public synchronized boolean isFinished()
+	{
+		return(m_finished);
+	}
+
+	/**
+	 * @return Returns the number of times the processor has run out of points since the
+	 * 		   profile was started
+	 */
+	public synchronized int getUnderrunCount()
+	{
+		return(m_underrunCount);
+	}
+
+	private void checkUnderrun(Channel channel, String name)
+	{
+		boolean	underrun	= ((channel.m_state.m_flags & SmartMotor.k_profileUnderrun) != 0);
+
+		if (underrun && !channel.m_underrun)
+		{
+			m_underrunCount++;
+
+			Logger.log("MotionProfileStreamer", 3, String.format("%s underrun: sent=%d, executed=%d", name, channel.m_sent,
+					channel.m_state.m_executed));
+		}
+
+		channel.m_underrun	= underrun;
+	}
+
+	//! @cond PRIVATE
+	@Override
+	public synchronized void update()
+	{
+		if (!m_running)
+		{
+			return;
+		}
+
+		if (RobotBase.getInstance().isDisabled())
+		{
+			Logger.log("MotionProfileStreamer", 2, "Stopped: robot disabled");
+			stop();
+			return;
+		}
+
+		m_left.m_motor.getMotionProfileState(m_left.m_state);
+		m_right.m_motor.getMotionProfileState(m_right.m_state);
+
+		checkUnderrun(m_left, "Left");
+		checkUnderrun(m_right, "Right");
+
+		m_left.fill(m_left.m_state.m_capacity - m_left.buffered());
+		m_right.fill(m_right.m_state.m_capacity - m_right.buffered());
+
+		if (((m_left.m_state.m_flags & SmartMotor.k_profileComplete) != 0) &&
+			((m_right.m_state.m_flags & SmartMotor.k_profileComplete) != 0))
+		{
+			Logger.log("MotionProfileStreamer", 2, String.format("Complete: %d underruns", m_underrunCount));
+
+			m_running	= false;
+			m_finished	= true;
+		}
+	}
+	//! @endcond
+}
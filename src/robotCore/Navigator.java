@@ -32,6 +32,9 @@ import java.nio.ByteBuffer;
  */
 public class Navigator {
     private static final int k_maxRetry = 5;
+    private static final int k_pollMin = 10; // First delay between navigator state requests in ms
+    private static final int k_pollMax = 200; // Longest delay between navigator state requests in ms
+    private static final int k_initTimeout = 2000; // Time allowed for each initialization attempt in ms
 
     Device m_Device;
     double m_yaw = 0;
@@ -42,8 +45,8 @@ public class Navigator {
     int m_rightSpeed = 0;
     int m_leftPos = 0;
     int m_rightPos = 0;
-    int m_updateCount = 0; // Count of update messages received
-    int m_errorCount = 0; // Count of SPI errors
+    Metrics.Counter m_updateCount = Metrics.counter("navigator.updates"); // Count of position updates received
+    Metrics.Counter m_errorCount = Metrics.counter("navigator.errors"); // Count of failed updates and init retries
     int m_lastLeftSpeed = 0;
     int m_lastRightSpeed = 0;
     int m_maxSpeed = 2400;
@@ -109,6 +112,15 @@ public class Navigator {
         }
     }
 
+    // ! @cond PRIVATE
+    /*
+     * Creates a position from raw navigator data (yaw in degrees, positions and speeds in ticks)
+     */
+    NavigatorPos createPos(double yaw, double x, double y, int leftSpeed, int rightSpeed, int leftPos, int rightPos) {
+        return (new NavigatorPos(yaw, x, y, leftSpeed, rightSpeed, leftPos, rightPos));
+    }
+    // ! @endcond
+
     private void init(Encoder leftEncoder, Encoder rightEncoder) {
         int leftNo;
         int rightNo;
@@ -133,18 +145,18 @@ public class Navigator {
             /*
              * Wait for navigator to initialize
              */
-            do {
-                RobotBase.sleep(1000);
+            Backoff backoff = new Backoff(k_pollMin, k_pollMax, k_initTimeout);
 
+            do {
                 state = m_Device.getByte(Device.k_i2cDefAddr, TwoWire.k_getNavigatorState);
 
-                Logger.log("Navigator", 1, String.format("Waiting for navigator: state = %d", state));
-
                 if (state >= 1) {
+                    Logger.log("Navigator", 1, String.format("Navigator ready after %d ms", backoff.getElapsed()));
                     return; // success
                 }
-            } while (state == 0);
+            } while ((state == 0) && backoff.sleep());
 
+            m_errorCount.increment();
             Logger.log("Navigator", 1, "Init failed, retrying...");
         }
 
@@ -160,6 +172,16 @@ public class Navigator {
         init(leftEncoder, rightEncoder);
     }
 
+    // ! @cond PRIVATE
+    /*
+     * Creates a navigator which is not connected to the processor. Subclasses supply the
+     * positions from synthetic data (see Warmup).
+     */
+    Navigator(double ticksPerFoot) {
+        m_ticksPerFoot = ticksPerFoot;
+    }
+    // ! @endcond
+
     /**
      * Gets the current position data for the robot.
      *
@@ -176,7 +198,9 @@ public class Navigator {
             m_rightSpeed = data.getShort();
             m_leftPos = data.getInt();
             m_rightPos = data.getInt();
+            m_updateCount.increment();
         } catch (Exception e) {
+            m_errorCount.increment();
             e.printStackTrace();
         }
 
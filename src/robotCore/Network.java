@@ -18,12 +18,16 @@
 
 package robotCore;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 
 /**
@@ -39,6 +43,11 @@ import java.net.Socket;
  * via a separate thread and there is a callback provided when data is received.
  * 
  * The transmit side runs in whatever thread the calling function is using.
+ * 
+ * Received data is normally a series of text lines. If the receiver implements the <strong>BinaryReceiver</strong>
+ * interface, the connection may also carry binary frames. A binary frame starts with the byte k_frameStart,
+ * followed by a two byte little endian payload length and the payload. Since k_frameStart never appears
+ * in a text line, both kinds of messages can be mixed on the same connection.
  *
  */
 public class Network 
@@ -54,6 +63,12 @@ public class Network
 	private Socket m_clientSocket = null;
 	private InputStream m_inputStream = null;
 	private OutputStream m_outputStream = null;
+	private byte[] m_frame = new byte[256];
+	
+	/**
+	 * Specifies the first byte of a binary frame
+	 */
+	public static final int k_frameStart = 0x01;
 
 
 	/**
@@ -77,6 +92,23 @@ public class Network
 		public void disconnected();
 	}
 	
+	/**
+	 * 
+	 * @brief The BinaryReceiver interface provides a callback for binary frames received on a network connection.
+	 *
+	 */
+	public interface BinaryReceiver extends NetworkReceiver
+	{
+		/**
+		 * Called when a binary frame is received. The buffer is little endian and positioned at the start of the
+		 * payload. It is reused for the next frame so it must not be retained.
+		 * 
+		 * @param frame - Specifies the frame payload
+		 * 
+		 */
+		public void processFrame(ByteBuffer frame);
+	}
+	
 
 	/**
 	 * This function attempts to connect to the specified host. If the connection fails, it
@@ -215,6 +247,23 @@ public class Network
 	
 	private class Receiver implements Runnable
 	{
+		/*
+		 * Reads the length and payload of a binary frame and passes it to the receiver
+		 */
+		private void readFrame(DataInputStream stream) throws IOException
+		{
+			int length = stream.readUnsignedByte() | (stream.readUnsignedByte() << 8);
+			
+			if (length > m_frame.length)
+			{
+				m_frame = new byte[length];
+			}
+			
+			stream.readFully(m_frame, 0, length);
+			
+			((BinaryReceiver) m_networkReceiver).processFrame(ByteBuffer.wrap(m_frame, 0, length).order(ByteOrder.LITTLE_ENDIAN));
+		}
+		
 		private void runClient()
 		{
 			Logger.log("Network", 1, String.format("%s:%d: Client Thread started", m_host, m_port));
@@ -226,7 +275,7 @@ public class Network
 				try 
 				{
 					Socket clientSocket = new Socket(m_host, m_port);
-					InputStream inputStream = clientSocket.getInputStream();
+					InputStream inputStream = new BufferedInputStream(clientSocket.getInputStream());
 					OutputStream outputStream = clientSocket.getOutputStream();
 					PrintStream printStream = new PrintStream(outputStream);
 
@@ -238,7 +287,8 @@ public class Network
 						m_printStream = printStream;
 					}	
 
-					String command = "";
+					DataInputStream dataStream = new DataInputStream(inputStream);
+					StringBuilder command = new StringBuilder();
 					
 					Logger.log("Network", 1, String.format("Connected to %s:%d", m_host, m_port));
 					
@@ -246,7 +296,7 @@ public class Network
 					
 					while (true)
 					{
-						int ch = m_inputStream.read();
+						int ch = dataStream.read();
 						
 						if (ch < 0)
 						{
@@ -255,19 +305,23 @@ public class Network
 							break;
 						}
 						
-						if (ch == '\n')
+						if ((ch == k_frameStart) && (command.length() == 0) && (m_networkReceiver instanceof BinaryReceiver))
+						{
+							readFrame(dataStream);
+						}
+						else if (ch == '\n')
 						{
 							if (command.length() >= 1)
 							{
-								m_networkReceiver.processData(command);
+								m_networkReceiver.processData(command.toString());
 							}
 							
-							command	= "";
+							command.setLength(0);
 							
 						}
 						else if (ch >= 0)
 						{
-							command += (char) ch;
+							command.append((char) ch);
 						}
 						else
 						{
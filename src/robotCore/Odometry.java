@@ -0,0 +1,310 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import robotCore.Navigator.NavigatorPos;
+
+/**
+ *
+ * @brief The Odometry class streams the Navigator position from the bus thread.
+ *
+ * Rather than making a blocking I2C request each time the position is needed, the Odometry
+ * class has the bus thread request the navigator data at a fixed rate (see <strong>TwoWire.addPoll</strong>).
+ * Each sample is time stamped and stored in a ring of recent samples.
+ *
+ * The Navigator firmware integrates the encoder deltas along the gyro yaw, so the position is taken
+ * directly from it. The velocity is estimated by combining the encoder speeds, which give the speed
+ * along the heading, with the rate of change of the yaw, and is smoothed with a low pass filter.
+ *
+ * The ring has a single writer (the bus thread) and is read without locking. A reader checks after
+ * reading that the samples it used were not overwritten and, if they were, reads again.
+ *
+ * Consumers can get the latest pose, or the pose interpolated at any time covered by the ring, without
+ * touching the I2C bus.
+ *
+ */
+public class Odometry implements TwoWire.PollReceiver
+{
+	private static final int	k_size			= 128;	// Must be a power of 2
+	private static final double	k_filter		= 0.3;	// Weight of the new sample in the velocity filter
+
+	/**
+	 *
+	 * @brief The Pose class receives the pose of the robot
+	 *
+	 */
+	public static class Pose
+	{
+		public long		m_time;				//!<Specifies the time of the pose in ms
+		public double	m_yaw;				//!<Specifies the yaw in degrees
+		public double	m_x;				//!<Specifies the x position in feet (ticks if ticksPerFoot is not set)
+		public double	m_y;				//!<Specifies the y position in feet (ticks if ticksPerFoot is not set)
+		public double	m_velocity;			//!<Specifies the smoothed speed along the heading in feet/second
+		public double	m_yawRate;			//!<Specifies the smoothed yaw rate in degrees/second
+		public double	m_leftSpeed;		//!<Specifies the left wheel speed in feet/second
+		public double	m_rightSpeed;		//!<Specifies the right wheel speed in feet/second
+	}
+
+	private final Navigator	m_navigator;
+
+	/*
+	 * The ring of samples, in raw navigator units
+	 */
+	private final long[]	m_time		= new long[k_size];
+	private final double[]	m_yaw		= new double[k_size];
+	private final double[]	m_x			= new double[k_size];
+	private final double[]	m_y			= new double[k_size];
+	private final double[]	m_velocity	= new double[k_size];
+	private final double[]	m_yawRate	= new double[k_size];
+	private final int[]		m_leftSpeed	= new int[k_size];
+	private final int[]		m_rightSpeed	= new int[k_size];
+	private final int[]		m_leftPos	= new int[k_size];
+	private final int[]		m_rightPos	= new int[k_size];
+	private final AtomicLong	m_count	= new AtomicLong(0);	// Number of samples written
+
+	/**
+	 * Starts streaming the navigator position
+	 *
+	 * @param navigator - Specifies the navigator, which must already be initialized
+	 * @param period - Specifies the time between samples in ms
+	 */
+	public Odometry(Navigator navigator, int period)
+	{
+		m_navigator	= navigator;
+
+		Device.getInstance().addPoll(Device.k_i2cDefAddr, TwoWire.k_getNavigatorData, 24, period, this);
+	}
+
+	/*
+	 * Returns the change from one yaw to the next in degrees. The change is taken the short way
+	 * round so that a yaw which wraps at +/-180 does not give a spike in the yaw rate, or an
+	 * interpolated yaw on the far side of the circle.
+	 */
+	private static double yawChange(double from, double to)
+	{
+		return(Math.IEEEremainder(to - from, 360));
+	}
+
+	//! @cond PRIVATE
+	@Override
+	public void received(long time, ByteBuffer data)
+	{
+		long	count	= m_count.get();
+		int		i		= (int) (count & (k_size - 1));
+		double	yaw		= data.getInt() / 100.0;
+		double	x		= data.getInt();
+		double	y		= data.getInt();
+		int		left	= data.getShort();
+		int		right	= data.getShort();
+		double	velocity	= (left + right) / 2.0;
+		double	yawRate		= 0;
+
+		if (count > 0)
+		{
+			int		prev	= (int) ((count - 1) & (k_size - 1));
+			long	dt		= time - m_time[prev];
+
+			if (dt > 0)
+			{
+				yawRate	= yawChange(m_yaw[prev], yaw) * 1000 / dt;
+			}
+
+			velocity	= m_velocity[prev] + k_filter * (velocity - m_velocity[prev]);
+			yawRate		= m_yawRate[prev] + k_filter * (yawRate - m_yawRate[prev]);
+		}
+
+		m_time[i]		= time;
+		m_yaw[i]		= yaw;
+		m_x[i]			= x;
+		m_y[i]			= y;
+		m_velocity[i]	= velocity;
+		m_yawRate[i]	= yawRate;
+		m_leftSpeed[i]	= left;
+		m_rightSpeed[i]	= right;
+		m_leftPos[i]	= data.getInt();
+		m_rightPos[i]	= data.getInt();
+
+		m_count.set(count + 1);		// Publishes the sample
+	}
+	//! @endcond
+
+	/*
+	 * Returns true if the sample with the specified sequence number has not been overwritten.
+	 * Called after the sample has been read. The fence keeps the plain reads of the sample from
+	 * being moved after the read of the count, as in StampedLock.validate.
+	 */
+	private boolean isValid(long sequence)
+	{
+		VarHandle.acquireFence();
+
+		return(m_count.get() - sequence < k_size);
+	}
+
+	private void copy(int i, double ticksPerFoot, Pose pose)
+	{
+		pose.m_time			= m_time[i];
+		pose.m_yaw			= m_yaw[i];
+		pose.m_x			= m_x[i] / ticksPerFoot;
+		pose.m_y			= m_y[i] / ticksPerFoot;
+		pose.m_velocity		= m_velocity[i] / ticksPerFoot;
+		pose.m_yawRate		= m_yawRate[i];
+		pose.m_leftSpeed	= m_leftSpeed[i] / ticksPerFoot;
+		pose.m_rightSpeed	= m_rightSpeed[i] / ticksPerFoot;
+	}
+
+	/**
+	 * Gets the latest pose
+	 *
+	 * @param pose - Receives the pose
+	 * @return Returns false if no samples have been received yet
+	 */
+	public boolean getPose(Pose pose)
+	{
+		double	ticksPerFoot	= m_navigator.m_ticksPerFoot;
+
+		while (true)
+		{
+			long	count	= m_count.get();
+
+			if (count == 0)
+			{
+				return(false);
+			}
+
+			copy((int) ((count - 1) & (k_size - 1)), ticksPerFoot, pose);
+
+			if (isValid(count - 1))
+			{
+				return(true);
+			}
+		}
+	}
+
+	/**
+	 * Gets the pose at the specified time, interpolated between the two nearest samples. If the
+	 * time is before the oldest sample or after the newest, the oldest or newest sample is returned.
+	 *
+	 * @param time - Specifies the time in ms
+	 * @param pose - Receives the pose
+	 * @return Returns false if no samples have been received yet
+	 */
+	public boolean getPose(long time, Pose pose)
+	{
+		double	ticksPerFoot	= m_navigator.m_ticksPerFoot;
+
+		while (true)
+		{
+			long	count	= m_count.get();
+
+			if (count == 0)
+			{
+				return(false);
+			}
+
+			/*
+			 * Binary search for the last sample at or before the time. The oldest slot may be
+			 * overwritten at any moment, so it is not used.
+			 */
+			long	low		= Math.max(0, count - k_size + 1);
+			long	high	= count - 1;
+
+			if (m_time[(int) (low & (k_size - 1))] >= time)
+			{
+				high	= low;
+			}
+			else
+			{
+				while (high > low)
+				{
+					long	mid	= (low + high + 1) >>> 1;
+
+					if (m_time[(int) (mid & (k_size - 1))] <= time)
+					{
+						low	= mid;
+					}
+					else
+					{
+						high	= mid - 1;
+					}
+				}
+			}
+
+			int		i0	= (int) (low & (k_size - 1));
+
+			copy(i0, ticksPerFoot, pose);
+
+			if (low < count - 1)
+			{
+				int		i1	= (int) ((low + 1) & (k_size - 1));
+				long	dt	= m_time[i1] - m_time[i0];
+
+				if ((dt > 0) && (time > m_time[i0]))
+				{
+					double	f	= (double) (time - m_time[i0]) / dt;
+
+					pose.m_time			= time;
+					pose.m_yaw			+= f * yawChange(m_yaw[i0], m_yaw[i1]);
+					pose.m_x			+= f * (m_x[i1] - m_x[i0]) / ticksPerFoot;
+					pose.m_y			+= f * (m_y[i1] - m_y[i0]) / ticksPerFoot;
+					pose.m_velocity		+= f * (m_velocity[i1] - m_velocity[i0]) / ticksPerFoot;
+					pose.m_yawRate		+= f * (m_yawRate[i1] - m_yawRate[i0]);
+					pose.m_leftSpeed	+= f * (m_leftSpeed[i1] - m_leftSpeed[i0]) / ticksPerFoot;
+					pose.m_rightSpeed	+= f * (m_rightSpeed[i1] - m_rightSpeed[i0]) / ticksPerFoot;
+				}
+			}
+
+			if (isValid(low))
+			{
+				return(true);
+			}
+		}
+	}
+
+	/**
+	 * Gets the latest sample as a <strong>NavigatorPos</strong> so that it can be used in place
+	 * of <strong>Navigator.getPos</strong>
+	 *
+	 * @return Returns the position, or null if no samples have been received yet
+	 */
+	public NavigatorPos getNavigatorPos()
+	{
+		while (true)
+		{
+			long	count	= m_count.get();
+
+			if (count == 0)
+			{
+				return(null);
+			}
+
+			int		i	= (int) ((count - 1) & (k_size - 1));
+			NavigatorPos	pos	= m_navigator.createPos(m_yaw[i], m_x[i], m_y[i], m_leftSpeed[i], m_rightSpeed[i],
+					m_leftPos[i], m_rightPos[i]);
+
+			if (isValid(count - 1))
+			{
+				return(pos);
+			}
+		}
+	}
+}
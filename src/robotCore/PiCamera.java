@@ -20,7 +20,10 @@ package robotCore;
 
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -38,8 +41,14 @@ import java.util.TimerTask;
  *        It also implements a time sync protocol to synchronize the clocks and
  *        performs keep-alive functions that detect a disconnect.
  *
+ *        On connect the camera offers the binary frame protocol by sending
+ *        "B 1". If the Pi supports it, it replies "B 1" and sends each frame
+ *        as a single binary message instead of the F/R/E text lines. A Pi
+ *        which does not support it ignores the request and the text protocol
+ *        is used.
+ *
  */
-public class PiCamera implements Network.NetworkReceiver {
+public class PiCamera implements Network.BinaryReceiver {
 	/**
 	 * @brief The PiCameraStats class collects the current camera performance
 	 *        statistics.
@@ -119,6 +128,13 @@ public class PiCamera implements Network.NetworkReceiver {
 	 *        The list will contain up to the max regions specified using the
 	 *        ImageViewer and will be sorted from the largest to smallest area.
 	 *
+	 *        The regions are also stored in primitive arrays. Use the getLeft(),
+	 *        getTop(), getRight(), getBottom() and getColor() functions to read
+	 *        them without following the region objects.
+	 *
+	 *        An instance is not changed once it has been returned by
+	 *        getRegions(), so it can be kept for as long as needed.
+	 *
 	 */
 	public class PiCameraRegions {
 		public int m_targetVertPos; //!<Specifies the vertical target position as set by the ImageViewer
@@ -130,12 +146,36 @@ public class PiCamera implements Network.NetworkReceiver {
 		public int m_profile; //!<Specifies which capture profile is in effect
 		public long m_captureTime; //!<Specifies the time at which the image was acquired in ms
 		public int m_procTime; //!<Specifies the time required to process this image in ms
-		public ArrayList<PiCameraRegion> m_regions = new ArrayList<PiCameraRegion>();
+		/**
+		 * Specifies the regions.
+		 * 
+		 * @deprecated Use getRegionCount() and getRegion(), or the getLeft(), getTop(),
+		 *             getRight(), getBottom() and getColor() functions.
+		 */
+		@Deprecated
+		public ArrayList<PiCameraRegion> m_regions;
+
+		private int m_count = 0;
+		private int[] m_color;
+		private int[] m_left;
+		private int[] m_top;
+		private int[] m_right;
+		private int[] m_bottom;
+		private int[] m_topLeft;
+		private int[] m_topRight;
 
 		// ! @cond PRIVATE
 		protected PiCameraRegions(int frameNo, int targetVertPos, int targetHorzPos, int width, int height, int lostFrames,
 				long captureTime, int procTime, int profile) {
-			Logger.log("PiCamera", -1, String.format("PiCameraRegions(): width = %d, height = %d", width, height));
+			this(frameNo, targetVertPos, targetHorzPos, width, height, lostFrames, captureTime, procTime, profile,
+					k_initialRegions);
+		}
+
+		PiCameraRegions(int frameNo, int targetVertPos, int targetHorzPos, int width, int height, int lostFrames,
+				long captureTime, int procTime, int profile, int capacity) {
+			if (Logger.isLogged("PiCamera", -1)) {
+				Logger.log("PiCamera", -1, String.format("PiCameraRegions(): width = %d, height = %d", width, height));
+			}
 
 			m_frameNo = frameNo;
 			m_targetVertPos = targetVertPos;
@@ -146,9 +186,40 @@ public class PiCamera implements Network.NetworkReceiver {
 			m_profile = profile;
 			m_captureTime = captureTime;
 			m_procTime = procTime;
+
+			capacity = Math.max(capacity, 1);
+			m_regions = new ArrayList<PiCameraRegion>(capacity);
+			m_color = new int[capacity];
+			m_left = new int[capacity];
+			m_top = new int[capacity];
+			m_right = new int[capacity];
+			m_bottom = new int[capacity];
+			m_topLeft = new int[capacity];
+			m_topRight = new int[capacity];
 		}
 
 		protected void addRegion(int color, int left, int top, int right, int bottom, int topLeft, int topRight) {
+			if (m_count >= m_color.length) {
+				int size = m_color.length * 2;
+
+				m_color = Arrays.copyOf(m_color, size);
+				m_left = Arrays.copyOf(m_left, size);
+				m_top = Arrays.copyOf(m_top, size);
+				m_right = Arrays.copyOf(m_right, size);
+				m_bottom = Arrays.copyOf(m_bottom, size);
+				m_topLeft = Arrays.copyOf(m_topLeft, size);
+				m_topRight = Arrays.copyOf(m_topRight, size);
+			}
+
+			m_color[m_count] = color;
+			m_left[m_count] = left;
+			m_top[m_count] = top;
+			m_right[m_count] = right;
+			m_bottom[m_count] = bottom;
+			m_topLeft[m_count] = topLeft;
+			m_topRight[m_count] = topRight;
+			m_count++;
+
 			m_regions.add(new PiCameraRegion(color, left, top, right, bottom, topLeft, topRight));
 		}
 		// ! @endcond
@@ -158,7 +229,52 @@ public class PiCamera implements Network.NetworkReceiver {
 		 * 
 		 */
 		public int getRegionCount() {
-			return (m_regions.size());
+			return (m_count);
+		}
+
+		/**
+		 * Returns the color of the specified region [0..3]
+		 * 
+		 * @param region - Specifies the region
+		 */
+		public int getColor(int region) {
+			return (m_color[region]);
+		}
+
+		/**
+		 * Returns the left edge of the specified region in pixels
+		 * 
+		 * @param region - Specifies the region
+		 */
+		public int getLeft(int region) {
+			return (m_left[region]);
+		}
+
+		/**
+		 * Returns the top edge of the specified region in pixels
+		 * 
+		 * @param region - Specifies the region
+		 */
+		public int getTop(int region) {
+			return (m_top[region]);
+		}
+
+		/**
+		 * Returns the right edge of the specified region in pixels
+		 * 
+		 * @param region - Specifies the region
+		 */
+		public int getRight(int region) {
+			return (m_right[region]);
+		}
+
+		/**
+		 * Returns the bottom edge of the specified region in pixels
+		 * 
+		 * @param region - Specifies the region
+		 */
+		public int getBottom(int region) {
+			return (m_bottom[region]);
 		}
 
 		/**
@@ -166,9 +282,10 @@ public class PiCamera implements Network.NetworkReceiver {
 		 * 
 		 * @param region - Specifies the region to return
 		 */
+		@SuppressWarnings("deprecation")
 		public PiCameraRegion getRegion(int region) {
 
-			if ((region >= 0) && (region < m_regions.size())) {
+			if ((region >= 0) && (region < m_count)) {
 
 				return (m_regions.get(region));
 			}
@@ -180,10 +297,15 @@ public class PiCamera implements Network.NetworkReceiver {
 
 	private static final int k_syncRetry = 5000;
 	private static final int k_syncFirst = 1000;
+	private static final int k_initialRegions = 8;
+	private static final int k_binaryVersion = 1;
+	private static final int k_frameHeaderSize = 28;
+	private static final int k_frameRegionSize = 13;
 
 	private Network m_network = null;
-	private PiCameraRegions m_regions = null;
+	private volatile PiCameraRegions m_regions = null;
 	private PiCameraRegions m_nextRegions = null;
+	private boolean m_binary = false;
 	private long m_syncTime;
 	private int m_averageDelayCount = 0;
 	private int m_averageDelayMax = 30;
@@ -195,29 +317,61 @@ public class PiCamera implements Network.NetworkReceiver {
 	private int m_lastLostFrame = 0;
 	private long m_startTime = 0;
 	private boolean m_connected = false;
-	private Timer m_watchdogTimer = new Timer();
+	private Timer m_watchdogTimer = null;
+	private VisionClient.Connection m_connection = null;
+	private String m_name = null;
+	private Metrics.Histogram m_delayHistogram = null;
+	private Metrics.Counter m_frameCount = null;
+	private Metrics.Gauge m_lostGauge = null;
 	private long m_lastMessage;
 	private static final int k_timeout = 5000;
 
 	public PiCamera() {
+	}
+
+	private void startWatchdog() {
+		m_watchdogTimer = new Timer(true);
 		m_watchdogTimer.scheduleAtFixedRate(new TimerTask() {
 
 			@Override
 			public void run() {
-				if (m_connected) {
-					Logger.log("PiCamera", -1, "WatchDog");
-
-					m_network.sendMessage("k");
-
-					if (m_lastMessage + k_timeout < System.currentTimeMillis()) {
-						Logger.log("PiCamera", 3, "Network timeout");
-						m_network.closeConnection();
-					}
+				if (!checkWatchdog()) {
+					m_network.closeConnection();
 				}
 			}
 		}, 1000, 1000);
 	}
 
+	// ! @cond PRIVATE
+	/*
+	 * Sends the keep-alive message and checks for a timeout. This is called
+	 * once per second.
+	 *
+	 * Returns false if the connection has timed out
+	 */
+	boolean checkWatchdog() {
+		if (m_connected) {
+			Logger.log("PiCamera", -1, "WatchDog");
+
+			sendMessage("k");
+
+			if (m_lastMessage + k_timeout < getTimeMs()) {
+				Logger.log("PiCamera", 3, "Network timeout");
+				return (false);
+			}
+		}
+
+		return (true);
+	}
+
+	/*
+	 * Sets the connection used when the camera is managed by a VisionClient
+	 */
+	void setConnection(VisionClient.Connection connection) {
+		m_connection = connection;
+	}
+	// ! @endcond
+
 	/**
 	 * Returns true if connected to the camera
 	 * 
@@ -226,6 +380,14 @@ public class PiCamera implements Network.NetworkReceiver {
 		return (m_connected);
 	}
 
+	/**
+	 * Returns true if the camera is sending binary frames
+	 * 
+	 */
+	public boolean isBinary() {
+		return (m_binary);
+	}
+
 	// ! @cond PRIVATE
 	public static int[] parseIntegers(String str, int count) {
 		int[] args = new int[count];
@@ -284,7 +446,7 @@ public class PiCamera implements Network.NetworkReceiver {
 	public void Ping() {
 		m_pingTime = getTimeMs();
 
-		m_network.sendMessage("p");
+		sendMessage("p");
 	}
 	// ! @endcond
 
@@ -297,7 +459,7 @@ public class PiCamera implements Network.NetworkReceiver {
 	 */
 	public void dumpFrames(int count) {
 		Logger.log("PiCamera", 1, String.format("DumpFrames(%d)", count));
-		m_network.sendMessage(String.format("d %d", count));
+		sendMessage(String.format("d %d", count));
 	}
 
 	PrintWriter m_log = null;
@@ -317,7 +479,7 @@ public class PiCamera implements Network.NetworkReceiver {
 
 			try {
 				m_log = new PrintWriter(path);
-				m_logTime = System.currentTimeMillis();
+				m_logTime = getTimeMs();
 				m_lastLostFrame = m_lostFrames;
 				m_minDelay = Integer.MAX_VALUE;
 				m_maxDelay = 0;
@@ -349,7 +511,7 @@ public class PiCamera implements Network.NetworkReceiver {
 	 * @param value - Bit zero controls pin 11 and bit one controls pin 12
 	 */
 	public void setLight(int value) {
-		m_network.sendMessage(String.format("L %d", value));
+		sendMessage(String.format("L %d", value));
 	}
 	
 	// public void SendJpeg(boolean send)
@@ -364,7 +526,7 @@ public class PiCamera implements Network.NetworkReceiver {
 	 */
 	public void setProfile(int profile) {
 		if ((profile >= 0) && (profile < 4)) {
-			m_network.sendMessage(String.format("P %d", profile));
+			sendMessage(String.format("P %d", profile));
 		}
 	}
 
@@ -374,7 +536,7 @@ public class PiCamera implements Network.NetworkReceiver {
 	 *
 	 */
 	public void startPiLog() {
-		m_network.sendMessage("ls");
+		sendMessage("ls");
 	}
 
 	/**
@@ -382,7 +544,7 @@ public class PiCamera implements Network.NetworkReceiver {
 	 *
 	 */
 	public void endPiLog() {
-		m_network.sendMessage("le");
+		sendMessage("le");
 	}
 
 	/**
@@ -392,20 +554,47 @@ public class PiCamera implements Network.NetworkReceiver {
 	 * @param port - Specifies the port (default is 5800)
 	 */
 	public void connect(String host, int port) {
+		if (connectVirtual(host, port)) {
+			return;
+		}
+
 		m_network = new Network();
 
-		m_startTime = System.currentTimeMillis();
+		startWatchdog();
 
 		m_network.connect(this, host, port);
 
 	}
 
+	/*
+	 * Names the camera and, if the robot is running in replay or simulation,
+	 * connects it to the recorded data instead of the network.
+	 *
+	 * Returns true if the camera is virtual
+	 */
+	boolean connectVirtual(String host, int port) {
+		m_name = host + ":" + port;
+		m_startTime = getTimeMs();
+		m_delayHistogram = Metrics.histogram("camera.delay.ms", "camera=" + m_name);
+		m_frameCount = Metrics.counter("camera.frames", "camera=" + m_name);
+		m_lostGauge = Metrics.gauge("camera.lostFrames", "camera=" + m_name);
+
+		if (RobotBase.isVirtual()) {
+			// The camera data, if any, is fed in from the recording
+			InputRecorder.registerCamera(m_name, this);
+			connected();
+			return (true);
+		}
+
+		return (false);
+	}
+
 	private void timeSync() {
 		long time = getTimeMs();
 		if (time > m_syncTime) {
 			Logger.log("PiCamera", -1, "TimeSync()");
 
-			m_network.sendMessage(String.format("T1 %d", getTimeMs()));
+			sendMessage(String.format("T1 %d", getTimeMs()));
 
 			m_syncTime = time + k_syncRetry;
 		}
@@ -419,31 +608,41 @@ public class PiCamera implements Network.NetworkReceiver {
 			m_nextRegions = new PiCameraRegions((int) a[0], (int) a[1], (int) a[2], (int) a[3], (int) a[4], (int) a[5],
 					a[6], (int) a[7], (int) a[8]);
 
-			int delay = (int) (System.currentTimeMillis() - m_nextRegions.m_captureTime);
-			int averageDelay = -1;
+			updateStats(m_nextRegions);
+		}
+	}
 
-			m_averageDelaySum += delay;
-			if (++m_averageDelayCount >= m_averageDelayMax) {
-				averageDelay = m_averageDelaySum / m_averageDelayCount;
+	private void updateStats(PiCameraRegions regions) {
+		int delay = (int) (getTimeMs() - regions.m_captureTime);
+		int averageDelay = -1;
 
-				m_averageDelayCount = 0;
-				m_averageDelaySum = 0;
-			}
+		m_averageDelaySum += delay;
+		if (++m_averageDelayCount >= m_averageDelayMax) {
+			averageDelay = m_averageDelaySum / m_averageDelayCount;
 
-			synchronized (this) {
-				if (averageDelay > 0) {
-					m_averageDelay = averageDelay;
-				}
+			m_averageDelayCount = 0;
+			m_averageDelaySum = 0;
+		}
 
-				if (delay > m_maxDelay) {
-					m_maxDelay = delay;
-				}
-				if (delay < m_minDelay) {
-					m_minDelay = delay;
-				}
+		if (m_delayHistogram != null) {
+			m_delayHistogram.record(delay);
+			m_frameCount.increment();
+			m_lostGauge.set(regions.m_lostFrames);
+		}
+
+		synchronized (this) {
+			if (averageDelay > 0) {
+				m_averageDelay = averageDelay;
+			}
 
-				m_lostFrames = (int) a[5];
+			if (delay > m_maxDelay) {
+				m_maxDelay = delay;
+			}
+			if (delay < m_minDelay) {
+				m_minDelay = delay;
 			}
+
+			m_lostFrames = regions.m_lostFrames;
 		}
 	}
 
@@ -454,7 +653,7 @@ public class PiCamera implements Network.NetworkReceiver {
 	public PiCameraStats getStats() {
 		synchronized (this) {
 			return (new PiCameraStats(m_averageDelay, m_maxDelay, m_minDelay, m_lostFrames - m_lastLostFrame,
-					System.currentTimeMillis() - m_startTime));
+					getTimeMs() - m_startTime));
 		}
 	}
 
@@ -467,7 +666,7 @@ public class PiCamera implements Network.NetworkReceiver {
 			m_maxDelay = 0;
 			m_minDelay = Integer.MAX_VALUE;
 			m_lostFrames = 0;
-			m_startTime = System.currentTimeMillis();
+			m_startTime = getTimeMs();
 		}
 	}
 
@@ -480,17 +679,15 @@ public class PiCamera implements Network.NetworkReceiver {
 	}
 
 	private void logFrame() {
-		long curTime = System.currentTimeMillis();
-		int size = m_regions.m_regions.size();
+		long curTime = getTimeMs();
+		int size = m_regions.getRegionCount();
 
 		m_log.print(String.format("%d,%d,%d,%d,%d,%d", curTime - m_logTime, m_regions.m_frameNo, size,
 				m_regions.m_lostFrames, curTime - m_regions.m_captureTime, m_regions.m_procTime));
 
 		if (size > 0) {
-			PiCameraRegion region = m_regions.m_regions.get(0);
-
-			m_log.print(String.format(",%d,%d,%d,%d", region.m_bounds.m_left, region.m_bounds.m_top,
-					region.m_bounds.m_right, region.m_bounds.m_bottom));
+			m_log.print(String.format(",%d,%d,%d,%d", m_regions.getLeft(0), m_regions.getTop(0),
+					m_regions.getRight(0), m_regions.getBottom(0)));
 		}
 
 		m_log.println("");
@@ -513,22 +710,82 @@ public class PiCamera implements Network.NetworkReceiver {
 		timeSync();
 	}
 
+	/*
+	 * Decodes a binary frame into a new PiCameraRegions and publishes it. A frame
+	 * is never changed once it has been published, since the robot thread may keep
+	 * it for several frames.
+	 *
+	 * The frame layout (little endian) is:
+	 *
+	 * int frameNo, short targetVert, short targetHorz, short width, short height,
+	 * int lostFrames, long captureTime, short procTime, byte profile, byte regionCount
+	 *
+	 * followed for each region by:
+	 *
+	 * byte color, short left, short top, short right, short bottom, short topLeft, short topRight
+	 */
+	private void processBinaryFrame(ByteBuffer frame) {
+		if (frame.remaining() < k_frameHeaderSize) {
+			Logger.log("PiCamera", 3, String.format("Invalid frame: length = %d", frame.remaining()));
+			return;
+		}
+
+		int count = frame.get(frame.position() + k_frameHeaderSize - 1) & 0xff;
+
+		if (frame.remaining() < k_frameHeaderSize + count * k_frameRegionSize) {
+			Logger.log("PiCamera", 3, String.format("Invalid frame: %d regions", count));
+			return;
+		}
+
+		PiCameraRegions regions = new PiCameraRegions(frame.getInt(), frame.getShort(), frame.getShort(),
+				frame.getShort(), frame.getShort(), frame.getInt(), frame.getLong(), frame.getShort(),
+				frame.get() & 0xff, count);
+
+		frame.get(); // region count
+
+		for (int i = 0; i < count; i++) {
+			regions.addRegion(frame.get() & 0xff, frame.getShort(), frame.getShort(), frame.getShort(),
+					frame.getShort(), frame.getShort(), frame.getShort());
+		}
+
+		updateStats(regions);
+
+		synchronized (this) {
+			m_regions = regions;
+
+			if (m_log != null) {
+				logFrame();
+			}
+		}
+
+		timeSync();
+	}
+
 	/**
 	 * Returns the latest set of camera regions. Note that the data is received from
 	 * the camera in a separate thread so calling this twice in a row can generate a
-	 * different result. Once you retrieve and instance of PiCameraRegions however,
-	 * you can be assured that it will NOT be modified when a new frame is received.
+	 * different result.
+	 * 
+	 * Once you retrieve and instance of PiCameraRegions you can be assured that it
+	 * will NOT be modified when a new frame is received.
+	 * 
+	 * This function does not block.
 	 *
 	 */
 	public PiCameraRegions getRegions() {
-		synchronized (this) {
-			return (m_regions);
-		}
-
+		return (m_regions);
 	}
 
 	private long getTimeMs() {
-		return System.currentTimeMillis();
+		return robotCore.Timer.getTimeMs();
+	}
+
+	private void sendMessage(String message) {
+		if (m_network != null) {
+			m_network.sendMessage(message);
+		} else if (m_connection != null) {
+			m_connection.send(message);
+		}
 	}
 
 	private void processTimeSync() {
@@ -536,15 +793,49 @@ public class PiCamera implements Network.NetworkReceiver {
 
 		long time = getTimeMs();
 
-		m_network.sendMessage(String.format("T2 %d", time));
+		sendMessage(String.format("T2 %d", time));
 	}
 
 	// ! @cond PRIVATE
+	@Override
+	public void processFrame(ByteBuffer frame) {
+		m_lastMessage = getTimeMs();
+
+		if (InputRecorder.isRecording()) {
+			StringBuilder data = new StringBuilder("b ");
+
+			for (int i = frame.position(); i < frame.limit(); i++) {
+				data.append(String.format("%02x", frame.get(i) & 0xff));
+			}
+
+			InputRecorder.recordCamera(m_name, data.toString());
+		}
+
+		processBinaryFrame(frame);
+	}
+
+	/*
+	 * Replays a binary frame which was recorded as hex
+	 */
+	private void processRecordedFrame(String hex) {
+		byte[] frame = new byte[hex.length() / 2];
+
+		for (int i = 0; i < frame.length; i++) {
+			frame[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		}
+
+		processBinaryFrame(ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN));
+	}
+
 	@Override
 	public void processData(String data) {
-		Logger.log("PiCamera", -1, String.format("Data: %s", data));
+		if (Logger.isLogged("PiCamera", -1)) {
+			Logger.log("PiCamera", -1, String.format("Data: %s", data));
+		}
 
-		m_lastMessage = System.currentTimeMillis();
+		InputRecorder.recordCamera(m_name, data);
+
+		m_lastMessage = getTimeMs();
 
 		switch (data.charAt(0)) {
 		case 'F':
@@ -567,6 +858,15 @@ public class PiCamera implements Network.NetworkReceiver {
 			processTimeSync();
 			break;
 
+		case 'B': // binary protocol accepted
+			m_binary = true;
+			Logger.log("PiCamera", 2, String.format("Binary frames: %s", data.substring(1).trim()));
+			break;
+
+		case 'b': // recorded binary frame
+			processRecordedFrame(data.substring(1).trim());
+			break;
+
 		default:
 			Logger.log("PiCamera", 3, String.format("Invalid command: %s", data));
 			break;
@@ -576,6 +876,7 @@ public class PiCamera implements Network.NetworkReceiver {
 	@Override
 	public void disconnected() {
 		m_connected = false;
+		m_binary = false;
 	}
 
 	@Override
@@ -584,6 +885,8 @@ public class PiCamera implements Network.NetworkReceiver {
 
 		m_syncTime = getTimeMs() + k_syncFirst;
 		m_lastMessage = m_syncTime;
+
+		sendMessage(String.format("B %d", k_binaryVersion));
 	}
 	// ! @endcond
 }
@@ -0,0 +1,216 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+/**
+ *
+ * @brief The PoseHistory class keeps a time indexed history of the robot position.
+ *
+ * The history is a fixed size ring buffer of (time, x, y, yaw) samples which is normally
+ * filled once per robot loop. It can then be queried for the position at an earlier time,
+ * such as the time at which a camera image was captured. Values between two samples are
+ * linearly interpolated. Times before the oldest sample or after the newest sample return
+ * the oldest or newest sample.
+ *
+ * The samples are stored in primitive arrays so that adding a sample does not allocate.
+ *
+ */
+public class PoseHistory
+{
+	private final long[]	m_time;
+	private final double[]	m_x;
+	private final double[]	m_y;
+	private final double[]	m_yaw;
+	private int				m_next	= 0;	// Index of the next sample to be written
+	private int				m_count	= 0;
+
+	/**
+	 * @param size - Specifies the number of samples to keep
+	 */
+	public PoseHistory(int size)
+	{
+		m_time	= new long[size];
+		m_x		= new double[size];
+		m_y		= new double[size];
+		m_yaw	= new double[size];
+	}
+
+	/**
+	 * Adds a sample to the history. If the time is earlier than the newest sample (e.g. the
+	 * clock was reset), the history is cleared first.
+	 *
+	 * @param time - Specifies the time of the sample in ms
+	 * @param x - Specifies the x position
+	 * @param y - Specifies the y position
+	 * @param yaw - Specifies the yaw in degrees
+	 */
+	public synchronized void add(long time, double x, double y, double yaw)
+	{
+		if ((m_count > 0) && (time < m_time[index(m_count - 1)]))
+		{
+			m_count	= 0;
+		}
+
+		m_time[m_next]	= time;
+		m_x[m_next]		= x;
+		m_y[m_next]		= y;
+		m_yaw[m_next]	= yaw;
+
+		m_next	= (m_next + 1) % m_time.length;
+
+		if (m_count < m_time.length)
+		{
+			m_count++;
+		}
+	}
+
+	/**
+	 * Adds a sample to the history.
+	 *
+	 * @param time - Specifies the time of the sample in ms
+	 * @param pos - Specifies the navigator position
+	 */
+	public void add(long time, Navigator.NavigatorPos pos)
+	{
+		add(time, pos.x, pos.y, pos.yaw);
+	}
+
+	/**
+	 * Removes all of the samples
+	 */
+	public synchronized void clear()
+	{
+		m_count	= 0;
+	}
+
+	/**
+	 * @return Returns the number of samples in the history
+	 */
+	public synchronized int getCount()
+	{
+		return(m_count);
+	}
+
+	/**
+	 * @return Returns the time of the oldest sample, or zero if there are none
+	 */
+	public synchronized long getOldestTime()
+	{
+		return((m_count > 0) ? m_time[index(0)] : 0);
+	}
+
+	/**
+	 * @return Returns the time of the newest sample, or zero if there are none
+	 */
+	public synchronized long getNewestTime()
+	{
+		return((m_count > 0) ? m_time[index(m_count - 1)] : 0);
+	}
+
+	/**
+	 * Returns the x position at the specified time
+	 *
+	 * @param time - Specifies the time in ms
+	 * @return Returns the interpolated position, or NaN if there are no samples
+	 */
+	public synchronized double getX(long time)
+	{
+		return(interpolate(m_x, time));
+	}
+
+	/**
+	 * Returns the y position at the specified time
+	 *
+	 * @param time - Specifies the time in ms
+	 * @return Returns the interpolated position, or NaN if there are no samples
+	 */
+	public synchronized double getY(long time)
+	{
+		return(interpolate(m_y, time));
+	}
+
+	/**
+	 * Returns the yaw at the specified time. Since the Navigator yaw does not wrap,
+	 * it is interpolated linearly.
+	 *
+	 * @param time - Specifies the time in ms
+	 * @return Returns the interpolated yaw in degrees, or NaN if there are no samples
+	 */
+	public synchronized double getYaw(long time)
+	{
+		return(interpolate(m_yaw, time));
+	}
+
+	/*
+	 * Converts the logical position of a sample (0 = oldest) to the array index
+	 */
+	private int index(int i)
+	{
+		return((m_next - m_count + i + m_time.length) % m_time.length);
+	}
+
+	private double interpolate(double[] values, long time)
+	{
+		if (m_count == 0)
+		{
+			return(Double.NaN);
+		}
+
+		if (time <= m_time[index(0)])
+		{
+			return(values[index(0)]);
+		}
+
+		if (time >= m_time[index(m_count - 1)])
+		{
+			return(values[index(m_count - 1)]);
+		}
+
+		/*
+		 * Find the last sample at or before the time
+		 */
+		int low		= 0;
+		int high	= m_count - 1;
+
+		while (high - low > 1)
+		{
+			int mid	= (low + high) >>> 1;
+
+			if (m_time[index(mid)] <= time)
+			{
+				low	= mid;
+			}
+			else
+			{
+				high	= mid;
+			}
+		}
+
+		int		i0	= index(low);
+		int		i1	= index(high);
+		double	dt	= m_time[i1] - m_time[i0];
+
+		if (dt <= 0)
+		{
+			return(values[i1]);
+		}
+
+		return(values[i0] + (values[i1] - values[i0]) * (time - m_time[i0]) / dt);
+	}
+}
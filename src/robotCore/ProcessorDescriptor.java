@@ -0,0 +1,329 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import robotCore.Device.ProcessorType;
+
+/**
+ *
+ * @brief The ProcessorDescriptor class holds the capabilities of the processor at an I2C address.
+ *
+ * The capabilities (the valid digital, PWM and analog pins and the maximum number of motors) do not
+ * change while the robot is running, so they are requested once for each address and shared by the
+ * <strong>Encoder</strong>, <strong>SmartMotor</strong> and <strong>DigitalInput</strong> classes.
+ * A descriptor is immutable, so it can be read from any thread without locking.
+ *
+ * On the robot, the capabilities are also saved in a cache file. The processor does not report a
+ * firmware version, so the cache is keyed by the address and the processor type. When the robot is
+ * restarted, the cached capabilities are used if the processor type matches. The type of the main
+ * processor is already known once it has been reset, so for it this takes no request at all.
+ * If a pin or motor is rejected by cached capabilities, they are requested once to check that the
+ * processor has not been reflashed (see <strong>confirm</strong>).
+ *
+ */
+public final class ProcessorDescriptor
+{
+	private static final String	k_cacheFile	= "/home/pi/processors.txt";
+
+	private static final ConcurrentHashMap<Integer, ProcessorDescriptor>	m_descriptors	= new ConcurrentHashMap<Integer, ProcessorDescriptor>();
+	private static Map<Integer, ProcessorDescriptor>						m_cache			= null;	// Contents of the cache file, read on first use
+
+	private final int			m_addr;
+	private final ProcessorType	m_type;
+	private final long			m_validPins;
+	private final int			m_validPWMPins;
+	private final int			m_validAnalogPins;
+	private final int			m_maxMotors;
+	private final boolean		m_cached;		// True if read from the cache file rather than requested
+
+	private ProcessorDescriptor(int addr, ProcessorType type, long validPins, int validPWMPins, int validAnalogPins, int maxMotors, boolean cached)
+	{
+		m_addr				= addr;
+		m_type				= type;
+		m_validPins			= validPins;
+		m_validPWMPins		= validPWMPins;
+		m_validAnalogPins	= validAnalogPins;
+		m_maxMotors			= maxMotors;
+		m_cached			= cached;
+	}
+
+	/**
+	 * Returns the descriptor of the processor at the specified address. The first call for an address
+	 * may request the capabilities from the processor. Later calls do not use the bus.
+	 *
+	 * @param addr - Specifies the I2C address
+	 * @return Returns the descriptor
+	 */
+	public static ProcessorDescriptor get(int addr)
+	{
+		ProcessorDescriptor	descriptor	= m_descriptors.get(addr);
+
+		if (descriptor == null)
+		{
+			descriptor	= load(addr);
+
+			ProcessorDescriptor	existing	= m_descriptors.putIfAbsent(addr, descriptor);
+
+			if (existing != null)
+			{
+				descriptor	= existing;
+			}
+		}
+
+		return(descriptor);
+	}
+
+	/**
+	 * @return Returns the I2C address
+	 */
+	public int getAddr()
+	{
+		return(m_addr);
+	}
+
+	/**
+	 * @return Returns the type of processor
+	 */
+	public ProcessorType getType()
+	{
+		return(m_type);
+	}
+
+	/**
+	 * @return Returns a bit mask of the valid digital pins
+	 */
+	public long getValidPins()
+	{
+		return(m_validPins);
+	}
+
+	/**
+	 * @return Returns a bit mask of the valid PWM pins
+	 */
+	public int getValidPWMPins()
+	{
+		return(m_validPWMPins);
+	}
+
+	/**
+	 * @return Returns a bit mask of the valid analog pins
+	 */
+	public int getValidAnalogPins()
+	{
+		return(m_validAnalogPins);
+	}
+
+	/**
+	 * @return Returns the maximum number of motors
+	 */
+	public int getMaxMotors()
+	{
+		return(m_maxMotors);
+	}
+
+	@Override
+	public String toString()
+	{
+		return(String.format("%d,%s,%x,%x,%x,%d", m_addr, m_type, m_validPins, m_validPWMPins, m_validAnalogPins, m_maxMotors));
+	}
+
+	private boolean sameAs(ProcessorDescriptor other)
+	{
+		return((m_type == other.m_type) && (m_validPins == other.m_validPins) && (m_validPWMPins == other.m_validPWMPins) &&
+				(m_validAnalogPins == other.m_validAnalogPins) && (m_maxMotors == other.m_maxMotors));
+	}
+
+	/*
+	 * Returns a descriptor whose capabilities were requested from the processor. If the current
+	 * descriptor was read from the cache file, the capabilities are requested and replace it, and
+	 * the file is updated if they have changed. Called when a pin or motor is rejected so that
+	 * a stale cache entry does not reject a valid one.
+	 */
+	static synchronized ProcessorDescriptor confirm(int addr)
+	{
+		ProcessorDescriptor	descriptor	= get(addr);
+
+		if (!descriptor.m_cached)
+		{
+			return(descriptor);
+		}
+
+		ProcessorDescriptor	requested	= request(addr, descriptor.m_type);
+
+		m_descriptors.put(addr, requested);
+
+		if (!requested.sameAs(descriptor))
+		{
+			Logger.log("ProcessorDescriptor", 3, String.format("Capabilities of %d have changed: %s", addr, requested));
+
+			save(requested);
+		}
+
+		return(requested);
+	}
+
+	private static ProcessorDescriptor load(int addr)
+	{
+		Device			device	= Device.getInstance();
+		ProcessorType	type	= (addr == Device.k_mainTwoWireId) ? device.getResetProcessorType() : ProcessorType.Unknown;
+
+		if (type == ProcessorType.Unknown)
+		{
+			type	= device.getProcessorType(addr);
+		}
+
+		if (!RobotBase.isVirtual())
+		{
+			ProcessorDescriptor	cached	= getCached(addr);
+
+			if ((cached != null) && (cached.m_type == type))
+			{
+				Logger.log("ProcessorDescriptor", 1, "Cached: " + cached);
+
+				return(cached);
+			}
+		}
+
+		ProcessorDescriptor	descriptor	= request(addr, type);
+
+		save(descriptor);
+
+		return(descriptor);
+	}
+
+	/*
+	 * The firmware has no request which returns all of the capabilities, so each is requested in turn
+	 */
+	private static ProcessorDescriptor request(int addr, ProcessorType type)
+	{
+		Device	device	= Device.getInstance();
+
+		ProcessorDescriptor	descriptor	= new ProcessorDescriptor(addr, type,
+												device.getLong(addr, TwoWire.k_getValidPins),
+												device.getInt(addr, TwoWire.k_getValidPWMPins),
+												device.getInt(addr, TwoWire.k_getValidAnalogPins),
+												device.getByte(addr, TwoWire.k_getMaxMotors), false);
+
+		Logger.log("ProcessorDescriptor", 1, "Requested: " + descriptor);
+
+		return(descriptor);
+	}
+
+	private static synchronized Map<Integer, ProcessorDescriptor> getCache()
+	{
+		if (m_cache == null)
+		{
+			m_cache	= new TreeMap<Integer, ProcessorDescriptor>();
+
+			if (!RobotBase.isVirtual())
+			{
+				readCache(m_cache);
+			}
+		}
+
+		return(m_cache);
+	}
+
+	private static synchronized ProcessorDescriptor getCached(int addr)
+	{
+		return(getCache().get(addr));
+	}
+
+	private static void readCache(Map<Integer, ProcessorDescriptor> cache)
+	{
+		File	file	= new File(k_cacheFile);
+
+		if (!file.exists())
+		{
+			return;
+		}
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(file)))
+		{
+			String	line;
+
+			while ((line = reader.readLine()) != null)
+			{
+				String[]	fields	= line.split(",");
+
+				if (fields.length == 6)
+				{
+					int	addr	= Integer.parseInt(fields[0]);
+
+					cache.put(addr, new ProcessorDescriptor(addr, ProcessorType.valueOf(fields[1]),
+							Long.parseUnsignedLong(fields[2], 16), Integer.parseUnsignedInt(fields[3], 16),
+							Integer.parseUnsignedInt(fields[4], 16), Integer.parseInt(fields[5]), true));
+				}
+			}
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			Logger.log("ProcessorDescriptor", 3, "Cannot read " + k_cacheFile + ": " + e);
+
+			cache.clear();
+		}
+	}
+
+	/*
+	 * Adds the descriptor to the cache and rewrites the file. The file is written to a temporary
+	 * file first so that it is never left partly written.
+	 */
+	private static synchronized void save(ProcessorDescriptor descriptor)
+	{
+		Map<Integer, ProcessorDescriptor>	cache	= getCache();
+
+		cache.put(descriptor.m_addr, descriptor);
+
+		if (RobotBase.isVirtual() || (descriptor.m_type == ProcessorType.Unknown))
+		{
+			return;
+		}
+
+		File	file	= new File(k_cacheFile);
+		File	temp	= new File(k_cacheFile + ".tmp");
+
+		try
+		{
+			try (PrintWriter writer = new PrintWriter(temp))
+			{
+				for (ProcessorDescriptor entry : cache.values())
+				{
+					writer.println(entry);
+				}
+			}
+
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			Logger.log("ProcessorDescriptor", 3, "Cannot write " + k_cacheFile + ": " + e);
+		}
+	}
+}
@@ -8,6 +8,7 @@ import robotCore.Navigator.NavigatorPos;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import pathfinder.GeometryKernels;
 import pathfinder.Pathfinder.Path;
 import pathfinder.Pathfinder.Segment;
 
@@ -66,6 +67,8 @@ public class PurePursuit {
 
 	// private final int k_checkStall = 40;			// Distance from the end of the path to check for stall - MUSTFIX - with min speed is this really necessary?
 
+	private double[] m_distanceScratch = new double[0];	// Work array for the closest and look ahead point searches
+
 	private Path m_loadedPath;						// Current loaded path;
 	private Path m_path;							// Current path data
 	private boolean m_isReversed;					// If true, the robot is to drive backwards
@@ -76,6 +79,7 @@ public class PurePursuit {
 	private long m_nextRun;							// Time for the next curvature calculation
 
 	private Navigator m_navigator;					// Navigator which gives robot position data
+	private Odometry m_odometry = null;				// If set, streams the position data instead of requesting it
 	private SetSpeed m_setSpeed;					// Function to call to set the speed for the left and right motors in FPS
 
 	/*
@@ -102,6 +106,16 @@ public class PurePursuit {
 		m_rate = rate;
 	}
 
+	/**
+	 * Uses a streaming <strong>Odometry</strong> for the robot's position instead of requesting it from
+	 * the Navigator on each update.
+	 * 
+	 * @param odometry - Specifies the odometry for the Navigator, or null to request the position directly.
+	 */
+	public void setOdometry(Odometry odometry) {
+		m_odometry = odometry;
+	}
+
 		/**
 		 * Loads the current path
 		 * 
@@ -119,19 +133,71 @@ public class PurePursuit {
 			m_isExtended = isExtended;
 			m_setPosition = setPosition;
 
-			m_dt = path.m_dt;
-			m_wheelBase = path.m_wheelBase;
+			setPathParameters(path);
+		}
+	}
+
+	/**
+	 * Replaces the path being followed without stopping the robot. The new path should start at the robot's
+	 * current position and heading and at its current velocity, as the paths from <strong>ReplanService</strong> do.
+	 * The reversed and extended settings of the current path are kept. If no path is being followed, the
+	 * new path is started.
+	 * 
+	 * @param path - Specifies the new path.
+	 */
+	public void splicePath(Path path) {
+		synchronized (m_dataLock) {
+			m_loadedPath = path;
+
+			setPathParameters(path);
+		}
+
+		if (!m_runThread.get()) {
+			startLogging();
+		}
+
+		m_finished.set(false);
+		startThread();
+	}
+
+	/*
+	 * Must be called with m_dataLock held
+	 */
+	private void setPathParameters(Path path) {
+		m_dt = path.m_dt;
+		m_wheelBase = path.m_wheelBase;
+
+		k_lookAheadTime = path.m_lookAheadTime;
+		k_minLookAheadDist = path.m_minLookAheadDist;
+		k_maxSearchTime = path.m_maxSearchTime;
+		k_minSpeed = path.m_minSpeed;
+		k_curvatureAdjust = path.m_curvatureAdjust;
+		k_extendedLookAhead = path.m_extendedLookAheadDistance;
+
+		k_lookAheadIdx = (int) (k_lookAheadTime / m_dt);	// Index increment to reach specified time							
+		k_maxLookAhead = (int) (k_maxSearchTime / m_dt);	// Max index count to look ahead for closest point to current position		
+	}
+
+	/**
+	 * @return Returns true if the robot backs along the path
+	 */
+	public boolean isReversed() {
+		synchronized (m_dataLock) {
+			return m_isReversed;
+		}
+	}
 
-			k_lookAheadTime = path.m_lookAheadTime;
-			k_minLookAheadDist = path.m_minLookAheadDist;
-			k_maxSearchTime = path.m_maxSearchTime;
-			k_minSpeed = path.m_minSpeed;
-			k_curvatureAdjust = path.m_curvatureAdjust;
-			k_extendedLookAhead = path.m_extendedLookAheadDistance;
+	/*
+	 * Returns the robot's current position, from the odometry if it has one
+	 */
+	NavigatorPos getCurrentPos() {
+		NavigatorPos pos = (m_odometry != null) ? m_odometry.getNavigatorPos() : null;
 
-			k_lookAheadIdx = (int) (k_lookAheadTime / m_dt);	// Index increment to reach specified time							
-			k_maxLookAhead = (int) (k_maxSearchTime / m_dt);	// Max index count to look ahead for closest point to current position		
+		if (pos == null) {
+			pos = m_navigator.getPos();
 		}
+
+		return pos;
 	}
 
 	/**
@@ -210,7 +276,7 @@ public class PurePursuit {
 			(m_thread = new Thread() {
 				public void run()
 				{
-					m_nextRun = System.currentTimeMillis() + m_rate;
+					m_nextRun = Timer.getTimeMs() + m_rate;
 
 					while (true)
 					{
@@ -221,17 +287,14 @@ public class PurePursuit {
 						}
 						
 						/*
-						 * Sleep for remaining time and calculate next time to run
+						 * Sleep for remaining time and calculate next time to run. Uses the robot's clock
+						 *  so that the follower runs on the virtual clock in simulation and replay.
 						 */
-						try {
-							long sleepTime = m_nextRun - System.currentTimeMillis();
-							m_nextRun += m_rate;
-							
-							if (sleepTime > 0) {
-								sleep(sleepTime);
-							}
-						} catch (final InterruptedException e) {
-							e.printStackTrace();
+						long sleepTime = m_nextRun - Timer.getTimeMs();
+						m_nextRun += m_rate;
+						
+						if (sleepTime > 0) {
+							RobotBase.sleep((int) sleepTime);
 						}
 					}
 				}
@@ -246,6 +309,25 @@ public class PurePursuit {
 		m_runThread.set(false);
 	}
 
+	/*
+	 * Follows the loaded path on the calling thread, without waiting between updates, until the
+	 *   path is finished or maxSteps updates have been run. Returns the number of updates. Used by Warmup.
+	 */
+	int followSteps(int maxSteps) {
+		int steps = 0;
+
+		m_finished.set(false);
+
+		while (!m_finished.get() && (steps < maxSteps)) {
+			SpeedContainer speedContainer = followPath();
+
+			m_setSpeed.set(speedContainer.leftSpeed, speedContainer.rightSpeed);
+			steps++;
+		}
+
+		return steps;
+	}
+
 	/**
 	 * Start following the currently loaded path.
 	 * While the path is being followed, PurePursuit must have exclusive
@@ -312,11 +394,14 @@ public class PurePursuit {
 	 * This function computes the left and right motor speeds required to follow the path
 	 */
 	private SpeedContainer followPath() {
-		NavigatorPos pos = m_navigator.getPos();
+		NavigatorPos pos = getCurrentPos();
 
 		synchronized (m_dataLock)
 		{
-			m_path = m_loadedPath;
+			if (m_path != m_loadedPath) {
+				m_path = m_loadedPath;
+				m_prevIdx.set(0);		// A spliced path starts at the robot
+			}
 		}
 		
 		if (m_finished.get()) {
@@ -429,28 +514,15 @@ public class PurePursuit {
 	 * 
 	 */
 	private int getClosestPoint(NavigatorPos pos) {
-		double smallestDistance;
-		int closestIdx;
-
-		int maxLookAhead = m_prevIdx.get() + k_maxLookAhead;
+		int prevIdx = m_prevIdx.get();
+		int maxLookAhead = prevIdx + k_maxLookAhead;
 
 		if (maxLookAhead > m_path.m_centerPath.length) {
 			maxLookAhead = m_path.m_centerPath.length;
 		}
 
-		closestIdx = maxLookAhead - 1;
-		smallestDistance = calcDistance(pos.x, pos.y, m_path.m_centerPath[closestIdx]);
-
-		int prevIdx = m_prevIdx.get();
-		for (int i = prevIdx; i < maxLookAhead; i++) {
-			double distance = calcDistance(pos.x, pos.y, m_path.m_centerPath[i]);
-			if (distance < smallestDistance) {
-				smallestDistance = distance;
-				closestIdx = i;
-			}
-		}
-
-		return closestIdx;	//new ClosestPoint(smallestDistance, closestIdx);
+		return GeometryKernels.closest(m_path.m_centerX, m_path.m_centerY, prevIdx, maxLookAhead, pos.x, pos.y,
+				getScratch(maxLookAhead - prevIdx));
 	}
 
 	/*
@@ -465,13 +537,19 @@ public class PurePursuit {
 			lookAheadPoints = m_path.m_centerPath.length;
 		}
 
-		for (int i = closestPoint; i < lookAheadPoints; i++) {
-			if (calcDistance(pos.x, pos.y, m_path.m_centerPath[i]) >= lookAheadFt) {
-				return i;
-			}
+		return GeometryKernels.firstBeyond(m_path.m_centerX, m_path.m_centerY, closestPoint, lookAheadPoints, pos.x, pos.y,
+				lookAheadFt, getScratch(lookAheadPoints - closestPoint));
+	}
+
+	/*
+	 * Returns the work array for the point searches, growing it if necessary
+	 */
+	private double[] getScratch(int length) {
+		if (m_distanceScratch.length < length) {
+			m_distanceScratch = new double[length];
 		}
 
-		return -1;
+		return m_distanceScratch;
 	}
 
 	/*
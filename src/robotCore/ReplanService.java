@@ -0,0 +1,347 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import pathfinder.Pathfinder;
+import pathfinder.Pathfinder.Path;
+import pathfinder.Pathfinder.Waypoint;
+import robotCore.Navigator.NavigatorPos;
+
+/**
+ *
+ * @brief The ReplanService class changes the path of a running PurePursuit without stopping the robot.
+ *
+ * <strong>PurePursuit.loadPath</strong> stops the robot before the new path is started. The ReplanService
+ * instead generates a path which starts at the robot's current position, heading and velocity and splices it
+ * into the follower (see <strong>PurePursuit.splicePath</strong>).
+ *
+ * When <strong>replan</strong> is called, a waypoint at the robot's pose is added in front of the new
+ * waypoints, so that the first Bezier curve of the new path connects the robot to the new path with the same
+ * heading. If the robot is already close to the first new waypoint, that waypoint is replaced instead. The
+ * path is generated to start at the robot's current velocity.
+ *
+ * The path is generated on the service's own thread so that the control loops are not delayed. Since the
+ * robot keeps moving while the path is generated, its pose is projected forward along its heading by the
+ * median of the measured generation times, or by the latency budget until a path has been generated. If the
+ * path is not ready within the budget, the fallback is used. By default the late path
+ * is discarded and the robot continues on its current path. If <strong>replan</strong> is called again while
+ * a path is being generated, only the latest request is used.
+ *
+ * The generation time is recorded in the <strong>Metrics</strong> histogram <i>replan.latency.ms</i>.
+ *
+ */
+public class ReplanService
+{
+	private static final double	k_minConnectDistance	= 0.25;		// Closer than this, the first waypoint is replaced rather than connected to
+
+	/**
+	 *
+	 * @brief Specifies the state of the last request
+	 *
+	 */
+	public enum Status
+	{
+		/**
+		 * No path has been requested
+		 */
+		Idle,
+		/**
+		 * The path is being generated
+		 */
+		Pending,
+		/**
+		 * The path was spliced into the follower
+		 */
+		Spliced,
+		/**
+		 * The path was not ready within the latency budget
+		 */
+		Missed,
+		/**
+		 * The path could not be generated
+		 */
+		Failed,
+	}
+
+	/**
+	 *
+	 * @brief Specifies what to do when a path misses the latency budget
+	 *
+	 */
+	public enum Fallback
+	{
+		/**
+		 * Discard the new path and continue on the current path
+		 */
+		KeepPath,
+		/**
+		 * Use the new path anyway. PurePursuit will steer back onto it from wherever the robot is.
+		 */
+		UseLatePath,
+	}
+
+	/*
+	 * A request for a new path
+	 */
+	private static class Request
+	{
+		final Waypoint[]	m_waypoints;
+		final long			m_time;			// nanoTime of the request
+		final int			m_id;
+
+		Request(Waypoint[] waypoints, int id)
+		{
+			m_waypoints	= waypoints;
+			m_time		= System.nanoTime();
+			m_id		= id;
+		}
+	}
+
+	private final PurePursuit	m_follower;
+	private final int			m_sampleCount;
+	private final double		m_dt;
+	private final double		m_maxVelocity;
+	private final double		m_maxAcceleration;
+	private final double		m_maxDecl;
+	private final double		m_maxJerk;
+	private final double		m_wheelBase;
+
+	private final Object		m_lock			= new Object();
+	private Request				m_pending		= null;
+	private int					m_lastId		= 0;
+	private Thread				m_thread		= null;
+	private volatile int		m_budget		= 50;
+	private volatile Fallback	m_fallback		= Fallback.KeepPath;
+	private volatile Status		m_status		= Status.Idle;
+	private volatile long		m_deadline		= 0;
+
+	private final Metrics.Histogram	m_latency	= Metrics.histogram("replan.latency.ms");
+	private final Metrics.Counter	m_spliced	= Metrics.counter("replan.spliced");
+	private final Metrics.Counter	m_missed	= Metrics.counter("replan.missed");
+
+	/**
+	 * The paths are generated with the same parameters as <strong>Pathfinder.computePath</strong>
+	 *
+	 * @param follower - Specifies the PurePursuit which is following the path
+	 * @param sampleCount - Specifies the maximum number of points per Bezier curve
+	 * @param dt - Specifies the time between points on the path
+	 * @param maxVelocity - Specifies the maximum wheel velocity
+	 * @param maxAcceleration - Specifies the maximum wheel acceleration
+	 * @param maxDecl - Specifies the maximum wheel deceleration
+	 * @param maxJerk - Specifies the maximum jerk, or zero for no limit
+	 * @param wheelBase - Specifies the width of the wheelbase in feet
+	 */
+	public ReplanService(PurePursuit follower, int sampleCount, double dt, double maxVelocity, double maxAcceleration,
+			double maxDecl, double maxJerk, double wheelBase)
+	{
+		m_follower			= follower;
+		m_sampleCount		= sampleCount;
+		m_dt				= dt;
+		m_maxVelocity		= maxVelocity;
+		m_maxAcceleration	= maxAcceleration;
+		m_maxDecl			= maxDecl;
+		m_maxJerk			= maxJerk;
+		m_wheelBase			= wheelBase;
+	}
+
+	/**
+	 * @param budget - Specifies the time allowed to generate a path in ms. The default is 50 ms.
+	 */
+	public void setLatencyBudget(int budget)
+	{
+		m_budget	= budget;
+	}
+
+	/**
+	 * @param fallback - Specifies what to do if a path is not ready within the budget
+	 */
+	public void setFallback(Fallback fallback)
+	{
+		m_fallback	= fallback;
+	}
+
+	/**
+	 * @return Returns the state of the last request. A request which has passed its deadline while still being
+	 *         generated returns Missed.
+	 */
+	public Status getStatus()
+	{
+		Status	status	= m_status;
+
+		if ((status == Status.Pending) && (System.nanoTime() - m_deadline > 0))
+		{
+			status	= Status.Missed;
+		}
+
+		return(status);
+	}
+
+	/**
+	 * Starts generating a path from the robot's current pose through the specified waypoints. The waypoints
+	 * should start ahead of the robot. Returns immediately.
+	 *
+	 * @param waypoints - Specifies the waypoints of the new path
+	 */
+	public void replan(Waypoint[] waypoints)
+	{
+		synchronized (m_lock)
+		{
+			m_pending	= new Request(waypoints, ++m_lastId);
+			m_deadline	= m_pending.m_time + m_budget * 1000000L;
+			m_status	= Status.Pending;
+
+			if (m_thread == null)
+			{
+				m_thread	= new Thread(this::run, "ReplanService");
+				m_thread.setDaemon(true);
+				m_thread.start();
+			}
+
+			m_lock.notifyAll();
+		}
+	}
+
+	private void run()
+	{
+		while (true)
+		{
+			Request	request;
+
+			synchronized (m_lock)
+			{
+				while (m_pending == null)
+				{
+					try
+					{
+						m_lock.wait();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+
+				request		= m_pending;
+				m_pending	= null;
+			}
+
+			process(request);
+		}
+	}
+
+	/*
+	 * Adds the robot's pose in front of the waypoints, or replaces the first waypoint if the robot is close to it
+	 */
+	private static Waypoint[] connect(double x, double y, double heading, Waypoint[] waypoints)
+	{
+		Waypoint	first		= waypoints[0];
+		boolean		replace		= Math.hypot(first.x - x, first.y - y) < k_minConnectDistance;
+		Waypoint[]	connected	= new Waypoint[replace ? waypoints.length : waypoints.length + 1];
+
+		connected[0]	= new Waypoint(x, y, heading, first.maxVelocity);
+		System.arraycopy(waypoints, replace ? 1 : 0, connected, 1, connected.length - 1);
+
+		return(connected);
+	}
+
+	/*
+	 * Returns the expected time to generate a path in seconds
+	 */
+	private double getExpectedLatency()
+	{
+		long	latency	= (m_latency.getCount() > 0) ? m_latency.getPercentile(50) : m_budget;
+
+		return(latency / 1000.0);
+	}
+
+	private void process(Request request)
+	{
+		NavigatorPos	pos			= m_follower.getCurrentPos();
+		boolean			reversed	= m_follower.isReversed();
+		double			latency		= getExpectedLatency();
+		double			heading		= Math.toRadians(reversed ? pos.yaw + 180 : pos.yaw);
+		double			velocity	= (pos.leftSpeed + pos.rightSpeed) / 2;
+
+		if (reversed)
+		{
+			velocity	= -velocity;
+		}
+
+		velocity	= Math.max(0, Math.min(m_maxVelocity, velocity));
+
+		/*
+		 * Start the path where the robot will be when the path is ready
+		 */
+		double	x	= pos.x + velocity * latency * Math.cos(heading);
+		double	y	= pos.y + velocity * latency * Math.sin(heading);
+		Path	path;
+
+		try
+		{
+			path	= Pathfinder.computePath(connect(x, y, heading, request.m_waypoints), m_sampleCount, m_dt, m_maxVelocity,
+					m_maxAcceleration, m_maxDecl, m_maxJerk, m_wheelBase, velocity);
+		}
+		catch (RuntimeException e)
+		{
+			Logger.log("ReplanService", 3, "Path generation failed: " + e);
+			path	= null;
+		}
+
+		long	elapsed	= (System.nanoTime() - request.m_time) / 1000000;
+
+		m_latency.record(elapsed);
+
+		synchronized (m_lock)
+		{
+			if (request.m_id != m_lastId)
+			{
+				return;		// A newer request replaces this one
+			}
+
+			if ((path == null) || (path.m_centerPath.length == 0))
+			{
+				m_status	= Status.Failed;
+				return;
+			}
+
+			if ((elapsed > m_budget) && (m_fallback == Fallback.KeepPath))
+			{
+				Logger.log("ReplanService", 2, String.format("Missed deadline: %d ms, keeping current path", elapsed));
+
+				m_missed.increment();
+				m_status	= Status.Missed;
+				return;
+			}
+
+			if (elapsed > m_budget)
+			{
+				Logger.log("ReplanService", 2, String.format("Missed deadline: %d ms, using late path", elapsed));
+
+				m_missed.increment();
+			}
+
+			m_follower.splicePath(path);
+			m_spliced.increment();
+			m_status	= (elapsed > m_budget) ? Status.Missed : Status.Spliced;
+
+			Logger.log("ReplanService", 1, String.format("Spliced: %d points, v=%f, %d ms", path.m_centerPath.length, velocity,
+					elapsed));
+		}
+	}
+}
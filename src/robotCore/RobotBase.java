@@ -62,6 +62,8 @@ public abstract class RobotBase
 		private boolean m_connected = false;
 		private long m_timeout;
 		private RobotBase m_robotBase;
+		private Metrics.Histogram m_packetInterval = Metrics.histogram("ds.packetInterval.ms");
+		private Metrics.Counter m_lagCount = Metrics.counter("ds.lag");
 		
 		public DriverStation(RobotBase robotBase)
 		{
@@ -78,7 +80,7 @@ public abstract class RobotBase
 			
 			if (RobotBase.getInstance().isEnabled())
 			{
-				if (System.currentTimeMillis() > m_timeout)
+				if (Timer.getTimeMs() > m_timeout)
 				{
 					Logger.log("DriverStation", 3, "Timeout");
 					
@@ -126,6 +128,8 @@ public abstract class RobotBase
 
 			// Logger.Log("DriverStation", 1, String.format("ProcessCommand,%d,%s", dt, command), dt <= 100);
 
+			InputRecorder.recordDriverStation(command);
+
 			if (command.length() >= 1)
 			{
 				switch(command.charAt(0))
@@ -167,7 +171,7 @@ public abstract class RobotBase
 				// Logger.Log("DriverStation", 1, String.format("ProcessCommand: dt=%d", time), (time < 100));
 				
 				
-				m_timeout = System.currentTimeMillis() + k_keepAliveTime;
+				m_timeout = Timer.getTimeMs() + k_keepAliveTime;
 			}
 		}
 		
@@ -206,7 +210,7 @@ public abstract class RobotBase
 			
 			sendCommand("E");
 			
-			m_timeout = System.currentTimeMillis() + k_keepAliveTime;
+			m_timeout = Timer.getTimeMs() + k_keepAliveTime;
 		}
 		
 		public void sendMessage(String message)
@@ -219,7 +223,7 @@ public abstract class RobotBase
 					m_printStream.println(message);
 				}
 			}
-			else
+			else if (!isVirtual())
 			{
 				Logger.log("DriverStation", 3, "SendMessage: m_printStream is null");
 			}
@@ -283,8 +287,11 @@ public abstract class RobotBase
 							long dt = time - lastTime;
 							lastTime = time;
 
+							m_packetInterval.record(dt);
+
 							if (dt > 250)
 							{
+								m_lagCount.increment();
 								String msg = String.format("Lag:%d", dt);
 
 								sendMessage(msg);
@@ -379,6 +386,15 @@ public abstract class RobotBase
 	{
 		m_driverStation	= new DriverStation(this);
 		
+		if (isVirtual())
+		{
+			/*
+			 * The driver station, update modules and keep-alive check are run by runVirtual()
+			 */
+			startCompetition();
+			return;
+		}
+		
 		(new Thread(m_driverStation)).start();
 		
 		Schedule(
@@ -411,6 +427,94 @@ public abstract class RobotBase
 		startCompetition();
 	}
 	
+	//! @cond PRIVATE 
+	/**
+	 * @return - Returns true if the robot is running without hardware, either in simulation
+	 * or replaying recorded inputs
+	 */
+	public static boolean isVirtual()
+	{
+		return(Simulation.isEnabled() || InputRecorder.isReplaying());
+	}
+	
+	void processDriverStationCommand(String command)
+	{
+		m_driverStation.processCommand(command);
+	}
+	
+	/*
+	 * Runs the robot loop under the virtual clock, either against the recorded inputs
+	 * or the simulation
+	 */
+	void runVirtual(Runnable loop, int period)
+	{
+		boolean replay = InputRecorder.isReplaying();
+		long time = replay ? InputRecorder.getStartTime() : Timer.getTimeMs();
+		long nextUpdate = time;
+		long nextKeepAlive = time + k_keepAliveTime;
+		long startTime = System.currentTimeMillis();
+		double speed = replay ? InputRecorder.getSpeed() : Simulation.getSpeed();
+		int loops = 0;
+		
+		Logger.log("RobotBase", 2, replay ? "Replay started" : "Simulation started");
+
+		Timer.setVirtualTime(time);
+		
+		while (replay ? InputRecorder.dispatchEvents(time) : !Simulation.isComplete(time))
+		{
+			if (!replay)
+			{
+				Simulation.step(time, period);
+			}
+			
+			Device.runVirtualPolls();
+			loop.run();
+			loops++;
+			
+			if (time >= nextUpdate)
+			{
+        		for (UpdateModule module : m_updater)
+        		{
+        			module.update();
+        		}
+        		
+        		nextUpdate += m_refreshTime;
+			}
+			
+			if (time >= nextKeepAlive)
+			{
+				m_driverStation.checkKeepAlive();
+				
+				nextKeepAlive += k_keepAliveTime;
+			}
+			
+			time += period;
+			
+			Timer.setVirtualTime(time);
+			
+			/*
+			 * Pace the loop in real time. RobotBase.sleep would advance the virtual clock instead.
+			 */
+			if (speed > 0)
+			{
+				try
+				{
+					Thread.sleep((long) (period / speed));
+				}
+				catch (InterruptedException ex)
+				{
+					break;
+				}
+			}
+		}
+		
+		long elapsed = System.currentTimeMillis() - startTime;
+		
+		Logger.log("RobotBase", 2, String.format("Run complete: loops=%d, time=%dms, speed=%.1fx", loops, elapsed, 
+				(double) (loops * period) / Math.max(elapsed, 1)));
+	}
+	//! @endcond
+	
 	/**
 	 * 
 	 * Disables the robot. 
@@ -520,6 +624,12 @@ public abstract class RobotBase
 	 */
 	static public void sleep(int ms)
 	{
+		if (Timer.isVirtual())
+		{
+			Timer.sleepVirtual(ms);
+			return;
+		}
+		
 		try 
 		{
 			Thread.sleep(ms);
@@ -0,0 +1,752 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+
+import robotCore.RobotBase.RobotMode;
+
+/**
+ *
+ * @brief The Simulation class allows the robot program to run without any hardware.
+ *
+ * When the simulation is enabled, the Raspberry Pi GPIO pins and the I2C bus are not used.
+ * Instead, the commands that would have been sent to the microcontroller are handled by a
+ * simulated processor which models the motors, encoders and navigator:
+ *
+ * - Each motor is modeled as a first order system which approaches its target speed
+ * 	 (either power * max speed, or the requested speed in Speed mode).
+ * - A motor in MotionProfile mode runs the streamed points from a buffer, one per period.
+ * - Each encoder reads the motor it is connected to (see <strong>connectEncoder</strong>),
+ * 	 or the motor's feedback device.
+ * - The navigator integrates the robot's position from its left and right encoders using
+ *   a differential drive model (see <strong>setTrackWidth</strong>).
+ *
+ * A virtual driver station enables the robot in the requested mode, sends the keep-alive and
+ * joystick packets, and the robot loop runs on a virtual clock, either as fast as possible or
+ * at a multiple of real time.
+ *
+ * The simulation is normally selected from the command line (see <strong>configure</strong>).
+ * The robot's <strong>simulationInit</strong> function should then describe how the simulated
+ * motors and encoders are connected.
+ */
+public class Simulation
+{
+	private static final int k_driverStationPeriod = 50;	// ms between virtual driver station packets
+	private static final double k_defaultMaxSpeed = 4000;	// ticks per second at full power
+	private static final double k_defaultTimeConstant = 0.1;	// seconds
+	private static final int k_maxMotors = 8;
+	private static final int k_maxEncoders = 8;
+	private static final int k_profileCapacity = 64;	// Motion profile points buffered per motor
+
+	private static class MotorModel
+	{
+		int m_pwmPin = -1;
+		int m_value = 0;
+		boolean m_speedMode = false;
+		boolean m_inverted = false;
+		int m_feedbackEncoder = -1;
+		double m_speed = 0;			// ticks per second
+
+		/*
+		 * Motion profile buffer. Only the velocities are used by the model.
+		 */
+		int[] m_profile = new int[k_profileCapacity];
+		int m_profileHead = 0;
+		int m_profileCount = 0;
+		int m_profileExecuted = 0;
+		int m_profileFlags = 0;
+		boolean m_profileLast = false;
+		double m_profilePeriod = 0;	// seconds
+		double m_profileTime = 0;
+
+		void clearProfile()
+		{
+			m_profileHead = 0;
+			m_profileCount = 0;
+			m_profileExecuted = 0;
+			m_profileFlags = 0;
+			m_profileLast = false;
+			m_profileTime = 0;
+		}
+
+		/*
+		 * Runs the points which are due
+		 */
+		void stepProfile(double dt)
+		{
+			if ((m_profileFlags & SmartMotor.k_profileRunning) == 0)
+			{
+				return;
+			}
+
+			m_profileTime += dt;
+
+			while (m_profileTime >= m_profilePeriod)
+			{
+				m_profileTime -= m_profilePeriod;
+
+				if (m_profileCount > 0)
+				{
+					m_value = m_profile[m_profileHead];
+					m_profileHead = (m_profileHead + 1) % k_profileCapacity;
+					m_profileCount--;
+					m_profileExecuted++;
+					m_profileFlags &= ~SmartMotor.k_profileUnderrun;
+				}
+				else
+				{
+					m_value = 0;
+
+					if (m_profileLast)
+					{
+						m_profileFlags = SmartMotor.k_profileComplete;
+					}
+					else
+					{
+						m_profileFlags |= SmartMotor.k_profileUnderrun;
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	private static class EncoderModel
+	{
+		int m_pin = -1;
+		boolean m_inverted = false;
+		double m_position = 0;
+		double m_speed = 0;
+	}
+
+	/*
+	 * Models a single microcontroller
+	 */
+	private static class Processor
+	{
+		MotorModel[] m_motors = new MotorModel[k_maxMotors];
+		EncoderModel[] m_encoders = new EncoderModel[k_maxEncoders];
+		boolean m_enabled = false;
+
+		int m_navLeft = -1;
+		int m_navRight = -1;
+		boolean m_navInverted = false;
+		double m_yaw = 0;			// radians
+		double m_x = 0;				// ticks
+		double m_y = 0;				// ticks
+
+		Processor()
+		{
+			for (int i = 0 ; i < k_maxMotors ; i++)
+			{
+				m_motors[i] = new MotorModel();
+			}
+
+			for (int i = 0 ; i < k_maxEncoders ; i++)
+			{
+				m_encoders[i] = new EncoderModel();
+			}
+		}
+
+		EncoderModel getEncoder(int encoderNo)
+		{
+			return(((encoderNo >= 0) && (encoderNo < k_maxEncoders)) ? m_encoders[encoderNo] : m_encoders[0]);
+		}
+
+		MotorModel getMotor(int motorNo)
+		{
+			return(((motorNo >= 0) && (motorNo < k_maxMotors)) ? m_motors[motorNo] : m_motors[0]);
+		}
+
+		/*
+		 * Returns the motor which drives the encoder, or null if none
+		 */
+		MotorModel getEncoderMotor(int encoderNo)
+		{
+			for (MotorModel motor : m_motors)
+			{
+				if (motor.m_feedbackEncoder == encoderNo)
+				{
+					return(motor);
+				}
+			}
+
+			Wiring wiring = m_encoderWiring.get(m_encoders[encoderNo].m_pin);
+
+			if (wiring != null)
+			{
+				for (MotorModel motor : m_motors)
+				{
+					if (motor.m_pwmPin == wiring.m_pwmPin)
+					{
+						return(motor);
+					}
+				}
+			}
+
+			return(null);
+		}
+
+		void step(double dt)
+		{
+			for (MotorModel motor : m_motors)
+			{
+				double target;
+
+				if (m_enabled)
+				{
+					motor.stepProfile(dt);
+				}
+
+				if (!m_enabled)
+				{
+					target = 0;
+				}
+				else if (motor.m_speedMode)
+				{
+					target = motor.m_value;
+				}
+				else
+				{
+					target = (motor.m_value / 1000.0) * getMaxSpeed(motor.m_pwmPin);
+				}
+
+				if (motor.m_inverted)
+				{
+					target = -target;
+				}
+
+				motor.m_speed += (target - motor.m_speed) * Math.min(dt / k_defaultTimeConstant, 1.0);
+			}
+
+			for (int i = 0 ; i < k_maxEncoders ; i++)
+			{
+				EncoderModel encoder = m_encoders[i];
+				MotorModel motor = getEncoderMotor(i);
+
+				if (motor != null)
+				{
+					Wiring wiring = m_encoderWiring.get(encoder.m_pin);
+					double speed = motor.m_speed;
+
+					if ((wiring != null) && wiring.m_reversed)
+					{
+						speed = -speed;
+					}
+
+					if (encoder.m_inverted)
+					{
+						speed = -speed;
+					}
+
+					encoder.m_speed = speed;
+					encoder.m_position += speed * dt;
+				}
+			}
+
+			if ((m_navLeft >= 0) && (m_navLeft < k_maxEncoders) && (m_navRight >= 0) && (m_navRight < k_maxEncoders))
+			{
+				double left = m_encoders[m_navLeft].m_speed;
+				double right = m_encoders[m_navRight].m_speed;
+				double speed = (left + right) / 2;
+
+				m_yaw += ((right - left) / m_trackWidth) * dt;
+				m_x += speed * Math.cos(m_yaw) * dt;
+				m_y += speed * Math.sin(m_yaw) * dt;
+			}
+		}
+
+		/*
+		 * Returns the yaw in degrees * 100. Like the navigator firmware, the yaw does not wrap
+		 * when the robot makes a complete turn.
+		 */
+		int getYaw()
+		{
+			double yaw = Math.toDegrees(m_yaw);
+
+			return((int) ((m_navInverted ? -yaw : yaw) * 100));
+		}
+	}
+
+	private static class Wiring
+	{
+		int m_pwmPin;
+		boolean m_reversed;
+
+		Wiring(int pwmPin, boolean reversed)
+		{
+			m_pwmPin = pwmPin;
+			m_reversed = reversed;
+		}
+	}
+
+	private static final Object m_lock = new Object();
+	private static boolean m_enabled = false;
+	private static double m_speed = 0;
+	private static double m_duration = 0;
+	private static HashMap<Integer, Processor> m_processors = new HashMap<Integer, Processor>();
+	private static HashMap<Integer, Wiring> m_encoderWiring = new HashMap<Integer, Wiring>();
+	private static HashMap<Integer, Double> m_maxSpeeds = new HashMap<Integer, Double>();
+	private static HashMap<Integer, Integer> m_digitalInputs = new HashMap<Integer, Integer>();
+	private static double m_trackWidth = 1000;
+
+	/*
+	 * Virtual driver station
+	 */
+	private static RobotMode m_mode = RobotMode.OperatorControl;
+	private static boolean m_dsEnabled = true;
+	private static boolean m_dsChanged = true;
+	private static String m_joystick = "jg 0 0 0 0 0 0 0";
+	private static long m_nextPacket = 0;
+
+	/**
+	 * Configures the simulation from the command line arguments.
+	 *
+	 *     sim [speed] [seconds] [mode]
+	 *
+	 * The speed is a multiple of real time (0 or omitted runs as fast as possible), seconds
+	 * is the length of the run (0 or omitted runs forever), and mode is one of
+	 * teleop (default), auto, test or disabled.
+	 *
+	 * @param args - Specifies the command line arguments
+	 */
+	public static void configure(String[] args)
+	{
+		if ((args.length >= 1) && args[0].equals("sim"))
+		{
+			enable((args.length >= 2) ? Double.parseDouble(args[1]) : 0, (args.length >= 3) ? Double.parseDouble(args[2]) : 0);
+
+			if (args.length >= 4)
+			{
+				switch (args[3])
+				{
+				case "auto":
+					setDriverStation(RobotMode.Autonomous, true);
+					break;
+
+				case "test":
+					setDriverStation(RobotMode.Test, true);
+					break;
+
+				case "disabled":
+					setDriverStation(RobotMode.OperatorControl, false);
+					break;
+
+				default:
+					setDriverStation(RobotMode.OperatorControl, true);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Enables the simulation. This must be called before the robot is started.
+	 *
+	 * @param speed - Specifies the speed as a multiple of real time. If zero, the simulation runs as
+	 * 				  fast as possible.
+	 * @param duration - Specifies the length of the run in seconds. If zero, it runs forever.
+	 */
+	public static void enable(double speed, double duration)
+	{
+		Logger.log("Simulation", 2, String.format("Simulation enabled: speed=%.1f, duration=%.1f", speed, duration));
+
+		m_speed = speed;
+		m_duration = duration;
+		m_enabled = true;
+
+		Timer.setVirtualTime(0);
+	}
+
+	/**
+	 * @return - Returns true if the robot is running in simulation
+	 */
+	public static boolean isEnabled()
+	{
+		return(m_enabled);
+	}
+
+	/**
+	 * Specifies that an encoder is driven by a motor
+	 *
+	 * @param pwmPin - Specifies the PWM pin of the motor
+	 * @param encoderPin - Specifies the first pin of the encoder
+	 * @param reversed - If true the encoder counts backwards when the motor runs forward
+	 */
+	public static void connectEncoder(int pwmPin, int encoderPin, boolean reversed)
+	{
+		synchronized (m_lock)
+		{
+			m_encoderWiring.put(encoderPin, new Wiring(pwmPin, reversed));
+		}
+	}
+
+	/**
+	 * Sets the speed of a motor at full power
+	 *
+	 * @param pwmPin - Specifies the PWM pin of the motor
+	 * @param maxSpeed - Specifies the speed in encoder ticks per second
+	 */
+	public static void setMaxSpeed(int pwmPin, double maxSpeed)
+	{
+		synchronized (m_lock)
+		{
+			m_maxSpeeds.put(pwmPin, maxSpeed);
+		}
+	}
+
+	/**
+	 * Sets the distance between the left and right wheels used by the simulated navigator
+	 *
+	 * @param trackWidth - Specifies the track width in encoder ticks
+	 */
+	public static void setTrackWidth(double trackWidth)
+	{
+		synchronized (m_lock)
+		{
+			m_trackWidth = trackWidth;
+		}
+	}
+
+	/**
+	 * Sets the value returned by a digital input
+	 *
+	 * @param pin - Specifies the pin
+	 * @param value - Specifies the value
+	 */
+	public static void setDigitalInput(int pin, boolean value)
+	{
+		synchronized (m_lock)
+		{
+			m_digitalInputs.put(pin, value ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Sets the state which the virtual driver station sends to the robot
+	 *
+	 * @param mode - Specifies the robot mode
+	 * @param enabled - Specifies whether the robot is enabled
+	 */
+	public static void setDriverStation(RobotMode mode, boolean enabled)
+	{
+		synchronized (m_lock)
+		{
+			m_mode = mode;
+			m_dsEnabled = enabled;
+			m_dsChanged = true;
+		}
+	}
+
+	/**
+	 * Sets the joystick data which the virtual driver station sends to the robot
+	 *
+	 * @param x - Specifies the x position (-1.0 to 1.0)
+	 * @param y - Specifies the y position (-1.0 to 1.0)
+	 * @param buttons - Specifies the button state, bit 0 is button 1
+	 */
+	public static void setJoystick(double x, double y, int buttons)
+	{
+		synchronized (m_lock)
+		{
+			m_joystick = String.format("jg %d %d 0 0 0 0 %d", (int) (x * 1000), (int) (y * 1000), buttons);
+		}
+	}
+
+	//! @cond PRIVATE
+	static double getSpeed()
+	{
+		return(m_speed);
+	}
+
+	/*
+	 * Returns true when the requested run time has elapsed
+	 */
+	static boolean isComplete(long time)
+	{
+		return((m_duration > 0) && (time >= m_duration * 1000));
+	}
+
+	private static double getMaxSpeed(int pwmPin)
+	{
+		Double speed = m_maxSpeeds.get(pwmPin);
+
+		return((speed != null) ? speed : k_defaultMaxSpeed);
+	}
+
+	private static Processor getProcessor(int addr)
+	{
+		Processor processor = m_processors.get(addr);
+
+		if (processor == null)
+		{
+			processor = new Processor();
+			m_processors.put(addr, processor);
+		}
+
+		return(processor);
+	}
+
+	/*
+	 * Removes the model of the processor at the specified address (see Warmup)
+	 */
+	static void removeProcessor(int addr)
+	{
+		synchronized (m_lock)
+		{
+			m_processors.remove(addr);
+		}
+	}
+
+	/*
+	 * Advances the simulation and sends the virtual driver station packets
+	 */
+	static void step(long time, int period)
+	{
+		String[] commands = null;
+
+		synchronized (m_lock)
+		{
+			for (Processor processor : m_processors.values())
+			{
+				processor.step(period / 1000.0);
+			}
+
+			if (m_dsChanged)
+			{
+				String mode = (m_mode == RobotMode.Autonomous) ? "A" : (m_mode == RobotMode.Test) ? "T" : "O";
+
+				commands = new String[] { mode, m_dsEnabled ? "E" : "D", m_joystick };
+				m_dsChanged = false;
+				m_nextPacket = time + k_driverStationPeriod;
+			}
+			else if (time >= m_nextPacket)
+			{
+				commands = new String[] { m_joystick };
+				m_nextPacket = time + k_driverStationPeriod;
+			}
+		}
+
+		if ((commands != null) && (RobotBase.getInstance() != null))
+		{
+			for (String command : commands)
+			{
+				RobotBase.getInstance().processDriverStationCommand(command);
+			}
+		}
+	}
+
+	/*
+	 * Handles a command which was sent to the microcontroller
+	 *
+	 * Packet format [size] [packet #] [command] [data...] [cksum]
+	 */
+	static void processCommand(int addr, byte[] packet)
+	{
+		ByteBuffer data = ByteBuffer.wrap(packet, 3, packet.length - 3);
+
+		data.order(ByteOrder.LITTLE_ENDIAN);
+
+		synchronized (m_lock)
+		{
+			Processor processor = getProcessor(addr);
+
+			switch (packet[2] & 0xff)
+			{
+			case TwoWire.k_enable:
+				processor.m_enabled = true;
+				break;
+
+			case TwoWire.k_disable:
+				processor.m_enabled = false;
+				break;
+
+			case TwoWire.k_configureMotor:
+				processor.getMotor(packet[3]).m_pwmPin = packet[5];
+				break;
+
+			case TwoWire.k_setMotor:
+				processor.getMotor(packet[3]).m_value = data.getShort(4);
+				break;
+
+			case TwoWire.k_setMotorMode:
+				processor.getMotor(packet[3]).m_speedMode = (packet[4] == SmartMotor.SmartMotorMode.Speed.ordinal()) ||
+															(packet[4] == SmartMotor.SmartMotorMode.MotionProfile.ordinal());
+				break;
+
+			case TwoWire.k_clearMotionProfile:
+				processor.getMotor(packet[3]).clearProfile();
+				break;
+
+			case TwoWire.k_addMotionPoints:
+			{
+				MotorModel motor = processor.getMotor(packet[3]);
+				int count = packet[4] & ~TwoWire.k_lastMotionPoints;
+
+				for (int i = 0 ; (i < count) && (motor.m_profileCount < k_profileCapacity) ; i++)
+				{
+					motor.m_profile[(motor.m_profileHead + motor.m_profileCount++) % k_profileCapacity] = data.getShort(5 + (i * 6) + 4);
+				}
+				motor.m_profileLast = ((packet[4] & TwoWire.k_lastMotionPoints) != 0);
+				break;
+			}
+
+			case TwoWire.k_startMotionProfile:
+			{
+				MotorModel motor = processor.getMotor(packet[3]);
+
+				motor.m_profilePeriod = Math.max(data.getShort(4), 1) / 1000.0;
+				motor.m_profileTime = motor.m_profilePeriod;	// The first point starts immediately
+				motor.m_profileFlags = SmartMotor.k_profileRunning;
+				break;
+			}
+
+			case TwoWire.k_setMotorInverted:
+				processor.getMotor(packet[3]).m_inverted = (packet[4] != 0);
+				break;
+
+			case TwoWire.k_setFeedbackDevice:
+				processor.getMotor(packet[3]).m_feedbackEncoder = packet[4];
+				break;
+
+			case TwoWire.k_configureEncoder:
+				processor.getEncoder(packet[3]).m_pin = packet[5];
+				break;
+
+			case TwoWire.k_setEncoderInverted:
+				processor.getEncoder(packet[3]).m_inverted = (packet[4] != 0);
+				break;
+
+			case TwoWire.k_initNavigator:
+				processor.m_navLeft = packet[3];
+				processor.m_navRight = packet[4];
+				break;
+
+			case TwoWire.k_resetNavigator:
+				processor.m_yaw = Math.toRadians(data.getInt(3) / 100.0);
+				processor.m_x = data.getInt(7);
+				processor.m_y = data.getInt(11);
+				if (processor.m_navInverted)
+				{
+					processor.m_yaw = -processor.m_yaw;
+				}
+				break;
+
+			case TwoWire.k_invertNavigator:
+				processor.m_navInverted = (packet[3] != 0);
+				break;
+
+			default:
+				break;
+			}
+		}
+	}
+
+	/*
+	 * Handles a request which was sent to the microcontroller and returns the response.
+	 *
+	 * Response format [ack] [size] [packet #] [data...] [cksum]
+	 */
+	static byte[] processRequest(int addr, byte[] packet, int responseSize)
+	{
+		byte[] response = new byte[responseSize + 4];
+		ByteBuffer data = ByteBuffer.wrap(response, 3, responseSize);
+
+		data.order(ByteOrder.LITTLE_ENDIAN);
+
+		synchronized (m_lock)
+		{
+			Processor processor = getProcessor(addr);
+
+			switch (packet[2] & 0xff)
+			{
+			case TwoWire.k_cmdProcessorType:
+				data.put((byte) Device.k_processorSTM32);
+				break;
+
+			case TwoWire.k_getValidPins:
+				data.putLong(-1L);
+				break;
+
+			case TwoWire.k_getValidPWMPins:
+			case TwoWire.k_getValidAnalogPins:
+				data.putInt(-1);
+				break;
+
+			case TwoWire.k_getMaxMotors:
+				data.put((byte) k_maxMotors);
+				break;
+
+			case TwoWire.k_getEncoderPos:
+				data.putInt((int) processor.getEncoder(packet[3]).m_position);
+				break;
+
+			case TwoWire.k_getEncoderSpeed:
+				data.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, processor.getEncoder(packet[3]).m_speed)));
+				break;
+
+			case TwoWire.k_digitalRead:
+				data.put((byte) m_digitalInputs.getOrDefault((int) packet[3], 0).intValue());
+				break;
+
+			case TwoWire.k_getNavigatorState:
+				data.put((byte) 1);
+				break;
+
+			case TwoWire.k_getMotionProfileState:
+			{
+				MotorModel motor = processor.getMotor(packet[3]);
+
+				data.putShort((short) motor.m_profileExecuted);
+				data.putShort((short) k_profileCapacity);
+				data.put((byte) motor.m_profileFlags);
+				break;
+			}
+
+			case TwoWire.k_getNavigatorYaw:
+				data.putInt(processor.getYaw());
+				break;
+
+			case TwoWire.k_getNavigatorData:
+			{
+				EncoderModel left = processor.getEncoder(processor.m_navLeft);
+				EncoderModel right = processor.getEncoder(processor.m_navRight);
+
+				data.putInt(processor.getYaw());
+				data.putInt((int) processor.m_x);
+				data.putInt((int) processor.m_y);
+				data.putShort((short) left.m_speed);
+				data.putShort((short) right.m_speed);
+				data.putInt((int) left.m_position);
+				data.putInt((int) right.m_position);
+				break;
+			}
+
+			default:
+				break;
+			}
+		}
+
+		return(response);
+	}
+	//! @endcond
+}
@@ -1,6 +1,11 @@
 package robotCore;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import robotCore.CSVWriter.Field;
 
 /**
  * 
@@ -51,9 +56,13 @@ public class SmartMotor extends MotorBase
 		 */
 		Speed,
 		/** 
-		 *  The motor is controlled using a Motion Control list (not currently implemented)
+		 *  The motor follows a list of points which is streamed to the processor (see MotionProfileStreamer)
 		 */
 		MotionProfile,
+		/** 
+		 *  The speed is controlled by a PID loop on the host (see getVelocityController)
+		 */
+		HostSpeed,
 	}
 
 	private class Processor
@@ -61,60 +70,32 @@ public class SmartMotor extends MotorBase
 		private int m_addr;
 		private int m_nextMotor = 0;
 		private SmartMotor[] m_motors = null;
-		private long m_validPins = 0;
-		private int m_validPWMPins = 0;
 		// private int m_usedPins = 0;
-		private int m_maxMotors = 0;
 	
 		Processor(int addr)
 		{
 			m_addr = addr;
 		}
 
-		private long getValidPins()
+		private int getMaxMotors()
 		{
-			if (m_validPins == 0)
-			{
-				m_validPins = m_device.getLong(m_addr, TwoWire.k_getValidPins);
-			}
-
-			// System.out.println(String.format("validPins = %x", m_validPins));
-
-			return(m_validPins);
+			return(ProcessorDescriptor.get(m_addr).getMaxMotors());
 		}
 
-		private int getValidPWMPins()
+		private boolean isValidPin(ProcessorDescriptor descriptor, int pin, boolean pwm)
 		{
-			if (m_validPWMPins == 0)
-			{
-				m_validPWMPins = m_device.getInt(m_addr, TwoWire.k_getValidPWMPins);
-			}
+			long validPins = pwm ? descriptor.getValidPWMPins() : descriptor.getValidPins();
 
-			// System.out.println(String.format("validPWMPins = %x", m_validPWMPins));
-
-			return(m_validPWMPins);
-		}
-
-		private int getMaxMotors()
-		{
-			if (m_maxMotors == 0)
-			{
-				m_maxMotors = m_device.getByte(m_addr, TwoWire.k_getMaxMotors);
-			}
-
-			// System.out.println(String.format("maxMotors = %d", m_maxMotors));
-
-			return(m_maxMotors);
+			return((pin >= 0) && (pin < 64) && (((1 << pin) & validPins) != 0));
 		}
 
 		private void verifyPin(int pin, boolean pwm)
 		{
-			long validPins = pwm ? getValidPWMPins() : getValidPins();
-	
 			/*
-			 * Check if pin is valid for this processor
+			 * Check if pin is valid for this processor. A pin rejected by cached capabilities
+			 * is checked again against the processor.
 			 */
-			if ((pin < 0) || (pin >= 64) || (((1 << pin) & validPins) == 0))
+			if (!isValidPin(ProcessorDescriptor.get(m_addr), pin, pwm) && !isValidPin(ProcessorDescriptor.confirm(m_addr), pin, pwm))
 			{
 				throw new TwoWire.HardwareException(String.format("SmartMotor: Invalid%s pin: %d", pwm ? " PWM" : "", pin));
 			}
@@ -162,6 +143,51 @@ public class SmartMotor extends MotorBase
 	
 	private Encoder m_encoder = null;
 
+	/*
+	 * Host speed control
+	 */
+	private static final int k_hostPollPeriod = 20;	// Time between encoder speed reads in ms
+	private static final Field[] k_telemetryFields = { new Field("Setpoint", 'f'), new Field("Measured", 'f'), new Field("Output", 'f') };
+	private VelocityController m_velocityController = null;
+	private volatile double m_setpoint = 0;
+	private volatile double m_measuredSpeed = 0;
+	private boolean m_hostStarted = false;
+	private long m_lastUpdate = 0;
+	private CSVWriter m_telemetry = null;
+
+	/*
+	 * Output stage. The motor value is compared with the last value sent at the wire
+	 * resolution, and a write which does not change it is skipped unless the last write
+	 * is older than k_refreshPeriod. Values set from the robot loop thread are held until
+	 * the end of the loop so that only the last value set during the loop is sent.
+	 */
+	private static final int k_refreshPeriod = 250;		// ms
+	private static final CopyOnWriteArrayList<SmartMotor> m_outputs = new CopyOnWriteArrayList<SmartMotor>();
+	private static volatile Thread m_loopThread = null;
+	private int m_lastValue = 0;
+	private boolean m_lastValid = false;
+	private long m_lastWrite = 0;
+	private int m_pendingValue = 0;
+	private boolean m_pending = false;
+	private long m_writeCount = 0;
+	private long m_savedCount = 0;
+
+	//! @cond PRIVATE
+	/*
+	 * The state of the processor's motion profile buffer
+	 */
+	static final int k_profileRunning = 0x01;
+	static final int k_profileUnderrun = 0x02;
+	static final int k_profileComplete = 0x04;
+
+	static class MotionProfileState
+	{
+		int m_executed;		// Number of points executed (16 bits, wraps)
+		int m_capacity;		// Size of the processor's buffer in points
+		int m_flags;
+	}
+	//! @endcond
+
 	private void init(SmartMotorType type, int pwmPin, int dirPin, int min, int zero, int max, int i2cAddr)
 	{
 		if (RobotBase.TW)
@@ -193,6 +219,11 @@ public class SmartMotor extends MotorBase
 			m_processor.verifyPin(dirPin, false);
 		}
 
+		if (m_processor.m_nextMotor >= maxMotors)
+		{
+			maxMotors = ProcessorDescriptor.confirm(i2cAddr).getMaxMotors();
+		}
+
 		if (((type != SmartMotorType.PWM) && (type != SmartMotorType.Servo)) || (m_processor.m_nextMotor >= maxMotors))
 		{
 			throw new TwoWire.HardwareException("Invalid motor param");
@@ -202,11 +233,18 @@ public class SmartMotor extends MotorBase
 		{
 			m_processor.m_motors = new SmartMotor[maxMotors];
 		}
+		else if (m_processor.m_motors.length < maxMotors)
+		{
+			m_processor.m_motors = Arrays.copyOf(m_processor.m_motors, maxMotors);
+		}
 		
 		m_type = type;
 		m_motorNo = m_processor.m_nextMotor++;
 		m_processor.m_motors[m_motorNo]	= this;
 		m_i2cAddr = i2cAddr;
+		m_outputs.add(this);
+		Metrics.gauge("motor.writes", this::getWriteCount, "addr=" + i2cAddr, "motor=" + m_motorNo);
+		Metrics.gauge("motor.savedWrites", this::getSavedWriteCount, "addr=" + i2cAddr, "motor=" + m_motorNo);
 
 		m_device.setUsedPin(m_i2cAddr, pwmPin);
 
@@ -347,18 +385,26 @@ public class SmartMotor extends MotorBase
 					value = -1.0;
 				}
 
-				m_device.sendCommand(m_i2cAddr, TwoWire.k_setMotor, (byte) m_motorNo, (short) (value * 1000));
+				writeMotor((short) (value * 1000));
 				
 				// m_motorValue = (int) (value * 1000);
 				// m_motorUpdate = true;
 				break;
 				
+			case HostSpeed:
+				if (m_maxSpeed != 0)
+				{
+					value *= m_maxSpeed;
+				}
+				m_setpoint = value;
+				break;
+
 			case Speed:
 				if (m_maxSpeed != 0)
 				{
 					value *= m_maxSpeed;
 				}
-				m_device.sendCommand(m_i2cAddr, TwoWire.k_setMotor, (byte) m_motorNo, (short) value);
+				writeMotor((short) value);
 //				SendCommand(String.format("m%ds %d", m_motorNo, (int) value));
 				// m_motorValue = (int) value;
 				// m_motorUpdate = true;
@@ -399,9 +445,304 @@ public class SmartMotor extends MotorBase
 	{
 		if (mode != m_mode)
 		{
-			m_mode = mode;
+			if (mode == SmartMotorMode.HostSpeed)
+			{
+				startHostSpeed();
+			}
+			else if ((mode == SmartMotorMode.MotionProfile) && ((m_encoder == null) || !RobotBase.TW))
+			{
+				throw new TwoWire.HardwareException("SmartMotor: MotionProfile mode requires a feedback device");
+			}
+
+			synchronized(this)
+			{
+				m_mode = mode;
+				m_pending = false;
+				m_lastValid = false;	// The value has a different meaning in the new mode
+			}
+
+			/*
+			 * In HostSpeed mode, the processor is sent the power computed by the host
+			 */
+			SmartMotorMode deviceMode = (mode == SmartMotorMode.HostSpeed) ? SmartMotorMode.Power : mode;
+
 			// SendCommand(String.format("m%dm %d", m_motorNo, mode.ordinal()));
-			m_device.sendCommand(m_i2cAddr, TwoWire.k_setMotorMode, (byte) m_motorNo, (byte) m_mode.ordinal());
+			m_device.sendCommand(m_i2cAddr, TwoWire.k_setMotorMode, (byte) m_motorNo, (byte) deviceMode.ordinal());
+		}
+	}
+
+	/*
+	 * Sends the value now, or at the end of the loop if called from the robot loop thread
+	 */
+	private synchronized void writeMotor(int value)
+	{
+		if (Thread.currentThread() == m_loopThread)
+		{
+			if (m_pending)
+			{
+				m_savedCount++;
+			}
+
+			m_pendingValue = value;
+			m_pending = true;
+		}
+		else
+		{
+			sendMotor(value);
+		}
+	}
+
+	/*
+	 * Sends the value unless it has been sent recently. Must be called with the lock held.
+	 */
+	private void sendMotor(int value)
+	{
+		long time = Timer.getTimeMs();
+
+		if (m_lastValid && (value == m_lastValue) && (time - m_lastWrite < k_refreshPeriod))
+		{
+			m_savedCount++;
+			return;
+		}
+
+		m_device.sendCommand(m_i2cAddr, TwoWire.k_setMotor, (byte) m_motorNo, (short) value);
+
+		m_lastValue = value;
+		m_lastValid = true;
+		m_lastWrite = time;
+		m_writeCount++;
+	}
+
+	private synchronized void flush(long time, boolean enabled)
+	{
+		if (m_pending)
+		{
+			m_pending = false;
+			sendMotor(m_pendingValue);
+		}
+		else if (m_lastValid && (time - m_lastWrite >= k_refreshPeriod) && (m_mode != SmartMotorMode.HostSpeed))
+		{
+			sendMotor(m_lastValue);
+		}
+
+		if (!enabled)
+		{
+			/*
+			 * The processor stops the motors when disabled, so the last value is never
+			 * refreshed after the robot is enabled again, and the next value is always sent.
+			 */
+			m_lastValid = false;
+		}
+	}
+
+	//! @cond PRIVATE
+	/*
+	 * Sets the robot loop thread. Called when the robot starts, before robotInit, so that the
+	 * values set from robotInit and the first loop are held until the end of the loop.
+	 */
+	static void setLoopThread(Thread thread)
+	{
+		m_loopThread = thread;
+	}
+
+	/*
+	 * Sends the values set during the robot loop and refreshes the values which have not
+	 * been sent recently. This is called by the robot loop thread at the end of each loop.
+	 */
+	static void flushOutputs()
+	{
+		long time = Timer.getTimeMs();
+		boolean enabled = RobotBase.getInstance().isEnabled();
+
+		for (SmartMotor motor : m_outputs)
+		{
+			motor.flush(time, enabled);
+		}
+	}
+	//! @endcond
+
+	/** 
+	 *  
+	 *  @return Returns the number of k_setMotor commands which have been sent to the motor
+	 */
+	public synchronized long getWriteCount()
+	{
+		return(m_writeCount);
+	}
+
+	/** 
+	 *  
+	 *  @return Returns the number of k_setMotor commands which were not sent because the value
+	 *  		had not changed or was replaced later in the same loop
+	 */
+	public synchronized long getSavedWriteCount()
+	{
+		return(m_savedCount);
+	}
+
+	/** 
+	 *  
+	 *  @return Returns the number of k_setMotor commands which were not sent for all motors
+	 */
+	public static long getTotalSavedWriteCount()
+	{
+		long count = 0;
+
+		for (SmartMotor motor : m_outputs)
+		{
+			count += motor.getSavedWriteCount();
+		}
+
+		return(count);
+	}
+
+	//! @cond PRIVATE
+	/*
+	 * Clears the processor's motion profile buffer and stops any running profile
+	 */
+	void clearMotionProfile()
+	{
+		m_device.sendCommand(m_i2cAddr, TwoWire.k_clearMotionProfile, (byte) m_motorNo);
+	}
+
+	/*
+	 * Adds up to TwoWire.k_maxMotionPoints points to the processor's buffer. The positions
+	 *  are in encoder ticks and the velocities in ticks per second.
+	 */
+	void addMotionPoints(int[] positions, short[] velocities, int offset, int length, boolean last)
+	{
+		m_device.sendMotionPoints(m_i2cAddr, (byte) m_motorNo, positions, velocities, offset, length, last);
+	}
+
+	/*
+	 * Starts executing the buffered points, one every period ms
+	 */
+	void startMotionProfile(int period)
+	{
+		m_device.sendCommand(m_i2cAddr, TwoWire.k_startMotionProfile, (byte) m_motorNo, (short) period);
+	}
+
+	void getMotionProfileState(MotionProfileState state)
+	{
+		ByteBuffer data = m_device.getData(m_i2cAddr, TwoWire.k_getMotionProfileState, 5, (byte) m_motorNo);
+
+		state.m_executed = data.getShort() & 0xffff;
+		state.m_capacity = data.getShort() & 0xffff;
+		state.m_flags = data.get();
+	}
+	//! @endcond
+
+	/** 
+	 *  Returns the controller used in the <strong>HostSpeed</strong> mode. Use it to set
+	 *  the gains and limits. The speeds are in encoder ticks per second.
+	 *  
+	 *  @return Returns the velocity controller
+	 */
+	public VelocityController getVelocityController()
+	{
+		if (m_velocityController == null)
+		{
+			m_velocityController = new VelocityController();
+		}
+
+		return(m_velocityController);
+	}
+
+	/** 
+	 *  Starts logging the setpoint, measured speed and output of the <strong>HostSpeed</strong>
+	 *  mode to a CSV file.
+	 *  
+	 *  @param logPath - Specifies the directory for the log file
+	 *  @param name - Specifies the name of the log
+	 */
+	public void startTelemetry(String logPath, String name)
+	{
+		synchronized(this)
+		{
+			endTelemetry();
+
+			m_telemetry = new CSVWriter(logPath, name, k_telemetryFields);
+			m_telemetry.start();
+		}
+	}
+
+	/** 
+	 *  Ends the telemetry log
+	 */
+	public void endTelemetry()
+	{
+		synchronized(this)
+		{
+			if (m_telemetry != null)
+			{
+				m_telemetry.finish();
+				m_telemetry = null;
+			}
+		}
+	}
+
+	private void startHostSpeed()
+	{
+		if (!RobotBase.TW)
+		{
+			throw new TwoWire.HardwareException("SmartMotor: HostSpeed mode is not supported");
+		}
+
+		if (m_encoder == null)
+		{
+			throw new TwoWire.HardwareException("SmartMotor: HostSpeed mode requires a feedback device");
+		}
+
+		getVelocityController().reset();
+		m_setpoint = 0;
+		m_lastUpdate = Timer.getTimeMs();
+
+		if (!m_hostStarted)
+		{
+			m_hostStarted = true;
+
+			m_encoder.addSpeedPoll(k_hostPollPeriod, new TwoWire.PollReceiver()
+			{
+				@Override
+				public void received(long time, ByteBuffer data)
+				{
+					m_measuredSpeed = data.getShort();
+				}
+			});
+
+			RobotBase.getInstance().addUpdate(this);
+		}
+	}
+
+	/*
+	 * Runs the host speed loop from the robot update thread
+	 */
+	private void updateHostSpeed()
+	{
+		long time = Timer.getTimeMs();
+		double dt = (time - m_lastUpdate) / 1000.0;
+		VelocityController controller = m_velocityController;
+
+		m_lastUpdate = time;
+
+		if ((m_mode != SmartMotorMode.HostSpeed) || RobotBase.getInstance().isDisabled())
+		{
+			controller.reset();
+			return;
+		}
+
+		double setpoint = m_setpoint;
+		double measured = m_measuredSpeed;
+		double output = controller.calculate(setpoint, measured, dt);
+
+		synchronized(this)
+		{
+			sendMotor((short) (output * 1000));
+
+			if (m_telemetry != null)
+			{
+				m_telemetry.write(setpoint, measured, output);
+			}
 		}
 	}
 	
@@ -604,6 +945,12 @@ public class SmartMotor extends MotorBase
 	@Override
 	public void update() 
 	{
+		if (RobotBase.TW)
+		{
+			updateHostSpeed();
+			return;
+		}
+
 		if (m_motorUpdate)
 		{
 			sendCommand(String.format("m%ds %d", m_motorNo, m_motorValue));
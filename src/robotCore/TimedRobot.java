@@ -17,8 +17,21 @@ public class TimedRobot extends IterativeRobotBase
 	@Override
 	public void startCompetition() 
 	{
+		SmartMotor.setLoopThread(Thread.currentThread());
+
 		robotInit();
 
+		if (isVirtual())
+		{
+			if (Simulation.isEnabled())
+			{
+				simulationInit();
+			}
+			
+			runVirtual(this::loopFunc, m_period);
+			return;
+		}
+
 		long nextTime = System.currentTimeMillis() + m_period;
 		
 		while (true)
@@ -24,7 +24,12 @@ package robotCore;
  */
 public class Timer 
 {
-	private long m_zero = System.currentTimeMillis();
+	private static volatile boolean m_virtual = false;
+	private static volatile long m_virtualTime = 0;
+	private static volatile Thread m_clockThread = null;	// The thread which runs the robot loop and advances the virtual clock
+	private static final Object m_clockLock = new Object();
+	
+	private long m_zero = getTimeMs();
 	
 	/**
 	 * @return - Returns the elapsed time in seconds
@@ -32,7 +37,7 @@ public class Timer
 	 */
 	public double get()
 	{
-		return((System.currentTimeMillis() - m_zero) * 0.001);
+		return((getTimeMs() - m_zero) * 0.001);
 	}
 	
 	/**
@@ -41,7 +46,7 @@ public class Timer
 	 */
 	public void reset()
 	{
-		m_zero	= System.currentTimeMillis();
+		m_zero	= getTimeMs();
 	}
 	
 	/**
@@ -63,6 +68,12 @@ public class Timer
 	 */
 	static public void delay(double seconds)
 	{
+		if (m_virtual)
+		{
+			sleepVirtual((long) (seconds * 1000));
+			return;
+		}
+		
 		try 
 		{
 			Thread.sleep((int) (seconds * 1000));
@@ -80,6 +91,79 @@ public class Timer
 	 */
 	static public double getFPGATimestamp()
 	{
-		return(System.currentTimeMillis() * 0.001);
+		return(getTimeMs() * 0.001);
 	}	
+	
+	/**
+	 * Gets the current time in milliseconds. This is the system time unless a virtual
+	 * clock has been set by <strong>setVirtualTime</strong>.
+	 *
+	 * @return - Returns the current time in milliseconds
+	 */
+	static public long getTimeMs()
+	{
+		return(m_virtual ? m_virtualTime : System.currentTimeMillis());
+	}
+	
+	//! @cond PRIVATE 
+	/**
+	 * Switches to a virtual clock which only advances when told to. This is used
+	 * when replaying recorded inputs so that the robot code sees the recorded timing.
+	 * The calling thread becomes the owner of the clock (see sleepVirtual).
+	 *
+	 * @param timeMs - Specifies the current virtual time in milliseconds
+	 */
+	static public void setVirtualTime(long timeMs)
+	{
+		synchronized (m_clockLock)
+		{
+			m_virtualTime = timeMs;
+			m_virtual = true;
+			m_clockThread = Thread.currentThread();
+			m_clockLock.notifyAll();
+		}
+	}
+	
+	/**
+	 * Sleeps on the virtual clock. Only the thread which owns the clock (the robot loop) advances it, so
+	 * a sleep on that thread moves the clock forward. Any other thread waits until the robot loop has
+	 * moved the clock forward by the specified time.
+	 *
+	 * @param ms - Specifies the time to sleep in milliseconds
+	 */
+	static public void sleepVirtual(long ms)
+	{
+		synchronized (m_clockLock)
+		{
+			if (Thread.currentThread() == m_clockThread)
+			{
+				m_virtualTime += ms;
+				m_clockLock.notifyAll();
+				return;
+			}
+			
+			long wakeTime = m_virtualTime + ms;
+			
+			try
+			{
+				while (m_virtualTime < wakeTime)
+				{
+					m_clockLock.wait();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * @return - Returns true if the virtual clock is in use
+	 */
+	static public boolean isVirtual()
+	{
+		return(m_virtual);
+	}
+	//! @endcond
 }
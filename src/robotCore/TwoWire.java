@@ -4,9 +4,13 @@ package robotCore;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 
 import com.pi4j.io.i2c.I2CBus;
@@ -39,6 +43,9 @@ public class TwoWire {
     public static final int k_digitalWrite = 19;
     public static final int k_createCounter = 20;
     public static final int k_setMinMotorPower = 21;
+    public static final int k_clearMotionProfile = 22;
+    public static final int k_addMotionPoints = 23;
+    public static final int k_startMotionProfile = 24;
 
     /*
      * Response commands should be in the range 129-255
@@ -55,6 +62,15 @@ public class TwoWire {
     public static final int k_getNavigatorState = 138;
     public static final int k_getNavigatorYaw = 139;
     public static final int k_getDigitalCount = 140;
+    public static final int k_getMotionProfileState = 141;
+
+    /*
+     * Motion profile points per k_addMotionPoints command. Each point is 6 bytes so that
+     *  a full command is 30 bytes. The count byte has k_lastMotionPoints set on the
+     *  final chunk of a profile.
+     */
+    public static final int k_maxMotionPoints = 4;
+    public static final int k_lastMotionPoints = 0x80;
 
     /*
      * This exception is thrown when the max retries is exceeded when
@@ -69,12 +85,37 @@ public class TwoWire {
         }
     }
 
+    /**
+     * Receives the responses to a periodic request (see addPoll)
+     */
+    public interface PollReceiver
+    {
+        /**
+         * Called from the bus thread with the response to a periodic request
+         * 
+         * @param time - Specifies the time that the response was received in ms
+         * @param data - Specifies the response data. The buffer is only valid during the call.
+         */
+        public void received(long time, ByteBuffer data);
+    }
+
+    private class Poll
+    {
+        private Command m_command;
+        private int m_period;
+        private long m_nextTime;
+        private PollReceiver m_receiver;
+    }
+
     private class Command
     {
         private int m_addr;
         private int m_responseSize;
         private byte[] m_command;
         private byte[] m_response;
+        private long m_queueTime;      // Time the command was queued (System.nanoTime)
+        private boolean m_done;        // Set by the bus thread when the command has been sent
+        private HardwareException m_error;     // Set by the bus thread if the command could not be sent
 
         /*
          * Simple command, no data
@@ -188,12 +229,178 @@ public class TwoWire {
             buffer.putInt(x);
             buffer.putInt(y);
         }
+
+        /*
+         * Motion profile points
+         *  Format [size] [packetNo] [command] [motorNo] [count] [position (32 bits) velocity (16 bits)]... [cksum]
+         */
+        Command(int addr, int command, byte motorNo, byte count, int[] positions, short[] velocities, int offset, int length)
+        {
+            m_addr = addr;
+            m_responseSize = 0;
+            m_command = new byte[4+2+(length*6)];
+            m_command[0] = (byte) m_command.length;
+            m_command[2] = (byte) command;
+            m_command[3] = motorNo;
+            m_command[4] = count;
+
+            ByteBuffer buffer = ByteBuffer.wrap(m_command, 5, m_command.length - 5);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            for (int i = offset ; i < offset + length ; i++)
+            {
+                buffer.putInt(positions[i]);
+                buffer.putShort(velocities[i]);
+            }
+        }
+    }
+
+    /*
+     * Answers the packets written to it with the responses from the Simulation, in the same
+     *  format as the processor, so that they are still encoded, checked and traced by the
+     *  bus thread (see addSimulatedDevice)
+     */
+    private static class SimulatedI2CDevice implements I2CDevice
+    {
+        private final int m_addr;
+        private byte[] m_packet = null;
+
+        SimulatedI2CDevice(int addr)
+        {
+            m_addr = addr;
+        }
+
+        @Override
+        public int getAddress()
+        {
+            return(m_addr);
+        }
+
+        @Override
+        public void write(byte[] buffer) throws IOException
+        {
+            m_packet = buffer;
+        }
+
+        /*
+         * A command has a response of 4 bytes, [ack] [size=3] [packet #] [unused], and a request
+         *  has its data followed by a cksum
+         */
+        @Override
+        public int read(byte[] buffer, int offset, int size) throws IOException
+        {
+            if (m_packet == null)
+            {
+                throw new IOException("No packet written");
+            }
+
+            byte[] response;
+
+            if (size > 4)
+            {
+                response = Simulation.processRequest(m_addr, m_packet, size - 4);
+                response[1] = (byte) size;
+            }
+            else
+            {
+                Simulation.processCommand(m_addr, m_packet);
+                response = new byte[size];
+                response[1] = 3;
+            }
+
+            response[0] = (byte) Device.k_ack;
+            response[2] = m_packet[1];
+
+            if (size > 4)
+            {
+                byte cksum = 0;
+
+                for (int i = 0 ; i < size - 1 ; i++)
+                {
+                    cksum += response[i];
+                }
+
+                response[size - 1] = cksum;
+            }
+
+            m_packet = null;
+            System.arraycopy(response, 0, buffer, offset, size);
+
+            return(size);
+        }
+
+        @Override
+        public void write(byte b) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int size) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(int address, byte b) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(int address, byte[] buffer, int offset, int size) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(int address, byte[] buffer) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(int address) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(int address, byte[] buffer, int offset, int size) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void ioctl(long command, int value) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void ioctl(long command, ByteBuffer data, IntBuffer offsets) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] writeBuffer, int writeOffset, int writeSize, byte[] readBuffer, int readOffset, int readSize) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
     }
 
     private class Device
     {
         private int m_addr;
         private I2CDevice m_device;
+        private final boolean m_simulated;     // The packets are answered by the Simulation (see addSimulatedDevice)
         private int m_packetNo = 0;
         private long m_usedPins = 0;
 
@@ -210,11 +417,25 @@ public class TwoWire {
         private static final int k_nak2 = 0xcd;
         
         public Device(int addr)
+        {
+            this(addr, false);
+        }
+
+        Device(int addr, boolean simulated)
         {
             m_addr = addr;
+            m_simulated = simulated;
+            // The counts and times of each command, and the retries, are in the BusTrace metrics
+            m_responseErrors = Metrics.counter("twowire.responseErrors", "addr=" + addr);
+
+            if (simulated)
+            {
+                m_device = new SimulatedI2CDevice(addr);
+                return;
+            }
 
             try {
-                m_device = m_i2cBus.getDevice(addr);
+                m_device = (m_i2cBus != null) ? m_i2cBus.getDevice(addr) : null;
             } catch (IOException e) {
                 e.printStackTrace();
                 m_device = null;
@@ -253,6 +474,8 @@ public class TwoWire {
 
             for (int retry = 0 ; retry < k_maxReadRetry ; retry++)
             {
+                long readStart = System.nanoTime();
+
                 response[0] = (byte) 0xff;      // in case the read fails
 
                 m_device.read(response, 0, responseSize);   //response.length);
@@ -290,31 +513,37 @@ public class TwoWire {
                         }
                         else
                         {
-                            System.out.println("Invalid response cksum");
+                            m_traceReason = BusTrace.RetryReason.BadChecksum;
+                            Logger.log("TwoWire", 0, "Invalid response cksum");
                         }
                     }
                     else
                     {
-                        System.out.println(String.format("Invalid packet: size=%d, packetNo: %d:%d", response[1], (byte) m_packetNo, ack));
+                        m_traceReason = BusTrace.RetryReason.BadPacketNo;
+                        Logger.log("TwoWire", 0, String.format("Invalid packet: size=%d, packetNo: %d:%d", response[1], (byte) m_packetNo, ack));
                         // return(null);
                     }
 
-                    System.out.println(String.format("c=%d, e=%d", m_packetCount, m_responseErrors));
+                    m_responseErrors.increment();
                 }
                 else if (ack == k_ack2)
                 {
                     // System.out.println(String.format("%d: Retry read", retry));
                     sleep(k_readDelay);
+                    m_traceAckPolls++;
+                    m_traceAckTime += System.nanoTime() - readStart;
                 }
                 else if (ack == k_nak2)
                 {
-                    System.out.println(String.format("%d: Queue Overflow", m_packetNo));
+                    m_traceReason = BusTrace.RetryReason.QueueOverflow;
+                    Logger.log("TwoWire", 0, String.format("%d: Queue Overflow", m_packetNo));
                     sleep(k_errDelay);
                     return(null);
                 }
                 else
                 {
-                    System.out.println(String.format("ack = %x", ack));
+                    m_traceReason = BusTrace.RetryReason.BadAck;
+                    Logger.log("TwoWire", 0, String.format("ack = %x", ack));
                     sleep(k_errDelay);
                     return(null);
                 }
@@ -322,8 +551,8 @@ public class TwoWire {
 
             // sleep(1000);
 
-            System.out.println(String.format("TwoWire: lastCommand=%d", m_lastCommand));
-            throw new HardwareException("Max read retries exceeded");
+            m_traceReason = BusTrace.RetryReason.ReadTimeout;
+            throw new HardwareException(String.format("Max read retries exceeded: cmd=%d", m_lastCommand));
 
             // return(false);
         }
@@ -331,14 +560,27 @@ public class TwoWire {
         int m_lastCommand = 0;
         int m_packetCount = 0;
         int m_packetErrors = 0;
-        int m_responseErrors = 0;
+        Metrics.Counter m_responseErrors;
+
+        /*
+         * The trace of the current transaction (see BusTrace)
+         */
+        private int m_traceAckPolls;
+        private long m_traceAckTime;
+        private BusTrace.RetryReason m_traceReason;
 
         /*
          * Packet format [size] [packet #] [command] [data...] [cksum]
          */
-        private byte[] sendPacket(byte[] data, int responseSize)
+        private byte[] sendPacket(byte[] data, int responseSize, long queueTime)
         {
             int count;
+            long startTime = System.nanoTime();
+            long writeTime = 0;
+            BusTrace.RetryReason lastReason = BusTrace.RetryReason.None;
+
+            m_traceAckPolls = 0;
+            m_traceAckTime = 0;
 
             m_packetCount++;
 
@@ -352,23 +594,40 @@ public class TwoWire {
 
             for (count = 0 ; count < k_maxTries ; count++)
 			{
+                m_traceReason = BusTrace.RetryReason.WriteFailed;
+
 				try {
 					// System.out.println(String.format("%d: Write data: %d", count, m_packetNo));
                     byte[] response;
+                    long writeStart = System.nanoTime();
 
 					m_device.write(data);
 
+                    writeTime += System.nanoTime() - writeStart;
+                    m_traceReason = BusTrace.RetryReason.ReadFailed;
+
                     // sleep(1);
 
                     if ((response = readResponse(responseSize + 4)) != null) 
                     {
+                        long totalTime = (System.nanoTime() - startTime) / 1000;
+
+                        BusTrace.record(m_addr, m_lastCommand, queueTime, writeTime / 1000, m_traceAckPolls, m_traceAckTime / 1000,
+                                        totalTime, count, lastReason, false);
                         return(response);
                     }					
 				} catch (IOException e) {
                     // robotCore.Device.GetInstance().trigger();
 					// System.out.println("IOException");
-				}
+				} catch (HardwareException e) {
+                    // The transaction has failed, so this is not counted as a retry
+                    BusTrace.record(m_addr, m_lastCommand, queueTime, writeTime / 1000, m_traceAckPolls, m_traceAckTime / 1000,
+                                    (System.nanoTime() - startTime) / 1000, count, m_traceReason, true);
+                    throw e;
+                }
 
+                lastReason = m_traceReason;
+                BusTrace.retry(m_addr, m_lastCommand, lastReason);
                 m_packetErrors++;
 
                 if ((m_packetErrors % 10) == 0)
@@ -379,6 +638,8 @@ public class TwoWire {
 				sleep(k_writeDelay);
 			}
             
+            BusTrace.record(m_addr, m_lastCommand, queueTime, writeTime / 1000, m_traceAckPolls, m_traceAckTime / 1000,
+                            (System.nanoTime() - startTime) / 1000, count, lastReason, true);
             throw new HardwareException("Max write retries exceeded");        // Something is seriously wrong
         }
 
@@ -395,10 +656,21 @@ public class TwoWire {
     
     private I2CBus m_i2cBus;
     private ArrayList<Device> m_devices = new ArrayList<Device>();
-    private ArrayBlockingQueue<Command> m_commands = new ArrayBlockingQueue<Command>(10);
+    private static final int k_commandQueueSize = 32;  // Room for the configure commands sent while the robot is constructed
+    private ArrayBlockingQueue<Command> m_commands = new ArrayBlockingQueue<Command>(k_commandQueueSize);
+    private CopyOnWriteArrayList<Poll> m_polls = new CopyOnWriteArrayList<Poll>();
+    private final boolean m_simulated;      // If true, everything is sent to the Simulation (see createSimulated)
+    private ConcurrentHashMap<Integer, Device> m_simulatedDevices = new ConcurrentHashMap<Integer, Device>();
 
     public TwoWire()
     {
+        m_simulated = false;
+
+        if (RobotBase.isVirtual())
+        {
+            return;     // Responses come from the recording or simulation, there is no bus
+        }
+
         try {
             m_i2cBus = I2CFactory.getInstance(I2CBus.BUS_1);
         } catch (UnsupportedBusNumberException | IOException e) {
@@ -415,19 +687,47 @@ public class TwoWire {
                     while (true)
                     {
                         try {
-                            Command command = m_commands.take();
+                            Command command = m_polls.isEmpty() ? m_commands.take() : m_commands.poll(getPollWait(), TimeUnit.MILLISECONDS);
+
+                            if (command == null)
+                            {
+                                runPolls();
+                                continue;
+                            }
                             // System.out.println(String.format("sendPacket: addr=%d, cmd=%d, count=%d", command.m_addr, command.m_command[2], m_commands.size()));
                             // if (command.m_command[2] == 13)
                             // {
                             //     throw new HardwareException(String.format("length=%d", command.m_command[0]));
                             // }
                             Device device = getDevice(command.m_addr);
-                            command.m_response = device.sendPacket(command.m_command, command.m_responseSize);
+
+                            /*
+                             * A failed command is passed back to the caller so that this thread keeps running.
+                             *  Requests rethrow the exception, commands are dropped.
+                             */
+                            try {
+                                command.m_response = device.sendPacket(command.m_command, command.m_responseSize, (System.nanoTime() - command.m_queueTime) / 1000);
+
+                                if ((command.m_responseSize > 0) && !device.m_simulated)
+                                {
+                                    InputRecorder.recordTwoWire(command.m_addr, command.m_command, command.m_response);
+                                }
+                            } catch (HardwareException e) {
+                                command.m_error = e;
+
+                                if (command.m_responseSize == 0)
+                                {
+                                    Logger.log("TwoWire", 3, String.format("Command %d to %d failed: %s", ((int) command.m_command[2]) & 0xff, command.m_addr, e.getMessage()));
+                                }
+                            }
 
                             synchronized(command)
                             {
+                                command.m_done = true;
                                 command.notify();
                             }
+
+                            runPolls();
                         } catch (InterruptedException e) {
                             e.printStackTrace();
                         }
@@ -437,10 +737,148 @@ public class TwoWire {
             ).start();
     }
 
+    private TwoWire(boolean simulated)
+    {
+        m_simulated = simulated;
+    }
+
+    /*
+     * Creates a TwoWire which sends all of its commands and requests to the Simulation, even
+     *  when the robot is not virtual. There is no bus thread, so the packets are not encoded or
+     *  traced. Used by Warmup when the robot is virtual.
+     */
+    static TwoWire createSimulated()
+    {
+        return(new TwoWire(true));
+    }
+
+    /*
+     * Adds a device whose packets are answered by the Simulation instead of being sent on the
+     *  bus. The commands and requests to it are queued, encoded, checked and traced by the bus
+     *  thread like those to a real device, but their responses are not recorded. Used by Warmup
+     *  when the robot is not virtual.
+     */
+    void addSimulatedDevice(int addr)
+    {
+        m_simulatedDevices.put(addr, new Device(addr, true));
+    }
+
+    void removeSimulatedDevice(int addr)
+    {
+        m_simulatedDevices.remove(addr);
+    }
+
+    /**
+     * Sends a request periodically from the bus thread and passes each response to the receiver,
+     * so that the caller does not need to wait for the bus. Polls are run between the queued
+     * commands. When the robot is virtual, they are run once per robot loop instead.
+     * 
+     * @param addr - Specifies the I2C address
+     * @param commandId - Specifies the request (no arguments)
+     * @param size - Specifies the size of the response
+     * @param period - Specifies the time between requests in ms
+     * @param receiver - Specifies the receiver for the responses
+     */
+    public void addPoll(int addr, int commandId, int size, int period, PollReceiver receiver)
+    {
+        addPoll(new Command(addr, commandId, size), period, receiver);
+    }
+
+    /*
+     * One byte argument
+     */
+    public void addPoll(int addr, int commandId, int size, int period, PollReceiver receiver, byte byte1)
+    {
+        addPoll(new Command(addr, commandId, size, byte1), period, receiver);
+    }
+
+    private void addPoll(Command command, int period, PollReceiver receiver)
+    {
+        Poll poll = new Poll();
+
+        poll.m_command = command;
+        poll.m_period = period;
+        poll.m_nextTime = Timer.getTimeMs();
+        poll.m_receiver = receiver;
+
+        m_polls.add(poll);
+    }
+
+    /*
+     * Returns the time until the next poll is due in ms
+     */
+    private long getPollWait()
+    {
+        long time = Timer.getTimeMs();
+        long wait = Long.MAX_VALUE;
+
+        for (Poll poll : m_polls)
+        {
+            wait = Math.min(wait, poll.m_nextTime - time);
+        }
+
+        return(Math.max(0, wait));
+    }
+
+    /*
+     * Sends the polls which are due. This must be called from the bus thread, or from the robot
+     * loop when the robot is virtual.
+     */
+    void runPolls()
+    {
+        for (Poll poll : m_polls)
+        {
+            long time = Timer.getTimeMs();
+
+            if (time < poll.m_nextTime)
+            {
+                continue;
+            }
+
+            Command command = poll.m_command;
+            ByteBuffer buffer;
+
+            if (RobotBase.isVirtual())
+            {
+                buffer = sendRequest(command);
+            }
+            else
+            {
+                try {
+                    command.m_response = getDevice(command.m_addr).sendPacket(command.m_command, command.m_responseSize, (time - poll.m_nextTime) * 1000);
+                } catch (HardwareException e) {
+                    Logger.log("TwoWire", 3, String.format("Poll %d to %d failed: %s", ((int) command.m_command[2]) & 0xff, command.m_addr, e.getMessage()));
+
+                    poll.m_nextTime = time + poll.m_period;
+                    continue;
+                }
+
+                InputRecorder.recordTwoWire(command.m_addr, command.m_command, command.m_response);
+
+                buffer = ByteBuffer.wrap(command.m_response, 3, command.m_response.length - 3);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            poll.m_nextTime += poll.m_period;
+
+            if (poll.m_nextTime < time)
+            {
+                poll.m_nextTime = time + poll.m_period;     // Fell behind, don't try to catch up
+            }
+
+            poll.m_receiver.received(Timer.getTimeMs(), buffer);
+        }
+    }
+
     private Device getDevice(int addr)
     {
         Device device;
 
+        if (!m_simulatedDevices.isEmpty() && ((device = m_simulatedDevices.get(addr)) != null))
+        {
+            return(device);
+        }
+
         for (int i = 0 ; i < m_devices.size() ; i++)
         {
             device = m_devices.get(i);
@@ -469,12 +907,23 @@ public class TwoWire {
      */
     private void sendCommand(Command command)
     {
+        if (InputRecorder.isReplaying() && !m_simulated)
+        {
+            return;
+        }
+        else if (Simulation.isEnabled() || m_simulated)
+        {
+            Simulation.processCommand(command.m_addr, command.m_command);
+            return;
+        }
+
         try {
             // if (command.m_command[2] == 13)
             // {
             //     throw new HardwareException("test");
             // }
             // System.out.println(String.format("sendCommand:%d", command.m_command[2]));
+            command.m_queueTime = System.nanoTime();
             m_commands.put(command);
             // System.out.println("put complete");
         } catch (InterruptedException e) {
@@ -493,13 +942,39 @@ public class TwoWire {
                 throw new HardwareException("13");
             }
             // System.out.println(String.format("sendRequest:%d", command.m_command[2]));
+            if (RobotBase.isVirtual() || m_simulated)
+            {
+                if (InputRecorder.isReplaying() && !m_simulated)
+                {
+                    command.m_response = InputRecorder.replayTwoWire(command.m_addr, command.m_command, command.m_responseSize + 3);
+                }
+                else
+                {
+                    command.m_response = Simulation.processRequest(command.m_addr, command.m_command, command.m_responseSize);
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(command.m_response, 3, command.m_response.length - 3);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+                return(buffer);
+            }
+
+            command.m_queueTime = System.nanoTime();
             m_commands.put(command);
 
             synchronized(command)
             {
                 ByteBuffer buffer;
 
-                command.wait();
+                while (!command.m_done)
+                {
+                    command.wait();
+                }
+
+                if (command.m_error != null)
+                {
+                    throw new HardwareException(command.m_error.getMessage());
+                }
                 
                 buffer = ByteBuffer.wrap(command.m_response, 3, command.m_response.length - 3);
                 buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -592,6 +1067,22 @@ public class TwoWire {
         sendCommand(command);
     }
 
+    /*
+     * Sends up to k_maxMotionPoints motion profile points
+     */
+    public void sendMotionPoints(int addr, byte motorNo, int[] positions, short[] velocities, int offset, int length, boolean last)
+    {
+        if ((length < 1) || (length > k_maxMotionPoints))
+        {
+            throw new HardwareException("Invalid motion point count");
+        }
+
+        byte count = (byte) (length | (last ? k_lastMotionPoints : 0));
+        Command command = new Command(addr, k_addMotionPoints, motorNo, count, positions, velocities, offset, length);
+
+        sendCommand(command);
+    }
+
     /*
      * Simple request, no arguments
      *  Note: the Arduino will only wait for a response if the commandId is greater than 127
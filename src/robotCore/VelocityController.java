@@ -0,0 +1,175 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+/**
+ *
+ * @brief The VelocityController class implements a PID velocity loop with feedforward.
+ *
+ * The output power is computed as:
+ *
+ *     output = S * sign(setpoint) + F * setpoint + P * error + I * sum(error * dt) + D * d(error)/dt
+ *
+ * Where S is the static feedforward (the power needed to overcome friction) and F is the velocity
+ * feedforward (power per unit of speed, the same as the <strong>SmartMotor</strong> F term).
+ *
+ * The output is limited to -1 to +1 and, optionally, the rate at which it can change. The integral
+ * is not accumulated while the output is limited in the direction of the error, or when the error is
+ * outside the I zone, which prevents it from winding up.
+ *
+ * The speeds are in encoder ticks per second.
+ *
+ */
+public class VelocityController
+{
+	private double	m_p			= 0;
+	private double	m_i			= 0;
+	private double	m_d			= 0;
+	private double	m_f			= 0;
+	private double	m_s			= 0;
+	private double	m_iZone		= 0;
+	private double	m_slewRate	= 0;	// Max change in output per second, 0 = unlimited
+
+	private double	m_integral	= 0;
+	private double	m_lastError	= 0;
+	private double	m_output	= 0;
+	private boolean	m_first		= true;
+
+	/**
+	 * @param p - Specifies the proportional term
+	 */
+	public void setP(double p)
+	{
+		m_p	= p;
+	}
+
+	/**
+	 * @param i - Specifies the integral term
+	 */
+	public void setI(double i)
+	{
+		m_i	= i;
+	}
+
+	/**
+	 * @param d - Specifies the derivative term
+	 */
+	public void setD(double d)
+	{
+		m_d	= d;
+	}
+
+	/**
+	 * @param f - Specifies the velocity feedforward in power per tick/second
+	 */
+	public void setF(double f)
+	{
+		m_f	= f;
+	}
+
+	/**
+	 * @param s - Specifies the static feedforward in power
+	 */
+	public void setS(double s)
+	{
+		m_s	= s;
+	}
+
+	/**
+	 * @param zone - Specifies the error outside of which the integral is not accumulated. Zero disables the zone.
+	 */
+	public void setIZone(double zone)
+	{
+		m_iZone	= zone;
+	}
+
+	/**
+	 * @param rate - Specifies the maximum change in the output per second. Zero disables the limit.
+	 */
+	public void setSlewRate(double rate)
+	{
+		m_slewRate	= rate;
+	}
+
+	/**
+	 * Clears the integral and the output. This should be called when the motor is stopped or disabled.
+	 */
+	public void reset()
+	{
+		m_integral	= 0;
+		m_output	= 0;
+		m_first		= true;
+	}
+
+	/**
+	 * @return Returns the last output
+	 */
+	public double getOutput()
+	{
+		return(m_output);
+	}
+
+	/**
+	 * Computes the output power
+	 *
+	 * @param setpoint - Specifies the desired speed
+	 * @param measured - Specifies the measured speed
+	 * @param dt - Specifies the time since the last call in seconds
+	 *
+	 * @return Returns the output power in the range -1 to +1
+	 */
+	public double calculate(double setpoint, double measured, double dt)
+	{
+		double	error		= setpoint - measured;
+		double	derivative	= (m_first || (dt <= 0)) ? 0 : (error - m_lastError) / dt;
+		double	feedforward	= Math.signum(setpoint) * m_s + m_f * setpoint;
+
+		m_first		= false;
+		m_lastError	= error;
+
+		boolean	inZone	= (m_iZone == 0) || (Math.abs(error) <= m_iZone);
+
+		if (!inZone)
+		{
+			m_integral	= 0;
+		}
+
+		double	output	= feedforward + m_p * error + m_i * m_integral + m_d * derivative;
+		double	limited	= Math.max(-1, Math.min(1, output));
+
+		if ((m_slewRate > 0) && (dt > 0))
+		{
+			double	maxChange	= m_slewRate * dt;
+
+			limited	= Math.max(m_output - maxChange, Math.min(m_output + maxChange, limited));
+		}
+
+		/*
+		 * Only integrate when the output is not being limited in the direction that the error would push it
+		 */
+		if (inZone && ((limited == output) || (Math.signum(error) != Math.signum(output - limited))))
+		{
+			m_integral	+= error * dt;
+		}
+
+		m_output	= limited;
+
+		return(limited);
+	}
+}
@@ -0,0 +1,492 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import robotCore.PiCamera.PiCameraRegions;
+
+/**
+ *
+ * @brief The VisionClient class manages the connections to several Raspberry Pi cameras.
+ *
+ * Connecting a <strong>PiCamera</strong> directly uses a blocking receive thread and a watchdog
+ * timer thread for each camera. The VisionClient instead handles all of its cameras from a single
+ * thread using non-blocking sockets. The same thread performs the keep-alive check for every
+ * camera once per second and retries failed connections.
+ *
+ * Each camera keeps its own latest frame, which can be read at any time without locking using
+ * <strong>PiCamera.getRegions</strong>. The <strong>getFrames</strong> function returns the
+ * latest frames from all of the cameras which were captured at about the same time.
+ *
+ */
+public class VisionClient implements Runnable
+{
+	private static final int k_retryTime		= 5000;
+	private static final int k_watchdogPeriod	= 1000;
+	private static final int k_selectTimeout	= 100;
+	private static final int k_bufferSize		= 4096;
+
+	//! @cond PRIVATE
+	/*
+	 * The state of a single camera connection. All of the fields except the output queue
+	 * are only used by the selector thread.
+	 */
+	class Connection
+	{
+		private final String		m_host;
+		private final int			m_port;
+		private final PiCamera		m_camera;
+		private SocketChannel		m_channel	= null;
+		private volatile boolean	m_connected	= false;
+		private long				m_retryTime	= 0;
+		private ByteBuffer			m_input		= ByteBuffer.allocate(k_bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+		private ByteBuffer			m_output	= null;
+		private StringBuilder		m_line		= new StringBuilder();
+		private final ConcurrentLinkedQueue<ByteBuffer>	m_queue	= new ConcurrentLinkedQueue<ByteBuffer>();
+
+		Connection(String host, int port, PiCamera camera)
+		{
+			m_host		= host;
+			m_port		= port;
+			m_camera	= camera;
+		}
+
+		/*
+		 * Queues a message to be sent by the selector thread
+		 */
+		void send(String message)
+		{
+			if (m_connected)
+			{
+				m_queue.add(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.US_ASCII)));
+				m_selector.wakeup();
+			}
+		}
+	}
+	//! @endcond
+
+	private final CopyOnWriteArrayList<Connection>	m_connections	= new CopyOnWriteArrayList<Connection>();
+	private Selector	m_selector		= null;
+	private Thread		m_thread		= null;
+	private long		m_watchdogTime	= 0;
+
+	/**
+	 * Adds a camera and starts connecting to it. If the connection fails or is lost, it is
+	 * retried every 5 seconds.
+	 *
+	 * @param host - Specifies IP for the host
+	 * @param port - Specifies the port (default is 5800)
+	 *
+	 * @return Returns the camera
+	 */
+	public PiCamera addCamera(String host, int port)
+	{
+		PiCamera	camera		= new PiCamera();
+		Connection	connection	= new Connection(host, port, camera);
+
+		if (camera.connectVirtual(host, port))
+		{
+			// The camera data, if any, is fed in from the recording
+			m_connections.add(connection);
+			return(camera);
+		}
+
+		camera.setConnection(connection);
+
+		synchronized(this)
+		{
+			if (m_thread == null)
+			{
+				try
+				{
+					m_selector = Selector.open();
+				}
+				catch (IOException e)
+				{
+					throw new RuntimeException("VisionClient: cannot open selector", e);
+				}
+
+				m_thread = new Thread(this, "VisionClient");
+				m_thread.setDaemon(true);
+				m_thread.start();
+			}
+		}
+
+		m_connections.add(connection);
+		m_selector.wakeup();
+
+		return(camera);
+	}
+
+	/**
+	 * Returns the latest frames from all of the cameras which were captured within the specified
+	 * time of the most recent frame. The frames of cameras which have no frame, or whose frame is
+	 * older than that, are set to null.
+	 *
+	 * @param frames - Receives the frames in the order the cameras were added. It must have at least
+	 * 				   one entry per camera.
+	 * @param maxSkew - Specifies the maximum difference in capture time in ms
+	 *
+	 * @return Returns the number of frames returned
+	 */
+	public int getFrames(PiCameraRegions[] frames, int maxSkew)
+	{
+		long	newest	= Long.MIN_VALUE;
+		int		count	= 0;
+		int		i		= 0;
+
+		for (Connection connection : m_connections)
+		{
+			PiCameraRegions regions = connection.m_camera.getRegions();
+
+			frames[i++]	= regions;
+
+			if ((regions != null) && (regions.m_captureTime > newest))
+			{
+				newest	= regions.m_captureTime;
+			}
+		}
+
+		for (int j = 0 ; j < i ; j++)
+		{
+			if (frames[j] != null)
+			{
+				if (newest - frames[j].m_captureTime > maxSkew)
+				{
+					frames[j]	= null;
+				}
+				else
+				{
+					count++;
+				}
+			}
+		}
+
+		return(count);
+	}
+
+	/**
+	 * @return Returns the most recently captured frame from any camera, or null if there is none
+	 */
+	public PiCameraRegions getLatestFrame()
+	{
+		PiCameraRegions	latest	= null;
+
+		for (Connection connection : m_connections)
+		{
+			PiCameraRegions regions = connection.m_camera.getRegions();
+
+			if ((regions != null) && ((latest == null) || (regions.m_captureTime > latest.m_captureTime)))
+			{
+				latest	= regions;
+			}
+		}
+
+		return(latest);
+	}
+
+	private void connect(Connection connection)
+	{
+		Logger.log("VisionClient", 1, String.format("Connecting to %s:%d", connection.m_host, connection.m_port));
+
+		try
+		{
+			SocketChannel channel = SocketChannel.open();
+
+			channel.configureBlocking(false);
+			connection.m_channel	= channel;
+
+			if (channel.connect(new InetSocketAddress(connection.m_host, connection.m_port)))
+			{
+				connected(connection);
+			}
+			else
+			{
+				channel.register(m_selector, SelectionKey.OP_CONNECT, connection);
+			}
+		}
+		catch (IOException e)
+		{
+			Logger.log("VisionClient", 2, String.format("%s:%d: Connect failed: %s", connection.m_host, connection.m_port, e));
+			close(connection);
+		}
+	}
+
+	private void connected(Connection connection) throws IOException
+	{
+		Logger.log("VisionClient", 1, String.format("Connected to %s:%d", connection.m_host, connection.m_port));
+
+		connection.m_channel.register(m_selector, SelectionKey.OP_READ, connection);
+		connection.m_connected	= true;
+		connection.m_camera.connected();
+	}
+
+	private void close(Connection connection)
+	{
+		if (connection.m_channel != null)
+		{
+			try
+			{
+				connection.m_channel.close();
+			}
+			catch (IOException e)
+			{
+			}
+			connection.m_channel	= null;
+		}
+
+		if (connection.m_connected)
+		{
+			connection.m_connected	= false;
+			connection.m_camera.disconnected();
+		}
+
+		connection.m_input.clear();
+		connection.m_output	= null;
+		connection.m_line.setLength(0);
+		connection.m_queue.clear();
+		connection.m_retryTime	= System.currentTimeMillis() + k_retryTime;
+	}
+
+	/*
+	 * Writes the queued messages. Anything which cannot be written now is written when
+	 * the socket becomes writable.
+	 */
+	private void write(Connection connection) throws IOException
+	{
+		while (true)
+		{
+			if (connection.m_output == null)
+			{
+				connection.m_output	= connection.m_queue.poll();
+
+				if (connection.m_output == null)
+				{
+					connection.m_channel.register(m_selector, SelectionKey.OP_READ, connection);
+					return;
+				}
+			}
+
+			connection.m_channel.write(connection.m_output);
+
+			if (connection.m_output.hasRemaining())
+			{
+				connection.m_channel.register(m_selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, connection);
+				return;
+			}
+
+			connection.m_output	= null;
+		}
+	}
+
+	/*
+	 * Reads the available data and passes the complete lines and frames to the camera
+	 *
+	 * Returns false if the connection has been closed
+	 */
+	private boolean read(Connection connection) throws IOException
+	{
+		ByteBuffer	input	= connection.m_input;
+
+		if (connection.m_channel.read(input) < 0)
+		{
+			Logger.log("VisionClient", 2, String.format("%s:%d: Connection lost", connection.m_host, connection.m_port));
+			return(false);
+		}
+
+		input.flip();
+
+		while (input.hasRemaining())
+		{
+			int	start	= input.position();
+			int	ch		= input.get(start) & 0xff;
+
+			if ((ch == Network.k_frameStart) && (connection.m_line.length() == 0))
+			{
+				if (input.remaining() < 3)
+				{
+					break;
+				}
+
+				int	length	= input.getShort(start + 1) & 0xffff;
+
+				if (input.remaining() < length + 3)
+				{
+					if (length + 3 > input.capacity())
+					{
+						ByteBuffer	larger	= ByteBuffer.allocate(length + 3).order(ByteOrder.LITTLE_ENDIAN);
+
+						larger.put(input);
+						larger.flip();
+						connection.m_input	= input	= larger;
+					}
+					break;
+				}
+
+				ByteBuffer	frame	= input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+				frame.position(start + 3);
+				frame.limit(start + 3 + length);
+				input.position(start + 3 + length);
+
+				connection.m_camera.processFrame(frame);
+			}
+			else
+			{
+				input.get();
+
+				if (ch == '\n')
+				{
+					if (connection.m_line.length() >= 1)
+					{
+						connection.m_camera.processData(connection.m_line.toString());
+					}
+
+					connection.m_line.setLength(0);
+				}
+				else
+				{
+					connection.m_line.append((char) ch);
+				}
+			}
+		}
+
+		input.compact();
+
+		return(true);
+	}
+
+	/*
+	 * Sends the keep-alive to each connected camera and closes the connections which have
+	 * timed out
+	 */
+	private void watchdog()
+	{
+		for (Connection connection : m_connections)
+		{
+			if (connection.m_connected && !connection.m_camera.checkWatchdog())
+			{
+				close(connection);
+			}
+		}
+	}
+
+	//! @cond PRIVATE
+	@Override
+	public void run()
+	{
+		Logger.log("VisionClient", 1, "Thread started");
+
+		while (true)
+		{
+			long	time	= System.currentTimeMillis();
+
+			for (Connection connection : m_connections)
+			{
+				if ((connection.m_channel == null) && (time >= connection.m_retryTime))
+				{
+					connect(connection);
+				}
+			}
+
+			if (time >= m_watchdogTime)
+			{
+				m_watchdogTime	= time + k_watchdogPeriod;
+				watchdog();
+			}
+
+			for (Connection connection : m_connections)
+			{
+				if (connection.m_connected && (connection.m_output == null) && !connection.m_queue.isEmpty())
+				{
+					try
+					{
+						write(connection);
+					}
+					catch (IOException e)
+					{
+						Logger.log("VisionClient", 3, "Write failed: " + e);
+						close(connection);
+					}
+				}
+			}
+
+			try
+			{
+				m_selector.select(k_selectTimeout);
+			}
+			catch (IOException e)
+			{
+				Logger.log("VisionClient", 3, "Select failed: " + e);
+				continue;
+			}
+
+			for (SelectionKey key : m_selector.selectedKeys())
+			{
+				Connection connection = (Connection) key.attachment();
+
+				try
+				{
+					if (!key.isValid())
+					{
+						continue;
+					}
+
+					if (key.isConnectable())
+					{
+						if (connection.m_channel.finishConnect())
+						{
+							connected(connection);
+						}
+					}
+					else
+					{
+						if (key.isWritable())
+						{
+							write(connection);
+						}
+
+						if (key.isReadable() && !read(connection))
+						{
+							close(connection);
+						}
+					}
+				}
+				catch (IOException e)
+				{
+					Logger.log("VisionClient", 2, String.format("%s:%d: %s", connection.m_host, connection.m_port, e));
+					close(connection);
+				}
+			}
+
+			m_selector.selectedKeys().clear();
+		}
+	}
+	//! @endcond
+}
@@ -0,0 +1,307 @@
+/*
+ *	  Copyright (C) 2022  John H. Gaby
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, version 3 of the License.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact: robotics@gabysoft.com
+ */
+
+package robotCore;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import pathfinder.Pathfinder;
+import pathfinder.Pathfinder.Path;
+import pathfinder.Pathfinder.Segment;
+import pathfinder.Pathfinder.Waypoint;
+import robotCore.CSVWriter.Field;
+import robotCore.Navigator.NavigatorPos;
+
+/**
+ *
+ * @brief The Warmup class runs the path following code with synthetic data so that it is compiled before it is needed.
+ *
+ * The JVM runs each method in the interpreter until it has been called often enough to be compiled.
+ * Without a warmup, the first path generated, the first updates of <strong>PurePursuit</strong> and the
+ * first requests to the processor in autonomous all run in the interpreter and are much slower than
+ * later ones.
+ *
+ * <strong>start</strong> should be called at the end of <strong>robotInit</strong>. The warmup runs on a
+ * low priority thread while the robot is disabled. Each round:
+ *
+ * - Generates a path with <strong>Pathfinder.computePath</strong>.
+ * - Follows the path with a <strong>PurePursuit</strong> whose navigator models a robot which drives
+ *   at exactly the requested speeds, formatting the log rows which would be written.
+ * - Sends encoder and navigator commands and requests to a simulated processor, so that the bus is not
+ *   used. On the robot they are sent by the bus thread to a device which the Simulation answers (see
+ *   <strong>TwoWire.addSimulatedDevice</strong>), so the packet encoding, response checks and
+ *   <strong>BusTrace</strong> are compiled too. Their transactions appear in the trace under the
+ *   address 0x70. When the robot is virtual there is no bus thread, and they go straight to the
+ *   Simulation.
+ *
+ * The rounds continue until a round completes without the JIT compiling anything more, the maximum
+ * time has elapsed, or the robot is enabled. The time taken is logged. The command scheduler is not
+ * run, since it is not thread safe. It is run by <strong>robotPeriodic</strong> in disabled mode anyway.
+ *
+ * The JVM's startup time can also be reduced by an application class data sharing archive of the
+ * robot classes. This only works when the robot is started from a jar file with the standard class
+ * loader, not when it is started by the remote launcher. The archive is created by running the robot
+ * once with <i>-XX:ArchiveClassesAtExit=robot.jsa</i> (JDK 13 or later) and then used by starting it
+ * with <i>-XX:SharedArchiveFile=robot.jsa</i>.
+ *
+ */
+public class Warmup
+{
+	private static final int	k_defaultMaxTime	= 15000;	// ms
+	private static final int	k_addr				= 0x70;		// Address of the simulated processor
+	private static final int	k_requests			= 200;		// Bus requests per round
+	private static final int	k_maxSteps			= 2000;		// Follower updates per round
+	private static final int	k_stableTime		= 1000;		// ms without compilation before finishing
+	private static final double	k_dt				= 0.02;
+	private static final double	k_wheelBase			= 2.0;
+	private static final double	k_ticksPerFoot		= 1000;
+
+	private static final Waypoint[]	k_waypoints	=
+	{
+		new Waypoint(0, 0, 0, 4),
+		new Waypoint(6, 3, Math.toRadians(45), 4),
+		new Waypoint(8, 8, Math.toRadians(90), 0),
+	};
+
+	private static final Field[]	k_fields	= { new Field("Left", 'f'), new Field("Right", 'f'), new Field("X", 'f'),
+													new Field("Y", 'f'), new Field("Idx", 'd') };
+
+	private static Thread			m_thread	= null;
+	private static volatile boolean	m_complete	= false;
+
+	/*
+	 * Models a robot which drives at exactly the speeds set by the follower
+	 */
+	private static class SyntheticNavigator extends Navigator
+	{
+		private double	m_yawDeg	= 0;
+		private double	m_x			= 0;
+		private double	m_y			= 0;
+		private double	m_left		= 0;
+		private double	m_right		= 0;
+		private int		m_leftPos	= 0;
+		private int		m_rightPos	= 0;
+
+		SyntheticNavigator()
+		{
+			super(k_ticksPerFoot);
+		}
+
+		void reset(Segment first)
+		{
+			m_yawDeg	= Math.toDegrees(first.heading);
+			m_x			= first.x;
+			m_y			= first.y;
+			m_left		= 0;
+			m_right		= 0;
+		}
+
+		void set(double left, double right)
+		{
+			double	velocity	= (left + right) / 2;
+			double	yaw			= Math.toRadians(m_yawDeg);
+
+			m_yawDeg	+= Math.toDegrees((right - left) / k_wheelBase * k_dt);
+			m_x			+= velocity * Math.cos(yaw) * k_dt;
+			m_y			+= velocity * Math.sin(yaw) * k_dt;
+			m_left		= left;
+			m_right		= right;
+			m_leftPos	+= (int) (left * k_ticksPerFoot * k_dt);
+			m_rightPos	+= (int) (right * k_ticksPerFoot * k_dt);
+		}
+
+		@Override
+		public NavigatorPos getPos()
+		{
+			return(createPos(m_yawDeg, m_x * k_ticksPerFoot, m_y * k_ticksPerFoot, (int) (m_left * k_ticksPerFoot),
+					(int) (m_right * k_ticksPerFoot), m_leftPos, m_rightPos));
+		}
+	}
+
+	/**
+	 * Starts the warmup with the default maximum time of 15 seconds
+	 */
+	public static void start()
+	{
+		start(k_defaultMaxTime);
+	}
+
+	/**
+	 * Starts the warmup on its own thread. Returns immediately.
+	 *
+	 * @param maxTime - Specifies the maximum time to run in ms
+	 */
+	public static synchronized void start(int maxTime)
+	{
+		if (m_thread != null)
+		{
+			return;
+		}
+
+		m_thread	= new Thread(() -> run(maxTime), "Warmup");
+		m_thread.setDaemon(true);
+		m_thread.setPriority(Thread.MIN_PRIORITY);
+		m_thread.start();
+	}
+
+	/**
+	 * @return Returns true when the warmup has finished
+	 */
+	public static boolean isComplete()
+	{
+		return(m_complete);
+	}
+
+	/*
+	 * Returns the total time spent by the JIT compiler in ms, or -1 if it is not available
+	 */
+	private static long getCompileTime(CompilationMXBean compiler)
+	{
+		return(((compiler != null) && compiler.isCompilationTimeMonitoringSupported()) ? compiler.getTotalCompilationTime() : -1);
+	}
+
+	private static boolean isEnabled()
+	{
+		RobotBase	robot	= RobotBase.getInstance();
+
+		return((robot != null) && robot.isEnabled());
+	}
+
+	private static void run(int maxTime)
+	{
+		CompilationMXBean	compiler	= ManagementFactory.getCompilationMXBean();
+		long				startTime	= System.nanoTime();
+		long				deadline	= startTime + maxTime * 1000000L;
+		long				compileTime	= getCompileTime(compiler);
+		long				startCompile	= compileTime;
+		long				lastCompile	= startTime;
+		int					rounds		= 0;
+		String				reason		= "timeout";
+
+		boolean				virtual		= RobotBase.isVirtual();
+		TwoWire				bus			= virtual ? TwoWire.createSimulated() : Device.getInstance().getTwoWire();
+		SyntheticNavigator	navigator	= new SyntheticNavigator();
+		PurePursuit			follower	= new PurePursuit(navigator, navigator::set, (int) (k_dt * 1000));
+		CSVWriter			writer		= new CSVWriter(null, "Warmup", k_fields);
+
+		if (!virtual)
+		{
+			bus.addSimulatedDevice(k_addr);
+		}
+
+		Logger.log("Warmup", 2, "Start");
+
+		try
+		{
+			while (System.nanoTime() - deadline < 0)
+			{
+				if (isEnabled())
+				{
+					reason	= "robot enabled";
+					break;
+				}
+
+				followPath(follower, navigator, writer);
+				sendRequests(bus, rounds);
+				rounds++;
+
+				long	time	= getCompileTime(compiler);
+				long	now		= System.nanoTime();
+
+				if (time != compileTime)
+				{
+					compileTime	= time;
+					lastCompile	= now;
+				}
+
+				if ((time >= 0) && ((now - lastCompile) / 1000000 >= k_stableTime))
+				{
+					reason	= "compiled";
+					break;
+				}
+			}
+		}
+		catch (RuntimeException e)
+		{
+			reason	= e.toString();
+		}
+		finally
+		{
+			if (!virtual)
+			{
+				bus.removeSimulatedDevice(k_addr);
+			}
+
+			Simulation.removeProcessor(k_addr);
+			writer.finish();
+		}
+
+		m_complete	= true;
+
+		Logger.log("Warmup", 2, String.format("Complete (%s): %d rounds, %d ms, JIT %d ms", reason, rounds,
+				(System.nanoTime() - startTime) / 1000000, compileTime - startCompile));
+	}
+
+	private static void followPath(PurePursuit follower, SyntheticNavigator navigator, CSVWriter writer)
+	{
+		Path	path	= Pathfinder.computePath(k_waypoints, 100, k_dt, 4, 3, 3, 0, k_wheelBase);
+
+		navigator.reset(path.m_centerPath[0]);
+		follower.loadPath(path, false, false, false);
+		writer.startDiscard();
+
+		int	steps	= follower.followSteps(k_maxSteps);
+
+		for (int i = 0 ; i < steps ; i++)
+		{
+			NavigatorPos	pos	= navigator.getPos();
+
+			writer.write(pos.leftSpeed, pos.rightSpeed, pos.x, pos.y, i);
+		}
+	}
+
+	/*
+	 * Sends the commands and requests used by the Encoder and Navigator
+	 */
+	private static void sendRequests(TwoWire bus, int round)
+	{
+		bus.sendCommand(k_addr, TwoWire.k_configureEncoder, (byte) 0, (byte) 0, (byte) 0, (byte) 0);
+		bus.sendCommand(k_addr, TwoWire.k_initNavigator, (byte) 0, (byte) 1);
+
+		for (int i = 0 ; i < k_requests ; i++)
+		{
+			bus.sendCommand(k_addr, TwoWire.k_resetNavigator, round * 100 + i, i * 10, -i * 10);
+
+			bus.sendRequestInt(k_addr, TwoWire.k_getEncoderPos, (byte) (i & 1));
+			bus.sendRequestShort(k_addr, TwoWire.k_getEncoderSpeed, (byte) (i & 1));
+			bus.sendRequestByte(k_addr, TwoWire.k_getNavigatorState);
+
+			ByteBuffer	data	= bus.sendRequest(k_addr, TwoWire.k_getNavigatorData, 24);
+
+			data.getInt();
+			data.getInt();
+			data.getInt();
+			data.getShort();
+			data.getShort();
+			data.getInt();
+			data.getInt();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package edu.wpi.first.wpilibj2.command;
+
+import edu.wpi.first.wpilibj2.command.button.Trigger;
+
+/*
+ * Checks that an input source latches its state before the polled bindings run, so that a trigger
+ * composed from an event-driven trigger and a polled trigger reads the current state.
+ */
+public class CommandSchedulerTest
+{
+	private static int	m_frame		= 0;	// State latched by the input source
+	private static int	m_seenFrame	= -1;	// State read by the composed trigger
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		CommandScheduler	scheduler	= CommandScheduler.getInstance();
+
+		scheduler.addInputSource(() ->
+		{
+			m_frame++;
+			return(1L);
+		});
+
+		Trigger	button	= new Trigger(() ->
+		{
+			m_seenFrame	= m_frame;
+			return(false);
+		}, 1L);
+		Trigger	polled	= new Trigger(() -> true);
+
+		button.and(polled).whileActiveOnce(new InstantCommand());
+
+		for (int i = 1 ; i <= 3 ; i++)
+		{
+			scheduler.run();
+
+			check(m_seenFrame == i, String.format("Loop %d: polled binding read frame %d", i, m_seenFrame));
+		}
+
+		System.out.println("CommandSchedulerTest: OK");
+	}
+}
@@ -0,0 +1,240 @@
+package edu.wpi.first.wpilibj2.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Supplier;
+
+/*
+ * Runs trees of sequential, parallel, race and deadline groups both as nested groups and as a
+ * CompiledCommandGroup, and checks that the same commands start and end, and are interrupted or
+ * not, on the same pass of the loop. The order of the commands within a parallel group depends on
+ * a hash set, so the events of each pass are compared without their order, and the execute calls
+ * are not compared since a nested race or deadline group runs its other commands once more on the
+ * pass that it ends.
+ */
+public class CompiledCommandGroupTest
+{
+	private static final int	k_maxPasses	= 50;
+
+	private static final List<String>	m_events	= new ArrayList<String>();
+
+	private static final Subsystem	m_drive		= new Subsystem() {};
+	private static final Subsystem	m_arm		= new Subsystem() {};
+	private static final Subsystem	m_intake	= new Subsystem() {};
+
+	/*
+	 * A command which finishes after it has been executed the specified number of times
+	 */
+	private static class Step extends CommandBase
+	{
+		private final String	m_name;
+		private final int		m_passes;
+		private int				m_count;
+
+		Step(String name, int passes, Subsystem... requirements)
+		{
+			m_name		= name;
+			m_passes	= passes;
+
+			addRequirements(requirements);
+		}
+
+		@Override
+		public void initialize()
+		{
+			m_count	= 0;
+			m_events.add(m_name + ".init");
+		}
+
+		@Override
+		public void execute()
+		{
+			m_count++;
+		}
+
+		@Override
+		public boolean isFinished()
+		{
+			return(m_count >= m_passes);
+		}
+
+		@Override
+		public void end(boolean interrupted)
+		{
+			m_events.add(m_name + (interrupted ? ".interrupted" : ".end"));
+		}
+
+		@Override
+		public boolean runsWhenDisabled()
+		{
+			return(true);
+		}
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+
+	/*
+	 * Runs the command the way the scheduler does and returns the sorted events of each pass.
+	 * If interruptPass is not negative, the command is interrupted before that pass.
+	 */
+	private static List<List<String>> run(Command command, int interruptPass)
+	{
+		List<List<String>>	passes	= new ArrayList<List<String>>();
+
+		m_events.clear();
+		command.initialize();
+
+		for (int pass = 1 ; pass <= k_maxPasses ; pass++)
+		{
+			passes.add(takeEvents());
+
+			if (pass == interruptPass)
+			{
+				command.end(true);
+				break;
+			}
+
+			command.execute();
+
+			if (command.isFinished())
+			{
+				command.end(false);
+				break;
+			}
+		}
+
+		passes.add(takeEvents());
+
+		return(passes);
+	}
+
+	private static List<String> takeEvents()
+	{
+		List<String>	events	= new ArrayList<String>(m_events);
+
+		Collections.sort(events);
+		m_events.clear();
+
+		return(events);
+	}
+
+	private static void compare(String name, Supplier<Command> tree, int interruptPass)
+	{
+		List<List<String>>	nested		= run(tree.get(), interruptPass);
+		List<List<String>>	compiled	= run(new CompiledCommandGroup(tree.get()), interruptPass);
+
+		check(nested.equals(compiled), String.format("%s:\n  nested   %s\n  compiled %s", name, nested, compiled));
+	}
+
+	private static Command sequence(Command... commands)
+	{
+		return(new SequentialCommandGroup(commands));
+	}
+
+	private static Command parallel(Command... commands)
+	{
+		return(new ParallelCommandGroup(commands));
+	}
+
+	private static Command race(Command... commands)
+	{
+		return(new ParallelRaceGroup(commands));
+	}
+
+	private static Command deadline(Command deadline, Command... commands)
+	{
+		return(new ParallelDeadlineGroup(deadline, commands));
+	}
+
+	public static void main(String[] args)
+	{
+		Supplier<Command>	sequential	= () -> sequence(new Step("a", 2), new Step("b", 1), new Step("c", 3));
+		Supplier<Command>	waitAll		= () -> sequence(new Step("a", 2), parallel(new Step("b", 3), new Step("c", 1)), new Step("d", 1));
+		Supplier<Command>	raceGroup	= () -> race(sequence(new Step("a", 1), new Step("b", 3)), new Step("c", 2));
+		Supplier<Command>	deadline	= () -> deadline(new Step("d", 2), sequence(new Step("a", 1), new Step("b", 5)), new Step("c", 1));
+		Supplier<Command>	mixed		= () -> sequence(
+												parallel(race(new Step("a", 3), new Step("b", 1)), deadline(new Step("c", 4), new Step("d", 2))),
+												deadline(new Step("e", 1), race(new Step("f", 2), new Step("g", 3))),
+												new Step("h", 1));
+
+		compare("Sequential", sequential, -1);
+		compare("Parallel", waitAll, -1);
+		compare("Race", raceGroup, -1);
+		compare("Deadline", deadline, -1);
+		compare("Mixed", mixed, -1);
+
+		/*
+		 * Interrupted part way through, including while a nested parallel group is running
+		 */
+		for (int pass = 1 ; pass <= 6 ; pass++)
+		{
+			compare("Sequential interrupted at " + pass, sequential, pass);
+			compare("Parallel interrupted at " + pass, waitAll, pass);
+			compare("Mixed interrupted at " + pass, mixed, pass);
+		}
+
+		/*
+		 * The compiled group can be run again once it has finished
+		 */
+		CompiledCommandGroup	again	= new CompiledCommandGroup(waitAll.get());
+
+		check(run(again, -1).equals(run(again, -1)), "Second run differs");
+
+		/*
+		 * Requirements: the compiled group requires the same subsystems as the nested groups, so the
+		 * scheduler resolves conflicts with other commands the same way. Commands in a sequence may
+		 * share a subsystem, commands in a parallel group may not.
+		 */
+		Supplier<Command>	required	= () -> sequence(new Step("a", 1, m_drive),
+												parallel(new Step("b", 2, m_drive), new Step("c", 1, m_arm)),
+												race(new Step("d", 1, m_intake), new Step("e", 1, m_drive)));
+		Command				nested		= required.get();
+		CompiledCommandGroup	compiled	= new CompiledCommandGroup(required.get());
+
+		check(compiled.getRequirements().equals(nested.getRequirements()), "Requirements = " + compiled.getRequirements());
+		check(compiled.getActiveRequirements().isEmpty(), "Active requirements before start");
+
+		compiled.initialize();
+		check(compiled.getActiveRequirements().equals(Collections.singletonList(m_drive)), "Active requirements of the first step");
+
+		compiled.execute();
+		check(new HashSet<Subsystem>(compiled.getActiveRequirements()).equals(new HashSet<Subsystem>(List.of(m_drive, m_arm))), "Active requirements of the parallel step");
+
+		compiled.end(true);
+
+		try
+		{
+			parallel(new Step("a", 1, m_arm), new Step("b", 1, m_arm));
+			check(false, "Parallel group with a shared requirement was accepted");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+
+		/*
+		 * A command can only be in one group
+		 */
+		Command	step	= new Step("a", 1);
+
+		new CompiledCommandGroup(step);
+
+		try
+		{
+			new CompiledCommandGroup(step);
+			check(false, "Grouped command was compiled again");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+
+		System.out.println("CompiledCommandGroupTest: OK");
+	}
+}
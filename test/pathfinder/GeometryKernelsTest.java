@@ -0,0 +1,132 @@
+package pathfinder;
+
+/*
+ * Checks that the array kernels give exactly the same results as the scalar code they replaced:
+ * the uniform curve samples, the wheel offsets and the cumulative wheel distances are compared
+ * with ==, not with a tolerance.
+ */
+public class GeometryKernelsTest
+{
+	private static final int k_sampleCount = 1000;
+	private static final double k_wheelBase = 0.5;
+	private static final int k_passes = 200;
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+
+	/*
+	 * The wheel path as it was computed one point at a time
+	 */
+	private static SplinePoint[] scalarSide(SplinePoint[] center, double w, boolean left)
+	{
+		SplinePoint[] side = new SplinePoint[center.length];
+
+		for (int i = 0 ; i < center.length ; i++)
+		{
+			SplinePoint seg = center[i];
+			double cos_angle = Math.cos(seg.m_heading);
+			double sin_angle = Math.sin(seg.m_heading);
+
+			if (left)
+			{
+				side[i] = new SplinePoint(seg.m_x - (w * sin_angle), seg.m_y + (w * cos_angle), seg.m_heading, seg.m_maxVelocity);
+			}
+			else
+			{
+				side[i] = new SplinePoint(seg.m_x + (w * sin_angle), seg.m_y - (w * cos_angle), seg.m_heading, seg.m_maxVelocity);
+			}
+
+			if (i > 0)
+			{
+				double dx = side[i].m_x - side[i-1].m_x;
+				double dy = side[i].m_y - side[i-1].m_y;
+				double d = Math.sqrt(dx*dx + dy*dy);
+
+				side[i].m_delta = d;
+				side[i].m_distance = side[i-1].m_distance + d;
+			}
+		}
+
+		return(side);
+	}
+
+	private static void checkSide(SplinePoint[] center, double w, boolean left, String name)
+	{
+		int n = center.length;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		double[] heading = new double[n];
+		double[] sin = new double[n];
+		double[] cos = new double[n];
+		double[] sideX = new double[n];
+		double[] sideY = new double[n];
+		double[] delta = new double[n];
+		double[] distance = new double[n];
+
+		for (int i = 0 ; i < n ; i++)
+		{
+			x[i] = center[i].m_x;
+			y[i] = center[i].m_y;
+			heading[i] = center[i].m_heading;
+		}
+
+		GeometryKernels.sinCos(heading, sin, cos, n);
+		GeometryKernels.offset(x, y, sin, cos, left ? w : -w, sideX, sideY, n);
+		GeometryKernels.cumulativeDistance(sideX, sideY, delta, distance, n);
+
+		SplinePoint[] expected = scalarSide(center, w, left);
+
+		for (int i = 0 ; i < n ; i++)
+		{
+			check((sideX[i] == expected[i].m_x) && (sideY[i] == expected[i].m_y), name + " position differs at " + i);
+			check((delta[i] == expected[i].m_delta) && (distance[i] == expected[i].m_distance), name + " distance differs at " + i);
+		}
+	}
+
+	private static void checkAll()
+	{
+		BezierQuintic bezier = new BezierQuintic(0, 0, Math.PI/2, 0, 0, 2, 5, Math.PI, 0, 0);
+		SplinePoint[] points = new SplinePoint[k_sampleCount];
+
+		bezier.ComputeSplinePoints(points, 0, k_sampleCount, 3);
+
+		/*
+		 * The uniform samples against the scalar evaluation of the same power basis coefficients
+		 */
+		double[] cx = { 1, -2.5, 3.25, 0.125, -4, 1.5 };
+		double[] cy = { -3, 0.5, 7, -2.75, 0.0625, 2 };
+		SplineSampler sampler = new SplineSampler(cx, cy);
+		SplinePoint[] uniform = new SplinePoint[k_sampleCount];
+
+		sampler.sampleUniform(uniform, 0, k_sampleCount, 3);
+
+		for (int i = 0 ; i < k_sampleCount ; i++)
+		{
+			double t = (double) i / k_sampleCount;
+
+			check((uniform[i].m_x == sampler.getX(t)) && (uniform[i].m_y == sampler.getY(t)), "Sample position differs at " + i);
+			check(uniform[i].m_heading == sampler.getHeading(t), "Sample heading differs at " + i);
+		}
+
+		checkSide(points, k_wheelBase / 2, true, "Left");
+		checkSide(points, k_wheelBase / 2, false, "Right");
+	}
+
+	/*
+	 * The checks are repeated so that the compiled kernels are checked as well as the interpreted ones
+	 */
+	public static void main(String[] args)
+	{
+		for (int pass = 0 ; pass < k_passes ; pass++)
+		{
+			checkAll();
+		}
+
+		System.out.println("GeometryKernelsTest: OK");
+	}
+}
@@ -0,0 +1,97 @@
+package pathfinder;
+
+import pathfinder.Pathfinder.Path;
+import pathfinder.Pathfinder.PathState;
+import pathfinder.Pathfinder.Segment;
+import pathfinder.Pathfinder.Waypoint;
+
+/*
+ * Checks Path.sampleAtTime and Path.sampleAtDistance against the segments of the path: at the end
+ * of each segment they must return that segment, half way between two segments they must return
+ * the average and outside of the path they must return the first or last segment.
+ */
+public class PathSampleTest
+{
+	private static final double k_dt = 0.02;
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+
+	private static void checkNear(double value, double expected, String name)
+	{
+		check(Math.abs(value - expected) < 1e-9, String.format("%s = %f, expected %f", name, value, expected));
+	}
+
+	private static void checkSame(Segment sample, Segment segment, String name)
+	{
+		check((sample.x == segment.x) && (sample.y == segment.y) && (sample.position == segment.position) &&
+				(sample.velocity == segment.velocity) && (sample.heading == segment.heading), name + " does not match the segment");
+	}
+
+	private static void checkState(PathState state, Path path, int idx, String name)
+	{
+		check(state.m_index == idx, name + " index = " + state.m_index + ", expected " + idx);
+		checkSame(state.m_center, path.m_centerPath[idx], name + " center");
+		checkSame(state.m_left, path.m_leftPath[idx], name + " left");
+		checkSame(state.m_right, path.m_rightPath[idx], name + " right");
+	}
+
+	public static void main(String[] args)
+	{
+		Waypoint[] waypoints = { new Waypoint(0, 0, Math.PI/2), new Waypoint(0, 3, Math.PI/2), new Waypoint(2, 5, 0), new Waypoint(4, 3, -Math.PI/2) };
+		Path path = Pathfinder.computePath(waypoints, 1000, k_dt, 3, 3, 3, 0, 0.5);
+		Segment[] center = path.m_centerPath;
+		int last = center.length - 1;
+		PathState state = new PathState();
+		double[] times = new double[center.length];
+		double time = 0;
+
+		for (int i = 0 ; i < center.length ; i++)
+		{
+			time += center[i].dt;
+			times[i] = time;
+
+			checkState(path.sampleAtTime(time, state), path, i, "Time " + i);
+			checkState(path.sampleAtDistance(center[i].position, state), path, i, "Distance " + i);
+		}
+
+		check(path.getDuration() == time, "Duration = " + path.getDuration() + ", expected " + time);
+		check(path.getLength() == center[last].position, "Length = " + path.getLength());
+
+		/*
+		 * Half way between two segments
+		 */
+		int i = center.length / 2;
+
+		path.sampleAtTime((times[i] + times[i+1]) / 2, state);
+
+		check(state.m_index == i, "Middle index = " + state.m_index + ", expected " + i);
+		checkNear(state.m_time, (times[i] + times[i+1]) / 2, "Middle time");
+		checkNear(state.m_center.position, (center[i].position + center[i+1].position) / 2, "Middle position");
+		checkNear(state.m_center.x, (center[i].x + center[i+1].x) / 2, "Middle x");
+		checkNear(state.m_center.y, (center[i].y + center[i+1].y) / 2, "Middle y");
+		checkNear(state.m_left.velocity, (path.m_leftPath[i].velocity + path.m_leftPath[i+1].velocity) / 2, "Middle left velocity");
+		checkNear(state.m_right.velocity, (path.m_rightPath[i].velocity + path.m_rightPath[i+1].velocity) / 2, "Middle right velocity");
+
+		path.sampleAtDistance((center[i].position + center[i+1].position) / 2, state);
+
+		check(state.m_index == i, "Middle index = " + state.m_index + ", expected " + i);
+		checkNear(state.m_time, (times[i] + times[i+1]) / 2, "Middle time");
+		checkNear(state.m_center.x, (center[i].x + center[i+1].x) / 2, "Middle x");
+
+		/*
+		 * Outside of the path
+		 */
+		checkState(path.sampleAtTime(-1, state), path, 0, "Before start");
+		checkState(path.sampleAtDistance(-1, state), path, 0, "Before start");
+		checkState(path.sampleAtTime(path.getDuration() + 1, state), path, last, "After end");
+		checkState(path.sampleAtDistance(path.getLength() + 1, state), path, last, "After end");
+
+		System.out.println("PathSampleTest: OK");
+	}
+}
@@ -0,0 +1,125 @@
+package pathfinder;
+
+import java.util.ArrayList;
+
+/*
+ * Samples several curves adaptively and checks the number of points, the end points and that
+ * the uniformly sampled curve stays within the chord tolerance of the adaptive points, and that
+ * no more than the sample count points are generated when the sample count limits the splitting.
+ */
+public class SplineSamplerTest
+{
+	private static final int k_sampleCount = 1000;
+	private static final int k_minPoints = 16;
+	private static final int k_maxPoints = 200;
+
+	/*
+	 * Sample counts which are too small for the curves to be flat, at and around powers of two
+	 */
+	private static final int[] k_smallCounts = { 16, 17, 24, 63, 64, 65 };
+
+	/*
+	 * Start x, y, angle (degrees) and end x, y, angle of each curve
+	 */
+	private static final double[][] k_curves =
+	{
+		{ 0, 0, 90, 2, 4, 90 },
+		{ 0, 0, 0, 5, 0, 0 },
+		{ 5, 0, 0, 7, 2, 90 },
+		{ 0, 3, 90, 2, 5, 0 },
+	};
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+
+	/*
+	 * Returns the largest distance of the uniform points from the polyline through the adaptive points
+	 */
+	private static double maxError(ArrayList<SplinePoint> adaptive, SplinePoint[] uniform)
+	{
+		double max = 0;
+		int j = 0;
+
+		for (int i = 1 ; i < uniform.length ; i++)
+		{
+			SplinePoint p = uniform[i];
+
+			while ((j < adaptive.size() - 2) && (adaptive.get(j + 1).m_distance < p.m_distance))
+			{
+				j++;
+			}
+
+			SplinePoint p0 = adaptive.get(j);
+			SplinePoint p1 = adaptive.get(j + 1);
+			double dx = p1.m_x - p0.m_x;
+			double dy = p1.m_y - p0.m_y;
+			double e = Math.abs((p.m_x - p0.m_x) * dy - (p.m_y - p0.m_y) * dx) / Math.sqrt(dx*dx + dy*dy);
+
+			max = Math.max(max, e);
+		}
+
+		return(max);
+	}
+
+	public static void main(String[] args)
+	{
+		for (double[] c : k_curves)
+		{
+			BezierQuintic bezier = new BezierQuintic(c[0], c[1], Math.toRadians(c[2]), 0, 0, c[3], c[4], Math.toRadians(c[5]) + Math.PI, 0, 0);
+			String name = String.format("(%.0f,%.0f)-(%.0f,%.0f)", c[0], c[1], c[3], c[4]);
+
+			ArrayList<SplinePoint> adaptive = new ArrayList<SplinePoint>();
+
+			bezier.ComputeSplinePoints(adaptive, k_sampleCount, 3, true);
+
+			check((adaptive.size() >= k_minPoints) && (adaptive.size() <= k_maxPoints), name + " has " + adaptive.size() + " points");
+
+			SplinePoint first = adaptive.get(0);
+			SplinePoint last = adaptive.get(adaptive.size() - 1);
+
+			check((first.m_x == c[0]) && (first.m_y == c[1]), name + " does not start at the first point");
+			check((Math.abs(last.m_x - c[3]) < 1e-9) && (Math.abs(last.m_y - c[4]) < 1e-9), name + " does not end at the last point");
+
+			for (int i = 1 ; i < adaptive.size() ; i++)
+			{
+				check(adaptive.get(i).m_delta <= SplineSampler.k_maxSpacing, name + " spacing at " + i + " = " + adaptive.get(i).m_delta);
+			}
+
+			/*
+			 * Without the end point, the curve ends one point short so that the next curve can start there
+			 */
+			ArrayList<SplinePoint> open = new ArrayList<SplinePoint>();
+
+			bezier.ComputeSplinePoints(open, k_sampleCount, 3, false);
+
+			check(open.size() == adaptive.size() - 1, name + " adds the end point when it should not");
+
+			SplinePoint[] uniform = new SplinePoint[k_sampleCount + 1];
+
+			bezier.ComputeSplinePoints(uniform, 0, k_sampleCount + 1, 3);
+
+			double error = maxError(adaptive, uniform);
+
+			check(error <= SplineSampler.k_tolerance, name + " chord error = " + error);
+
+			for (int count : k_smallCounts)
+			{
+				ArrayList<SplinePoint> limited = new ArrayList<SplinePoint>();
+				ArrayList<SplinePoint> limitedOpen = new ArrayList<SplinePoint>();
+
+				bezier.ComputeSplinePoints(limited, count, 3, true);
+				bezier.ComputeSplinePoints(limitedOpen, count, 3, false);
+
+				check(limited.size() <= count, name + " has " + limited.size() + " points for a sample count of " + count);
+				check(limitedOpen.size() <= count, name + " has " + limitedOpen.size() + " open points for a sample count of " + count);
+			}
+		}
+
+		System.out.println("SplineSamplerTest: OK");
+	}
+}
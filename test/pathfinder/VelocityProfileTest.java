@@ -0,0 +1,85 @@
+package pathfinder;
+
+import pathfinder.Pathfinder.Path;
+import pathfinder.Pathfinder.Segment;
+import pathfinder.Pathfinder.Waypoint;
+
+/*
+ * Computes paths with curves and checks that neither wheel exceeds the velocity limit or, averaged
+ * over 0.1 seconds, the acceleration limit. The acceleration between two segments is noisy since
+ * the wheel paths are sampled at discrete points, so it is averaged over five segments.
+ */
+public class VelocityProfileTest
+{
+	private static final double k_dt = 0.02;
+	private static final double k_wheelBase = 0.5;
+	private static final double k_maxVelocity = 3;
+	private static final double k_maxAcceleration = 3;
+	private static final int k_averageSteps = 5;					// 0.1 seconds
+	private static final double k_accelerationLimit = 3.2;			// Peak average wheel acceleration without a jerk limit
+	private static final double k_jerkAccelerationLimit = 3.25;		// Peak average wheel acceleration with a jerk limit
+	private static final double k_velocityLimit = k_maxVelocity * 1.001;
+
+	private static final Waypoint[][] k_paths =
+	{
+		{ new Waypoint(0, 0, Math.PI/2), new Waypoint(0, 3, Math.PI/2), new Waypoint(2, 5, 0), new Waypoint(4, 3, -Math.PI/2), new Waypoint(4, 0, -Math.PI/2) },
+		{ new Waypoint(0, 0, 0), new Waypoint(6, 0, 0), new Waypoint(8, 2, Math.PI/2), new Waypoint(8, 8, Math.PI/2) },
+	};
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+
+	private static void checkWheel(Segment[] wheel, String name, double accelerationLimit)
+	{
+		for (int i = 0 ; i < wheel.length ; i++)
+		{
+			check(Math.abs(wheel[i].velocity) <= k_velocityLimit, String.format("%s velocity at %d = %f", name, i, wheel[i].velocity));
+		}
+
+		for (int i = k_averageSteps ; i < wheel.length ; i++)
+		{
+			double acceleration = (wheel[i].velocity - wheel[i - k_averageSteps].velocity) / (k_averageSteps * k_dt);
+
+			check(Math.abs(acceleration) <= accelerationLimit, String.format("%s acceleration at %d = %f", name, i, acceleration));
+		}
+	}
+
+	private static void checkPath(Waypoint[] waypoints, double max_jerk, double accelerationLimit)
+	{
+		Path path = Pathfinder.computePath(waypoints, 1000, k_dt, k_maxVelocity, k_maxAcceleration, k_maxAcceleration, max_jerk, k_wheelBase);
+
+		checkWheel(path.m_leftPath, "Left", accelerationLimit);
+		checkWheel(path.m_rightPath, "Right", accelerationLimit);
+
+		check(path.m_centerPath[path.m_centerPath.length - 1].velocity < 0.5, "Path does not end at rest");
+	}
+
+	public static void main(String[] args)
+	{
+		for (Waypoint[] waypoints : k_paths)
+		{
+			checkPath(waypoints, 0, k_accelerationLimit);
+			checkPath(waypoints, 20, k_jerkAccelerationLimit);
+		}
+
+		/*
+		 * On a straight path the limits must not hold the robot below its maximum velocity
+		 */
+		Path path = Pathfinder.computePath(new Waypoint[] { new Waypoint(0, 0, 0), new Waypoint(10, 0, 0) }, 1000, k_dt, k_maxVelocity, k_maxAcceleration, k_maxAcceleration, 0, k_wheelBase);
+		double peak = 0;
+
+		for (Segment segment : path.m_centerPath)
+		{
+			peak = Math.max(peak, segment.velocity);
+		}
+
+		check(peak > k_maxVelocity * 0.99, "Straight path peak velocity = " + peak);
+
+		System.out.println("VelocityProfileTest: OK");
+	}
+}
@@ -0,0 +1,61 @@
+package robotCore;
+
+import java.io.File;
+import java.io.IOException;
+
+/*
+ * Records the responses to the position requests of two encoders on the same processor and checks
+ * that each is replayed with its own response.
+ */
+public class InputRecorderTest
+{
+	private static final int	k_addr	= 5;
+
+	/*
+	 * Builds a request packet for the position of an encoder: [size] [packetNo] [command] [encoderNo] [cksum]
+	 */
+	private static byte[] request(int encoderNo)
+	{
+		return(new byte[] { 5, 0, (byte) TwoWire.k_getEncoderPos, (byte) encoderNo, 0 });
+	}
+
+	/*
+	 * Builds a response packet containing a little endian int: [header...] [value]
+	 */
+	private static byte[] response(int value)
+	{
+		return(new byte[] { 7, 0, (byte) TwoWire.k_getEncoderPos, (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24) });
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		File	file	= File.createTempFile("recording", ".csv");
+
+		file.deleteOnExit();
+
+		InputRecorder.startRecording(file.getPath());
+		InputRecorder.recordTwoWire(k_addr, request(0), response(1234));
+		InputRecorder.recordTwoWire(k_addr, request(1), response(-5678));
+		InputRecorder.stopRecording();
+
+		InputRecorder.startReplay(file.getPath(), 0);
+		Timer.setVirtualTime(System.currentTimeMillis() + 1000);
+
+		TwoWire	bus	= new TwoWire();
+		int		left	= bus.sendRequestInt(k_addr, TwoWire.k_getEncoderPos, (byte) 0);
+		int		right	= bus.sendRequestInt(k_addr, TwoWire.k_getEncoderPos, (byte) 1);
+
+		check(left == 1234, "Encoder 0 replayed " + left);
+		check(right == -5678, "Encoder 1 replayed " + right);
+
+		System.out.println("InputRecorderTest: OK");
+	}
+}
@@ -0,0 +1,118 @@
+package robotCore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import robotCore.Navigator.NavigatorPos;
+
+/*
+ * Feeds navigator samples to an Odometry and checks the latest and interpolated poses, including
+ * after the ring has wrapped and when the yaw wraps from +180 to -180 degrees.
+ */
+public class OdometryTest
+{
+	private static final double	k_ticksPerFoot	= 100;
+	private static final int	k_period		= 20;
+	private static final int	k_samples		= 200;		// More than the ring holds
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+
+	private static void checkNear(double value, double expected, String name)
+	{
+		check(Math.abs(value - expected) < 1e-9, String.format("%s = %f, expected %f", name, value, expected));
+	}
+
+	/*
+	 * Builds the navigator data for sample i: yaw i degrees, x i feet, y -i feet
+	 */
+	private static ByteBuffer sample(int i)
+	{
+		return(sample(i, i));
+	}
+
+	private static ByteBuffer sample(int i, double yaw)
+	{
+		ByteBuffer	data	= ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+
+		data.putInt((int) Math.round(yaw * 100));
+		data.putInt((int) (i * k_ticksPerFoot));
+		data.putInt((int) (-i * k_ticksPerFoot));
+		data.putShort((short) 50);
+		data.putShort((short) 150);
+		data.putInt(i * 10);
+		data.putInt(i * 20);
+		data.flip();
+
+		return(data);
+	}
+
+	public static void main(String[] args)
+	{
+		Simulation.enable(0, 0);
+
+		Navigator		navigator	= new Navigator(k_ticksPerFoot);
+		Odometry		odometry	= new Odometry(navigator, k_period);
+		Odometry.Pose	pose		= new Odometry.Pose();
+
+		check(!odometry.getPose(pose), "Pose before the first sample");
+		check(odometry.getNavigatorPos() == null, "Position before the first sample");
+
+		for (int i = 0 ; i < k_samples ; i++)
+		{
+			odometry.received(i * k_period, sample(i));
+		}
+
+		int	last	= k_samples - 1;
+
+		check(odometry.getPose(pose), "No latest pose");
+		check(pose.m_time == last * k_period, "Latest time " + pose.m_time);
+		checkNear(pose.m_x, last, "Latest x");
+		checkNear(pose.m_y, -last, "Latest y");
+		checkNear(pose.m_yaw, last, "Latest yaw");
+		checkNear(pose.m_leftSpeed, 0.5, "Left speed");
+		checkNear(pose.m_rightSpeed, 1.5, "Right speed");
+
+		check(odometry.getPose(last * k_period - k_period / 4, pose), "No interpolated pose");
+		checkNear(pose.m_x, last - 0.25, "Interpolated x");
+		checkNear(pose.m_yaw, last - 0.25, "Interpolated yaw");
+
+		/*
+		 * The ring holds 128 samples and the oldest slot is not used, so the earliest pose is sample 73
+		 */
+		check(odometry.getPose(0, pose), "No oldest pose");
+		check(pose.m_time == 73 * k_period, "Oldest time " + pose.m_time);
+		checkNear(pose.m_x, 73, "Oldest x");
+
+		NavigatorPos	pos	= odometry.getNavigatorPos();
+
+		checkNear(pos.x, last, "Position x");
+		check(pos.leftPos == last * 10 && pos.rightPos == last * 20, "Position encoder counts");
+
+		/*
+		 * A yaw which turns 5 degrees per sample through +180 to -180
+		 */
+		Odometry	wrapped	= new Odometry(navigator, k_period);
+		double		yaw		= 160;
+
+		for (int i = 0 ; i < 10 ; i++)
+		{
+			wrapped.received(i * k_period, sample(i, Math.IEEEremainder(yaw, 360)));
+			yaw	+= 5;
+		}
+
+		check(wrapped.getPose(pose), "No wrapped pose");
+		checkNear(pose.m_yaw, -155, "Wrapped yaw");
+		check((pose.m_yawRate > 0) && (pose.m_yawRate <= 250), "Yaw rate across the wrap = " + pose.m_yawRate);
+
+		check(wrapped.getPose(4 * k_period + k_period / 2, pose), "No interpolated wrapped pose");
+		checkNear(Math.IEEEremainder(pose.m_yaw, 360), 182.5 - 360, "Interpolated yaw across the wrap");
+
+		System.out.println("OdometryTest: OK");
+	}
+}
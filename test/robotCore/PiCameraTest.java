@@ -0,0 +1,101 @@
+package robotCore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import robotCore.PiCamera.PiCameraRegions;
+
+/*
+ * Feeds binary frames to a PiCamera and checks that a frame returned by getRegions is not changed
+ * by the frames which follow it, including frames with an invalid region count.
+ */
+public class PiCameraTest
+{
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+
+	/*
+	 * Builds frame number frameNo with the given number of regions. Region i has its left edge at
+	 * frameNo * 100 + i. If truncated is true, the region data is left out.
+	 */
+	private static ByteBuffer frame(int frameNo, int count, boolean truncated)
+	{
+		ByteBuffer	data	= ByteBuffer.allocate(28 + count * 13).order(ByteOrder.LITTLE_ENDIAN);
+
+		data.putInt(frameNo);
+		data.putShort((short) 320);
+		data.putShort((short) 240);
+		data.putShort((short) 640);
+		data.putShort((short) 480);
+		data.putInt(0);
+		data.putLong(Timer.getTimeMs());
+		data.putShort((short) 5);
+		data.put((byte) 0);
+		data.put((byte) count);
+
+		if (!truncated)
+		{
+			for (int i = 0 ; i < count ; i++)
+			{
+				data.put((byte) 1);
+				data.putShort((short) (frameNo * 100 + i));
+				data.putShort((short) 10);
+				data.putShort((short) (frameNo * 100 + i + 20));
+				data.putShort((short) 30);
+				data.putShort((short) 0);
+				data.putShort((short) 0);
+			}
+		}
+
+		data.flip();
+
+		return(data);
+	}
+
+	private static void checkFrame(PiCameraRegions regions, int frameNo, int count)
+	{
+		check(regions.m_frameNo == frameNo, "Frame number = " + regions.m_frameNo + ", expected " + frameNo);
+		check(regions.getRegionCount() == count, "Frame " + frameNo + " region count = " + regions.getRegionCount());
+
+		for (int i = 0 ; i < count ; i++)
+		{
+			check(regions.getLeft(i) == frameNo * 100 + i, "Frame " + frameNo + " left = " + regions.getLeft(i));
+			check(regions.getRegion(i).m_bounds.m_left == frameNo * 100 + i, "Frame " + frameNo + " region left = " + regions.getRegion(i).m_bounds.m_left);
+			check(regions.getRegion(i).m_bounds.m_right == frameNo * 100 + i + 20, "Frame " + frameNo + " region right");
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	public static void main(String[] args)
+	{
+		PiCamera	camera	= new PiCamera();
+
+		camera.processFrame(frame(1, 3, false));
+
+		PiCameraRegions	first	= camera.getRegions();
+
+		checkFrame(first, 1, 3);
+
+		for (int frameNo = 2 ; frameNo <= 10 ; frameNo++)
+		{
+			camera.processFrame(frame(frameNo, frameNo % 4, false));
+			checkFrame(camera.getRegions(), frameNo, frameNo % 4);
+		}
+
+		PiCameraRegions	last	= camera.getRegions();
+
+		camera.processFrame(frame(11, 5, true));
+
+		check(camera.getRegions() == last, "Invalid frame was published");
+		checkFrame(last, 10, 2);
+		checkFrame(first, 1, 3);
+		check(first.m_regions.size() == 3, "Deprecated region list size = " + first.m_regions.size());
+
+		System.out.println("PiCameraTest: OK");
+	}
+}
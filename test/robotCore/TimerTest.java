@@ -0,0 +1,53 @@
+package robotCore;
+
+/*
+ * Checks that only the thread which owns the virtual clock advances it, and that a sleep on
+ * any other thread waits for the clock.
+ */
+public class TimerTest
+{
+	private static volatile long	m_wakeTime	= -1;
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		Timer.setVirtualTime(1000);
+
+		Thread	follower	= new Thread(() ->
+		{
+			RobotBase.sleep(100);
+			m_wakeTime	= Timer.getTimeMs();
+		});
+
+		follower.start();
+		Thread.sleep(100);
+
+		check(Timer.getTimeMs() == 1000, "Sleep on another thread moved the clock to " + Timer.getTimeMs());
+		check(follower.isAlive(), "Sleep on another thread did not wait for the clock");
+
+		for (int i = 0 ; i < 4 ; i++)
+		{
+			RobotBase.sleep(20);
+		}
+
+		Thread.sleep(100);
+
+		check(Timer.getTimeMs() == 1080, "Loop sleeps moved the clock to " + Timer.getTimeMs());
+		check(follower.isAlive(), "Thread woke before its time");
+
+		RobotBase.sleep(20);
+		follower.join(1000);
+
+		check(!follower.isAlive(), "Thread did not wake");
+		check(m_wakeTime == 1100, "Thread woke at " + m_wakeTime);
+
+		System.out.println("TimerTest: OK");
+	}
+}